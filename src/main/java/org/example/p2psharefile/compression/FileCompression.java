@@ -59,6 +59,32 @@ public class FileCompression {
         return outputStream.toByteArray();
     }
     
+    /**
+     * Giải nén dữ liệu GZIP với giới hạn kích thước đầu ra (dữ liệu từ peer không tin cậy)
+     * 
+     * @param compressedData Dữ liệu đã nén
+     * @param maxSize Số byte tối đa sau giải nén
+     * @return Dữ liệu gốc
+     * @throws IOException nếu dữ liệu giải nén vượt quá maxSize
+     */
+    public static byte[] decompress(byte[] compressedData, int maxSize) throws IOException {
+        ByteArrayInputStream byteStream = new ByteArrayInputStream(compressedData);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        
+        try (GZIPInputStream gzipStream = new GZIPInputStream(byteStream)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = gzipStream.read(buffer)) > 0) {
+                if (outputStream.size() + len > maxSize) {
+                    throw new IOException("Dữ liệu giải nén vượt quá " + maxSize + " bytes");
+                }
+                outputStream.write(buffer, 0, len);
+            }
+        }
+        
+        return outputStream.toByteArray();
+    }
+    
     /**
      * Nén file và lưu thành file mới
      * 
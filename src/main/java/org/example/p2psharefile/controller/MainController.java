@@ -12,6 +12,7 @@ import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.util.Duration;
 import org.example.p2psharefile.model.*;
+import org.example.p2psharefile.service.DirectoryShareTask;
 import org.example.p2psharefile.service.P2PService;
 import org.example.p2psharefile.service.PreviewGenerator;
 import org.example.p2psharefile.network.ChunkedFileTransferService;
@@ -123,6 +124,14 @@ public class MainController implements P2PService.P2PServiceListener {
     private ShareSession currentPINSession = null;
     private Timeline pinExpiryTimeline = null;
     
+    // Phân trang kết quả: query hiện tại + trang cuối còn continuation token theo peer
+    private String currentSearchQuery;
+    private final java.util.Map<String, SearchResponse> morePagesByPeer = new java.util.HashMap<>();
+    
+    // Gộp nhiều thay đổi catalog liên tiếp thành một lần refresh danh sách
+    private final java.util.concurrent.atomic.AtomicBoolean sharedRefreshPending = 
+        new java.util.concurrent.atomic.AtomicBoolean(false);
+    
     // Download tracking
     private volatile boolean isDownloading = false;
     private volatile boolean isPaused = false;
@@ -147,14 +156,33 @@ public class MainController implements P2PService.P2PServiceListener {
     public static class SearchResultItem {
         private final FileInfo fileInfo;
         private final PeerInfo peerInfo;
+        private final InlinePreview inlinePreview;  // Preview gửi kèm kết quả (có thể null)
+        private Image thumbnailImage;               // Giải mã một lần, khi cell hiển thị lần đầu
         
         public SearchResultItem(FileInfo fileInfo, PeerInfo peerInfo) {
+            this(fileInfo, peerInfo, null);
+        }
+        
+        public SearchResultItem(FileInfo fileInfo, PeerInfo peerInfo, InlinePreview inlinePreview) {
             this.fileInfo = fileInfo;
             this.peerInfo = peerInfo;
+            this.inlinePreview = inlinePreview;
         }
         
         public FileInfo getFileInfo() { return fileInfo; }
         public PeerInfo getPeerInfo() { return peerInfo; }
+        public InlinePreview getInlinePreview() { return inlinePreview; }
+        
+        /**
+         * Micro-thumbnail dạng Image của JavaFX (null nếu không có / không giải mã được)
+         */
+        public Image getThumbnailImage() {
+            if (thumbnailImage == null && inlinePreview != null && inlinePreview.hasThumbnail()) {
+                Image image = new Image(new java.io.ByteArrayInputStream(inlinePreview.getThumbnail()));
+                if (!image.isError()) thumbnailImage = image;
+            }
+            return thumbnailImage;
+        }
         
         @Override
         public String toString() {
@@ -182,6 +210,9 @@ public class MainController implements P2PService.P2PServiceListener {
         // Setup custom cell factory cho sharedFilesListView với nút Hủy
         setupSharedFilesListView();
         
+        // Kết quả search hiển thị kèm preview inline (không cần tải manifest)
+        setupSearchResultsListView();
+        
         // Set PIN input field max length to 6 digits
         pinInputField.textProperty().addListener((observable, oldValue, newValue) -> {
             if (!newValue.matches("\\d*")) {
@@ -216,6 +247,17 @@ public class MainController implements P2PService.P2PServiceListener {
             }
         );
         
+        // Context menu: tải thêm kết quả (sau limit) từ peer của dòng đang chọn
+        MenuItem loadMoreItem = new MenuItem("⬇ Tải thêm kết quả từ peer này");
+        loadMoreItem.setOnAction(e -> handleLoadMoreResults());
+        ContextMenu searchResultsMenu = new ContextMenu(loadMoreItem);
+        searchResultsMenu.setOnShowing(e -> {
+            SearchResultItem selected = searchResultsListView.getSelectionModel().getSelectedItem();
+            loadMoreItem.setDisable(selected == null
+                || !morePagesByPeer.containsKey(selected.getPeerInfo().getPeerId()));
+        });
+        searchResultsListView.setContextMenu(searchResultsMenu);
+        
         // Setup connection mode toggle buttons
         setupConnectionModeToggle();
         
@@ -476,8 +518,7 @@ public class MainController implements P2PService.P2PServiceListener {
         
         if (directory != null) {
             p2pService.addSharedDirectory(directory);
-            refreshSharedFiles();
-            log("✓ Đã thêm thư mục: " + directory.getName());
+            log("📂 Đang chia sẻ thư mục (chạy nền): " + directory.getName());
         }
     }
     
@@ -498,6 +539,8 @@ public class MainController implements P2PService.P2PServiceListener {
         }
         
         searchResults.clear();
+        morePagesByPeer.clear();
+        currentSearchQuery = query;
         
         // Ẩn searchActionsBox khi bắt đầu tìm kiếm mới
         if (searchActionsBox != null) {
@@ -511,6 +554,20 @@ public class MainController implements P2PService.P2PServiceListener {
         p2pService.searchFile(query);
     }
     
+    /**
+     * Tải thêm kết quả từ peer của dòng đang chọn (dùng continuation token của trang cuối)
+     */
+    private void handleLoadMoreResults() {
+        SearchResultItem selected = searchResultsListView.getSelectionModel().getSelectedItem();
+        if (selected == null || p2pService == null) return;
+        SearchResponse lastPage = morePagesByPeer.remove(selected.getPeerInfo().getPeerId());
+        if (lastPage == null) return;
+        
+        searchButton.setDisable(true);
+        log("⬇ Đang tải thêm kết quả từ " + selected.getPeerInfo().getDisplayName());
+        p2pService.loadMoreResults(currentSearchQuery, lastPage);
+    }
+    
     /**
      * Xử lý khi nhấn nút Download
      */
@@ -1023,6 +1080,64 @@ public class MainController implements P2PService.P2PServiceListener {
         }
     }
     
+    /**
+     * Setup ListView cho kết quả search: micro-thumbnail (hoặc ô màu placeholder) và một dòng snippet
+     */
+    private void setupSearchResultsListView() {
+        searchResultsListView.setCellFactory(param -> new javafx.scene.control.ListCell<SearchResultItem>() {
+            private static final double PREVIEW_SIZE = 32;
+            private final ImageView thumbnail = new ImageView();
+            private final Region placeholder = new Region();
+            private final StackPane previewBox = new StackPane(placeholder, thumbnail);
+            private final Label title = new Label();
+            private final Label snippet = new Label();
+            private final VBox text = new VBox(2, title, snippet);
+            private final HBox hbox = new HBox(8, previewBox, text);
+            
+            {
+                thumbnail.setFitWidth(PREVIEW_SIZE);
+                thumbnail.setFitHeight(PREVIEW_SIZE);
+                thumbnail.setPreserveRatio(true);
+                thumbnail.setSmooth(true);
+                previewBox.setMinSize(PREVIEW_SIZE, PREVIEW_SIZE);
+                previewBox.setPrefSize(PREVIEW_SIZE, PREVIEW_SIZE);
+                previewBox.setMaxSize(PREVIEW_SIZE, PREVIEW_SIZE);
+                snippet.setStyle("-fx-text-fill: #888888; -fx-font-size: 11px;");
+                hbox.setAlignment(javafx.geometry.Pos.CENTER_LEFT);
+            }
+            
+            @Override
+            protected void updateItem(SearchResultItem item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty || item == null) {
+                    setText(null);
+                    setGraphic(null);
+                    return;
+                }
+                InlinePreview preview = item.getInlinePreview();
+                title.setText(item.toString());
+                
+                Image image = item.getThumbnailImage();
+                thumbnail.setImage(image);
+                String color = preview != null ? preview.getPlaceholderColor() : null;
+                placeholder.setStyle(color != null 
+                    ? "-fx-background-color: " + color + "; -fx-background-radius: 4;" 
+                    : "-fx-background-color: transparent;");
+                boolean hasVisual = image != null || color != null;
+                previewBox.setVisible(hasVisual);
+                previewBox.setManaged(hasVisual);
+                
+                String line = preview != null ? preview.getSnippet() : null;
+                snippet.setText(line);
+                snippet.setVisible(line != null);
+                snippet.setManaged(line != null);
+                
+                setText(null);
+                setGraphic(hbox);
+            }
+        });
+    }
+    
     /**
      * Setup ListView cho shared files với nút Hủy
      */
@@ -1399,7 +1514,8 @@ public class MainController implements P2PService.P2PServiceListener {
     public void onSearchResult(SearchResponse response) {
         Platform.runLater(() -> {
             for (FileInfo file : response.getFoundFiles()) {
-                searchResults.add(new SearchResultItem(file, response.getSourcePeer()));
+                searchResults.add(new SearchResultItem(file, response.getSourcePeer(),
+                    response.getInlinePreview(file.getFileHash())));
             }
             
             // Enable download button ngay khi có kết quả đầu tiên
@@ -1407,8 +1523,17 @@ public class MainController implements P2PService.P2PServiceListener {
                 downloadButton.setDisable(false);
             }
             
-            log("📦 Tìm thấy " + response.getFoundFiles().size() + 
-                " file từ " + response.getSourcePeer().getDisplayName());
+            if (response.getContinuationToken() != null) {
+                morePagesByPeer.put(response.getSourcePeer().getPeerId(), response);
+            }
+            
+            // Log một lần mỗi luồng kết quả (trang đầu), không log từng trang
+            if (response.getPageIndex() == 0) {
+                int total = response.getTotalMatches();
+                log("📦 Tìm thấy " + response.getFoundFiles().size() + 
+                    (total > response.getFoundFiles().size() ? "/" + total : "") +
+                    " file từ " + response.getSourcePeer().getDisplayName());
+            }
         });
     }
     
@@ -1471,6 +1596,44 @@ public class MainController implements P2PService.P2PServiceListener {
         });
     }
     
+    @Override
+    public void onCatalogChanged(CatalogChange change) {
+        if (change.getType() != CatalogChange.Type.ADDED) {
+            log("🔄 File chia sẻ " + (change.getType() == CatalogChange.Type.REMOVED ? "đã bị xóa: " : "đã thay đổi: ") 
+                + change.getFileInfo().getFileName());
+        }
+        if (sharedRefreshPending.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                sharedRefreshPending.set(false);
+                refreshSharedFiles();
+            });
+        }
+    }
+    
+    @Override
+    public void onShareProgress(DirectoryShareTask.Progress progress) {
+        Platform.runLater(() -> {
+            refreshSharedFiles();
+            log("📂 " + progress.getDirectory().getName() + ": " + progress);
+        });
+    }
+    
+    @Override
+    public void onShareComplete(DirectoryShareTask.Progress progress) {
+        Platform.runLater(() -> {
+            refreshSharedFiles();
+            log("✓ Đã thêm thư mục: " + progress.getDirectory().getName() + " - " + progress);
+        });
+    }
+    
+    @Override
+    public void onCatalogRestored(int fileCount) {
+        Platform.runLater(() -> {
+            refreshSharedFiles();
+            log("💾 Đã khôi phục " + fileCount + " file chia sẻ từ lần chạy trước");
+        });
+    }
+    
     @Override
     public void onServiceStarted() {
         // Không cập nhật statusLabel ở đây vì đã set theo mode (P2P LAN/P2P Internet)
@@ -0,0 +1,54 @@
+package org.example.p2psharefile.model;
+
+import java.io.Serializable;
+
+/**
+ * CatalogChange - Một thay đổi trong danh sách file chia sẻ (change feed)
+ *
+ * Mỗi thay đổi có số thứ tự (version) tăng dần trên từng peer:
+ * consumer chỉ cần nhớ version cuối cùng đã áp dụng rồi hỏi các thay đổi sau đó.
+ * - ADDED / MODIFIED: fileInfo là bản mới
+ * - REMOVED: fileInfo là bản vừa bị xóa (chỉ cần filePath/fileHash để định danh)
+ */
+public class CatalogChange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        ADDED,
+        MODIFIED,
+        REMOVED
+    }
+
+    private final long version;
+    private final Type type;
+    private final FileInfo fileInfo;
+    private final long timestamp;
+
+    public CatalogChange(long version, Type type, FileInfo fileInfo) {
+        this.version = version;
+        this.type = type;
+        this.fileInfo = fileInfo;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public FileInfo getFileInfo() {
+        return fileInfo;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + version + " " + type + " " + (fileInfo != null ? fileInfo.getFileName() : "?");
+    }
+}
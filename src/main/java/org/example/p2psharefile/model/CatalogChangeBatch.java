@@ -0,0 +1,106 @@
+package org.example.p2psharefile.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * CatalogChangeBatch - Các thay đổi catalog kể từ một version (trả lời Request)
+ *
+ * Nếu consumer tụt quá xa (thay đổi cũ đã bị đẩy khỏi feed) hoặc peer đã khởi động lại
+ * (feedId khác) thì resyncRequired = true và consumer phải lấy lại toàn bộ danh sách file.
+ *
+ * Lấy lại toàn bộ: Request fullResync -> batch snapshot = true, mỗi file là một thay đổi ADDED
+ * mang currentVersion. Catalog lớn hơn maxChanges -> snapshot = true, resyncRequired = true, không
+ * kèm file; catalog chưa nạp xong -> snapshot = false (hỏi lại sau).
+ */
+public class CatalogChangeBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Yêu cầu các thay đổi sau sinceVersion (gửi trên cổng search)
+     */
+    public static class Request implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String requesterPeerId;
+        private final String feedId;        // feedId đã thấy lần trước, null nếu lần đầu
+        private final long sinceVersion;
+        private final int maxChanges;
+        private final boolean fullResync;   // Lấy toàn bộ catalog thay vì thay đổi
+
+        public Request(String requesterPeerId, String feedId, long sinceVersion, int maxChanges) {
+            this(requesterPeerId, feedId, sinceVersion, maxChanges, false);
+        }
+
+        public Request(String requesterPeerId, String feedId, long sinceVersion, int maxChanges,
+                       boolean fullResync) {
+            this.requesterPeerId = requesterPeerId;
+            this.feedId = feedId;
+            this.sinceVersion = sinceVersion;
+            this.maxChanges = maxChanges;
+            this.fullResync = fullResync;
+        }
+
+        /**
+         * Yêu cầu toàn bộ catalog (tối đa maxFiles file)
+         */
+        public static Request fullResync(String requesterPeerId, int maxFiles) {
+            return new Request(requesterPeerId, null, 0, maxFiles, true);
+        }
+
+        public String getRequesterPeerId() { return requesterPeerId; }
+        public String getFeedId() { return feedId; }
+        public long getSinceVersion() { return sinceVersion; }
+        public int getMaxChanges() { return maxChanges; }
+        public boolean isFullResync() { return fullResync; }
+    }
+
+    private final String peerId;
+    private final String feedId;
+    private final long currentVersion;
+    private final boolean resyncRequired;
+    private final List<CatalogChange> changes;
+    private final boolean snapshot;
+
+    public CatalogChangeBatch(String peerId, String feedId, long currentVersion, boolean resyncRequired,
+                              List<CatalogChange> changes) {
+        this(peerId, feedId, currentVersion, resyncRequired, changes, false);
+    }
+
+    public CatalogChangeBatch(String peerId, String feedId, long currentVersion, boolean resyncRequired,
+                              List<CatalogChange> changes, boolean snapshot) {
+        this.snapshot = snapshot;
+        this.peerId = peerId;
+        this.feedId = feedId;
+        this.currentVersion = currentVersion;
+        this.resyncRequired = resyncRequired;
+        this.changes = changes;
+    }
+
+    public String getPeerId() { return peerId; }
+
+    /**
+     * ID của feed (đổi mỗi lần peer khởi động, version đếm lại từ 0)
+     */
+    public String getFeedId() { return feedId; }
+
+    /**
+     * Version mới nhất của catalog bên gửi
+     */
+    public long getCurrentVersion() { return currentVersion; }
+    public boolean isResyncRequired() { return resyncRequired; }
+    public List<CatalogChange> getChanges() { return changes; }
+
+    /**
+     * changes là toàn bộ catalog tại currentVersion (trả lời Request fullResync)
+     */
+    public boolean isSnapshot() { return snapshot; }
+
+    /**
+     * Còn thay đổi chưa gửi hết (vượt maxChanges) -> hỏi tiếp từ version cuối
+     */
+    public boolean hasMore() {
+        if (resyncRequired || snapshot || changes.isEmpty()) return false;
+        return changes.get(changes.size() - 1).getVersion() < currentVersion;
+    }
+}
@@ -0,0 +1,289 @@
+package org.example.p2psharefile.model;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ChunkBitmap - Bitmap chunk đã nhận, lock-free cho nhiều writer song song
+ *
+ * - Mỗi word 64 bit là một phần tử AtomicLongArray, set bit bằng CAS
+ * - Số bit đã set được duy trì sẵn -> getProgress()/isComplete() là O(1)
+ * - Duyệt các đoạn chunk còn thiếu theo word, không cấp phát mảng chỉ số
+ * - Serialize dạng run-length (các đoạn 0/1 xen kẽ, độ dài varint):
+ *   file vài TB với chunk 1MB thường chỉ có vài đoạn -> vài byte thay vì hàng trăm KB
+ */
+public class ChunkBitmap implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient int size;
+    private transient AtomicLongArray words;
+    private transient AtomicInteger count;
+
+    /**
+     * Visitor cho một đoạn chunk liên tiếp [start, end)
+     */
+    public interface RangeVisitor {
+        void visit(int start, int end);
+    }
+
+    public ChunkBitmap(int size) {
+        init(size);
+    }
+
+    private void init(int size) {
+        this.size = Math.max(0, size);
+        this.words = new AtomicLongArray((this.size + 63) >>> 6);
+        this.count = new AtomicInteger(0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Set bit (lock-free)
+     *
+     * @return true nếu bit vừa chuyển từ 0 sang 1
+     */
+    public boolean set(int index) {
+        if (index < 0 || index >= size) return false;
+        int w = index >>> 6;
+        long mask = 1L << index;
+        while (true) {
+            long old = words.get(w);
+            if ((old & mask) != 0) return false;
+            if (words.compareAndSet(w, old, old | mask)) {
+                count.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Xóa bit (lock-free), dùng khi chunk bị loại vì sai hash
+     *
+     * @return true nếu bit vừa chuyển từ 1 sang 0
+     */
+    public boolean clear(int index) {
+        if (index < 0 || index >= size) return false;
+        int w = index >>> 6;
+        long mask = 1L << index;
+        while (true) {
+            long old = words.get(w);
+            if ((old & mask) == 0) return false;
+            if (words.compareAndSet(w, old, old & ~mask)) {
+                count.decrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public boolean get(int index) {
+        return index >= 0 && index < size && (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Số bit đã set (O(1))
+     */
+    public int cardinality() {
+        return count.get();
+    }
+
+    public boolean isFull() {
+        return count.get() >= size;
+    }
+
+    /**
+     * Chỉ số bit 0 đầu tiên từ fromIndex, trả về size nếu không còn
+     */
+    public int nextClearBit(int fromIndex) {
+        if (fromIndex < 0) fromIndex = 0;
+        if (fromIndex >= size) return size;
+        int w = fromIndex >>> 6;
+        long word = ~words.get(w) & (-1L << fromIndex);
+        while (true) {
+            if (word != 0) {
+                return Math.min(size, (w << 6) + Long.numberOfTrailingZeros(word));
+            }
+            if (++w >= words.length()) return size;
+            word = ~words.get(w);
+        }
+    }
+
+    /**
+     * Chỉ số bit 1 đầu tiên từ fromIndex, trả về -1 nếu không còn
+     */
+    public int nextSetBit(int fromIndex) {
+        if (fromIndex < 0) fromIndex = 0;
+        if (fromIndex >= size) return -1;
+        int w = fromIndex >>> 6;
+        long word = words.get(w) & (-1L << fromIndex);
+        while (true) {
+            if (word != 0) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(word);
+                return index < size ? index : -1;
+            }
+            if (++w >= words.length()) return -1;
+            word = words.get(w);
+        }
+    }
+
+    /**
+     * Duyệt các đoạn chunk còn thiếu [start, end)
+     */
+    public void forEachMissingRange(RangeVisitor visitor) {
+        int start = nextClearBit(0);
+        while (start < size) {
+            int end = nextSetBit(start);
+            if (end < 0) end = size;
+            visitor.visit(start, end);
+            start = nextClearBit(end);
+        }
+    }
+
+    /**
+     * Xóa toàn bộ (không an toàn khi đang có writer song song)
+     */
+    public void clear() {
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, 0L);
+        }
+        count.set(0);
+    }
+
+    /**
+     * Bản sao dạng BitSet (cho ChunkAvailability...)
+     */
+    public BitSet toBitSet() {
+        long[] snapshot = new long[words.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = words.get(i);
+        }
+        return BitSet.valueOf(snapshot);
+    }
+
+    // ========== Run-length encoding ==========
+
+    /**
+     * Độ dài các đoạn xen kẽ, bắt đầu bằng đoạn bit 0 (có thể dài 0)
+     */
+    public int[] toRuns() {
+        List<Integer> runs = new ArrayList<>();
+        int pos = 0;
+        boolean bit = false;
+        while (pos < size) {
+            int next = bit ? nextClearBit(pos) : nextSetBit(pos);
+            if (next < 0) next = size;
+            runs.add(next - pos);
+            pos = next;
+            bit = !bit;
+        }
+        int[] result = new int[runs.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = runs.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Ghi bitmap dạng run-length: size, số đoạn, độ dài từng đoạn (varint)
+     */
+    public void writeRuns(DataOutput out) throws IOException {
+        int[] runs = toRuns();
+        out.writeInt(size);
+        out.writeInt(runs.length);
+        for (int run : runs) {
+            writeVarInt(out, run);
+        }
+    }
+
+    /**
+     * Đọc bitmap đã ghi bằng writeRuns
+     */
+    public static ChunkBitmap readRuns(DataInput in) throws IOException {
+        return readRuns(in, -1);
+    }
+
+    /**
+     * Đọc bitmap từ peer: size phải đúng số chunk mong đợi, kiểm tra trước khi cấp phát
+     *
+     * @param expectedSize Số chunk của file (-1 = không kiểm tra, chỉ dùng cho dữ liệu local)
+     */
+    public static ChunkBitmap readRuns(DataInput in, int expectedSize) throws IOException {
+        int size = in.readInt();
+        if (expectedSize >= 0 && size != expectedSize) {
+            throw new IOException("Bitmap sai kích thước: " + size + " != " + expectedSize);
+        }
+        int runCount = in.readInt();
+        if (size < 0 || runCount < 0 || (long) runCount > (long) size + 1) {
+            throw new IOException("Bitmap không hợp lệ");
+        }
+
+        ChunkBitmap bitmap = new ChunkBitmap(size);
+        long pos = 0;
+        boolean bit = false;
+        for (int i = 0; i < runCount; i++) {
+            int run = readVarInt(in);
+            if (pos + run > size) {
+                throw new IOException("Bitmap không hợp lệ");
+            }
+            if (bit) {
+                bitmap.setRange((int) pos, (int) (pos + run));
+            }
+            pos += run;
+            bit = !bit;
+        }
+        return bitmap;
+    }
+
+    private void setRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            set(i);
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) throw new IOException("Varint không hợp lệ");
+                return value;
+            }
+        }
+        throw new IOException("Varint quá dài");
+    }
+
+    // ========== Java serialization (TransferState) ==========
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        writeRuns(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ChunkBitmap decoded = readRuns(in);
+        this.size = decoded.size;
+        this.words = decoded.words;
+        this.count = decoded.count;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkBitmap{" + count.get() + "/" + size + "}";
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.p2psharefile.model;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ChunkLatencyHistogram - Histogram độ trễ tải chunk (bucket theo lũy thừa 2, đơn vị ms)
+ *
+ * Bucket i chứa các mẫu trong khoảng [2^(i-1), 2^i) ms, bucket 0 là < 1ms.
+ * Dùng để theo dõi tail latency (p90/p99) của chunk scheduler, ví dụ
+ * so sánh trước/sau khi bật endgame mode.
+ */
+public class ChunkLatencyHistogram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(2); // [0] = count, [1] = max ms
+
+    /**
+     * Ghi nhận một mẫu độ trễ
+     */
+    public void record(long latencyMillis) {
+        long value = Math.max(0, latencyMillis);
+        int bucket = value == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        counts.incrementAndGet(bucket);
+        totals.incrementAndGet(0);
+        totals.accumulateAndGet(1, value, Math::max);
+    }
+
+    public long getCount() {
+        return totals.get(0);
+    }
+
+    public long getMax() {
+        return totals.get(1);
+    }
+
+    /**
+     * Ước lượng percentile (cận trên của bucket chứa percentile)
+     *
+     * @param percentile 0.0 - 1.0
+     */
+    public long getPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) return 0;
+
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(i == 0 ? 0 : 1L << i, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Số mẫu trong từng bucket (để vẽ histogram)
+     */
+    public long[] getBucketCounts() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d p50=%dms p90=%dms p99=%dms max=%dms",
+            getCount(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getMax());
+    }
+}
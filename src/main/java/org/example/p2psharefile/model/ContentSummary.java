@@ -0,0 +1,257 @@
+package org.example.p2psharefile.model;
+
+import java.io.Serializable;
+
+/**
+ * ContentSummary - Bloom filter tóm tắt nội dung chia sẻ của một peer
+ *
+ * Gửi kèm PeerInfo trên heartbeat để bên tìm kiếm không hỏi kết quả local của peer chắc chắn
+ * không có (request còn TTL vẫn được gửi dạng chỉ-forward qua peer đó):
+ * - Khóa trigram: 3 ký tự liên tiếp của tên file đã chuẩn hóa (như NameIndex), query
+ *   có thể khớp chỉ khi mọi trigram của nó đều "có thể có"
+ * - Khóa hash: 8 byte đầu của SHA-256 (chỉ khi đủ chỗ, xem isHashesIncluded)
+ * - Kích thước làm tròn lên lũy thừa 2 nên ít đổi khi catalog thay đổi -> gửi được
+ *   Delta (chỉ các word khác) thay vì cả filter
+ *
+ * Bloom filter không có false negative: "không chứa" là chắc chắn, "có thể chứa" thì
+ * sai với xác suất ~ TARGET_FALSE_POSITIVE_RATE.
+ * Mỗi summary gắn với (feedId, version) của catalog lúc tạo; bên nhận chỉ dùng khi
+ * khớp catalog version mà peer quảng bá trên heartbeat.
+ */
+public class ContentSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final double TARGET_FALSE_POSITIVE_RATE = 0.01;
+    public static final int MAX_BYTES = 256 * 1024;
+
+    // ~9.6 bit/phần tử và 7 hàm băm cho tỉ lệ dương tính giả 1%
+    private static final double BITS_PER_ITEM = 9.6;
+    private static final int HASH_FUNCTIONS = 7;
+    private static final int MIN_WORDS = 16;
+    private static final long HASH_KEY_TAG = 0x5A17C0DE5A17C0DEL;
+
+    private final String feedId;
+    private final long version;
+    private final long[] words;
+    private final boolean hashesIncluded;
+    private int itemCount;
+
+    /**
+     * Filter rỗng đủ chỗ cho expectedItems khóa (không vượt MAX_BYTES)
+     */
+    public ContentSummary(String feedId, long version, int expectedItems, boolean hashesIncluded) {
+        this(feedId, version, new long[wordsFor(expectedItems)], hashesIncluded);
+    }
+
+    private ContentSummary(String feedId, long version, long[] words, boolean hashesIncluded) {
+        this.feedId = feedId;
+        this.version = version;
+        this.words = words;
+        this.hashesIncluded = hashesIncluded;
+    }
+
+    /**
+     * Số byte cần cho expectedItems khóa ở tỉ lệ dương tính giả mục tiêu
+     */
+    public static long bytesFor(long expectedItems) {
+        return (long) Math.ceil(expectedItems * BITS_PER_ITEM / 8);
+    }
+
+    private static int wordsFor(int expectedItems) {
+        long needed = (long) Math.ceil(expectedItems * BITS_PER_ITEM / 64);
+        int words = MIN_WORDS;
+        while (words < needed && words * 8L < MAX_BYTES) words <<= 1;
+        return words;
+    }
+
+    /**
+     * Khóa của một SHA-256 (hex): 8 byte đầu, big-endian
+     */
+    public static long hashKey(String sha256Hex) {
+        return Long.parseUnsignedLong(sha256Hex.substring(0, 16), 16) ^ HASH_KEY_TAG;
+    }
+
+    /**
+     * Khóa của một SHA-256 dạng byte (8 byte đầu từ offset)
+     */
+    public static long hashKey(byte[] sha256, int offset) {
+        long key = 0;
+        for (int i = 0; i < 8; i++) {
+            key = key << 8 | (sha256[offset + i] & 0xFF);
+        }
+        return key ^ HASH_KEY_TAG;
+    }
+
+    /**
+     * Thêm khóa (chỉ gọi khi đang dựng, trước khi gửi đi)
+     */
+    public void add(long key) {
+        long h = mix(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        int mask = words.length * 64 - 1;
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = (h1 + i * h2) & mask;
+            words[bit >>> 6] |= 1L << bit;
+        }
+        itemCount++;
+    }
+
+    /**
+     * Khóa có thể có trong filter (false = chắc chắn không có)
+     */
+    public boolean mightContain(long key) {
+        long h = mix(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        int mask = words.length * 64 - 1;
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((words[bit >>> 6] & 1L << bit) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mọi khóa đều có thể có
+     */
+    public boolean mightContainAll(long[] keys) {
+        for (long key : keys) {
+            if (!mightContain(key)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Kiểm tra summary nhận từ peer: số word là lũy thừa 2 trong [MIN_WORDS, MAX_BYTES / 8]
+     * (add / mightContain dựa vào mask = words.length * 64 - 1)
+     */
+    public boolean isValid() {
+        return feedId != null && isValidSize(words);
+    }
+
+    private static boolean isValidSize(long[] words) {
+        return words != null && words.length >= MIN_WORDS && words.length * 8L <= MAX_BYTES
+            && Integer.bitCount(words.length) == 1;
+    }
+
+    /**
+     * Summary mô tả đúng catalog (feedId, version) này
+     */
+    public boolean describes(String catalogFeedId, long catalogVersion) {
+        return version == catalogVersion && feedId != null && feedId.equals(catalogFeedId);
+    }
+
+    /**
+     * Tỉ lệ dương tính giả ước lượng theo số bit đã bật: (bit bật / tổng bit)^k
+     */
+    public double estimateFalsePositiveRate() {
+        long set = 0;
+        for (long word : words) set += Long.bitCount(word);
+        return Math.pow((double) set / (words.length * 64L), HASH_FUNCTIONS);
+    }
+
+    public String getFeedId() { return feedId; }
+    public long getVersion() { return version; }
+    public int getItemCount() { return itemCount; }
+    public boolean isHashesIncluded() { return hashesIncluded; }
+
+    /**
+     * Kích thước filter (byte, không tính header serialization)
+     */
+    public int getSizeBytes() {
+        return words.length * 8;
+    }
+
+    // ========== Delta ==========
+
+    /**
+     * Phần khác so với base, null nếu không tạo được delta nhỏ hơn nửa filter
+     * (khác kích thước / khác chế độ hash / thay đổi quá nhiều)
+     */
+    public Delta diffFrom(ContentSummary base) {
+        if (base == null || base.words.length != words.length || base.hashesIncluded != hashesIncluded) return null;
+        int changed = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != base.words[i]) changed++;
+        }
+        // Mỗi word đổi tốn 12 byte (index + word) so với 8 byte khi gửi cả filter
+        if (changed * 12L > words.length * 4L) return null;
+
+        int[] indexes = new int[changed];
+        long[] values = new long[changed];
+        int n = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != base.words[i]) {
+                indexes[n] = i;
+                values[n++] = words[i];
+            }
+        }
+        return new Delta(base.feedId, base.version, feedId, version, itemCount, indexes, values);
+    }
+
+    /**
+     * Áp delta lên summary này, null nếu delta không dựa trên summary này hoặc không hợp lệ
+     */
+    public ContentSummary apply(Delta delta) {
+        if (delta == null || !delta.isValid() || delta.baseVersion != version || !delta.baseFeedId.equals(feedId)) {
+            return null;
+        }
+        long[] updated = words.clone();
+        for (int i = 0; i < delta.indexes.length; i++) {
+            int index = delta.indexes[i];
+            if (index < 0 || index >= updated.length) return null;
+            updated[index] = delta.words[i];
+        }
+        ContentSummary result = new ContentSummary(delta.feedId, delta.version, updated, hashesIncluded);
+        result.itemCount = delta.itemCount;
+        return result;
+    }
+
+    /**
+     * Delta giữa hai summary liên tiếp của cùng peer (gửi trên heartbeat thay cho cả filter)
+     */
+    public static class Delta implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String baseFeedId;
+        private final long baseVersion;
+        private final String feedId;
+        private final long version;
+        private final int itemCount;
+        private final int[] indexes;
+        private final long[] words;
+
+        Delta(String baseFeedId, long baseVersion, String feedId, long version, int itemCount,
+              int[] indexes, long[] words) {
+            this.baseFeedId = baseFeedId;
+            this.baseVersion = baseVersion;
+            this.feedId = feedId;
+            this.version = version;
+            this.itemCount = itemCount;
+            this.indexes = indexes;
+            this.words = words;
+        }
+
+        public long getVersion() { return version; }
+
+        /**
+         * Kiểm tra delta nhận từ peer: đủ feedId, mỗi index một word, không lớn hơn cả filter
+         */
+        public boolean isValid() {
+            return baseFeedId != null && feedId != null && indexes != null && words != null
+                && indexes.length == words.length && indexes.length * 8L <= MAX_BYTES;
+        }
+
+        public int getSizeBytes() {
+            return indexes.length * 12;
+        }
+    }
+
+    private static long mix(long key) {
+        // SplitMix64 finalizer
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+}
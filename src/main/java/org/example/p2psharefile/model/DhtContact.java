@@ -0,0 +1,69 @@
+package org.example.p2psharefile.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * DhtContact - Một node trong DHT (KademliaDht): node ID 256-bit + địa chỉ liên lạc
+ *
+ * - nodeId = SHA-256(peerId): cùng không gian với khóa nội dung (SHA-256 của file)
+ * - port: cổng DHT của node; peerPort: cổng TCP truyền file (PeerInfo.port)
+ * - Dùng làm bản ghi provider: ai có file nào thì liên lạc ở đâu
+ */
+public class DhtContact implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] nodeId;
+    private final String peerId;
+    private final String ipAddress;
+    private final int port;
+    private final int peerPort;
+    private final String displayName;
+
+    public DhtContact(byte[] nodeId, String peerId, String ipAddress, int port, int peerPort, String displayName) {
+        this.nodeId = nodeId;
+        this.peerId = peerId;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.peerPort = peerPort;
+        this.displayName = displayName;
+    }
+
+    public byte[] getNodeId() { return nodeId; }
+    public String getPeerId() { return peerId; }
+    public String getIpAddress() { return ipAddress; }
+    public int getPort() { return port; }
+    public int getPeerPort() { return peerPort; }
+    public String getDisplayName() { return displayName; }
+
+    /**
+     * Cùng node nhưng địa chỉ khác (bên nhận ghi đè IP khai báo bằng IP thật của kết nối)
+     */
+    public DhtContact withAddress(String ipAddress) {
+        return new DhtContact(nodeId, peerId, ipAddress, port, peerPort, displayName);
+    }
+
+    /**
+     * PeerInfo để tải file từ provider
+     */
+    public PeerInfo toPeerInfo() {
+        return new PeerInfo(peerId, ipAddress, peerPort, displayName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DhtContact)) return false;
+        return Arrays.equals(nodeId, ((DhtContact) o).nodeId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(nodeId);
+    }
+
+    @Override
+    public String toString() {
+        return displayName + " (" + ipAddress + ":" + port + ")";
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.p2psharefile.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DhtMessage - Request / reply giữa các node DHT (KademliaDht)
+ *
+ * - PING: kiểm tra node còn sống
+ * - FIND_NODE: hỏi K contact gần khóa nhất mà node biết
+ * - FIND_PROVIDERS: như FIND_NODE, kèm provider node đang giữ cho khóa
+ * - ADD_PROVIDER: ghi sender là provider của khóa (chỉ tự khai báo chính mình)
+ * - REPLY: trả lời, mang contacts / providers
+ */
+public class DhtMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        PING,
+        FIND_NODE,
+        FIND_PROVIDERS,
+        ADD_PROVIDER,
+        REPLY
+    }
+
+    private final Type type;
+    private final DhtContact sender;
+    private final byte[] key;
+    private final List<DhtContact> contacts;
+    private final List<DhtContact> providers;
+
+    public DhtMessage(Type type, DhtContact sender, byte[] key) {
+        this(type, sender, key, new ArrayList<>(), new ArrayList<>());
+    }
+
+    public DhtMessage(Type type, DhtContact sender, byte[] key, List<DhtContact> contacts, List<DhtContact> providers) {
+        this.type = type;
+        this.sender = sender;
+        this.key = key;
+        this.contacts = contacts;
+        this.providers = providers;
+    }
+
+    public static DhtMessage reply(DhtContact sender, List<DhtContact> contacts, List<DhtContact> providers) {
+        return new DhtMessage(Type.REPLY, sender, null, contacts, providers);
+    }
+
+    public Type getType() { return type; }
+    public DhtContact getSender() { return sender; }
+
+    /**
+     * Khóa 256-bit (node ID hoặc SHA-256 của file)
+     */
+    public byte[] getKey() { return key; }
+    public List<DhtContact> getContacts() { return contacts; }
+    public List<DhtContact> getProviders() { return providers; }
+
+    /**
+     * Bản sao với sender khác (bên nhận thay IP khai báo bằng IP thật của kết nối)
+     */
+    public DhtMessage withSender(DhtContact sender) {
+        return new DhtMessage(type, sender, key, contacts, providers);
+    }
+}
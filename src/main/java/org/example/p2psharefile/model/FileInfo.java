@@ -16,6 +16,8 @@ public class FileInfo implements Serializable {
     private String checksum;        // MD5 checksum để kiểm tra tính toàn vẹn
     private String ownerId;         // ID của peer sở hữu file này
     private String fileHash;        // SHA-256 hash cho UltraView preview
+    private String treeHash;        // Merkle root (TreeHash), null với peer cũ
+    private long lastModified;      // Thời điểm sửa cuối (ms), 0 = không rõ (peer cũ)
     
     public FileInfo(String fileName, long fileSize, String filePath) {
         this.fileName = fileName;
@@ -80,6 +82,28 @@ public class FileInfo implements Serializable {
         this.fileHash = fileHash;
     }
     
+    /**
+     * Tree hash (TreeHash root) - cho phép kiểm tra từng segment khi tải
+     */
+    public String getTreeHash() {
+        return treeHash;
+    }
+    
+    public void setTreeHash(String treeHash) {
+        this.treeHash = treeHash;
+    }
+    
+    /**
+     * Thời điểm sửa cuối (ms), 0 nếu không rõ
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+    
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+    
     /**
      * Chuyển đổi kích thước file sang định dạng dễ đọc
      */
@@ -0,0 +1,135 @@
+package org.example.p2psharefile.model;
+
+import java.io.Serializable;
+
+/**
+ * InlinePreview - Preview siêu nhỏ gửi kèm từng kết quả trong SearchResponse
+ *
+ * Lấy từ PreviewManifest đã sinh sẵn khi chia sẻ file: micro-thumbnail vài trăm byte (ảnh),
+ * màu đại diện để vẽ placeholder, và một dòng snippet (text/doc). Danh sách kết quả hiển thị
+ * ngay, không phải mở kết nối tới cổng preview cho từng file; preview đầy đủ vẫn lấy qua PreviewService.
+ */
+public class InlinePreview implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_THUMBNAIL_BYTES = 768;     // Micro-thumbnail lớn hơn thì không gửi kèm
+    public static final int MAX_SNIPPET_CHARS = 120;       // Một dòng snippet
+
+    private final String mimeType;
+    private final byte[] thumbnail;         // JPEG, null nếu không có / vượt MAX_THUMBNAIL_BYTES
+    private final int thumbnailWidth;
+    private final int thumbnailHeight;
+    private final String placeholderColor;  // "#rrggbb" màu trung bình của ảnh (null nếu không phải ảnh)
+    private final String snippet;           // Dòng text đầu tiên (null nếu không có)
+
+    private InlinePreview(String mimeType, byte[] thumbnail, int thumbnailWidth, int thumbnailHeight,
+                          String placeholderColor, String snippet) {
+        this.mimeType = mimeType;
+        this.thumbnail = thumbnail;
+        this.thumbnailWidth = thumbnailWidth;
+        this.thumbnailHeight = thumbnailHeight;
+        this.placeholderColor = placeholderColor;
+        this.snippet = snippet;
+    }
+
+    /**
+     * Preview inline từ manifest
+     *
+     * @return null nếu owner không cho preview công khai hoặc manifest không có gì để hiển thị
+     */
+    public static InlinePreview from(PreviewManifest manifest) {
+        // Search response gửi cho mọi peer hỏi: manifest giới hạn peer tin cậy thì không gửi kèm
+        if (manifest == null || !manifest.isAllowPreview() || manifest.getTrustedPeersOnly() != null) {
+            return null;
+        }
+        byte[] thumbnail = manifest.getMicroThumbnail();
+        if (thumbnail != null && thumbnail.length > MAX_THUMBNAIL_BYTES) thumbnail = null;
+        int width = 0;
+        int height = 0;
+        if (thumbnail != null) {
+            width = parseInt(manifest.getMetadata().get("microThumbnailWidth"));
+            height = parseInt(manifest.getMetadata().get("microThumbnailHeight"));
+        }
+        String snippet = firstLine(manifest.getSnippet());
+        String color = manifest.getPlaceholderColor();
+        if (thumbnail == null && color == null && snippet == null) return null;
+        return new InlinePreview(manifest.getMimeType(), thumbnail, width, height, color, snippet);
+    }
+
+    /**
+     * Bản không có thumbnail (khi trang kết quả đã hết ngân sách byte)
+     *
+     * @return null nếu không còn gì để hiển thị
+     */
+    public InlinePreview withoutThumbnail() {
+        if (thumbnail == null) return this;
+        if (placeholderColor == null && snippet == null) return null;
+        return new InlinePreview(mimeType, null, 0, 0, placeholderColor, snippet);
+    }
+
+    /**
+     * Kích thước ước tính khi gửi (bytes), dùng cho ngân sách mỗi trang
+     */
+    public int getEncodedSize() {
+        int size = 16;
+        if (thumbnail != null) size += thumbnail.length;
+        if (placeholderColor != null) size += placeholderColor.length();
+        if (snippet != null) size += snippet.length() * 3;
+        return size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public byte[] getThumbnail() {
+        return thumbnail;
+    }
+
+    public boolean hasThumbnail() {
+        return thumbnail != null;
+    }
+
+    public int getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    public int getThumbnailHeight() {
+        return thumbnailHeight;
+    }
+
+    public String getPlaceholderColor() {
+        return placeholderColor;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    private static String firstLine(String text) {
+        if (text == null) return null;
+        for (String line : text.split("\\R")) {
+            String trimmed = line.strip();
+            if (trimmed.isEmpty()) continue;
+            return trimmed.length() > MAX_SNIPPET_CHARS ? trimmed.substring(0, MAX_SNIPPET_CHARS - 1) + "…" : trimmed;
+        }
+        return null;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value != null ? Integer.parseInt(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InlinePreview{" +
+                "thumbnail=" + (thumbnail != null ? thumbnail.length + "B" : "none") +
+                ", placeholderColor=" + placeholderColor +
+                ", snippet=" + (snippet != null ? snippet.length() + " chars" : "none") +
+                '}';
+    }
+}
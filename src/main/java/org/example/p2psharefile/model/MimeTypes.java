@@ -0,0 +1,70 @@
+package org.example.p2psharefile.model;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * MimeTypes - Xác định MIME type từ phần mở rộng file
+ *
+ * Dùng chung cho PreviewGenerator (manifest) và bộ lọc mime: khi search.
+ */
+public final class MimeTypes {
+
+    public static final String DEFAULT = "application/octet-stream";
+
+    private static final Map<String, String> BY_EXTENSION = new HashMap<>();
+
+    static {
+        // Image
+        BY_EXTENSION.put("jpg", "image/jpeg");
+        BY_EXTENSION.put("jpeg", "image/jpeg");
+        BY_EXTENSION.put("png", "image/png");
+        BY_EXTENSION.put("gif", "image/gif");
+        BY_EXTENSION.put("bmp", "image/bmp");
+        BY_EXTENSION.put("webp", "image/webp");
+
+        // Text
+        BY_EXTENSION.put("txt", "text/plain");
+        BY_EXTENSION.put("html", "text/html");
+        BY_EXTENSION.put("css", "text/css");
+        BY_EXTENSION.put("js", "text/javascript");
+        BY_EXTENSION.put("json", "application/json");
+        BY_EXTENSION.put("xml", "application/xml");
+
+        // Archive
+        BY_EXTENSION.put("zip", "application/zip");
+        BY_EXTENSION.put("jar", "application/java-archive");
+
+        // Audio
+        BY_EXTENSION.put("mp3", "audio/mpeg");
+        BY_EXTENSION.put("wav", "audio/wav");
+        BY_EXTENSION.put("ogg", "audio/ogg");
+
+        // Video
+        BY_EXTENSION.put("mp4", "video/mp4");
+        BY_EXTENSION.put("avi", "video/x-msvideo");
+        BY_EXTENSION.put("mkv", "video/x-matroska");
+    }
+
+    private MimeTypes() {
+    }
+
+    /**
+     * MIME type theo phần mở rộng (không có dấu chấm), DEFAULT nếu không biết
+     */
+    public static String fromExtension(String extension) {
+        return BY_EXTENSION.getOrDefault(extension.toLowerCase(Locale.ROOT), DEFAULT);
+    }
+
+    /**
+     * Phần mở rộng của tên file (chữ thường, không dấu chấm), "" nếu không có
+     */
+    public static String extensionOf(String fileName) {
+        int lastDot = fileName.lastIndexOf('.');
+        if (lastDot > 0 && lastDot < fileName.length() - 1) {
+            return fileName.substring(lastDot + 1).toLowerCase(Locale.ROOT);
+        }
+        return "";
+    }
+}
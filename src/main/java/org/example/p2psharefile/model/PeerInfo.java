@@ -16,6 +16,11 @@ public class PeerInfo implements Serializable {
     private String displayName;     // Tên hiển thị
     private long lastSeen;          // Thời gian gần nhất thấy peer này
     private String publicKey;       // Public key (Base64 encoded) cho signature verification
+    private String localSocketPath; // Unix socket cho peer cùng máy (null nếu không có)
+    private String catalogFeedId;   // Feed catalog hiện tại (đổi mỗi lần peer khởi động)
+    private long catalogVersion;    // Version catalog, tăng mỗi khi file chia sẻ thay đổi
+    private ContentSummary contentSummary;      // Bloom filter nội dung (null = không gửi kèm)
+    private ContentSummary.Delta summaryDelta;  // Hoặc chỉ phần thay đổi so với lần gửi trước
     
     public PeerInfo(String peerId, String ipAddress, int port, String displayName) {
         this.peerId = peerId;
@@ -88,6 +93,72 @@ public class PeerInfo implements Serializable {
         this.publicKey = publicKey;
     }
     
+    public String getLocalSocketPath() {
+        return localSocketPath;
+    }
+    
+    public void setLocalSocketPath(String localSocketPath) {
+        this.localSocketPath = localSocketPath;
+    }
+    
+    public String getCatalogFeedId() {
+        return catalogFeedId;
+    }
+    
+    public long getCatalogVersion() {
+        return catalogVersion;
+    }
+    
+    /**
+     * Cập nhật catalog version quảng bá trên heartbeat
+     */
+    public synchronized void setCatalogVersion(String catalogFeedId, long catalogVersion) {
+        this.catalogFeedId = catalogFeedId;
+        this.catalogVersion = catalogVersion;
+    }
+    
+    public ContentSummary getContentSummary() {
+        return contentSummary;
+    }
+    
+    public void setContentSummary(ContentSummary contentSummary) {
+        this.contentSummary = contentSummary;
+    }
+    
+    public ContentSummary.Delta getSummaryDelta() {
+        return summaryDelta;
+    }
+    
+    /**
+     * Summary dùng được cho search: khớp đúng catalog version peer đang quảng bá
+     * (catalog đã đổi mà chưa nhận summary mới, hoặc summary không hợp lệ -> null, phải hỏi peer)
+     */
+    public ContentSummary getCurrentContentSummary() {
+        ContentSummary summary = contentSummary;
+        return summary != null && summary.isValid() && summary.describes(catalogFeedId, catalogVersion) ? summary : null;
+    }
+    
+    /**
+     * Bản sao gửi trên heartbeat: kèm cả summary, chỉ delta, hoặc không kèm gì (summary null, delta null)
+     */
+    public synchronized PeerInfo copyForHeartbeat(ContentSummary summary, ContentSummary.Delta delta) {
+        PeerInfo copy = new PeerInfo(peerId, ipAddress, port, displayName, publicKey);
+        copy.lastSeen = lastSeen;
+        copy.localSocketPath = localSocketPath;
+        copy.catalogFeedId = catalogFeedId;
+        copy.catalogVersion = catalogVersion;
+        copy.contentSummary = summary;
+        copy.summaryDelta = delta;
+        return copy;
+    }
+    
+    /**
+     * Bản sao không kèm summary (gắn vào SearchResponse, không gửi lại filter mỗi trang)
+     */
+    public PeerInfo withoutContentSummary() {
+        return copyForHeartbeat(null, null);
+    }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -37,6 +37,8 @@ public class PreviewManifest implements Serializable {
     private Map<PreviewType, Long> previewSizes;    // Size của từng preview
     
     private String snippet;                     // Text snippet (nếu có)
+    private byte[] microThumbnail;              // JPEG vài trăm byte gửi kèm kết quả search (ảnh)
+    private String placeholderColor;            // "#rrggbb" màu trung bình của ảnh
     private List<String> archiveListing;        // Danh sách file trong archive (nếu có)
     private Map<String, String> metadata;       // Metadata bổ sung (tags, rating, etc)
     
@@ -133,6 +135,25 @@ public class PreviewManifest implements Serializable {
         this.snippet = snippet;
     }
     
+    /**
+     * Micro-thumbnail cho InlinePreview trong kết quả search (null nếu không phải ảnh)
+     */
+    public byte[] getMicroThumbnail() {
+        return microThumbnail;
+    }
+    
+    public void setMicroThumbnail(byte[] microThumbnail) {
+        this.microThumbnail = microThumbnail;
+    }
+    
+    public String getPlaceholderColor() {
+        return placeholderColor;
+    }
+    
+    public void setPlaceholderColor(String placeholderColor) {
+        this.placeholderColor = placeholderColor;
+    }
+    
     public List<String> getArchiveListing() {
         return archiveListing;
     }
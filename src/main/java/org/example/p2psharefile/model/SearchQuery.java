@@ -0,0 +1,232 @@
+package org.example.p2psharefile.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * SearchQuery - Truy vấn tìm kiếm đã phân tích (gửi kèm SearchRequest)
+ *
+ * Cú pháp: các từ tự do (khớp substring tên file, không phân biệt hoa thường / dấu)
+ * xen với bộ lọc dạng key:value
+ * - ext:pdf,docx          phần mở rộng
+ * - size:>10MB  size:<1GB  size:10MB..2GB     kích thước (B, KB, MB, GB, TB)
+ * - modified:>2024-05-01  modified:7d  modified:12h   sửa sau ngày / trong khoảng gần đây
+ * - hash:<sha256>         đúng nội dung
+ * - mime:image  mime:image/*  mime:video/mp4
+ * - top:50                số kết quả tối đa mỗi peer (mặc định DEFAULT_LIMIT)
+ * Bộ lọc sai cú pháp được coi như từ tự do.
+ *
+ * Thời gian tương đối (7d) được đổi sang mốc tuyệt đối ngay khi parse (bên gửi).
+ */
+public class SearchQuery implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private String text = "";
+    private final List<String> extensions = new ArrayList<>();
+    private long minSize = -1;
+    private long maxSize = -1;
+    private long modifiedAfter = 0;
+    private String fileHash;
+    private String mimeType;
+    private int limit = DEFAULT_LIMIT;
+
+    /**
+     * Phân tích chuỗi người dùng nhập
+     */
+    public static SearchQuery parse(String raw) {
+        SearchQuery query = new SearchQuery();
+        StringBuilder text = new StringBuilder();
+        for (String token : (raw == null ? "" : raw.trim()).split("\\s+")) {
+            if (token.isEmpty()) continue;
+            if (!query.applyFilter(token)) {
+                if (text.length() > 0) text.append(' ');
+                text.append(token);
+            }
+        }
+        query.text = text.toString();
+        return query;
+    }
+
+    private boolean applyFilter(String token) {
+        int colon = token.indexOf(':');
+        if (colon <= 0 || colon == token.length() - 1) return false;
+        String key = token.substring(0, colon).toLowerCase(Locale.ROOT);
+        String value = token.substring(colon + 1);
+        try {
+            switch (key) {
+                case "ext":
+                    for (String ext : value.split(",")) {
+                        String normalized = ext.toLowerCase(Locale.ROOT).replaceFirst("^\\.", "");
+                        if (!normalized.isEmpty()) extensions.add(normalized);
+                    }
+                    return !extensions.isEmpty();
+                case "size":
+                    return parseSize(value);
+                case "modified":
+                    modifiedAfter = parseModifiedAfter(value);
+                    return true;
+                case "hash":
+                    if (!value.matches("[0-9a-fA-F]{64}")) return false;
+                    fileHash = value.toLowerCase(Locale.ROOT);
+                    return true;
+                case "mime":
+                    mimeType = value.toLowerCase(Locale.ROOT);
+                    return true;
+                case "top":
+                    limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(value)));
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private boolean parseSize(String value) {
+        long min = -1;
+        long max = -1;
+        int range = value.indexOf("..");
+        if (range >= 0) {
+            String from = value.substring(0, range);
+            String to = value.substring(range + 2);
+            if (!from.isEmpty()) min = parseBytes(from);
+            if (!to.isEmpty()) max = parseBytes(to);
+        } else if (value.startsWith(">=")) {
+            min = parseBytes(value.substring(2));
+        } else if (value.startsWith("<=")) {
+            max = parseBytes(value.substring(2));
+        } else if (value.startsWith(">")) {
+            min = parseBytes(value.substring(1)) + 1;
+        } else if (value.startsWith("<")) {
+            max = parseBytes(value.substring(1)) - 1;
+        } else {
+            min = parseBytes(value);
+        }
+        minSize = min;
+        maxSize = max;
+        return true;
+    }
+
+    private static long parseBytes(String value) {
+        String upper = value.trim().toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        String[] units = {"TB", "GB", "MB", "KB", "B"};
+        long[] factors = {1L << 40, 1L << 30, 1L << 20, 1L << 10, 1};
+        for (int i = 0; i < units.length; i++) {
+            if (upper.endsWith(units[i])) {
+                multiplier = factors[i];
+                upper = upper.substring(0, upper.length() - units[i].length());
+                break;
+            }
+        }
+        return (long) (Double.parseDouble(upper) * multiplier);
+    }
+
+    private static long parseModifiedAfter(String value) {
+        String v = value.startsWith(">") ? value.substring(1) : value;
+        char unit = Character.toLowerCase(v.charAt(v.length() - 1));
+        if (Character.isLetter(unit)) {
+            long amount = Long.parseLong(v.substring(0, v.length() - 1));
+            long unitMs;
+            switch (unit) {
+                case 'm': unitMs = 60_000L; break;
+                case 'h': unitMs = 3_600_000L; break;
+                case 'd': unitMs = 86_400_000L; break;
+                case 'w': unitMs = 7 * 86_400_000L; break;
+                default: throw new NumberFormatException("Đơn vị không hợp lệ: " + unit);
+            }
+            return System.currentTimeMillis() - amount * unitMs;
+        }
+        return LocalDate.parse(v).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // ========== Đánh giá ==========
+
+    /**
+     * Kiểm tra bộ lọc (không gồm từ tự do) trên FileInfo
+     * (bản catalog đánh giá trên cột của index, hàm này dùng khi chỉ có FileInfo)
+     */
+    public boolean matchesFilters(FileInfo file) {
+        if (fileHash != null && !fileHash.equalsIgnoreCase(file.getFileHash())) return false;
+        if (!matchesSize(file.getFileSize())) return false;
+        if (!matchesModified(file.getLastModified())) return false;
+        String extension = MimeTypes.extensionOf(file.getFileName());
+        return matchesExtension(extension) && matchesMime(MimeTypes.fromExtension(extension));
+    }
+
+    public boolean matchesSize(long size) {
+        return (minSize < 0 || size >= minSize) && (maxSize < 0 || size <= maxSize);
+    }
+
+    public boolean matchesModified(long lastModified) {
+        return modifiedAfter <= 0 || lastModified >= modifiedAfter;
+    }
+
+    public boolean matchesExtension(String extension) {
+        return extensions.isEmpty() || extensions.contains(extension);
+    }
+
+    public boolean matchesMime(String mime) {
+        if (mimeType == null) return true;
+        if (mimeType.endsWith("/*")) return mime.startsWith(mimeType.substring(0, mimeType.length() - 1));
+        if (mimeType.indexOf('/') < 0) return mime.startsWith(mimeType + "/");
+        return mime.equals(mimeType);
+    }
+
+    /**
+     * Có bộ lọc theo phần mở rộng / mime (đánh giá theo bảng phần mở rộng)
+     */
+    public boolean hasTypeFilter() {
+        return !extensions.isEmpty() || mimeType != null;
+    }
+
+    // ========== Java serialization (SearchRequest từ peer) ==========
+
+    /**
+     * Query từ peer không đi qua parse(): giới hạn lại top như khi parse
+     * (hash sai định dạng được catalog coi là không khớp file nào)
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        limit = Math.max(1, Math.min(MAX_LIMIT, limit));
+        if (text == null) text = "";
+    }
+
+    // ========== Getters ==========
+
+    public String getText() { return text; }
+    public List<String> getExtensions() { return Collections.unmodifiableList(extensions); }
+    public long getMinSize() { return minSize; }
+    public long getMaxSize() { return maxSize; }
+    public long getModifiedAfter() { return modifiedAfter; }
+    public String getFileHash() { return fileHash; }
+    public String getMimeType() { return mimeType; }
+    public int getLimit() { return limit; }
+
+    /**
+     * Dạng chuẩn (thứ tự cố định), dùng cho log và làm khóa cache
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(text);
+        if (!extensions.isEmpty()) sb.append(" ext:").append(String.join(",", extensions));
+        if (minSize >= 0 || maxSize >= 0) {
+            sb.append(" size:").append(minSize >= 0 ? minSize : 0).append("..")
+              .append(maxSize >= 0 ? String.valueOf(maxSize) : "");
+        }
+        if (modifiedAfter > 0) sb.append(" modified:>").append(modifiedAfter);
+        if (fileHash != null) sb.append(" hash:").append(fileHash);
+        if (mimeType != null) sb.append(" mime:").append(mimeType);
+        if (limit != DEFAULT_LIMIT) sb.append(" top:").append(limit);
+        return sb.toString().trim();
+    }
+}
@@ -10,10 +10,19 @@ import java.util.UUID;
 public class SearchRequest implements Serializable {
     private static final long serialVersionUID = 1L;
     
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_TIME_BUDGET_MS = 5000;
+    
     private String requestId;       // ID duy nhất của yêu cầu
     private String originPeerId;    // ID của peer gửi yêu cầu ban đầu
     private String searchQuery;     // Từ khóa tìm kiếm
     private int ttl;                // Time To Live - số lần forward tối đa
+    private SearchQuery query;      // Truy vấn đã phân tích (null với peer cũ -> parse searchQuery)
+    private int pageSize;           // Số file mỗi trang kết quả (0 = DEFAULT_PAGE_SIZE)
+    private String continuationToken; // "Tải thêm": token từ trang cuối của lần trước (null = từ đầu)
+    private String senderPeerId;    // Hop trước (peer vừa gửi request này), null nếu là origin
+    private int timeBudgetMillis;   // Thời gian còn lại để gom kết quả về hop trước (0 = mặc định)
+    private boolean skipLocal;      // Chỉ forward: người gửi đã biết peer này không có / đã có kết quả local
     
     public SearchRequest(String originPeerId, String searchQuery, int ttl) {
         this.requestId = UUID.randomUUID().toString();
@@ -62,6 +71,77 @@ public class SearchRequest implements Serializable {
         this.ttl = ttl;
     }
     
+    /**
+     * Truy vấn đã phân tích; peer cũ không gửi thì parse từ searchQuery
+     */
+    public SearchQuery getQuery() {
+        if (query == null) {
+            query = SearchQuery.parse(searchQuery);
+        }
+        return query;
+    }
+    
+    public void setQuery(SearchQuery query) {
+        this.query = query;
+    }
+    
+    /**
+     * Số file mỗi trang, trong khoảng [1, SearchQuery.MAX_LIMIT]
+     */
+    public int getPageSize() {
+        return pageSize <= 0 ? DEFAULT_PAGE_SIZE : Math.min(pageSize, SearchQuery.MAX_LIMIT);
+    }
+    
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+    
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+    
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+    
+    public String getSenderPeerId() {
+        return senderPeerId;
+    }
+    
+    public void setSenderPeerId(String senderPeerId) {
+        this.senderPeerId = senderPeerId;
+    }
+    
+    /**
+     * Thời gian (ms) hop trước còn chờ kết quả; mỗi hop trừ đi phần đã dùng trước khi forward
+     */
+    public int getTimeBudgetMillis() {
+        return timeBudgetMillis > 0 ? timeBudgetMillis : DEFAULT_TIME_BUDGET_MS;
+    }
+    
+    public void setTimeBudgetMillis(int timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+    
+    public boolean isSkipLocal() {
+        return skipLocal;
+    }
+    
+    /**
+     * Bản sao chỉ để forward: peer nhận không tìm local (content summary loại / đã có kết quả
+     * local từ cache), chỉ chuyển request cho các hop sau và định tuyến ngược kết quả của chúng
+     */
+    public SearchRequest forwardOnlyCopy() {
+        SearchRequest copy = new SearchRequest(requestId, originPeerId, searchQuery, ttl);
+        copy.query = query;
+        copy.pageSize = pageSize;
+        copy.continuationToken = continuationToken;
+        copy.senderPeerId = senderPeerId;
+        copy.timeBudgetMillis = timeBudgetMillis;
+        copy.skipLocal = true;
+        return copy;
+    }
+    
     /**
      * Giảm TTL khi forward request
      */
@@ -2,6 +2,7 @@ package org.example.p2psharefile.model;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,10 +18,17 @@ public class SearchResponse implements Serializable {
     
     private String requestId;           // ID của yêu cầu tìm kiếm
     private PeerInfo sourcePeer;        // Peer có file
-    private List<FileInfo> foundFiles;  // Danh sách file tìm thấy
+    private List<FileInfo> foundFiles;  // Danh sách file tìm thấy (top-K, điểm giảm dần)
+    private double[] scores;            // Điểm liên quan song song với foundFiles (null với peer cũ)
+    private int totalMatches;           // Số file khớp trước khi cắt top-K
+    private int pageIndex;              // Thứ tự trang trong luồng kết quả (0 = trang đầu)
+    private boolean morePages;          // Còn trang tiếp theo trên cùng kết nối (peer cũ: false)
+    private String continuationToken;   // Trang cuối: token để "tải thêm" sau limit (null = hết)
+    private long retryAfterMillis;      // > 0: peer quá tải / bị giới hạn tốc độ, không xử lý request
     
     // UltraView: Preview support
     private Map<String, PreviewManifest> previewManifests;  // FileHash -> PreviewManifest
+    private Map<String, InlinePreview> inlinePreviews;      // FileHash -> preview siêu nhỏ (null với peer cũ)
     
     public SearchResponse(String requestId, PeerInfo sourcePeer) {
         this.requestId = requestId;
@@ -69,6 +77,75 @@ public class SearchResponse implements Serializable {
         return foundFiles != null && !foundFiles.isEmpty();
     }
     
+    /**
+     * Điểm liên quan của file thứ index (0 nếu peer không gửi điểm)
+     */
+    public double getScore(int index) {
+        return scores != null && index < scores.length ? scores[index] : 0;
+    }
+    
+    public double[] getScores() {
+        return scores;
+    }
+    
+    public void setScores(double[] scores) {
+        this.scores = scores;
+    }
+    
+    /**
+     * Tổng số file khớp ở peer này (có thể lớn hơn số file trả về)
+     */
+    public int getTotalMatches() {
+        return Math.max(totalMatches, foundFiles != null ? foundFiles.size() : 0);
+    }
+    
+    public void setTotalMatches(int totalMatches) {
+        this.totalMatches = totalMatches;
+    }
+    
+    // ========== Phân trang ==========
+    
+    public int getPageIndex() {
+        return pageIndex;
+    }
+    
+    public void setPageIndex(int pageIndex) {
+        this.pageIndex = pageIndex;
+    }
+    
+    /**
+     * Còn trang sau trên cùng kết nối (bên nhận đọc tiếp)
+     */
+    public boolean hasMorePages() {
+        return morePages;
+    }
+    
+    public void setMorePages(boolean morePages) {
+        this.morePages = morePages;
+    }
+    
+    /**
+     * Token gửi lại trong SearchRequest để lấy kết quả sau limit (null = không còn)
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+    
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * Peer từ chối request (quá tải / vượt giới hạn tốc độ): đợi bấy nhiêu ms rồi mới hỏi lại, 0 = bình thường
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public void setRetryAfterMillis(long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+    }
+    
     // ========== UltraView Preview Methods ==========
     
     public Map<String, PreviewManifest> getPreviewManifests() {
@@ -96,6 +173,22 @@ public class SearchResponse implements Serializable {
         return !previewManifests.isEmpty();
     }
     
+    /**
+     * Preview inline của file (micro-thumbnail / placeholder / snippet), null nếu peer không gửi kèm
+     */
+    public InlinePreview getInlinePreview(String fileHash) {
+        return inlinePreviews != null && fileHash != null ? inlinePreviews.get(fileHash) : null;
+    }
+    
+    public void addInlinePreview(String fileHash, InlinePreview preview) {
+        if (inlinePreviews == null) inlinePreviews = new HashMap<>();
+        inlinePreviews.put(fileHash, preview);
+    }
+    
+    public Map<String, InlinePreview> getInlinePreviews() {
+        return inlinePreviews != null ? inlinePreviews : Collections.emptyMap();
+    }
+    
     @Override
     public String toString() {
         return "SearchResponse{" +
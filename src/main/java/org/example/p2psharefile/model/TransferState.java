@@ -1,7 +1,7 @@
 package org.example.p2psharefile.model;
 
 import java.io.Serializable;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -16,7 +16,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * @version 1.0
  */
 public class TransferState implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L; // BitSet -> ChunkBitmap
     
     // Chunk configuration
     public static final int DEFAULT_CHUNK_SIZE = 64 * 1024; // 64KB per chunk
@@ -27,15 +27,17 @@ public class TransferState implements Serializable {
     private String transferId;
     private String fileName;
     private String filePath;
+    private String fileHash;        // SHA-256 của file (dùng cho partial seeding)
     private long fileSize;
     private int chunkSize;
     private int totalChunks;
     
     // Progress tracking
-    private BitSet receivedChunks;
+    private ChunkBitmap receivedChunks;     // Lock-free, có sẵn số chunk đã nhận
     private AtomicLong bytesTransferred;
     private long startTime;
-    private long lastUpdateTime;
+    private volatile long lastUpdateTime;
+    private final ChunkLatencyHistogram latencyHistogram = new ChunkLatencyHistogram();
     
     // State
     private TransferStatus status;
@@ -46,6 +48,9 @@ public class TransferState implements Serializable {
     private String peerIp;
     private int peerPort;
     
+    // Chiến lược chọn chunk cho transfer này
+    private ChunkSelectionPolicy selectionPolicy = ChunkSelectionPolicy.SEQUENTIAL;
+    
     public enum TransferStatus {
         PENDING,        // Chờ bắt đầu
         IN_PROGRESS,    // Đang truyền
@@ -55,6 +60,12 @@ public class TransferState implements Serializable {
         CANCELLED       // Đã hủy
     }
     
+    public enum ChunkSelectionPolicy {
+        SEQUENTIAL,     // Theo thứ tự (media preview)
+        RAREST_FIRST,   // Chunk hiếm nhất trước (multi-source / partial seeding)
+        RANDOM          // Ngẫu nhiên (tránh hot spot)
+    }
+    
     /**
      * Constructor mặc định
      */
@@ -73,7 +84,7 @@ public class TransferState implements Serializable {
         this.filePath = filePath;
         this.fileSize = fileSize;
         this.totalChunks = calculateTotalChunks(fileSize, chunkSize);
-        this.receivedChunks = new BitSet(totalChunks);
+        this.receivedChunks = new ChunkBitmap(totalChunks);
         this.transferId = generateTransferId();
     }
     
@@ -86,7 +97,7 @@ public class TransferState implements Serializable {
         this.fileSize = fileSize;
         this.chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
         this.totalChunks = calculateTotalChunks(fileSize, this.chunkSize);
-        this.receivedChunks = new BitSet(totalChunks);
+        this.receivedChunks = new ChunkBitmap(totalChunks);
         this.bytesTransferred = new AtomicLong(0);
         this.status = TransferStatus.PENDING;
         this.transferId = generateTransferId();
@@ -110,21 +121,30 @@ public class TransferState implements Serializable {
     // ========== Progress tracking methods ==========
     
     /**
-     * Đánh dấu chunk đã nhận
+     * Đánh dấu chunk đã nhận (an toàn khi nhiều thread ghi song song)
      */
-    public synchronized void markChunkReceived(int chunkIndex, int chunkBytes) {
-        if (chunkIndex >= 0 && chunkIndex < totalChunks) {
-            receivedChunks.set(chunkIndex);
+    public void markChunkReceived(int chunkIndex, int chunkBytes) {
+        if (receivedChunks.set(chunkIndex)) {
             bytesTransferred.addAndGet(chunkBytes);
             lastUpdateTime = System.currentTimeMillis();
         }
     }
     
+    /**
+     * Bỏ đánh dấu chunk (dữ liệu không khớp tree hash, cần tải lại)
+     */
+    public void unmarkChunkReceived(int chunkIndex) {
+        if (receivedChunks.clear(chunkIndex)) {
+            bytesTransferred.addAndGet(-getChunkSize(chunkIndex));
+            lastUpdateTime = System.currentTimeMillis();
+        }
+    }
+    
     /**
      * Kiểm tra chunk đã nhận chưa
      */
     public boolean isChunkReceived(int chunkIndex) {
-        return chunkIndex >= 0 && chunkIndex < totalChunks && receivedChunks.get(chunkIndex);
+        return receivedChunks.get(chunkIndex);
     }
     
     /**
@@ -134,18 +154,40 @@ public class TransferState implements Serializable {
         return receivedChunks.nextClearBit(0);
     }
     
+    /**
+     * Lấy chunk cần nhận tiếp theo kể từ fromIndex (>= totalChunks nếu không còn)
+     */
+    public int getNextMissingChunk(int fromIndex) {
+        return receivedChunks.nextClearBit(Math.max(0, fromIndex));
+    }
+    
     /**
      * Lấy danh sách chunk còn thiếu
+     * 
+     * Với file lớn nên dùng forEachMissingRange() để tránh cấp phát mảng chỉ số.
      */
     public int[] getMissingChunks() {
-        int[] missing = new int[totalChunks - receivedChunks.cardinality()];
+        int[] missing = new int[Math.max(0, totalChunks - receivedChunks.cardinality())];
         int idx = 0;
-        for (int i = 0; i < totalChunks; i++) {
-            if (!receivedChunks.get(i)) {
-                missing[idx++] = i;
-            }
+        for (int i = receivedChunks.nextClearBit(0); i < totalChunks && idx < missing.length; 
+             i = receivedChunks.nextClearBit(i + 1)) {
+            missing[idx++] = i;
         }
-        return missing;
+        return idx == missing.length ? missing : Arrays.copyOf(missing, idx);
+    }
+    
+    /**
+     * Duyệt các đoạn chunk còn thiếu [start, end)
+     */
+    public void forEachMissingRange(ChunkBitmap.RangeVisitor visitor) {
+        receivedChunks.forEachMissingRange(visitor);
+    }
+    
+    /**
+     * Bitmap các chunk đã nhận (để quảng bá cho peer khác, ghi dạng run-length)
+     */
+    public ChunkBitmap getReceivedChunks() {
+        return receivedChunks;
     }
     
     /**
@@ -173,7 +215,7 @@ public class TransferState implements Serializable {
      * Kiểm tra đã hoàn tất chưa
      */
     public boolean isComplete() {
-        return receivedChunks.cardinality() >= totalChunks;
+        return receivedChunks.isFull();
     }
     
     /**
@@ -293,11 +335,14 @@ public class TransferState implements Serializable {
     public String getFilePath() { return filePath; }
     public void setFilePath(String filePath) { this.filePath = filePath; }
     
+    public String getFileHash() { return fileHash; }
+    public void setFileHash(String fileHash) { this.fileHash = fileHash; }
+    
     public long getFileSize() { return fileSize; }
     public void setFileSize(long fileSize) { 
         this.fileSize = fileSize;
         this.totalChunks = calculateTotalChunks(fileSize, chunkSize);
-        this.receivedChunks = new BitSet(totalChunks);
+        this.receivedChunks = new ChunkBitmap(totalChunks);
     }
     
     public int getChunkSize() { return chunkSize; }
@@ -305,7 +350,7 @@ public class TransferState implements Serializable {
         this.chunkSize = chunkSize;
         if (fileSize > 0) {
             this.totalChunks = calculateTotalChunks(fileSize, chunkSize);
-            this.receivedChunks = new BitSet(totalChunks);
+            this.receivedChunks = new ChunkBitmap(totalChunks);
         }
     }
     
@@ -329,6 +374,13 @@ public class TransferState implements Serializable {
     public int getPeerPort() { return peerPort; }
     public void setPeerPort(int peerPort) { this.peerPort = peerPort; }
     
+    public ChunkSelectionPolicy getSelectionPolicy() { return selectionPolicy; }
+    public void setSelectionPolicy(ChunkSelectionPolicy selectionPolicy) { 
+        this.selectionPolicy = selectionPolicy != null ? selectionPolicy : ChunkSelectionPolicy.SEQUENTIAL; 
+    }
+    
+    public ChunkLatencyHistogram getLatencyHistogram() { return latencyHistogram; }
+    
     public long getStartTime() { return startTime; }
     public long getLastUpdateTime() { return lastUpdateTime; }
     
@@ -0,0 +1,119 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.CatalogChange;
+import org.example.p2psharefile.model.CatalogChangeBatch;
+import org.example.p2psharefile.model.FileInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * CatalogChangeFeed - Nhật ký thay đổi catalog có giới hạn, đánh số tăng dần
+ *
+ * - Mỗi lần thêm/sửa/xóa file chia sẻ tạo một CatalogChange với version = version trước + 1
+ * - Giữ capacity thay đổi gần nhất trong ring buffer (bộ nhớ cố định)
+ * - since(version) trả về các thay đổi sau version đó; consumer tụt quá xa nhận resyncRequired
+ * - Listener trong process (UI, cache) được gọi trên một thread nền riêng, đúng thứ tự version:
+ *   publish() (thread hash / watcher / rescan) không chờ listener chậm
+ */
+public class CatalogChangeFeed {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final String feedId = UUID.randomUUID().toString();
+    private final CatalogChange[] ring;
+    private long version = 0;
+    private final List<Consumer<CatalogChange>> listeners = new CopyOnWriteArrayList<>();
+    // Một thread -> listener nhận thay đổi theo đúng thứ tự; thread tự dừng khi rảnh
+    private final ThreadPoolExecutor dispatcher;
+
+    public CatalogChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CatalogChangeFeed(int capacity) {
+        this.ring = new CatalogChange[Math.max(1, capacity)];
+        this.dispatcher = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "catalog-feed");
+            t.setDaemon(true);
+            return t;
+        });
+        this.dispatcher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Ghi nhận một thay đổi và báo cho listener (bất đồng bộ)
+     */
+    public CatalogChange publish(CatalogChange.Type type, FileInfo fileInfo) {
+        CatalogChange change;
+        synchronized (this) {
+            change = new CatalogChange(++version, type, fileInfo);
+            ring[(int) (change.getVersion() % ring.length)] = change;
+            // Xếp hàng trong khóa: thứ tự trong hàng đợi = thứ tự version
+            if (!listeners.isEmpty()) {
+                dispatcher.execute(() -> dispatch(change));
+            }
+        }
+        return change;
+    }
+
+    private void dispatch(CatalogChange change) {
+        for (Consumer<CatalogChange> listener : listeners) {
+            try {
+                listener.accept(change);
+            } catch (Exception e) {
+                System.err.println("Lỗi trong catalog listener: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * ID của feed, đổi mỗi lần khởi động (version đếm lại từ 0)
+     */
+    public String getFeedId() {
+        return feedId;
+    }
+
+    /**
+     * Version hiện tại (0 = chưa có thay đổi nào)
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Các thay đổi sau sinceVersion, tối đa maxChanges
+     *
+     * @param knownFeedId feedId consumer đã thấy (null = lần đầu, bắt đầu từ sinceVersion)
+     */
+    public synchronized CatalogChangeBatch since(String peerId, String knownFeedId, long sinceVersion,
+                                                 int maxChanges) {
+        long oldest = Math.max(1, version - ring.length + 1);
+        boolean otherFeed = knownFeedId != null && !knownFeedId.equals(feedId);
+        if (otherFeed || sinceVersion > version || sinceVersion + 1 < oldest) {
+            // Peer đã khởi động lại hoặc consumer tụt quá xa
+            return new CatalogChangeBatch(peerId, feedId, version, true, new ArrayList<>());
+        }
+
+        int limit = maxChanges > 0 ? maxChanges : ring.length;
+        List<CatalogChange> changes = new ArrayList<>();
+        for (long v = sinceVersion + 1; v <= version && changes.size() < limit; v++) {
+            changes.add(ring[(int) (v % ring.length)]);
+        }
+        return new CatalogChangeBatch(peerId, feedId, version, false, changes);
+    }
+
+    public void addListener(Consumer<CatalogChange> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<CatalogChange> listener) {
+        listeners.remove(listener);
+    }
+}
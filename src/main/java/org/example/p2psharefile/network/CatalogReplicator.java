@@ -0,0 +1,246 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.CatalogChange;
+import org.example.p2psharefile.model.CatalogChangeBatch;
+import org.example.p2psharefile.model.FileInfo;
+import org.example.p2psharefile.model.PeerInfo;
+import org.example.p2psharefile.model.SearchQuery;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CatalogReplicator - Bản sao catalog của các peer LAN, cập nhật bằng change feed (opt-in)
+ *
+ * Heartbeat đã mang catalog (feedId, version) của từng peer: version lệch bản sao thì kéo các
+ * thay đổi sau version đó (CatalogChangeBatch.Request trên cổng search), áp dụng theo thứ tự
+ * version vào một SharedFileCatalog riêng của peer. Search trả lời từ bản sao khi bản sao đúng
+ * version peer đang quảng bá, không hỏi local peer đó (request còn TTL vẫn được gửi dạng
+ * chỉ-forward qua peer để nhận kết quả các hop sau).
+ *
+ * - Lần đầu / peer khởi động lại (feedId khác) / tụt khỏi ring buffer của feed: lấy lại toàn bộ
+ *   (Request fullResync), dựng bản sao mới rồi mới thay bản cũ
+ * - Giới hạn bộ nhớ: tối đa maxFilesPerPeer file mỗi peer và maxTotalFiles file tổng cộng;
+ *   peer vượt giới hạn không được sao (search vẫn hỏi qua mạng) cho đến khi đổi feedId
+ * - Peer biến mất khỏi danh sách discovery: bỏ bản sao
+ * - sync() chạy trên một thread (FileSearchService gọi theo chu kỳ), search() đọc đồng thời
+ *
+ * Vì sao thay đổi không đi trên heartbeat (TLS/TCP của PeerDiscovery, mỗi 5 giây một kết nối):
+ * heartbeat do peer gửi chủ động kèm PeerInfo đã ký của chính nó, bên gửi không biết peer nhận
+ * có bật sao chép hay đang ở version nào; bản đầy đủ (tới maxFilesPerPeer file) phải ký / verify
+ * ECDSA và vừa timeout đọc 3 giây của heartbeat. Người sao chép kéo đúng phần còn thiếu qua cổng
+ * search (đã có giới hạn tốc độ SearchAdmission), heartbeat chỉ báo version.
+ */
+public class CatalogReplicator {
+
+    public static final int DEFAULT_MAX_FILES_PER_PEER = 20_000;
+    public static final int DEFAULT_MAX_TOTAL_FILES = 200_000;
+    private static final int MAX_CHANGES_PER_PULL = 1024;
+
+    /**
+     * Gửi CatalogChangeBatch.Request tới peer và nhận batch trả lời
+     */
+    public interface Fetcher {
+        CatalogChangeBatch fetch(PeerInfo peer, CatalogChangeBatch.Request request) throws IOException;
+    }
+
+    private static final class Replica {
+        final SharedFileCatalog catalog;
+        final String feedId;
+        volatile long version;
+
+        Replica(SharedFileCatalog catalog, String feedId, long version) {
+            this.catalog = catalog;
+            this.feedId = feedId;
+            this.version = version;
+        }
+    }
+
+    private final String localPeerId;
+    private final Fetcher fetcher;
+    private final int maxFilesPerPeer;
+    private final int maxTotalFiles;
+
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
+    private final Map<String, String> oversizedFeeds = new ConcurrentHashMap<>();   // peerId -> feedId quá lớn
+    private final AtomicInteger totalFiles = new AtomicInteger();
+
+    private final AtomicLong changesApplied = new AtomicLong();
+    private final AtomicLong deltaPulls = new AtomicLong();
+    private final AtomicLong fullResyncs = new AtomicLong();
+    private final AtomicLong localAnswers = new AtomicLong();
+
+    public CatalogReplicator(String localPeerId, Fetcher fetcher) {
+        this(localPeerId, fetcher, DEFAULT_MAX_FILES_PER_PEER, DEFAULT_MAX_TOTAL_FILES);
+    }
+
+    public CatalogReplicator(String localPeerId, Fetcher fetcher, int maxFilesPerPeer, int maxTotalFiles) {
+        this.localPeerId = localPeerId;
+        this.fetcher = fetcher;
+        this.maxFilesPerPeer = maxFilesPerPeer;
+        this.maxTotalFiles = maxTotalFiles;
+    }
+
+    /**
+     * Đưa bản sao về đúng version các peer đang quảng bá; bỏ bản sao của peer không còn trong danh sách
+     */
+    public void sync(List<PeerInfo> peers) {
+        Set<String> present = new HashSet<>();
+        for (PeerInfo peer : peers) {
+            present.add(peer.getPeerId());
+        }
+        for (String peerId : replicas.keySet()) {
+            if (!present.contains(peerId)) drop(peerId);
+        }
+        oversizedFeeds.keySet().retainAll(present);
+
+        for (PeerInfo peer : peers) {
+            String feedId = peer.getCatalogFeedId();
+            if (feedId == null || feedId.equals(oversizedFeeds.get(peer.getPeerId()))) continue;
+            Replica replica = replicas.get(peer.getPeerId());
+            if (replica != null && replica.feedId.equals(feedId) && replica.version == peer.getCatalogVersion()) {
+                continue;
+            }
+            try {
+                if (replica == null || !replica.feedId.equals(feedId) || !pullChanges(peer, replica)) {
+                    fullResync(peer);
+                }
+            } catch (IOException e) {
+                // Lần sau thử lại, bản sao cũ không được dùng vì lệch version
+                System.err.println("⚠ Không đồng bộ được catalog của " + peer.getDisplayName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tìm trên bản sao của peer
+     *
+     * @return null nếu không có bản sao đúng version peer đang quảng bá (phải hỏi qua mạng)
+     */
+    public SharedFileCatalog.SearchResult search(PeerInfo peer, SearchQuery query) {
+        Replica replica = replicas.get(peer.getPeerId());
+        if (replica == null || !replica.feedId.equals(peer.getCatalogFeedId())
+            || replica.version != peer.getCatalogVersion()) {
+            return null;
+        }
+        localAnswers.incrementAndGet();
+        return replica.catalog.search(query);
+    }
+
+    /**
+     * Kéo các thay đổi sau version của bản sao
+     *
+     * @return false nếu peer báo phải lấy lại toàn bộ
+     */
+    private boolean pullChanges(PeerInfo peer, Replica replica) throws IOException {
+        CatalogChangeBatch batch;
+        do {
+            batch = fetcher.fetch(peer, new CatalogChangeBatch.Request(localPeerId, replica.feedId,
+                replica.version, MAX_CHANGES_PER_PULL));
+            if (batch == null || batch.isResyncRequired() || !replica.feedId.equals(batch.getFeedId())) {
+                return false;
+            }
+            deltaPulls.incrementAndGet();
+            int before = replica.catalog.size();
+            try {
+                for (CatalogChange change : batch.getChanges()) {
+                    if (change.getVersion() != replica.version + 1) return false;   // Thiếu thay đổi
+                    apply(replica.catalog, change);
+                    replica.version = change.getVersion();
+                }
+            } finally {
+                totalFiles.addAndGet(replica.catalog.size() - before);
+            }
+            if (replica.catalog.size() > maxFilesPerPeer || totalFiles.get() > maxTotalFiles) {
+                markOversized(peer, replica.feedId);
+                return true;
+            }
+        } while (batch.hasMore());
+        return true;
+    }
+
+    private void fullResync(PeerInfo peer) throws IOException {
+        Replica old = replicas.get(peer.getPeerId());
+        int budget = maxTotalFiles - totalFiles.get() + (old != null ? old.catalog.size() : 0);
+        int limit = Math.min(maxFilesPerPeer, budget);
+        String feedId = peer.getCatalogFeedId();
+        if (limit <= 0) {
+            markOversized(peer, feedId);
+            return;
+        }
+
+        CatalogChangeBatch batch = fetcher.fetch(peer, CatalogChangeBatch.Request.fullResync(localPeerId, limit));
+        if (batch == null || !batch.isSnapshot()) return;    // Peer chưa nạp xong catalog, lần sau thử lại
+        if (batch.isResyncRequired()) {
+            markOversized(peer, feedId);
+            return;
+        }
+
+        SharedFileCatalog catalog = new SharedFileCatalog(peer.getPeerId());
+        for (CatalogChange change : batch.getChanges()) {
+            apply(catalog, change);
+        }
+        fullResyncs.incrementAndGet();
+        drop(peer.getPeerId());
+        replicas.put(peer.getPeerId(), new Replica(catalog, batch.getFeedId(), batch.getCurrentVersion()));
+        totalFiles.addAndGet(catalog.size());
+        System.out.println("🗂 Đã sao catalog của " + peer.getDisplayName() + ": " + catalog.size()
+            + " file (v" + batch.getCurrentVersion() + ")");
+    }
+
+    private void apply(SharedFileCatalog catalog, CatalogChange change) {
+        FileInfo file = change.getFileInfo();
+        if (file == null || file.getFilePath() == null) return;
+        if (change.getType() == CatalogChange.Type.REMOVED) {
+            catalog.removeByPath(file.getFilePath());
+        } else {
+            catalog.put(file);
+        }
+        changesApplied.incrementAndGet();
+    }
+
+    private void markOversized(PeerInfo peer, String feedId) {
+        drop(peer.getPeerId());
+        if (oversizedFeeds.put(peer.getPeerId(), feedId) == null) {
+            System.out.println("⚠ Catalog của " + peer.getDisplayName() + " vượt giới hạn sao chép ("
+                + maxFilesPerPeer + " file/peer, " + maxTotalFiles + " file tổng), search sẽ hỏi qua mạng");
+        }
+    }
+
+    private void drop(String peerId) {
+        Replica removed = replicas.remove(peerId);
+        if (removed != null) totalFiles.addAndGet(-removed.catalog.size());
+    }
+
+    /**
+     * Số peer đang có bản sao
+     */
+    public int getReplicaCount() { return replicas.size(); }
+
+    /**
+     * Tổng số file trong các bản sao (giới hạn maxTotalFiles)
+     */
+    public int getTotalFiles() { return totalFiles.get(); }
+
+    public long getChangesApplied() { return changesApplied.get(); }
+    public long getDeltaPulls() { return deltaPulls.get(); }
+    public long getFullResyncs() { return fullResyncs.get(); }
+
+    /**
+     * Số lần một peer được trả lời từ bản sao thay vì hỏi qua mạng
+     */
+    public long getLocalAnswers() { return localAnswers.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("bản sao %d peer, %d file, %d thay đổi (%d lần kéo, %d resync), %d trả lời local",
+            getReplicaCount(), getTotalFiles(), getChangesApplied(), getDeltaPulls(), getFullResyncs(),
+            getLocalAnswers());
+    }
+}
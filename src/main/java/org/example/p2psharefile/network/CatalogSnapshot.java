@@ -0,0 +1,429 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.FileInfo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * CatalogSnapshot - Ảnh chụp catalog file chia sẻ trên đĩa, mở bằng memory-map
+ *
+ * Khởi động lại không cần chia sẻ lại thư mục: open() chỉ map file và đọc header + bảng
+ * thư mục (vài ms với 1 triệu file), search / tra hash chạy thẳng trên dữ liệu đã map
+ * trong lúc loadInto() nạp dần vào SharedFileCatalog trên thread nền.
+ *
+ * Định dạng (big-endian, version 2; version 1 không có thời gian sửa, vẫn đọc được):
+ *   header  | roots (off, len, recursive) | thư mục (off, len)
+ *   | entry cố định RECORD_SIZE byte | thứ tự theo hash (số lượng + index, sắp theo 4 byte đầu SHA-256)
+ *   | blob chuỗi UTF-8 (tên file, thư mục, đường dẫn bất thường)
+ *
+ * File được ghi ra file tạm rồi đổi tên (ATOMIC_MOVE): không bao giờ đọc phải snapshot ghi dở.
+ * Một MappedByteBuffer tối đa 2GB (~15 triệu file); lớn hơn thì open() trả về null.
+ */
+public class CatalogSnapshot {
+
+    private static final int MAGIC = 0x50324353;    // "P2CS"
+    private static final int VERSION = 2;
+    private static final int VERSION_NO_MODIFIED = 1;
+
+    private static final int HEADER_SIZE = 72;
+    private static final int ROOT_SIZE = 9;
+    private static final int DIRECTORY_SIZE = 8;
+
+    // Entry: dirId, nameOff, nameLen, pathOff, pathLen, size, flags, sha256, md5, tree, lastModified (+ padding)
+    private static final int RECORD_SIZE = 120;
+    private static final int RECORD_SIZE_V1 = 112;
+    private static final int R_DIR = 0;
+    private static final int R_NAME_OFF = 4;
+    private static final int R_NAME_LEN = 8;
+    private static final int R_PATH_OFF = 12;
+    private static final int R_PATH_LEN = 16;
+    private static final int R_SIZE = 20;
+    private static final int R_FLAGS = 28;
+    private static final int R_SHA = 29;
+    private static final int R_MD5 = R_SHA + SharedFileCatalog.SHA_LEN;
+    private static final int R_TREE = R_MD5 + SharedFileCatalog.MD5_LEN;
+    private static final int R_MODIFIED = R_TREE + SharedFileCatalog.SHA_LEN;
+
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Thư mục gốc được chia sẻ (để theo dõi lại sau khi khởi động)
+     */
+    public static final class Root {
+        private final String path;
+        private final boolean recursive;
+
+        public Root(String path, boolean recursive) {
+            this.path = path;
+            this.recursive = recursive;
+        }
+
+        public String getPath() { return path; }
+        public boolean isRecursive() { return recursive; }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final String ownerId;
+    private final long createdAt;
+    private final int entryCount;
+    private final int recordSize;
+    private final boolean hasModified;
+    private final int hashCount;
+    private final int entriesOffset;
+    private final int hashOrderOffset;
+    private final int stringsOffset;
+    private final String[] directories;
+    private final List<Root> roots;
+
+    private CatalogSnapshot(MappedByteBuffer buffer, String ownerId) {
+        this.buffer = buffer;
+        this.ownerId = ownerId;
+        this.hasModified = buffer.getInt(4) != VERSION_NO_MODIFIED;
+        this.recordSize = hasModified ? RECORD_SIZE : RECORD_SIZE_V1;
+        this.createdAt = buffer.getLong(8);
+        this.entryCount = buffer.getInt(16);
+        int directoryCount = buffer.getInt(20);
+        int rootCount = buffer.getInt(24);
+        int directoriesOffset = (int) buffer.getLong(32);
+        this.entriesOffset = (int) buffer.getLong(40);
+        this.hashOrderOffset = (int) buffer.getLong(48);
+        this.stringsOffset = (int) buffer.getLong(56);
+        this.hashCount = buffer.getInt(hashOrderOffset);
+
+        this.roots = new ArrayList<>(rootCount);
+        for (int i = 0; i < rootCount; i++) {
+            int at = HEADER_SIZE + i * ROOT_SIZE;
+            roots.add(new Root(readString(buffer.getInt(at), buffer.getInt(at + 4)), buffer.get(at + 8) != 0));
+        }
+        this.directories = new String[directoryCount];
+        for (int i = 0; i < directoryCount; i++) {
+            int at = directoriesOffset + i * DIRECTORY_SIZE;
+            directories[i] = readString(buffer.getInt(at), buffer.getInt(at + 4));
+        }
+    }
+
+    // ========== Mở ==========
+
+    /**
+     * Map snapshot (chỉ đọc header + bảng thư mục)
+     *
+     * @param ownerId Peer ID gán cho FileInfo đọc ra (peer ID đổi mỗi lần khởi động)
+     * @return null nếu không có file, sai định dạng / version hoặc file hỏng
+     */
+    public static CatalogSnapshot open(Path file, String ownerId) {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                System.err.println("⚠ Catalog snapshot không hợp lệ (kích thước " + length + " byte)");
+                return null;
+            }
+            // Mapping vẫn còn hiệu lực sau khi đóng channel
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int version = buffer.getInt(4);
+            boolean knownVersion = version == VERSION || version == VERSION_NO_MODIFIED;
+            if (buffer.getInt(0) != MAGIC || !knownVersion || buffer.getLong(64) != length) {
+                System.err.println("⚠ Catalog snapshot sai định dạng hoặc version, bỏ qua");
+                return null;
+            }
+            return new CatalogSnapshot(buffer, ownerId);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("⚠ Không thể mở catalog snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ========== Đọc ==========
+
+    public int size() {
+        return entryCount;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public List<Root> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    /**
+     * FileInfo của entry thứ index
+     */
+    public FileInfo get(int index) {
+        int at = recordAt(index);
+        String name = readString(buffer.getInt(at + R_NAME_OFF), buffer.getInt(at + R_NAME_LEN));
+        int pathLen = buffer.getInt(at + R_PATH_LEN);
+        String path = pathLen >= 0 ? readString(buffer.getInt(at + R_PATH_OFF), pathLen)
+            : SharedFileCatalog.joinPath(directories[buffer.getInt(at + R_DIR)], name);
+        byte flags = buffer.get(at + R_FLAGS);
+
+        FileInfo info = new FileInfo(name, buffer.getLong(at + R_SIZE), path,
+            (flags & SharedFileCatalog.FLAG_MD5) != 0 ? readHex(at + R_MD5, SharedFileCatalog.MD5_LEN) : null,
+            ownerId);
+        if ((flags & SharedFileCatalog.FLAG_SHA) != 0) {
+            info.setFileHash(readHex(at + R_SHA, SharedFileCatalog.SHA_LEN));
+        }
+        if ((flags & SharedFileCatalog.FLAG_TREE) != 0) {
+            info.setTreeHash(readHex(at + R_TREE, SharedFileCatalog.SHA_LEN));
+        }
+        if (hasModified) {
+            info.setLastModified(buffer.getLong(at + R_MODIFIED));
+        }
+        return info;
+    }
+
+    /**
+     * Tìm theo SHA-256: tìm nhị phân trên thứ tự hash đã lưu, không cần nạp gì vào heap
+     */
+    public FileInfo findByHash(String fileHash) {
+        byte[] key = SharedFileCatalog.parseHex(fileHash, SharedFileCatalog.SHA_LEN);
+        if (key == null) return null;
+        int prefix = ByteBuffer.wrap(key).getInt();
+
+        int lo = 0, hi = hashCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Integer.compareUnsigned(buffer.getInt(recordAt(hashOrderIndex(mid)) + R_SHA), prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        byte[] candidate = new byte[SharedFileCatalog.SHA_LEN];
+        for (int i = lo; i < hashCount; i++) {
+            int index = hashOrderIndex(i);
+            int at = recordAt(index) + R_SHA;
+            if (buffer.getInt(at) != prefix) break;
+            buffer.get(at, candidate);
+            if (Arrays.equals(candidate, key)) return get(index);
+        }
+        return null;
+    }
+
+    /**
+     * Các file có tên thỏa điều kiện (giải mã tên trực tiếp từ vùng nhớ đã map)
+     */
+    public List<FileInfo> findByName(Predicate<String> matcher) {
+        List<FileInfo> result = new ArrayList<>();
+        for (int i = 0; i < entryCount; i++) {
+            int at = recordAt(i);
+            if (matcher.test(readString(buffer.getInt(at + R_NAME_OFF), buffer.getInt(at + R_NAME_LEN)))) {
+                result.add(get(i));
+            }
+        }
+        return result;
+    }
+
+    public List<FileInfo> toList() {
+        List<FileInfo> result = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            result.add(get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Nạp mọi entry vào catalog trên heap (không ghi đè file đã được thêm/sửa trong lúc nạp)
+     *
+     * @return Số entry đã nạp
+     */
+    public int loadInto(SharedFileCatalog catalog) {
+        byte[] sha = new byte[SharedFileCatalog.SHA_LEN];
+        byte[] md5 = new byte[SharedFileCatalog.MD5_LEN];
+        byte[] tree = new byte[SharedFileCatalog.SHA_LEN];
+        for (int i = 0; i < entryCount; i++) {
+            int at = recordAt(i);
+            String directory = directories[buffer.getInt(at + R_DIR)];
+            String name = readString(buffer.getInt(at + R_NAME_OFF), buffer.getInt(at + R_NAME_LEN));
+            int pathLen = buffer.getInt(at + R_PATH_LEN);
+            String path = pathLen >= 0 ? readString(buffer.getInt(at + R_PATH_OFF), pathLen)
+                : SharedFileCatalog.joinPath(directory, name);
+            byte flags = buffer.get(at + R_FLAGS);
+            buffer.get(at + R_SHA, sha);
+            buffer.get(at + R_MD5, md5);
+            buffer.get(at + R_TREE, tree);
+
+            catalog.put(directory, name, path, buffer.getLong(at + R_SIZE),
+                hasModified ? buffer.getLong(at + R_MODIFIED) : 0,
+                (flags & SharedFileCatalog.FLAG_SHA) != 0 ? sha : null,
+                (flags & SharedFileCatalog.FLAG_MD5) != 0 ? md5 : null,
+                (flags & SharedFileCatalog.FLAG_TREE) != 0 ? tree : null, false);
+        }
+        return entryCount;
+    }
+
+    private int recordAt(int index) {
+        return entriesOffset + index * recordSize;
+    }
+
+    private int hashOrderIndex(int i) {
+        return buffer.getInt(hashOrderOffset + 4 + i * 4);
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(stringsOffset + offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String readHex(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return SharedFileCatalog.toHex(bytes, 0, length);
+    }
+
+    // ========== Ghi ==========
+
+    /**
+     * Ghi snapshot của catalog (giữ read lock của catalog trong lúc ghi)
+     *
+     * @param roots Thư mục gốc đang chia sẻ -> đệ quy
+     * @return Số entry đã ghi
+     */
+    public static int write(Path file, SharedFileCatalog catalog, Map<String, Boolean> roots) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Path stringsTemp = file.resolveSibling(file.getFileName() + ".strings.tmp");
+
+        try {
+            SnapshotWriter writer = new SnapshotWriter(temp, stringsTemp, catalog, roots);
+            catalog.export(writer);
+            writer.finish();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return writer.count;
+        } finally {
+            Files.deleteIfExists(temp);
+            Files.deleteIfExists(stringsTemp);
+        }
+    }
+
+    /**
+     * Ghi tuần tự: header + roots + thư mục + entry vào file chính,
+     * chuỗi vào file tạm riêng rồi nối vào cuối (không giữ cả snapshot trong heap)
+     */
+    private static final class SnapshotWriter implements SharedFileCatalog.Exporter {
+        private final Path file;
+        private final Path stringsFile;
+        private final SharedFileCatalog catalog;
+        private final Map<String, Boolean> roots;
+
+        private DataOutputStream out;
+        private DataOutputStream strings;
+        private int stringsLength;
+        private long entriesOffset;
+        private long[] hashKeys;
+        private int hashKeyCount;
+        private int count;
+
+        SnapshotWriter(Path file, Path stringsFile, SharedFileCatalog catalog, Map<String, Boolean> roots) {
+            this.file = file;
+            this.stringsFile = stringsFile;
+            this.catalog = catalog;
+            this.roots = new LinkedHashMap<>(roots);
+        }
+
+        @Override
+        public void begin(List<String> directories, int entryCount) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER_SIZE));
+            strings = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(stringsFile), IO_BUFFER_SIZE));
+            hashKeys = new long[entryCount];
+
+            long directoriesOffset = HEADER_SIZE + (long) roots.size() * ROOT_SIZE;
+            entriesOffset = directoriesOffset + (long) directories.size() * DIRECTORY_SIZE;
+
+            // Header (entriesOffset / hashOrder / strings / độ dài được ghi lại trong finish())
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(entryCount);
+            out.writeInt(directories.size());
+            out.writeInt(roots.size());
+            out.writeInt(0);
+            out.writeLong(directoriesOffset);
+            out.write(new byte[HEADER_SIZE - 40]);
+
+            for (Map.Entry<String, Boolean> root : roots.entrySet()) {
+                writeStringRef(root.getKey());
+                out.writeByte(root.getValue() ? 1 : 0);
+            }
+            for (String directory : directories) {
+                writeStringRef(directory);
+            }
+        }
+
+        @Override
+        public void entry(int id) throws IOException {
+            String name = catalog.rawName(id);
+            String irregularPath = catalog.rawIrregularPath(id);
+            byte flags = catalog.rawFlags(id);
+
+            out.writeInt(catalog.rawDirectory(id));
+            writeStringRef(name);
+            if (irregularPath != null) {
+                writeStringRef(irregularPath);
+            } else {
+                out.writeInt(0);
+                out.writeInt(-1);
+            }
+            out.writeLong(catalog.rawSize(id));
+            out.writeByte(flags);
+            out.write(catalog.rawSha256(), id * SharedFileCatalog.SHA_LEN, SharedFileCatalog.SHA_LEN);
+            out.write(catalog.rawMd5(), id * SharedFileCatalog.MD5_LEN, SharedFileCatalog.MD5_LEN);
+            out.write(catalog.rawTreeRoots(), id * SharedFileCatalog.SHA_LEN, SharedFileCatalog.SHA_LEN);
+            out.writeLong(catalog.rawLastModified(id));
+            out.write(new byte[RECORD_SIZE - R_MODIFIED - 8]);
+
+            if ((flags & SharedFileCatalog.FLAG_SHA) != 0) {
+                // 4 byte đầu SHA-256 (đảo bit dấu để sắp không dấu) | index trong snapshot
+                int prefix = ByteBuffer.wrap(catalog.rawSha256(), id * SharedFileCatalog.SHA_LEN, 4).getInt();
+                hashKeys[hashKeyCount++] = ((long) (prefix ^ Integer.MIN_VALUE) << 32) | count;
+            }
+            count++;
+        }
+
+        void finish() throws IOException {
+            Arrays.sort(hashKeys, 0, hashKeyCount);
+            out.writeInt(hashKeyCount);
+            for (int i = 0; i < hashKeyCount; i++) {
+                out.writeInt((int) hashKeys[i]);
+            }
+            long hashOrderOffset = entriesOffset + (long) count * RECORD_SIZE;
+            long stringsOffset = hashOrderOffset + 4 + 4L * hashKeyCount;
+            long totalLength = stringsOffset + stringsLength;
+            out.close();
+            strings.close();
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+                 FileChannel source = FileChannel.open(stringsFile, StandardOpenOption.READ)) {
+                long position = stringsOffset;
+                while (position < totalLength) {
+                    position += source.transferTo(position - stringsOffset, totalLength - position,
+                        channel.position(position));
+                }
+
+                ByteBuffer offsets = ByteBuffer.allocate(HEADER_SIZE - 40);
+                offsets.putLong(entriesOffset).putLong(hashOrderOffset).putLong(stringsOffset).putLong(totalLength);
+                offsets.flip();
+                channel.write(offsets, 40);
+                channel.force(true);
+            }
+        }
+
+        private void writeStringRef(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(stringsLength);
+            out.writeInt(bytes.length);
+            strings.write(bytes);
+            stringsLength += bytes.length;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.p2psharefile.network;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ChunkAvailability - Bản đồ chunk mà mỗi peer trong swarm đang giữ
+ *
+ * Dùng cho partial seeding:
+ * - Peer đang download quảng bá bitmap chunk đã nhận
+ * - Các "have" update tăng dần được gộp vào bitmap của peer đó
+ * - Downloader chọn nguồn cho từng chunk dựa trên bản đồ này
+ *
+ * Key của peer là địa chỉ IP (chunk server luôn chạy trên port cố định).
+ * Số peer giữ mỗi chunk được duy trì sẵn để chọn chunk hiếm nhất trong O(1).
+ */
+public class ChunkAvailability {
+
+    private final int totalChunks;
+    private final Map<String, BitSet> peerChunks = new ConcurrentHashMap<>();
+    private final AtomicIntegerArray counts;
+
+    public ChunkAvailability(int totalChunks) {
+        this.totalChunks = totalChunks;
+        this.counts = new AtomicIntegerArray(Math.max(0, totalChunks));
+    }
+
+    /**
+     * Ghi đè toàn bộ bitmap của một peer (từ RESPONSE_BITMAP)
+     */
+    public void setPeerBitmap(String peerKey, BitSet chunks) {
+        BitSet copy = (BitSet) chunks.clone();
+        if (copy.length() > totalChunks) {
+            copy.clear(totalChunks, copy.length());
+        }
+        synchronized (this) {
+            BitSet old = peerChunks.put(peerKey, copy);
+            if (old != null) adjustCounts(old, -1);
+            adjustCounts(copy, 1);
+        }
+    }
+
+    /**
+     * Ghi nhận peer vừa có thêm chunk (từ HAVE)
+     */
+    public void markHave(String peerKey, int chunkIndex) {
+        if (chunkIndex < 0 || chunkIndex >= totalChunks) return;
+        synchronized (this) {
+            BitSet chunks = peerChunks.computeIfAbsent(peerKey, k -> new BitSet());
+            if (!chunks.get(chunkIndex)) {
+                chunks.set(chunkIndex);
+                counts.incrementAndGet(chunkIndex);
+            }
+        }
+    }
+
+    /**
+     * Xóa peer khỏi swarm (lỗi kết nối, offline...)
+     */
+    public void removePeer(String peerKey) {
+        synchronized (this) {
+            BitSet old = peerChunks.remove(peerKey);
+            if (old != null) adjustCounts(old, -1);
+        }
+    }
+
+    private void adjustCounts(BitSet chunks, int delta) {
+        for (int i = chunks.nextSetBit(0); i >= 0; i = chunks.nextSetBit(i + 1)) {
+            counts.addAndGet(i, delta);
+        }
+    }
+
+    /**
+     * Kiểm tra peer có chunk không
+     */
+    public synchronized boolean hasChunk(String peerKey, int chunkIndex) {
+        BitSet chunks = peerChunks.get(peerKey);
+        return chunks != null && chunks.get(chunkIndex);
+    }
+
+    /**
+     * Danh sách peer đang giữ chunk
+     */
+    public synchronized List<String> getPeersWithChunk(int chunkIndex) {
+        List<String> result = new ArrayList<>();
+        if (chunkIndex < 0 || chunkIndex >= totalChunks || counts.get(chunkIndex) == 0) return result;
+        for (Map.Entry<String, BitSet> entry : peerChunks.entrySet()) {
+            if (entry.getValue().get(chunkIndex)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Số peer đang giữ chunk (dùng cho rarest-first)
+     */
+    public int getAvailabilityCount(int chunkIndex) {
+        if (chunkIndex < 0 || chunkIndex >= totalChunks) return 0;
+        return counts.get(chunkIndex);
+    }
+
+    public Set<String> getPeers() {
+        return peerChunks.keySet();
+    }
+
+    public boolean isEmpty() {
+        return peerChunks.isEmpty();
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.TransferState;
+import org.example.p2psharefile.model.TransferState.ChunkSelectionPolicy;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ChunkPicker - Chiến lược chọn chunk tiếp theo để request
+ *
+ * Dựa trên bitmap của TransferState (chunk đã nhận) và bản đồ ChunkAvailability
+ * (chunk mà các partial seed đang giữ):
+ * - SEQUENTIAL: theo thứ tự, phù hợp media preview / xem trước khi tải xong
+ * - RAREST_FIRST: chunk ít peer giữ nhất trước, tối đa hóa nhân bản trong swarm
+ * - RANDOM: ngẫu nhiên, tránh các peer cùng dồn vào một vùng chunk
+ */
+public interface ChunkPicker {
+
+    /**
+     * Chọn chunk tiếp theo cần request
+     *
+     * @param state Trạng thái transfer (bitmap chunk đã nhận)
+     * @param availability Bản đồ chunk của partial seed (có thể null)
+     * @param inFlight Các chunk đang được request
+     * @return Chỉ số chunk, hoặc -1 nếu không còn chunk nào để request
+     */
+    int pickChunk(TransferState state, ChunkAvailability availability, Set<Integer> inFlight);
+
+    /**
+     * Tạo picker theo policy của transfer
+     */
+    static ChunkPicker forPolicy(ChunkSelectionPolicy policy) {
+        if (policy == null) return new SequentialPicker();
+        switch (policy) {
+            case RAREST_FIRST:
+                return new RarestFirstPicker();
+            case RANDOM:
+                return new RandomPicker();
+            case SEQUENTIAL:
+            default:
+                return new SequentialPicker();
+        }
+    }
+
+    /**
+     * Chunk còn thiếu tiếp theo từ fromIndex (bỏ qua chunk đang request), -1 nếu hết
+     */
+    private static int nextCandidate(TransferState state, int fromIndex, Set<Integer> inFlight) {
+        int index = state.getNextMissingChunk(fromIndex);
+        while (index < state.getTotalChunks() && inFlight.contains(index)) {
+            index = state.getNextMissingChunk(index + 1);
+        }
+        return index < state.getTotalChunks() ? index : -1;
+    }
+
+    /**
+     * Theo thứ tự chỉ số chunk
+     */
+    class SequentialPicker implements ChunkPicker {
+        private int cursor = 0;
+
+        @Override
+        public int pickChunk(TransferState state, ChunkAvailability availability, Set<Integer> inFlight) {
+            int index = nextCandidate(state, cursor, inFlight);
+            if (index < 0 && cursor > 0) {
+                // Chunk phía trước có thể phải thử lại
+                cursor = 0;
+                index = nextCandidate(state, 0, inFlight);
+            }
+            if (index >= 0) cursor = index + 1;
+            return index;
+        }
+    }
+
+    /**
+     * Chunk hiếm nhất trước (ít partial seed giữ nhất), hòa thì chọn ngẫu nhiên
+     *
+     * Chỉ xét tối đa SCAN_LIMIT chunk còn thiếu bắt đầu từ vị trí ngẫu nhiên
+     * để chi phí mỗi lần chọn không phụ thuộc kích thước file.
+     */
+    class RarestFirstPicker implements ChunkPicker {
+        private static final int SCAN_LIMIT = 2048;
+
+        @Override
+        public int pickChunk(TransferState state, ChunkAvailability availability, Set<Integer> inFlight) {
+            int total = state.getTotalChunks();
+            if (total == 0) return -1;
+            if (availability == null || availability.isEmpty()) {
+                return new RandomPicker().pickChunk(state, null, inFlight);
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int start = random.nextInt(total);
+            int best = -1;
+            int bestCount = Integer.MAX_VALUE;
+            int ties = 0;
+            int scanned = 0;
+
+            int index = nextCandidate(state, start, inFlight);
+            boolean wrapped = false;
+            while (scanned < SCAN_LIMIT) {
+                if (index < 0 || (wrapped && index >= start)) {
+                    if (wrapped) break;
+                    wrapped = true;
+                    index = nextCandidate(state, 0, inFlight);
+                    if (index < 0 || index >= start) break;
+                }
+
+                int count = availability.getAvailabilityCount(index);
+                if (count < bestCount) {
+                    best = index;
+                    bestCount = count;
+                    ties = 1;
+                } else if (count == bestCount && random.nextInt(++ties) == 0) {
+                    best = index;   // Reservoir sampling giữa các chunk hòa
+                }
+                scanned++;
+                index = nextCandidate(state, index + 1, inFlight);
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Chunk còn thiếu ngẫu nhiên
+     */
+    class RandomPicker implements ChunkPicker {
+        @Override
+        public int pickChunk(TransferState state, ChunkAvailability availability, Set<Integer> inFlight) {
+            int total = state.getTotalChunks();
+            if (total == 0) return -1;
+            int index = nextCandidate(state, ThreadLocalRandom.current().nextInt(total), inFlight);
+            return index >= 0 ? index : nextCandidate(state, 0, inFlight);
+        }
+    }
+}
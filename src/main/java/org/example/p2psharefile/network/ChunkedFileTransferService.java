@@ -1,12 +1,15 @@
 package org.example.p2psharefile.network;
 
 import org.example.p2psharefile.compression.FileCompression;
+import org.example.p2psharefile.model.ChunkBitmap;
 import org.example.p2psharefile.model.FileInfo;
 import org.example.p2psharefile.model.PeerInfo;
 import org.example.p2psharefile.model.TransferState;
+import org.example.p2psharefile.model.TransferState.ChunkSelectionPolicy;
 import org.example.p2psharefile.model.TransferState.TransferStatus;
 import org.example.p2psharefile.security.AESEncryption;
 import org.example.p2psharefile.security.SecurityManager;
+import org.example.p2psharefile.security.TreeHash;
 
 import javax.crypto.SecretKey;
 import javax.net.ssl.SSLServerSocket;
@@ -15,8 +18,9 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
@@ -35,6 +39,16 @@ import java.util.logging.Logger;
  * - RESPONSE_METADATA: Trả về metadata
  * - RESPONSE_CHUNK: Trả về dữ liệu chunk
  * 
+ * Partial seeding (peer đang download cũng phục vụ chunk đã có, chỉ khi có tree hash):
+ * - REQUEST_BITMAP: Hỏi bitmap chunk đã kiểm tra theo fileHash (đăng ký nhận HAVE)
+ * - HAVE: Thông báo tăng dần các chunk vừa qua kiểm tra (chỉ nhận từ peer đã biết)
+ * - REQUEST_CHUNK_BY_HASH: Yêu cầu chunk theo fileHash (từ file .part hoặc file đã chia sẻ)
+ * 
+ * Tree hash (FileInfo.treeHash != null):
+ * - REQUEST_TREE: Lấy hash từng segment (TreeHash) từ nguồn gốc, kiểm tra khớp root
+ * - Mỗi segment được kiểm tra ngay khi nhận đủ chunk; sai hash thì tải lại và loại
+ *   partial seed đã gửi dữ liệu sai. Peer cũ không hỗ trợ -> tải như trước, không kiểm tra
+ * 
  * @author P2PShareFile Team
  * @version 2.0 - Chunked Transfer with Server Socket
  */
@@ -49,13 +63,52 @@ public class ChunkedFileTransferService {
     // Protocol commands
     private static final byte CMD_REQUEST_METADATA = 0x01;
     private static final byte CMD_REQUEST_CHUNK = 0x02;
+    private static final byte CMD_REQUEST_BITMAP = 0x03;
+    private static final byte CMD_HAVE = 0x04;
+    private static final byte CMD_REQUEST_CHUNK_BY_HASH = 0x05;
+    private static final byte CMD_REQUEST_TREE = 0x06;
     private static final byte CMD_RESPONSE_METADATA = 0x11;
     private static final byte CMD_RESPONSE_CHUNK = 0x12;
+    private static final byte CMD_RESPONSE_BITMAP = 0x13;
+    private static final byte CMD_RESPONSE_TREE = 0x14;
     private static final byte CMD_ERROR = (byte) 0xFF;
     
+    // Partial seeding
+    private static final int SWARM_CONNECTION_TIMEOUT = 1000; // 1s - hỏi bitmap nhanh, bỏ qua peer chậm
+    private static final int READ_TIMEOUT_SWARM = 2000;       // 2s chờ bitmap
+    private static final long SWARM_REFRESH_INTERVAL = 15000; // 15s hỏi lại bitmap
+    private static final long HAVE_FLUSH_INTERVAL = 1000;     // 1s gộp HAVE một lần
+    private static final long INTEREST_TTL = 60000;           // 60s peer quan tâm hết hạn
+    
+    // Chunk scheduler
+    private static final int DEFAULT_PARALLEL_REQUESTS = 4;   // Số request chunk song song
+    private static final int DEFAULT_ENDGAME_THRESHOLD = 8;   // Số chunk còn thiếu để vào endgame
+    private static final double DEFAULT_HEDGE_BUDGET = 0.05;  // Tối đa 5% kích thước file bị tải trùng
+    private static final long MIN_HEDGE_DELAY = 200;          // Chờ ít nhất 200ms trước khi hedge
+    private static final int MAX_CHUNK_RETRIES = 3;
+    
+    // Tree hash
+    private static final int MAX_SEGMENT_FAILURES = 3;        // Segment sai hash quá số lần này -> dừng
+    
+    // RESPONSE_CHUNK: IV + padding AES và header/khối GZIP không nén được
+    private static final int CHUNK_RESPONSE_OVERHEAD = 4096;
+    private static final long RESULT_POLL_INTERVAL = 50;
+    
     private final PeerInfo localPeer;
     private final SecurityManager securityManager;
     private final SecretKey encryptionKey;
+    private final PeerDiscovery peerDiscovery;   // Nguồn peer để tìm partial seed (có thể null)
+    
+    // FileHash -> file hoàn chỉnh đang chia sẻ (do P2PService cung cấp)
+    private volatile Function<String, File> sharedFileResolver;
+    // Đường dẫn file đang chia sẻ -> leaf tree hash đã lưu lúc chia sẻ (null = không chia sẻ / chưa có)
+    private volatile Function<String, TreeHash.Result> sharedTreeResolver;
+    // FileHash -> provider tìm qua DHT (chặn tới khi lookup xong, null = không dùng DHT)
+    private volatile Function<String, List<PeerInfo>> providerLookup;
+    
+    // Đường truyền nhanh cho peer cùng máy (có thể null)
+    private volatile LocalTransportService localTransport;
+    private volatile boolean sameHostFastPath = true;
     
     // Server socket để nhận requests từ peers khác
     private SSLServerSocket serverSocket;
@@ -66,6 +119,147 @@ public class ChunkedFileTransferService {
     private final Map<String, TransferState> activeTransfers = new ConcurrentHashMap<>();
     private final Map<String, Future<?>> transferTasks = new ConcurrentHashMap<>();
     
+    // Partial seeding: FileHash -> transfer đang download (phục vụ chunk từ file .part)
+    private final Map<String, TransferState> seedingTransfers = new ConcurrentHashMap<>();
+    // FileHash -> các chunk thuộc segment đã qua tree hash (chỉ những chunk này được phục vụ và quảng bá)
+    private final Map<String, ChunkBitmap> seedingVerified = new ConcurrentHashMap<>();
+    // FileHash -> (IP peer quan tâm -> thời điểm hỏi bitmap gần nhất), nhận HAVE update
+    private final Map<String, Map<String, Long>> interestedPeers = new ConcurrentHashMap<>();
+    // FileHash -> chunk index mới nhận, chờ flush HAVE (set chỉ sửa trong compute, flush lấy cả set bằng remove)
+    private final Map<String, Set<Integer>> pendingHaves = new ConcurrentHashMap<>();
+    // FileHash đang hỏi bitmap nền (mỗi file một lượt refresh tại một thời điểm)
+    private final Set<String> swarmRefreshing = ConcurrentHashMap.newKeySet();
+    // FileHash -> bản đồ chunk của các partial seed
+    private final Map<String, ChunkAvailability> swarmAvailability = new ConcurrentHashMap<>();
+    private ScheduledExecutorService haveExecutor;
+    
+    // Cấu hình scheduler (có thể chỉnh qua setter)
+    private volatile int parallelRequests = DEFAULT_PARALLEL_REQUESTS;
+    private volatile int endgameThreshold = DEFAULT_ENDGAME_THRESHOLD;
+    private volatile double hedgeBudgetRatio = DEFAULT_HEDGE_BUDGET;
+    
+    /**
+     * Một request chunk đang chạy (có thể bị hủy khi request trùng thắng)
+     */
+    private static final class ChunkRequest {
+        final int chunkIndex;
+        final String seedIp;        // null = nguồn gốc
+        final boolean hedge;        // Request nhân bản trong endgame
+        final long startNanos = System.nanoTime();
+        volatile Socket socket;
+        volatile boolean cancelled;
+        
+        ChunkRequest(int chunkIndex, String seedIp, boolean hedge) {
+            this.chunkIndex = chunkIndex;
+            this.seedIp = seedIp;
+            this.hedge = hedge;
+        }
+        
+        void attach(Socket socket) throws IOException {
+            this.socket = socket;
+            if (cancelled) socket.close();
+        }
+        
+        void cancel() {
+            cancelled = true;
+            Socket s = socket;
+            if (s != null) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+    
+    /**
+     * Kiểm tra dữ liệu tải về theo từng segment của tree hash
+     */
+    private static final class SegmentVerifier {
+        final byte[][] leaves;
+        final int chunksPerSegment;
+        final int totalChunks;
+        final long fileSize;
+        final BitSet verified = new BitSet();
+        final Map<Integer, Integer> failures = new HashMap<>();
+        final Map<Integer, String> chunkSources = new HashMap<>();   // Chunk -> IP partial seed đã gửi
+        final ChunkBitmap verifiedChunks;                              // Đọc từ thread phục vụ peer khác
+        
+        SegmentVerifier(byte[][] leaves, int chunkSize, int totalChunks, long fileSize) {
+            this.leaves = leaves;
+            this.chunksPerSegment = TreeHash.SEGMENT_SIZE / chunkSize;
+            this.totalChunks = totalChunks;
+            this.fileSize = fileSize;
+            this.verifiedChunks = new ChunkBitmap(totalChunks);
+        }
+        
+        int segmentOf(int chunkIndex) {
+            return chunkIndex / chunksPerSegment;
+        }
+        
+        int firstChunk(int segment) {
+            return segment * chunksPerSegment;
+        }
+        
+        int endChunk(int segment) {
+            return Math.min(totalChunks, (segment + 1) * chunksPerSegment);
+        }
+        
+        boolean isComplete(TransferState state, int segment) {
+            if (verified.get(segment)) return false;
+            for (int c = firstChunk(segment); c < endChunk(segment); c++) {
+                if (!state.isChunkReceived(c)) return false;
+            }
+            return true;
+        }
+        
+        /**
+         * Đọc lại segment từ file .part và so với leaf
+         */
+        boolean verify(RandomAccessFile raf, int segment) throws IOException {
+            long offset = (long) segment * TreeHash.SEGMENT_SIZE;
+            int length = (int) Math.min(TreeHash.SEGMENT_SIZE, fileSize - offset);
+            byte[] data = new byte[length];
+            raf.seek(offset);
+            raf.readFully(data);
+            
+            boolean ok = TreeHash.verifySegment(data, 0, length, leaves[segment]);
+            if (ok) {
+                verified.set(segment);
+                for (int c = firstChunk(segment); c < endChunk(segment); c++) {
+                    chunkSources.remove(c);
+                    verifiedChunks.set(c);
+                }
+            }
+            return ok;
+        }
+        
+        /**
+         * Bỏ các chunk của segment sai hash
+         * 
+         * @return IP các partial seed đã gửi chunk trong segment này
+         */
+        Set<String> reject(TransferState state, int segment) {
+            Set<String> seeds = new HashSet<>();
+            for (int c = firstChunk(segment); c < endChunk(segment); c++) {
+                state.unmarkChunkReceived(c);
+                String seed = chunkSources.remove(c);
+                if (seed != null) seeds.add(seed);
+            }
+            failures.merge(segment, 1, Integer::sum);
+            return seeds;
+        }
+    }
+    
+    private static final class ChunkResult {
+        final ChunkRequest request;
+        final byte[] data;          // null nếu lỗi
+        final Exception error;
+        
+        ChunkResult(ChunkRequest request, byte[] data, Exception error) {
+            this.request = request;
+            this.data = data;
+            this.error = error;
+        }
+    }
+    
     /**
      * Interface callback cho progress
      */
@@ -79,17 +273,80 @@ public class ChunkedFileTransferService {
     }
     
     public ChunkedFileTransferService(PeerInfo localPeer, SecurityManager securityManager) {
+        this(localPeer, securityManager, (PeerDiscovery) null);
+    }
+    
+    public ChunkedFileTransferService(PeerInfo localPeer, SecurityManager securityManager, PeerDiscovery peerDiscovery) {
         this.localPeer = localPeer;
         this.securityManager = securityManager;
+        this.peerDiscovery = peerDiscovery;
         this.encryptionKey = AESEncryption.createKeyFromString(DEFAULT_KEY);
     }
     
     public ChunkedFileTransferService(PeerInfo localPeer, SecurityManager securityManager, SecretKey customKey) {
         this.localPeer = localPeer;
         this.securityManager = securityManager;
+        this.peerDiscovery = null;
         this.encryptionKey = customKey;
     }
     
+    /**
+     * Số request chunk song song cho mỗi download
+     */
+    public void setParallelRequests(int parallelRequests) {
+        this.parallelRequests = Math.max(1, parallelRequests);
+    }
+    
+    /**
+     * Số chunk còn thiếu để bắt đầu endgame (nhân bản request chậm)
+     */
+    public void setEndgameThreshold(int endgameThreshold) {
+        this.endgameThreshold = Math.max(0, endgameThreshold);
+    }
+    
+    /**
+     * Giới hạn băng thông dùng cho request trùng (tỉ lệ so với kích thước file)
+     */
+    public void setHedgeBudgetRatio(double hedgeBudgetRatio) {
+        this.hedgeBudgetRatio = Math.max(0, hedgeBudgetRatio);
+    }
+    
+    /**
+     * Gắn local transport để peer cùng máy bỏ qua loopback TLS
+     */
+    public void setLocalTransport(LocalTransportService localTransport) {
+        this.localTransport = localTransport;
+    }
+    
+    /**
+     * Bật/tắt đường nhanh cho peer cùng máy (đọc file trực tiếp / Unix socket)
+     */
+    public void setSameHostFastPath(boolean sameHostFastPath) {
+        this.sameHostFastPath = sameHostFastPath;
+    }
+    
+    /**
+     * Cung cấp cách tra file hoàn chỉnh theo fileHash (để phục vụ REQUEST_CHUNK_BY_HASH)
+     */
+    public void setSharedFileResolver(Function<String, File> sharedFileResolver) {
+        this.sharedFileResolver = sharedFileResolver;
+    }
+    
+    /**
+     * Cung cấp cách tìm provider theo fileHash qua DHT: swarm hỏi bitmap cả các peer này,
+     * không chỉ peer discovery biết
+     */
+    public void setProviderLookup(Function<String, List<PeerInfo>> providerLookup) {
+        this.providerLookup = providerLookup;
+    }
+    
+    /**
+     * Cung cấp leaf tree hash theo đường dẫn file đang chia sẻ (để phục vụ REQUEST_TREE)
+     */
+    public void setSharedTreeResolver(Function<String, TreeHash.Result> sharedTreeResolver) {
+        this.sharedTreeResolver = sharedTreeResolver;
+    }
+    
     /**
      * Bắt đầu service với server socket để nhận requests
      */
@@ -105,6 +362,11 @@ public class ChunkedFileTransferService {
         // Thread lắng nghe requests
         executorService.submit(this::listenForRequests);
         
+        // Flush HAVE update định kỳ cho partial seeding
+        haveExecutor = Executors.newSingleThreadScheduledExecutor();
+        haveExecutor.scheduleWithFixedDelay(this::flushHaves, HAVE_FLUSH_INTERVAL, 
+            HAVE_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        
         System.out.println("✓ Chunked File Transfer Service đã khởi động trên port " + CHUNKED_TRANSFER_PORT);
     }
     
@@ -149,6 +411,16 @@ public class ChunkedFileTransferService {
         }
         transferTasks.clear();
         activeTransfers.clear();
+        seedingTransfers.clear();
+        seedingVerified.clear();
+        interestedPeers.clear();
+        pendingHaves.clear();
+        swarmAvailability.clear();
+        swarmRefreshing.clear();
+        
+        if (haveExecutor != null) {
+            haveExecutor.shutdownNow();
+        }
         
         // Đóng server socket
         try {
@@ -178,6 +450,7 @@ public class ChunkedFileTransferService {
             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
             
             byte command = dis.readByte();
+            String remoteIp = socket.getInetAddress().getHostAddress();
             
             switch (command) {
                 case CMD_REQUEST_METADATA:
@@ -186,6 +459,18 @@ public class ChunkedFileTransferService {
                 case CMD_REQUEST_CHUNK:
                     handleChunkRequest(dis, dos);
                     break;
+                case CMD_REQUEST_BITMAP:
+                    handleBitmapRequest(dis, dos, remoteIp);
+                    break;
+                case CMD_HAVE:
+                    handleHave(dis, remoteIp);
+                    break;
+                case CMD_REQUEST_CHUNK_BY_HASH:
+                    handleChunkByHashRequest(dis, dos);
+                    break;
+                case CMD_REQUEST_TREE:
+                    handleTreeRequest(dis, dos);
+                    break;
                 default:
                     dos.writeByte(CMD_ERROR);
                     dos.writeUTF("Unknown command: " + command);
@@ -238,10 +523,48 @@ public class ChunkedFileTransferService {
             return;
         }
         
+        sendChunk(file, file.getName(), file.length(), chunkIndex, chunkSize, dos);
+    }
+    
+    /**
+     * Xử lý yêu cầu tree hash: trả về hash của từng segment
+     * 
+     * Leaf đã tính lúc chia sẻ; đường dẫn không nằm trong catalog chia sẻ bị từ chối
+     * (không hash file theo yêu cầu của peer).
+     */
+    private void handleTreeRequest(DataInputStream dis, DataOutputStream dos) throws IOException {
+        String filePath = dis.readUTF();
+        
+        Function<String, TreeHash.Result> resolver = sharedTreeResolver;
+        TreeHash.Result tree = resolver != null ? resolver.apply(filePath) : null;
+        if (tree == null) {
+            dos.writeByte(CMD_ERROR);
+            dos.writeUTF("File không được chia sẻ");
+            return;
+        }
+        
+        dos.writeByte(CMD_RESPONSE_TREE);
+        dos.writeInt(TreeHash.SEGMENT_SIZE);
+        dos.writeInt(tree.getLeafCount());
+        for (byte[] leaf : tree.getLeaves()) {
+            dos.write(leaf);
+        }
+        dos.flush();
+    }
+    
+    /**
+     * Đọc, nén, mã hóa và gửi một chunk
+     * 
+     * @param file File nguồn (file gốc hoặc file .part)
+     * @param fileName Tên file gốc (quyết định có nén hay không)
+     * @param fileSize Kích thước file gốc
+     */
+    private void sendChunk(File file, String fileName, long fileSize, int chunkIndex, int chunkSize,
+                           DataOutputStream dos) throws IOException {
         long offset = (long) chunkIndex * chunkSize;
-        int actualChunkSize = (int) Math.min(chunkSize, file.length() - offset);
+        int actualChunkSize = (int) Math.min(chunkSize, fileSize - offset);
         
-        if (offset >= file.length() || actualChunkSize <= 0) {
+        if (chunkIndex < 0 || offset >= fileSize || actualChunkSize <= 0) {
             dos.writeByte(CMD_ERROR);
             dos.writeUTF("Invalid chunk index: " + chunkIndex);
             return;
@@ -260,7 +583,7 @@ public class ChunkedFileTransferService {
             }
             
             // Nén nếu cần
-            boolean shouldCompress = FileCompression.shouldCompress(file.getName());
+            boolean shouldCompress = FileCompression.shouldCompress(fileName);
             if (shouldCompress) {
                 chunkData = FileCompression.compress(chunkData);
             }
@@ -284,6 +607,310 @@ public class ChunkedFileTransferService {
         }
     }
     
+    // ========== Partial seeding (server side) ==========
+    
+    /**
+     * Xử lý yêu cầu bitmap: trả về các chunk đang có của file (theo hash)
+     * và ghi nhận requester để gửi HAVE update sau này
+     */
+    private void handleBitmapRequest(DataInputStream dis, DataOutputStream dos, String remoteIp) throws IOException {
+        String fileHash = dis.readUTF();
+        
+        File completeFile = resolveSharedFile(fileHash);
+        TransferState partial = seedingTransfers.get(fileHash);
+        ChunkBitmap verified = seedingVerified.get(fileHash);
+        
+        if (completeFile == null && (partial == null || verified == null)) {
+            dos.writeByte(CMD_ERROR);
+            dos.writeUTF("Không có file: " + fileHash);
+            dos.flush();
+            return;
+        }
+        
+        // Requester cũng đang download file này -> gửi HAVE cho họ
+        interestedPeers.computeIfAbsent(fileHash, k -> new ConcurrentHashMap<>())
+            .put(remoteIp, System.currentTimeMillis());
+        
+        dos.writeByte(CMD_RESPONSE_BITMAP);
+        if (completeFile != null) {
+            dos.writeBoolean(true);                              // complete
+            dos.writeInt(0);
+            dos.writeInt(0);
+        } else {
+            dos.writeBoolean(false);
+            dos.writeInt(partial.getTotalChunks());
+            dos.writeInt(partial.getChunkSize());
+            verified.writeRuns(dos);                             // Run-length, chỉ chunk đã qua tree hash
+        }
+        dos.flush();
+    }
+    
+    /**
+     * Xử lý HAVE update: peer gửi vừa nhận thêm các chunk
+     * (chỉ nhận từ peer đã có trong swarm hoặc trong danh sách discovery)
+     */
+    private void handleHave(DataInputStream dis, String remoteIp) throws IOException {
+        String fileHash = dis.readUTF();
+        int count = dis.readInt();
+        
+        ChunkAvailability availability = swarmAvailability.get(fileHash);
+        if (availability != null && !availability.getPeers().contains(remoteIp) && !isDiscoveredPeer(remoteIp)) {
+            availability = null;
+        }
+        for (int i = 0; i < count; i++) {
+            int chunkIndex = dis.readInt();
+            if (availability != null) {
+                availability.markHave(remoteIp, chunkIndex);
+            }
+        }
+    }
+    
+    private boolean isDiscoveredPeer(String ip) {
+        if (peerDiscovery == null) return false;
+        for (PeerInfo peer : peerDiscovery.getDiscoveredPeers()) {
+            if (ip.equals(peer.getIpAddress())) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Xử lý yêu cầu chunk theo hash: phục vụ từ file hoàn chỉnh hoặc file .part
+     * (từ file .part chỉ phục vụ chunk thuộc segment đã qua tree hash)
+     */
+    private void handleChunkByHashRequest(DataInputStream dis, DataOutputStream dos) throws IOException {
+        String fileHash = dis.readUTF();
+        int chunkIndex = dis.readInt();
+        int chunkSize = dis.readInt();
+        
+        File completeFile = resolveSharedFile(fileHash);
+        if (completeFile != null) {
+            sendChunk(completeFile, completeFile.getName(), completeFile.length(), chunkIndex, chunkSize, dos);
+            return;
+        }
+        
+        TransferState partial = seedingTransfers.get(fileHash);
+        ChunkBitmap verified = seedingVerified.get(fileHash);
+        if (partial == null || verified == null || partial.getChunkSize() != chunkSize || !verified.get(chunkIndex)) {
+            dos.writeByte(CMD_ERROR);
+            dos.writeUTF("Chunk chưa có: " + chunkIndex);
+            return;
+        }
+        
+        File partFile = new File(partial.getSaveDirectory(), partial.getFileName() + ".part");
+        if (!partFile.exists()) {
+            dos.writeByte(CMD_ERROR);
+            dos.writeUTF("File tạm không tồn tại");
+            return;
+        }
+        
+        sendChunk(partFile, partial.getFileName(), partial.getFileSize(), chunkIndex, chunkSize, dos);
+    }
+    
+    private File resolveSharedFile(String fileHash) {
+        Function<String, File> resolver = sharedFileResolver;
+        if (resolver == null || fileHash == null) return null;
+        File file = resolver.apply(fileHash);
+        return (file != null && file.isFile()) ? file : null;
+    }
+    
+    /**
+     * Gửi HAVE đã gộp đến các peer quan tâm (chạy định kỳ)
+     */
+    private void flushHaves() {
+        long now = System.currentTimeMillis();
+        
+        for (String fileHash : new ArrayList<>(pendingHaves.keySet())) {
+            // remove() lấy nguyên set: queueHave sau đó tạo set mới, không ghi vào set đã lấy
+            Set<Integer> pending = pendingHaves.remove(fileHash);
+            if (pending == null || pending.isEmpty()) continue;
+            
+            Map<String, Long> interested = interestedPeers.get(fileHash);
+            if (interested == null) continue;
+            interested.values().removeIf(lastSeen -> now - lastSeen > INTEREST_TTL);
+            
+            int[] indices = pending.stream().mapToInt(Integer::intValue).sorted().toArray();
+            for (String ip : interested.keySet()) {
+                executorService.submit(() -> sendHave(ip, fileHash, indices));
+            }
+        }
+    }
+    
+    private void sendHave(String ip, String fileHash, int[] indices) {
+        try {
+            SSLSocket socket = openSocket(ip, SWARM_CONNECTION_TIMEOUT);
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                dos.writeByte(CMD_HAVE);
+                dos.writeUTF(fileHash);
+                dos.writeInt(indices.length);
+                for (int index : indices) {
+                    dos.writeInt(index);
+                }
+                dos.flush();
+            } finally {
+                socket.close();
+            }
+        } catch (Exception e) {
+            // Peer không còn quan tâm / offline
+            Map<String, Long> interested = interestedPeers.get(fileHash);
+            if (interested != null) interested.remove(ip);
+        }
+    }
+    
+    // ========== Partial seeding (client side) ==========
+    
+    /**
+     * Hỏi bitmap trên thread nền, không chặn vòng download (bỏ qua nếu lượt trước chưa xong)
+     */
+    private void refreshSwarmAsync(TransferState state, PeerInfo sourcePeer) {
+        String fileHash = state.getFileHash();
+        if (fileHash == null || peerDiscovery == null || !swarmRefreshing.add(fileHash)) return;
+        try {
+            executorService.submit(() -> {
+                try {
+                    refreshSwarm(state, sourcePeer);
+                } finally {
+                    swarmRefreshing.remove(fileHash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            swarmRefreshing.remove(fileHash);
+        }
+    }
+    
+    /**
+     * Hỏi bitmap từ các peer đã phát hiện để tìm partial seed của file
+     */
+    private void refreshSwarm(TransferState state, PeerInfo sourcePeer) {
+        String fileHash = state.getFileHash();
+        Function<String, List<PeerInfo>> lookup = providerLookup;
+        if (fileHash == null || (peerDiscovery == null && lookup == null)) return;
+        
+        // Peer đã biết + provider công bố trên DHT (chạy trên thread refresh nền, lookup được phép chặn)
+        Set<String> ips = new LinkedHashSet<>();
+        if (peerDiscovery != null) {
+            for (PeerInfo peer : peerDiscovery.getDiscoveredPeers()) {
+                ips.add(peer.getIpAddress());
+            }
+        }
+        if (lookup != null) {
+            try {
+                for (PeerInfo provider : lookup.apply(fileHash)) {
+                    ips.add(provider.getIpAddress());
+                }
+            } catch (Exception e) {
+                System.err.println("  ⚠ Lỗi tìm provider qua DHT: " + e.getMessage());
+            }
+        }
+        ips.remove(sourcePeer.getIpAddress());
+        ips.remove(localPeer.getIpAddress());
+        
+        ChunkAvailability availability = swarmAvailability.computeIfAbsent(fileHash, 
+            k -> new ChunkAvailability(state.getTotalChunks()));
+        List<Future<?>> tasks = new ArrayList<>();
+        
+        for (String ip : ips) {
+            tasks.add(executorService.submit(() -> requestBitmap(ip, state, availability)));
+        }
+        
+        for (Future<?> task : tasks) {
+            try {
+                task.get(SWARM_CONNECTION_TIMEOUT + READ_TIMEOUT_SWARM, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                task.cancel(true);
+            }
+        }
+        
+        // Download đã xong / bị hủy trong lúc hỏi: không để lại bản đồ chunk
+        if (seedingTransfers.get(fileHash) != state) {
+            swarmAvailability.remove(fileHash, availability);
+            return;
+        }
+        if (!availability.isEmpty()) {
+            System.out.println("  🌱 Partial seeds: " + availability.getPeers().size() + " peer(s)");
+        }
+    }
+    
+    private void requestBitmap(String ip, TransferState state, ChunkAvailability availability) {
+        try {
+            SSLSocket socket = openSocket(ip, SWARM_CONNECTION_TIMEOUT);
+            socket.setSoTimeout(READ_TIMEOUT_SWARM);
+            try (DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+                 DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+                
+                dos.writeByte(CMD_REQUEST_BITMAP);
+                dos.writeUTF(state.getFileHash());
+                dos.flush();
+                
+                if (dis.readByte() != CMD_RESPONSE_BITMAP) {
+                    availability.removePeer(ip);
+                    return;
+                }
+                
+                boolean complete = dis.readBoolean();
+                int totalChunks = dis.readInt();
+                int chunkSize = dis.readInt();
+                if (!complete && (totalChunks != state.getTotalChunks() || chunkSize != state.getChunkSize())) {
+                    // Chia chunk khác: không đọc (và không cấp phát) bitmap của peer
+                    availability.removePeer(ip);
+                    return;
+                }
+                
+                if (complete) {
+                    BitSet all = new BitSet(state.getTotalChunks());
+                    all.set(0, state.getTotalChunks());
+                    availability.setPeerBitmap(ip, all);
+                } else {
+                    ChunkBitmap bitmap = ChunkBitmap.readRuns(dis, state.getTotalChunks());
+                    availability.setPeerBitmap(ip, bitmap.toBitSet());
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (Exception e) {
+            availability.removePeer(ip);
+        }
+    }
+    
+    /**
+     * Ghi nhận chunk mới để quảng bá HAVE ở lần flush kế tiếp
+     */
+    private void queueHave(TransferState state, int chunkIndex) {
+        String fileHash = state.getFileHash();
+        if (fileHash == null || !interestedPeers.containsKey(fileHash)) return;
+        pendingHaves.compute(fileHash, (k, pending) -> {
+            Set<Integer> set = pending != null ? pending : new HashSet<>();
+            set.add(chunkIndex);
+            return set;
+        });
+    }
+    
+    /**
+     * Chọn partial seed cho chunk (luân phiên giữa các peer đang có chunk)
+     * 
+     * @return IP của partial seed, hoặc null nếu chỉ nguồn gốc có chunk này
+     */
+    private String pickPartialSeed(TransferState state, int chunkIndex) {
+        String fileHash = state.getFileHash();
+        if (fileHash == null) return null;
+        
+        ChunkAvailability availability = swarmAvailability.get(fileHash);
+        if (availability == null || availability.isEmpty()) return null;
+        
+        List<String> holders = availability.getPeersWithChunk(chunkIndex);
+        if (holders.isEmpty()) return null;
+        return holders.get(chunkIndex % holders.size());
+    }
+    
+    private void stopSeeding(TransferState state) {
+        String fileHash = state.getFileHash();
+        if (fileHash == null) return;
+        if (seedingTransfers.remove(fileHash, state)) {
+            seedingVerified.remove(fileHash);
+        }
+        swarmAvailability.remove(fileHash);
+        pendingHaves.remove(fileHash);
+    }
+    
     // ========== Download methods ==========
     
     /**
@@ -291,6 +918,14 @@ public class ChunkedFileTransferService {
      */
     public TransferState downloadFile(PeerInfo peer, FileInfo fileInfo, 
                                       String saveDirectory, ChunkedTransferListener listener) {
+        return downloadFile(peer, fileInfo, saveDirectory, ChunkSelectionPolicy.SEQUENTIAL, listener);
+    }
+    
+    /**
+     * Download file với chiến lược chọn chunk cụ thể cho transfer này
+     */
+    public TransferState downloadFile(PeerInfo peer, FileInfo fileInfo, String saveDirectory,
+                                      ChunkSelectionPolicy policy, ChunkedTransferListener listener) {
         // Tạo hoặc lấy TransferState existing
         String transferKey = peer.getPeerId() + "_" + fileInfo.getFilePath();
         TransferState state = activeTransfers.get(transferKey);
@@ -298,6 +933,8 @@ public class ChunkedFileTransferService {
         if (state == null) {
             state = new TransferState(fileInfo.getFileName(), fileInfo.getFilePath(), fileInfo.getFileSize());
             state.setSaveDirectory(saveDirectory);
+            state.setFileHash(fileInfo.getFileHash());
+            state.setSelectionPolicy(policy);
             state.setPeerIp(peer.getIpAddress());
             state.setPeerPort(CHUNKED_TRANSFER_PORT);
             activeTransfers.put(transferKey, state);
@@ -310,6 +947,7 @@ public class ChunkedFileTransferService {
             try {
                 downloadChunks(peer, fileInfo, finalState, listener);
             } catch (Exception e) {
+                stopSeeding(finalState);
                 finalState.fail(e.getMessage());
                 if (listener != null) {
                     listener.onError(finalState, e);
@@ -352,96 +990,178 @@ public class ChunkedFileTransferService {
             }
         }
         
-        // 4. Download từng chunk
+        // 4. Download các chunk song song (tối đa parallelRequests request cùng lúc)
         int totalChunks = state.getTotalChunks();
         int startChunk = state.getNextMissingChunk();
         
         System.out.println("  📦 Tổng chunks: " + totalChunks + ", bắt đầu từ: " + startChunk);
         
-        for (int i = startChunk; i < totalChunks; i++) {
-            // Kiểm tra thread interrupted
-            if (Thread.currentThread().isInterrupted()) {
-                System.out.println("  ❌ Thread bị interrupted - dừng download");
-                state.cancel();
-                if (tempFile.exists()) {
-                    tempFile.delete();
-                }
-                return;
+        // Tree hash: kiểm tra từng segment ngay khi nhận đủ (null nếu peer không hỗ trợ)
+        SegmentVerifier verifier = createVerifier(peer, fileInfo, state);
+        
+        // Partial seeding: phục vụ chunk đã kiểm tra cho peer khác và tìm partial seed.
+        // Không có tree hash thì không kiểm tra được dữ liệu từ bên thứ ba -> chỉ tải từ nguồn gốc
+        boolean swarm = verifier != null && state.getFileHash() != null;
+        if (swarm) {
+            seedingVerified.put(state.getFileHash(), verifier.verifiedChunks);
+            seedingTransfers.put(state.getFileHash(), state);
+            refreshSwarmAsync(state, peer);
+        }
+        long lastSwarmRefresh = System.currentTimeMillis();
+        
+        BlockingQueue<ChunkResult> results = new LinkedBlockingQueue<>();
+        Map<Integer, List<ChunkRequest>> inFlight = new HashMap<>();
+        Map<Integer, Integer> retries = new HashMap<>();
+        ChunkPicker picker = ChunkPicker.forPolicy(state.getSelectionPolicy());
+        boolean exhausted = false;  // Mọi chunk còn thiếu đều đang được request
+        
+        // Endgame: giới hạn byte bị tải trùng theo tỉ lệ kích thước file
+        long hedgeBudget = (long) (state.getFileSize() * hedgeBudgetRatio);
+        long hedgeBytesIssued = 0;
+        int hedgesIssued = 0;
+        int hedgesWon = 0;
+        
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+            if (verifier != null) {
+                verifyResumedSegments(state, verifier, raf);
             }
             
-            // Kiểm tra trạng thái CANCELLED trước
-            if (state.getStatus() == TransferStatus.CANCELLED) {
-                System.out.println("  ❌ Download đã bị hủy (status: CANCELLED)");
-                // Xóa file tạm
-                if (tempFile.exists()) {
-                    tempFile.delete();
+            while (!state.isComplete()) {
+                // Kiểm tra CANCELLED (cancelTransfer) hoặc thread bị interrupt
+                if (state.getStatus() == TransferStatus.CANCELLED || Thread.currentThread().isInterrupted()) {
+                    System.out.println("  ❌ Download đã bị hủy");
+                    abortDownload(state, inFlight, raf, tempFile);
+                    return;
                 }
-                return;
-            }
-            
-            // Chờ nếu đang pause - với kiểm tra CANCELLED trong loop
-            while (state.getStatus() == TransferStatus.PAUSED) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    // Thread bị interrupt (cancel) trong khi đang pause - đây là bình thường
-                    System.out.println("  ⏹ Thread interrupted trong khi pause - dừng download");
-                    state.cancel();
-                    if (tempFile.exists()) {
-                        tempFile.delete();
+                
+                boolean paused = state.getStatus() == TransferStatus.PAUSED;
+                
+                if (!paused) {
+                    if (swarm && System.currentTimeMillis() - lastSwarmRefresh > SWARM_REFRESH_INTERVAL) {
+                        refreshSwarmAsync(state, peer);
+                        lastSwarmRefresh = System.currentTimeMillis();
+                    }
+                    
+                    // Lấp đầy các slot request còn trống theo chiến lược chọn chunk
+                    ChunkAvailability availability = swarm ? swarmAvailability.get(state.getFileHash()) : null;
+                    exhausted = false;
+                    while (countRequests(inFlight) < parallelRequests) {
+                        int chunkIndex = picker.pickChunk(state, availability, inFlight.keySet());
+                        if (chunkIndex < 0) {
+                            exhausted = true;
+                            break;
+                        }
+                        
+                        String seedIp = swarm ? pickPartialSeed(state, chunkIndex) : null;
+                        submitChunkRequest(new ChunkRequest(chunkIndex, seedIp, false), 
+                            peer, fileInfo, state, inFlight, results);
+                    }
+                    
+                    // Endgame: không còn chunk mới để request -> nhân bản request đang chậm
+                    int missing = totalChunks - state.getReceivedChunkCount();
+                    if (exhausted && missing <= endgameThreshold) {
+                        long now = System.nanoTime();
+                        long hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(
+                            Math.max(MIN_HEDGE_DELAY, state.getLatencyHistogram().getPercentile(0.5)));
+                        
+                        for (Map.Entry<Integer, List<ChunkRequest>> entry : new ArrayList<>(inFlight.entrySet())) {
+                            List<ChunkRequest> requests = entry.getValue();
+                            if (requests.size() != 1) continue;
+                            ChunkRequest original = requests.get(0);
+                            if (now - original.startNanos < hedgeDelayNanos) continue;
+                            
+                            int chunkIndex = entry.getKey();
+                            int hedgeBytes = state.getChunkSize(chunkIndex);
+                            if (hedgeBytesIssued + hedgeBytes > hedgeBudget) break;
+                            
+                            // Nguồn khác nếu có, nếu không thì một kết nối mới đến nguồn gốc
+                            String hedgeSeed = null;
+                            if (swarm && original.seedIp == null) {
+                                hedgeSeed = pickPartialSeed(state, chunkIndex);
+                            }
+                            submitChunkRequest(new ChunkRequest(chunkIndex, hedgeSeed, true), 
+                                peer, fileInfo, state, inFlight, results);
+                            hedgeBytesIssued += hedgeBytes;
+                            hedgesIssued++;
+                        }
                     }
-                    return;
                 }
-                // Kiểm tra nếu bị cancel trong khi đang pause
-                if (state.getStatus() == TransferStatus.CANCELLED) {
-                    System.out.println("  ❌ Download đã bị hủy (từ trạng thái pause)");
-                    if (tempFile.exists()) {
-                        tempFile.delete();
+                
+                if (inFlight.isEmpty()) {
+                    if (paused) {
+                        Thread.sleep(100);
+                        continue;
                     }
-                    return;
+                    if (exhausted) break;
+                    continue;
                 }
-            }
-            
-            // Kiểm tra lại CANCELLED sau khi resume
-            if (state.getStatus() == TransferStatus.CANCELLED) {
-                System.out.println("  ❌ Download đã bị hủy");
-                if (tempFile.exists()) {
-                    tempFile.delete();
+                
+                ChunkResult result = results.poll(RESULT_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (result == null) continue;
+                
+                ChunkRequest request = result.request;
+                int chunkIndex = request.chunkIndex;
+                List<ChunkRequest> requests = inFlight.get(chunkIndex);
+                if (requests != null) {
+                    requests.remove(request);
+                    if (requests.isEmpty()) inFlight.remove(chunkIndex);
                 }
-                return;
-            }
-            
-            // Skip chunk đã nhận
-            if (state.isChunkReceived(i)) {
-                continue;
-            }
-            
-            // Download chunk
-            byte[] chunkData = downloadChunk(peer, fileInfo.getFilePath(), i, state.getChunkSize());
-            
-            if (chunkData != null) {
-                // Kiểm tra trạng thái trước khi ghi
-                if (state.getStatus() == TransferStatus.CANCELLED) {
-                    System.out.println("  ❌ Download đã bị hủy (trước khi ghi chunk)");
-                    if (tempFile.exists()) {
-                        tempFile.delete();
+                
+                if (result.data == null) {
+                    // Bên thua đã bị hủy hoặc chunk đã có -> bỏ qua
+                    if (request.cancelled || state.isChunkReceived(chunkIndex)) continue;
+                    
+                    if (request.seedIp != null) {
+                        ChunkAvailability availability = swarmAvailability.get(state.getFileHash());
+                        if (availability != null) availability.removePeer(request.seedIp);
+                    } else {
+                        int attempts = retries.merge(chunkIndex, 1, Integer::sum);
+                        if (attempts > MAX_CHUNK_RETRIES) {
+                            cancelRequests(inFlight);
+                            throw new IOException("Failed to download chunk " + chunkIndex, result.error);
+                        }
                     }
-                    return;
+                    // Chunk chưa có sẽ được picker chọn lại ở vòng sau
+                    continue;
                 }
                 
-                // Ghi chunk vào file
-                long offset = state.getChunkOffset(i);
-                try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
-                    raf.seek(offset);
-                    raf.write(chunkData);
+                if (state.isChunkReceived(chunkIndex)) continue;
+                
+                // Thắng cuộc: hủy các request trùng còn lại của chunk này
+                if (requests != null) {
+                    for (ChunkRequest loser : requests) loser.cancel();
+                    inFlight.remove(chunkIndex);
                 }
+                if (request.hedge) hedgesWon++;
+                state.getLatencyHistogram().record(
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.startNanos));
+                
+                // Ghi chunk vào file
+                raf.seek(state.getChunkOffset(chunkIndex));
+                raf.write(result.data);
                 
                 // Cập nhật state
-                state.markChunkReceived(i, chunkData.length);
+                state.markChunkReceived(chunkIndex, result.data.length);
+                
+                if (verifier != null) {
+                    if (request.seedIp != null) verifier.chunkSources.put(chunkIndex, request.seedIp);
+                    int segment = verifier.segmentOf(chunkIndex);
+                    if (verifier.isComplete(state, segment)) {
+                        if (verifier.verify(raf, segment)) {
+                            // Chỉ quảng bá HAVE cho dữ liệu đã kiểm tra
+                            for (int c = verifier.firstChunk(segment); c < verifier.endChunk(segment); c++) {
+                                queueHave(state, c);
+                            }
+                        } else if (!rejectSegment(state, verifier, segment)) {
+                            cancelRequests(inFlight);
+                            throw new IOException("Segment " + segment + " liên tục sai tree hash");
+                        }
+                    }
+                }
                 
                 // Notify listener
                 if (listener != null) {
-                    listener.onChunkReceived(state, i);
+                    listener.onChunkReceived(state, chunkIndex);
                     listener.onProgress(state);
                 }
                 
@@ -451,17 +1171,28 @@ public class ChunkedFileTransferService {
                     System.out.printf("  ⏳ Progress: %d%% (%d/%d chunks)%n", 
                         percent, state.getReceivedChunkCount(), totalChunks);
                 }
-            } else {
-                throw new IOException("Failed to download chunk " + i);
             }
+        } catch (InterruptedException e) {
+            // Thread bị interrupt (cancel) - đây là bình thường
+            System.out.println("  ⏹ Thread interrupted - dừng download");
+            state.cancel();
+            cancelRequests(inFlight);
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+            return;
         }
         
+        System.out.println("  📊 Chunk latency: " + state.getLatencyHistogram() + 
+            " | hedges: " + hedgesWon + "/" + hedgesIssued + " thắng, " + hedgeBytesIssued + " bytes trùng");
+        
         // 5. Hoàn tất
         if (state.isComplete()) {
             // Rename temp file to final
             if (finalFile.exists()) {
                 finalFile.delete();
             }
+            stopSeeding(state);
             tempFile.renameTo(finalFile);
             
             state.complete();
@@ -478,6 +1209,156 @@ public class ChunkedFileTransferService {
         }
     }
     
+    /**
+     * Lấy danh sách leaf của tree hash từ nguồn gốc và kiểm tra khớp FileInfo.treeHash
+     * 
+     * @return null nếu file không có tree hash hoặc peer không hỗ trợ (tải không kiểm tra)
+     */
+    private SegmentVerifier createVerifier(PeerInfo peer, FileInfo fileInfo, TransferState state) throws Exception {
+        String treeHash = fileInfo.getTreeHash();
+        int chunkSize = state.getChunkSize();
+        if (treeHash == null || state.getTotalChunks() == 0 
+                || chunkSize <= 0 || TreeHash.SEGMENT_SIZE % chunkSize != 0) {
+            return null;
+        }
+        
+        byte[][] leaves;
+        try {
+            leaves = requestTreeLeaves(peer, fileInfo.getFilePath(), state.getFileSize());
+        } catch (IOException e) {
+            System.out.println("  ⚠ Không lấy được tree hash, tải không kiểm tra từng segment: " + e.getMessage());
+            return null;
+        }
+        
+        if (!TreeHash.verifyLeaves(leaves, state.getFileSize(), treeHash)) {
+            throw new IOException("Tree hash không khớp - file nguồn đã thay đổi?");
+        }
+        System.out.println("  🌳 Tree hash OK: " + leaves.length + " segment sẽ được kiểm tra");
+        return new SegmentVerifier(leaves, chunkSize, state.getTotalChunks(), state.getFileSize());
+    }
+    
+    /**
+     * Yêu cầu hash từng segment từ peer
+     */
+    private byte[][] requestTreeLeaves(PeerInfo peer, String filePath, long fileSize) throws Exception {
+        SSLSocket socket = openSocket(peer.getIpAddress(), CONNECTION_TIMEOUT);
+        
+        try (DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            
+            dos.writeByte(CMD_REQUEST_TREE);
+            dos.writeUTF(filePath);
+            dos.flush();
+            
+            byte response = dis.readByte();
+            if (response == CMD_ERROR) {
+                throw new IOException(dis.readUTF());
+            }
+            if (response != CMD_RESPONSE_TREE) {
+                throw new IOException("Phản hồi tree hash không hợp lệ");
+            }
+            
+            int segmentSize = dis.readInt();
+            int leafCount = dis.readInt();
+            if (segmentSize != TreeHash.SEGMENT_SIZE || leafCount != TreeHash.segmentCount(fileSize)) {
+                throw new IOException("Tree hash không tương thích (segment " + segmentSize + ")");
+            }
+            
+            byte[][] leaves = new byte[leafCount][TreeHash.HASH_LENGTH];
+            for (byte[] leaf : leaves) {
+                dis.readFully(leaf);
+            }
+            return leaves;
+        } finally {
+            socket.close();
+        }
+    }
+    
+    /**
+     * Resume: kiểm tra các segment đã đủ chunk từ lần tải trước
+     */
+    private void verifyResumedSegments(TransferState state, SegmentVerifier verifier, 
+                                       RandomAccessFile raf) throws IOException {
+        int segments = TreeHash.segmentCount(state.getFileSize());
+        int rejected = 0;
+        for (int segment = 0; segment < segments; segment++) {
+            if (verifier.isComplete(state, segment) && !verifier.verify(raf, segment)) {
+                verifier.reject(state, segment);
+                rejected++;
+            }
+        }
+        if (rejected > 0) {
+            System.out.println("  ⚠ " + rejected + " segment từ lần tải trước sai tree hash, tải lại");
+        }
+    }
+    
+    /**
+     * Segment sai hash: bỏ các chunk để tải lại, loại partial seed đã gửi dữ liệu sai
+     * 
+     * @return false nếu segment đã sai quá MAX_SEGMENT_FAILURES lần
+     */
+    private boolean rejectSegment(TransferState state, SegmentVerifier verifier, int segment) {
+        Set<String> badSeeds = verifier.reject(state, segment);
+        ChunkAvailability availability = state.getFileHash() != null 
+            ? swarmAvailability.get(state.getFileHash()) : null;
+        if (availability != null) {
+            for (String ip : badSeeds) availability.removePeer(ip);
+        }
+        
+        System.err.println("  ⚠ Segment " + segment + " sai tree hash, tải lại" + 
+            (badSeeds.isEmpty() ? "" : " (loại seed: " + badSeeds + ")"));
+        return verifier.failures.get(segment) <= MAX_SEGMENT_FAILURES;
+    }
+    
+    /**
+     * Gửi một request chunk lên thread pool, kết quả đẩy vào hàng đợi results
+     */
+    private void submitChunkRequest(ChunkRequest request, PeerInfo peer, FileInfo fileInfo, TransferState state,
+                                    Map<Integer, List<ChunkRequest>> inFlight, BlockingQueue<ChunkResult> results) {
+        inFlight.computeIfAbsent(request.chunkIndex, k -> new ArrayList<>()).add(request);
+        executorService.submit(() -> {
+            try {
+                byte[] data = request.seedIp != null
+                    ? downloadChunkByHash(request.seedIp, state, request.chunkIndex, request)
+                    : downloadChunkFromOrigin(peer, fileInfo.getFilePath(), state, request);
+                if (data != null && data.length != state.getChunkSize(request.chunkIndex)) {
+                    throw new IOException("Chunk " + request.chunkIndex + " sai kích thước: " + data.length + " bytes");
+                }
+                results.add(new ChunkResult(request, data, data == null ? new IOException("Empty response") : null));
+            } catch (Exception e) {
+                results.add(new ChunkResult(request, null, e));
+            }
+        });
+    }
+    
+    private static int countRequests(Map<Integer, List<ChunkRequest>> inFlight) {
+        int count = 0;
+        for (List<ChunkRequest> requests : inFlight.values()) {
+            count += requests.size();
+        }
+        return count;
+    }
+    
+    private static void cancelRequests(Map<Integer, List<ChunkRequest>> inFlight) {
+        for (List<ChunkRequest> requests : inFlight.values()) {
+            for (ChunkRequest request : requests) request.cancel();
+        }
+        inFlight.clear();
+    }
+    
+    /**
+     * Dừng download khi bị hủy: hủy request đang chạy và xóa file tạm
+     */
+    private void abortDownload(TransferState state, Map<Integer, List<ChunkRequest>> inFlight,
+                               RandomAccessFile raf, File tempFile) throws IOException {
+        state.cancel();
+        cancelRequests(inFlight);
+        raf.close();
+        if (tempFile.exists()) {
+            tempFile.delete();
+        }
+    }
+    
     /**
      * Yêu cầu metadata từ peer
      */
@@ -517,14 +1398,42 @@ public class ChunkedFileTransferService {
         }
     }
     
+    /**
+     * Download một chunk từ nguồn gốc: peer cùng máy đi đường nhanh, lỗi thì quay về TLS
+     */
+    private byte[] downloadChunkFromOrigin(PeerInfo peer, String filePath, TransferState state,
+                                           ChunkRequest request) throws Exception {
+        LocalTransportService local = localTransport;
+        if (sameHostFastPath && local != null && local.isSameHost(peer)) {
+            // 1. Cùng filesystem: đọc thẳng file nguồn
+            File source = new File(filePath);
+            if (source.isFile() && source.canRead() && source.length() == state.getFileSize()) {
+                try {
+                    return LocalTransportService.readChunk(source, request.chunkIndex, state.getChunkSize());
+                } catch (IOException e) {
+                    // Thử Unix socket
+                }
+            }
+            
+            // 2. Unix domain socket (không TLS/AES)
+            try {
+                return local.requestChunk(peer, filePath, request.chunkIndex, state.getChunkSize());
+            } catch (IOException e) {
+                if (request.cancelled) throw e;
+                System.err.println("  ⚠ Local transport lỗi, dùng TLS: " + e.getMessage());
+            }
+        }
+        
+        return downloadChunk(peer, filePath, state, request.chunkIndex, request);
+    }
+    
     /**
      * Download một chunk từ peer
      */
-    private byte[] downloadChunk(PeerInfo peer, String filePath, int chunkIndex, int chunkSize) throws Exception {
-        SSLSocket socket = securityManager.createSSLSocket(peer.getIpAddress(), CHUNKED_TRANSFER_PORT);
-        socket.connect(new InetSocketAddress(peer.getIpAddress(), CHUNKED_TRANSFER_PORT), CONNECTION_TIMEOUT);
-        socket.setSoTimeout(READ_TIMEOUT);
-        socket.startHandshake();
+    private byte[] downloadChunk(PeerInfo peer, String filePath, TransferState state, int chunkIndex,
+                                 ChunkRequest request) throws Exception {
+        SSLSocket socket = openSocket(peer.getIpAddress(), CONNECTION_TIMEOUT);
+        request.attach(socket);
         
         try (DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
              DataInputStream dis = new DataInputStream(socket.getInputStream())) {
@@ -532,40 +1441,96 @@ public class ChunkedFileTransferService {
             dos.writeByte(CMD_REQUEST_CHUNK);
             dos.writeUTF(filePath);
             dos.writeInt(chunkIndex);
-            dos.writeInt(chunkSize);
+            dos.writeInt(state.getChunkSize());
             dos.flush();
             
-            byte response = dis.readByte();
-            if (response == CMD_ERROR) {
-                throw new IOException(dis.readUTF());
-            }
+            return readChunkResponse(dis, chunkIndex, state.getChunkSize(chunkIndex));
+        } finally {
+            socket.close();
+        }
+    }
+    
+    /**
+     * Download một chunk theo fileHash từ partial seed
+     */
+    private byte[] downloadChunkByHash(String ip, TransferState state, int chunkIndex,
+                                       ChunkRequest request) throws Exception {
+        SSLSocket socket = openSocket(ip, SWARM_CONNECTION_TIMEOUT);
+        request.attach(socket);
+        
+        try (DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
             
-            if (response == CMD_RESPONSE_CHUNK) {
-                int receivedIndex = dis.readInt();
-                int originalSize = dis.readInt();
-                boolean compressed = dis.readBoolean();
-                int encryptedSize = dis.readInt();
-                
-                byte[] encryptedData = new byte[encryptedSize];
-                dis.readFully(encryptedData);
-                
-                // Giải mã
-                byte[] decrypted = AESEncryption.decrypt(encryptedData, encryptionKey);
-                
-                // Giải nén nếu cần
-                if (compressed) {
-                    decrypted = FileCompression.decompress(decrypted);
-                }
-                
-                return decrypted;
-            }
+            dos.writeByte(CMD_REQUEST_CHUNK_BY_HASH);
+            dos.writeUTF(state.getFileHash());
+            dos.writeInt(chunkIndex);
+            dos.writeInt(state.getChunkSize());
+            dos.flush();
             
-            return null;
+            return readChunkResponse(dis, chunkIndex, state.getChunkSize(chunkIndex));
         } finally {
             socket.close();
         }
     }
     
+    /**
+     * Mở kết nối TLS đến chunk server của peer
+     */
+    private SSLSocket openSocket(String ip, int connectTimeout) throws Exception {
+        SSLSocket socket = securityManager.createSSLSocket(ip, CHUNKED_TRANSFER_PORT);
+        socket.connect(new InetSocketAddress(ip, CHUNKED_TRANSFER_PORT), connectTimeout);
+        socket.setSoTimeout(READ_TIMEOUT);
+        socket.startHandshake();
+        return socket;
+    }
+    
+    /**
+     * Đọc RESPONSE_CHUNK: giải mã và giải nén dữ liệu
+     * 
+     * @param chunkIndex Chunk đã yêu cầu
+     * @param expectedSize Kích thước chunk (theo metadata) - peer trả sai chunk hoặc sai kích thước bị từ chối
+     */
+    private byte[] readChunkResponse(DataInputStream dis, int chunkIndex, int expectedSize) throws Exception {
+        byte response = dis.readByte();
+        if (response == CMD_ERROR) {
+            throw new IOException(dis.readUTF());
+        }
+        
+        if (response == CMD_RESPONSE_CHUNK) {
+            int receivedIndex = dis.readInt();
+            int originalSize = dis.readInt();
+            boolean compressed = dis.readBoolean();
+            int encryptedSize = dis.readInt();
+            
+            if (receivedIndex != chunkIndex || originalSize != expectedSize) {
+                throw new IOException("Phản hồi sai chunk: " + receivedIndex + " (" + originalSize + 
+                    " bytes), cần " + chunkIndex + " (" + expectedSize + " bytes)");
+            }
+            if (encryptedSize < 0 || encryptedSize > expectedSize + CHUNK_RESPONSE_OVERHEAD) {
+                throw new IOException("Kích thước chunk mã hóa không hợp lệ: " + encryptedSize);
+            }
+            
+            byte[] encryptedData = new byte[encryptedSize];
+            dis.readFully(encryptedData);
+            
+            // Giải mã
+            byte[] decrypted = AESEncryption.decrypt(encryptedData, encryptionKey);
+            
+            // Giải nén nếu cần (giới hạn đầu ra theo kích thước chunk)
+            if (compressed) {
+                decrypted = FileCompression.decompress(decrypted, expectedSize);
+            }
+            
+            if (decrypted.length != expectedSize) {
+                throw new IOException("Chunk " + chunkIndex + " sai kích thước: " + decrypted.length + 
+                    " bytes, cần " + expectedSize);
+            }
+            return decrypted;
+        }
+        
+        return null;
+    }
+    
     // ========== Control methods ==========
     
     /**
@@ -616,6 +1581,8 @@ public class ChunkedFileTransferService {
                 entry.getValue().cancel();
                 System.out.println("  ✓ Status set to CANCELLED: " + entry.getValue().getStatus());
                 
+                stopSeeding(entry.getValue());
+                
                 // Cancel task với interrupt
                 Future<?> task = transferTasks.get(entry.getKey());
                 if (task != null) {
@@ -0,0 +1,21 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.DhtContact;
+import org.example.p2psharefile.model.DhtMessage;
+
+import java.io.IOException;
+
+/**
+ * DhtTransport - Cách KademliaDht gửi một RPC tới node khác
+ *
+ * TlsDhtTransport cho mạng thật; mô phỏng trong process (test/DhtSimulation) gọi thẳng node đích.
+ */
+public interface DhtTransport {
+
+    /**
+     * Gửi request và đợi reply
+     *
+     * @throws IOException Node không liên lạc được (KademliaDht bỏ contact khỏi routing table)
+     */
+    DhtMessage request(DhtContact to, DhtMessage message) throws IOException;
+}
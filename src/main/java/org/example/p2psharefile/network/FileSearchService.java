@@ -8,6 +8,8 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * FileSearchService - Tìm kiếm file qua TLS/SSL socket
@@ -15,88 +17,124 @@ import java.util.concurrent.*;
  * Security improvements:
  * - Sử dụng SSLSocket để encrypt search requests/responses
  * - Bảo vệ metadata (file names, sizes) khỏi eavesdropping
+ *
+ * Content summary: catalog local được tóm tắt thành Bloom filter (ContentSummary) gắn lên
+ * localPeer và đi theo heartbeat của PeerDiscovery; khi search, peer có summary khớp
+ * catalog version hiện tại mà chắc chắn không chứa query thì không bị mở kết nối.
+ *
+ * Kết quả được stream theo trang (SearchRequest.pageSize) trên cùng kết nối: xếp hạng chỉ giữ
+ * ID, FileInfo được tạo và gửi từng trang nên bên hỏi nhận trang đầu ngay, không đợi cả
+ * response. Trang cuối mang continuation token nếu còn kết quả sau limit ("tải thêm").
+ *
+ * Forward (TTL > 0): gửi song song tới tối đa forwardFanOut peer; kết quả của hop sau đi ngược
+ * qua QueryRouteTable lên chính kết nối request đi vào (reverse path kiểu Gnutella), hop nào
+ * cũng chỉ dùng kết nối sẵn có. Sau trang cuối của mọi hop sau (hoặc hết time budget), hop
+ * gửi một trang rỗng morePages=false để kết thúc luồng.
+ *
+ * Bên hỏi cache kết quả theo (query, peer) kèm catalog version peer quảng bá trên heartbeat
+ * (SearchResultCache): search lặp lại chỉ hỏi qua mạng những peer đã đổi catalog.
+ *
+ * Sao chép catalog (opt-in, setCatalogReplicationEnabled): CatalogReplicator giữ bản sao catalog
+ * của peer LAN, cập nhật bằng change feed khi heartbeat báo version mới; peer có bản sao đúng
+ * version được trả lời local, không gửi request.
+ *
+ * Chống quá tải cổng search: token bucket theo IP kiểm tra ngay sau accept (trước TLS /
+ * deserialize), kết nối được xử lý trên pool có giới hạn + hàng đợi có giới hạn; bị từ chối thì
+ * nhận trang rỗng mang retry-after (tối đa một lần / giây / IP) hoặc bị đóng socket. Bên hỏi
+ * không hỏi lại peer đang báo bận cho đến hết retry-after.
+ *
+ * Fan-out của searchFile: mỗi peer một CompletableFuture trong một SearchRun có deadline riêng.
+ * Search kết thúc ngay khi mọi peer trả lời xong, khi đủ maxResults file hoặc khi hết deadline;
+ * lúc đó socket của peer chưa xong bị đóng. Peer chưa gửi trang đầu trong timeout thích nghi
+ * (PeerLatencyTracker, từ độ trễ các lần trước) bị bỏ sớm.
+ *
+ * Mỗi trang kết quả mang preview inline (micro-thumbnail / màu placeholder / một dòng snippet)
+ * của các file có manifest, trong ngân sách byte của trang: UI hiển thị ngay, không hỏi cổng preview.
  */
 public class FileSearchService {
 
     private static final int SEARCH_PORT = 9001; // Cố định
-    private static final int SEARCH_TIMEOUT = 5000;
+    public static final int SEARCH_TIMEOUT = 5000;
     private static final int CONNECTION_TIMEOUT = 2000;
+    private static final int SUMMARY_REBUILD_INTERVAL_MS = 5000;
+    private static final int MAX_CONTINUATION_OFFSET = 10 * SearchQuery.MAX_LIMIT;
+    // Request flood quay lại trong cửa sổ này bị bỏ qua; 4096 request / thế hệ ~ 200 request/s
+    private static final long DEDUP_WINDOW_MS = 60_000;
+    private static final int DEDUP_CAPACITY_PER_GENERATION = 4096;
+    private static final int DEFAULT_FORWARD_FAN_OUT = 8;
+    private static final int HOP_TIME_MARGIN_MS = 300;  // Dành cho hop này gửi trang cuối lên trên
+    private static final int REPLICATION_SYNC_INTERVAL_MS = 2000;
+    // Kết nối search xử lý đồng thời / đợi tối đa; vượt thì từ chối (không chiếm thread của chunk)
+    private static final int MAX_REQUEST_THREADS = 16;
+    private static final int MAX_QUEUED_REQUESTS = 64;
+    private static final int MAX_QUEUED_BUSY_REPLIES = 16;
+    private static final long OVERLOAD_RETRY_AFTER_MS = 1000;
+    // Request đang forward (mỗi cái giữ tối đa forwardFanOut relay tới hết time budget), tách khỏi
+    // MAX_REQUEST_THREADS: vượt thì chỉ trả kết quả local, không chiếm chỗ của request thường
+    private static final int MAX_CONCURRENT_FORWARDS = 32;
+    // Ngân sách preview inline mỗi trang (~50 file): hết thì chỉ gửi màu placeholder / snippet
+    private static final int MAX_INLINE_PREVIEW_BYTES_PER_PAGE = 16 * 1024;
 
     private final PeerInfo localPeer;
     private final PeerDiscovery peerDiscovery;
     private final SecurityManager securityManager;
     private final int searchPort;
-    private final Map<String, List<FileInfo>> sharedFiles;
-    private final Set<String> processedRequests;
+    private final SharedFileCatalog sharedFiles;
+    private final RecentIdSet processedRequests;
     
     // Connection mode: true = P2P LAN, false = P2P Hybrid (Internet)
     private volatile boolean p2pOnlyMode = true;
 
     private SSLServerSocket searchServer;
     private ExecutorService executorService;
+    private ThreadPoolExecutor requestExecutor;     // Xử lý kết nối search tới (có giới hạn)
+    private ThreadPoolExecutor busyReplyExecutor;   // Gửi retry-after cho kết nối bị từ chối
+    private final SearchAdmission admission = new SearchAdmission();
+    private final Semaphore forwardPermits = new Semaphore(MAX_CONCURRENT_FORWARDS);
+
+    // Peer đã báo bận: peerId -> thời điểm được hỏi lại
+    private final Map<String, Long> busyUntil = new ConcurrentHashMap<>();
     private ScheduledExecutorService scheduledExecutor;
     private volatile boolean running = false;
 
     private final Map<String, SearchResultCallback> activeSearches;
 
-    public interface SearchResultCallback {
-        void onSearchResult(SearchResponse response);
-        void onSearchComplete();
-    }
+    // Độ trễ đến trang đầu của từng peer -> timeout thích nghi
+    private final PeerLatencyTracker latencyTracker = new PeerLatencyTracker(SEARCH_TIMEOUT);
 
-    /**
-     * Forward request to discovered peers (except origin/self) and send any SearchResponse
-     * that contains files back to the origin peer (if origin known via PeerDiscovery).
-     */
-    private void forwardRequestToPeers(SearchRequest request) {
-        List<PeerInfo> peers = peerDiscovery.getDiscoveredPeers();
+    // Change feed: mọi thay đổi catalog được đánh số, peer khác hỏi được qua cổng search
+    private final CatalogChangeFeed changeFeed = new CatalogChangeFeed();
 
-        for (PeerInfo peer : peers) {
-            try {
-                // Skip self and origin
-                if (peer.getPeerId().equals(localPeer.getPeerId())) continue;
-                if (peer.getPeerId().equals(request.getOriginPeerId())) continue;
-
-                SSLSocket socket = securityManager.createSSLSocket(peer.getIpAddress(), SEARCH_PORT);
-                socket.connect(new InetSocketAddress(peer.getIpAddress(), SEARCH_PORT), CONNECTION_TIMEOUT);
-                socket.setSoTimeout(SEARCH_TIMEOUT);
-                socket.startHandshake();
-
-                try (ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-                     ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
-
-                    oos.writeObject(request);
-                    oos.flush();
-
-                    Object obj = ois.readObject();
-                    if (obj instanceof SearchResponse) {
-                        SearchResponse resp = (SearchResponse) obj;
-                        if (resp != null && !resp.getFoundFiles().isEmpty()) {
-                            // Send this response to origin peer if possible
-                            PeerInfo origin = peerDiscovery.getPeerById(request.getOriginPeerId());
-                            if (origin != null && !origin.getPeerId().equals(localPeer.getPeerId())) {
-                                try (SSLSocket forwardSocket = securityManager.createSSLSocket(origin.getIpAddress(), SEARCH_PORT)) {
-                                    forwardSocket.connect(new InetSocketAddress(origin.getIpAddress(), SEARCH_PORT), CONNECTION_TIMEOUT);
-                                    forwardSocket.startHandshake();
-                                    try (ObjectOutputStream foos = new ObjectOutputStream(forwardSocket.getOutputStream())) {
-                                        foos.writeObject(resp);
-                                        foos.flush();
-                                    }
-                                } catch (IOException e) {
-                                    // Cannot forward to origin - ignore
-                                }
-                            }
-                        }
-                    }
+    // Snapshot đã map từ lần chạy trước, phục vụ search cho đến khi catalog nạp xong (null = đã nạp)
+    private volatile CatalogSnapshot snapshot;
 
-                } finally {
-                    try { socket.close(); } catch (IOException ignored) {}
-                }
+    // Đường truyền nhanh cho peer cùng máy (có thể null)
+    private volatile LocalTransportService localTransport;
 
-            } catch (Exception e) {
-                // ignore individual peer failures
-            }
-        }
+    // Catalog đổi từ lần dựng summary trước (dựng lại theo chu kỳ, không theo từng thay đổi)
+    private volatile boolean summaryDirty = true;
+    private final SearchMetrics metrics;
+
+    // Định tuyến ngược kết quả của request đã forward, số peer forward song song tối đa
+    private final QueryRouteTable routeTable = new QueryRouteTable();
+
+    // Kết quả đã nhận theo (query, peer), còn dùng khi peer chưa đổi catalog version
+    private final SearchResultCache resultCache = new SearchResultCache();
+
+    // Xếp hạng local theo query chuẩn hóa: query bị flood từ nhiều origin chỉ quét catalog một lần
+    private final QueryRankingCache rankingCache = new QueryRankingCache();
+    private volatile int forwardFanOut = DEFAULT_FORWARD_FAN_OUT;
+
+    // Bản sao catalog của peer LAN (null = tắt), một lượt đồng bộ tại một thời điểm
+    private volatile CatalogReplicator replicator;
+    private final AtomicBoolean replicationBusy = new AtomicBoolean();
+
+    // fileHash -> preview inline từ manifest đã sinh sẵn (null = không gửi kèm preview)
+    private volatile Function<String, InlinePreview> inlinePreviewSource;
+
+    public interface SearchResultCallback {
+        void onSearchResult(SearchResponse response);
+        void onSearchComplete();
     }
 
     public FileSearchService(PeerInfo localPeer, PeerDiscovery peerDiscovery, SecurityManager securityManager) {
@@ -104,9 +142,17 @@ public class FileSearchService {
         this.peerDiscovery = peerDiscovery;
         this.securityManager = securityManager;
         this.searchPort = SEARCH_PORT; // Cố định
-        this.sharedFiles = new ConcurrentHashMap<>();
-        this.processedRequests = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this.sharedFiles = new SharedFileCatalog(localPeer.getPeerId());
+        this.processedRequests = new RecentIdSet(DEDUP_WINDOW_MS, DEDUP_CAPACITY_PER_GENERATION);
+        this.metrics = new SearchMetrics(processedRequests);
         this.activeSearches = new ConcurrentHashMap<>();
+
+        localPeer.setCatalogVersion(changeFeed.getFeedId(), changeFeed.getVersion());
+        changeFeed.addListener(change -> {
+            localPeer.setCatalogVersion(changeFeed.getFeedId(), change.getVersion());
+            summaryDirty = true;
+            rankingCache.invalidate();
+        });
     }
 
     public void start() throws IOException {
@@ -122,11 +168,26 @@ public class FileSearchService {
         System.out.println("  → IP Peer cục bộ: " + localPeer.getIpAddress());
 
         executorService = Executors.newCachedThreadPool();
+        requestExecutor = new ThreadPoolExecutor(MAX_REQUEST_THREADS, MAX_REQUEST_THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS), new ThreadPoolExecutor.AbortPolicy());
+        requestExecutor.allowCoreThreadTimeOut(true);
+        busyReplyExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_BUSY_REPLIES), new ThreadPoolExecutor.AbortPolicy());
+        busyReplyExecutor.allowCoreThreadTimeOut(true);
         scheduledExecutor = Executors.newScheduledThreadPool(1);
 
         // Thread lắng nghe search request
         executorService.submit(this::acceptSearchRequests);
 
+        // Dựng lại content summary khi catalog đổi
+        scheduledExecutor.scheduleWithFixedDelay(this::refreshContentSummary, 0,
+            SUMMARY_REBUILD_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        // Kéo thay đổi catalog của peer LAN (chỉ khi bật sao chép); chạy trên pool chung để
+        // không chặn timeout của search trên scheduledExecutor
+        scheduledExecutor.scheduleWithFixedDelay(this::scheduleReplicationSync, REPLICATION_SYNC_INTERVAL_MS,
+            REPLICATION_SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
         System.out.println("✓ File Search Service (TLS) đã sẵn sàng");
     }
 
@@ -144,6 +205,10 @@ public class FileSearchService {
         if (executorService != null) {
             executorService.shutdownNow();
         }
+        if (requestExecutor != null) {
+            requestExecutor.shutdownNow();
+            busyReplyExecutor.shutdownNow();
+        }
         if (scheduledExecutor != null) {
             scheduledExecutor.shutdownNow();
         }
@@ -158,10 +223,23 @@ public class FileSearchService {
         while (running) {
             try {
                 Socket clientSocket = searchServer.accept();
+
+                // Giới hạn tốc độ theo IP trước khi handshake TLS / đọc request
+                String ip = clientSocket.getInetAddress().getHostAddress();
+                long retryAfter = admission.acquire(ip);
+                if (retryAfter > 0) {
+                    reject(clientSocket, ip, retryAfter);
+                    continue;
+                }
                 clientSocket.setSoTimeout(5000);
 
-                // Xử lý request trong thread riêng
-                executorService.submit(() -> handleSearchConnection(clientSocket));
+                // Xử lý request trên pool có giới hạn, hàng đợi đầy thì từ chối
+                try {
+                    requestExecutor.execute(() -> handleSearchConnection(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    admission.recordOverloaded();
+                    reject(clientSocket, ip, OVERLOAD_RETRY_AFTER_MS);
+                }
 
             } catch (SocketException e) {
                 if (running) {
@@ -176,10 +254,67 @@ public class FileSearchService {
         }
     }
 
+    /**
+     * Từ chối kết nối: gửi retry-after nếu còn lượt gợi ý cho IP, không thì đóng ngay (chưa handshake)
+     */
+    private void reject(Socket socket, String ip, long retryAfterMillis) {
+        if (admission.claimHint(ip)) {
+            try {
+                busyReplyExecutor.execute(() -> sendBusyReply(socket, retryAfterMillis));
+                return;
+            } catch (RejectedExecutionException e) {
+                // Đang gửi quá nhiều gợi ý: đóng luôn
+            }
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Trang rỗng mang retry-after; không đọc / deserialize request, chỉ xả dữ liệu peer đã gửi
+     * để đóng kết nối không bị reset trước khi peer đọc được trang
+     */
+    private void sendBusyReply(Socket socket, long retryAfterMillis) {
+        try (Socket s = socket) {
+            s.setSoTimeout(CONNECTION_TIMEOUT);
+            ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
+            SearchResponse busy = new SearchResponse(null, localPeer.withoutContentSummary());
+            busy.setRetryAfterMillis(retryAfterMillis);
+            oos.writeObject(busy);
+            oos.flush();
+            InputStream in = s.getInputStream();
+            byte[] discard = new byte[4096];
+            while (in.read(discard) >= 0) {
+                // Đợi peer đóng kết nối
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Peer trả retry-after: không hỏi / forward tới peer đó cho đến khi hết hạn
+     */
+    private void noteBusy(PeerInfo peer, long retryAfterMillis) {
+        busyUntil.put(peer.getPeerId(), System.currentTimeMillis() + retryAfterMillis);
+        System.out.println("⏳ " + peer.getDisplayName() + " đang bận, hỏi lại sau " + retryAfterMillis + "ms");
+    }
+
+    private boolean isBusy(PeerInfo peer) {
+        Long until = busyUntil.get(peer.getPeerId());
+        if (until == null) return false;
+        if (until > System.currentTimeMillis()) return true;
+        busyUntil.remove(peer.getPeerId(), until);
+        return false;
+    }
+
     /**
      * Xử lý kết nối search
      */
     private void handleSearchConnection(Socket socket) {
+        boolean relaying = false;   // Socket (và permit forward) do callback của relay đóng / trả
+        boolean forwardPermit = false;
         try {
             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
@@ -189,87 +324,522 @@ public class FileSearchService {
 
             if (message instanceof SearchRequest) {
                 SearchRequest request = (SearchRequest) message;
-
-                // Bỏ qua request từ chính mình
-                if (request.getOriginPeerId().equals(localPeer.getPeerId())) {
-                    socket.close();
-                    return;
+                long receivedAt = System.currentTimeMillis();
+                ResultPager pager = handleIncomingRequest(request);
+                if (pager != null) {
+                    List<PeerInfo> downstream = pager.duplicate ? Collections.emptyList() : selectForwardPeers(request);
+                    if (!downstream.isEmpty()) {
+                        forwardPermit = forwardPermits.tryAcquire();
+                        if (!forwardPermit) {
+                            admission.recordForwardSkipped();
+                            downstream = Collections.emptyList();
+                        }
+                    }
+                    UpstreamConnection upstream = new UpstreamConnection(oos);
+
+                    // Stream kết quả local theo trang; còn forward thì luồng chưa kết thúc ở trang cuối local
+                    do {
+                        SearchResponse page = pager.nextPage();
+                        if (!downstream.isEmpty()) page.setMorePages(true);
+                        if (!upstream.deliver(page)) break;
+                    } while (pager.hasNext());
+
+                    if (!downstream.isEmpty()) {
+                        long deadline = receivedAt + request.getTimeBudgetMillis() - HOP_TIME_MARGIN_MS;
+                        // Relay chạy nền: thread xử lý kết nối trả về ngay, không chờ hết time budget
+                        relaying = true;
+                        forwardAndRelay(request, downstream, upstream, deadline).whenComplete((ignored, error) -> {
+                            forwardPermits.release();
+                            // Trang kết thúc luồng (rỗng)
+                            upstream.deliver(new SearchResponse(request.getRequestId(),
+                                localPeer.withoutContentSummary()));
+                            closeQuietly(socket);
+                        });
+                    }
                 }
+            } else if (message instanceof CatalogChangeBatch.Request) {
+                CatalogChangeBatch.Request request = (CatalogChangeBatch.Request) message;
+                oos.writeObject(request.isFullResync() ? catalogSnapshotBatch(request.getMaxChanges())
+                    : changeFeed.since(localPeer.getPeerId(), request.getFeedId(),
+                        request.getSinceVersion(), request.getMaxChanges()));
+                oos.flush();
+            }
 
-                // Xử lý search request
-                SearchResponse response = processSearchRequest(request);
+        } catch (Exception e) {
+            if (running) {
+                System.err.println("⚠ Lỗi xử lý kết nối tìm kiếm: " + e.getMessage());
+            }
+        } finally {
+            if (!relaying) {
+                if (forwardPermit) forwardPermits.release();
+                closeQuietly(socket);
+            }
+        }
+    }
 
-                // Gửi response (kết quả local)
-                oos.writeObject(response);
-                oos.flush();
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
 
-                // Nếu còn TTL, forward request đến peers khác
-                if (request.canForward()) {
-                    // Tạo bản sao request để forward (giảm TTL)
-                    SearchRequest forwardReq = new SearchRequest(request.getRequestId(), request.getOriginPeerId(), request.getSearchQuery(), request.getTtl());
-                    forwardReq.decrementTTL();
+    /**
+     * Toàn bộ catalog cho peer đang sao chép (mỗi file một ADDED mang version hiện tại)
+     *
+     * Version đọc trước danh sách: thay đổi xen giữa đã nằm trong danh sách và sẽ được peer áp dụng
+     * lại (thêm / xóa theo đường dẫn, áp dụng hai lần không sai).
+     */
+    private CatalogChangeBatch catalogSnapshotBatch(int maxFiles) {
+        String peerId = localPeer.getPeerId();
+        if (snapshot != null) {
+            return new CatalogChangeBatch(peerId, changeFeed.getFeedId(), changeFeed.getVersion(), false,
+                new ArrayList<>());
+        }
+        long version = changeFeed.getVersion();
+        if (maxFiles > 0 && sharedFiles.size() > maxFiles) {
+            return new CatalogChangeBatch(peerId, changeFeed.getFeedId(), version, true, new ArrayList<>(), true);
+        }
+        List<CatalogChange> changes = new ArrayList<>();
+        for (FileInfo file : sharedFiles.toList()) {
+            changes.add(new CatalogChange(version, CatalogChange.Type.ADDED, file));
+        }
+        return new CatalogChangeBatch(peerId, changeFeed.getFeedId(), version, false, changes, true);
+    }
 
-                    // Submit forwarding task
-                    executorService.submit(() -> {
-                        forwardRequestToPeers(forwardReq);
-                    });
-                }
+    /**
+     * Xử lý request nhận được (TLS hoặc local transport): tìm local và forward nếu còn TTL
+     *
+     * Forward (nếu còn TTL) do handleSearchConnection làm để định tuyến ngược kết quả;
+     * request qua local transport chỉ được trả lời bằng kết quả local.
+     *
+     * @return Kết quả local (cắt trang khi gửi), null nếu là request của chính mình
+     */
+    private ResultPager handleIncomingRequest(SearchRequest request) {
+        // Bỏ qua request từ chính mình
+        if (request.getOriginPeerId().equals(localPeer.getPeerId())) {
+            return null;
+        }
+
+        // Xử lý search request
+        return processSearchRequest(request);
+    }
+
+    // ========== Forward + định tuyến ngược ==========
+
+    /**
+     * Peer sẽ nhận request forward: bỏ mình, origin, hop trước; tối đa forwardFanOut peer.
+     * Peer có summary "có thể khớp" được ưu tiên, rồi peer chưa có summary. Peer có summary loại
+     * query vẫn nhận bản chỉ-forward (xem ruledOut) khi hop sau còn forward tiếp được, vì nhánh
+     * phía sau nó có thể có kết quả
+     */
+    private List<PeerInfo> selectForwardPeers(SearchRequest request) {
+        if (!request.canForward() || request.getTimeBudgetMillis() <= 2 * HOP_TIME_MARGIN_MS) {
+            return Collections.emptyList();
+        }
+        boolean relayable = request.getTtl() > 1;   // Hop sau nhận TTL - 1, còn > 0 mới forward tiếp
+        List<PeerInfo> likely = new ArrayList<>();
+        List<PeerInfo> unknown = new ArrayList<>();
+        List<PeerInfo> relayOnly = new ArrayList<>();
+        for (PeerInfo peer : peerDiscovery.getDiscoveredPeers()) {
+            String peerId = peer.getPeerId();
+            if (peerId.equals(localPeer.getPeerId()) || peerId.equals(request.getOriginPeerId())
+                || peerId.equals(request.getSenderPeerId()) || isBusy(peer)) {
+                continue;
+            }
+            ContentSummary summary = peer.getCurrentContentSummary();
+            if (summary == null) {
+                unknown.add(peer);
+            } else if (mightMatch(summary, request.getQuery())) {
+                likely.add(peer);
+            } else if (relayable) {
+                relayOnly.add(peer);
             }
+        }
+        Collections.shuffle(likely);
+        Collections.shuffle(unknown);
+        Collections.shuffle(relayOnly);
+        likely.addAll(unknown);
+        likely.addAll(relayOnly);
+        return likely.size() > forwardFanOut ? new ArrayList<>(likely.subList(0, forwardFanOut)) : likely;
+    }
 
-            socket.close();
+    /**
+     * Summary của peer chắc chắn loại query: chỉ forward qua nó, không hỏi local
+     */
+    private static boolean ruledOut(PeerInfo peer, SearchQuery query) {
+        ContentSummary summary = peer.getCurrentContentSummary();
+        return summary != null && !mightMatch(summary, query);
+    }
+
+    /**
+     * Forward song song tới downstream, chuyển kết quả của chúng ngược lên upstream
+     * cho đến khi mọi downstream gửi trang cuối hoặc tới deadline
+     *
+     * Không chặn thread gọi: mỗi downstream là một CompletableFuture trên executorService.
+     *
+     * @return Hoàn thành khi mọi downstream xong hoặc tới deadline (route đã được gỡ)
+     */
+    private CompletableFuture<Void> forwardAndRelay(SearchRequest request, List<PeerInfo> downstream,
+                                                    UpstreamConnection upstream, long deadline) {
+        String requestId = request.getRequestId();
+        if (!routeTable.register(requestId, upstream, Math.max(0, deadline - System.currentTimeMillis()))) {
+            System.err.println("⚠ Bảng route đầy, không forward request " + requestId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Bản sao request cho hop sau: giảm TTL, hop trước là mình, time budget còn lại
+        SearchRequest forwardReq = new SearchRequest(requestId, request.getOriginPeerId(), request.getSearchQuery(), request.getTtl());
+        forwardReq.setQuery(request.getQuery());
+        forwardReq.setPageSize(request.getPageSize());
+        forwardReq.setSenderPeerId(localPeer.getPeerId());
+        forwardReq.setTimeBudgetMillis((int) Math.max(1, deadline - System.currentTimeMillis()));
+        forwardReq.decrementTTL();
+        SearchRequest forwardOnlyReq = forwardReq.forwardOnlyCopy();
+
+        List<CompletableFuture<Void>> relays = new ArrayList<>();
+        try {
+            for (PeerInfo peer : downstream) {
+                SearchRequest sent = ruledOut(peer, request.getQuery()) ? forwardOnlyReq : forwardReq;
+                relays.add(CompletableFuture.runAsync(() -> relayFromPeer(peer, sent, deadline), executorService));
+            }
+        } catch (RejectedExecutionException e) {
+            // Service đang dừng: chỉ chờ các relay đã gửi
+        }
+        return CompletableFuture.allOf(relays.toArray(new CompletableFuture<?>[0]))
+            .completeOnTimeout(null, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+            .whenComplete((ignored, error) -> routeTable.remove(requestId));
+    }
+
+    /**
+     * Gửi request tới một hop sau và chuyển mọi trang có file (của nó và các hop sau nữa) về upstream
+     */
+    private void relayFromPeer(PeerInfo peer, SearchRequest request, long deadline) {
+        SSLSocket socket = null;
+        try {
+            socket = securityManager.createSSLSocket(peer.getIpAddress(), SEARCH_PORT);
+            socket.connect(new InetSocketAddress(peer.getIpAddress(), SEARCH_PORT), CONNECTION_TIMEOUT);
+            socket.startHandshake();
 
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            oos.writeObject(request);
+            oos.flush();
+
+            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            SearchResponse page;
+            do {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) break;
+                socket.setSoTimeout((int) remaining);
+                page = (SearchResponse) ois.readObject();
+                if (page.getRetryAfterMillis() > 0) noteBusy(peer, page.getRetryAfterMillis());
+                boolean more = page.hasMorePages();
+                if (!page.getFoundFiles().isEmpty() || page.getContinuationToken() != null) {
+                    // Trang kết thúc luồng do hop này gửi, mọi trang chuyển tiếp đều morePages=true
+                    page.setMorePages(true);
+                    if (!routeTable.route(request.getRequestId(), page)) break;
+                }
+                if (!more) break;
+            } while (true);
+        } catch (SocketTimeoutException e) {
+            // Hết time budget
         } catch (Exception e) {
-            if (running) {
-                System.err.println("⚠ Lỗi xử lý kết nối tìm kiếm: " + e.getMessage());
+            // Bỏ qua lỗi từng peer
+        } finally {
+            if (socket != null) {
+                try { socket.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Kết nối tới hop trước: ghi trang kết quả (của mình và chuyển tiếp từ hop sau) tuần tự
+     */
+    private static final class UpstreamConnection implements QueryRouteTable.Upstream {
+        private final ObjectOutputStream out;
+        private boolean closed;
+
+        UpstreamConnection(ObjectOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public synchronized boolean deliver(SearchResponse page) {
+            if (closed) return false;
+            try {
+                out.writeObject(page);
+                out.flush();
+                out.reset();    // Không giữ tham chiếu các trang đã gửi
+                return true;
+            } catch (IOException e) {
+                closed = true;
+                return false;
             }
         }
     }
 
     /**
-     * Xử lý search request và trả về response
+     * Số peer forward song song tối đa mỗi request (mặc định DEFAULT_FORWARD_FAN_OUT)
      */
-    private SearchResponse processSearchRequest(SearchRequest request) {
+    public void setForwardFanOut(int forwardFanOut) {
+        this.forwardFanOut = Math.max(1, forwardFanOut);
+    }
+
+    public int getForwardFanOut() {
+        return forwardFanOut;
+    }
+
+    /**
+     * Cache kết quả phía người hỏi (hit rate, số round trip tiết kiệm)
+     */
+    public SearchResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Bộ đếm giới hạn tốc độ / bỏ tải trên cổng search
+     */
+    public SearchAdmission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Độ trễ / timeout thích nghi của từng peer khi search
+     */
+    public PeerLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * Cache xếp hạng phía peer trả lời (hit rate khi query bị flood trùng)
+     */
+    public QueryRankingCache getRankingCache() {
+        return rankingCache;
+    }
+
+    /**
+     * Bảng định tuyến ngược (số route đang mở, trang đã chuyển / bị bỏ)
+     */
+    public QueryRouteTable getRouteTable() {
+        return routeTable;
+    }
+
+    /**
+     * Xử lý search request: xếp hạng kết quả local, FileInfo được tạo khi cắt trang
+     */
+    private ResultPager processSearchRequest(SearchRequest request) {
         // Tránh xử lý trùng
-        if (processedRequests.contains(request.getRequestId())) {
+        if (!processedRequests.add(request.getRequestId())) {
+            metrics.recordDuplicate();
             System.out.println("⚠ Request đã xử lý rồi: " + request.getRequestId());
-            return new SearchResponse(request.getRequestId(), localPeer, new ArrayList<>());
+            ResultPager duplicate = new ResultPager(request, 0, new ArrayList<>());
+            duplicate.duplicate = true;
+            return duplicate;
         }
-        processedRequests.add(request.getRequestId());
 
-        System.out.println("🔍 Nhận search request: \"" + request.getSearchQuery() + "\"");
-        System.out.println("  → Số file đang chia sẻ: " + getSharedFileCount());
+        // Request chỉ để forward: người gửi đã biết kết quả local của mình
+        if (request.isSkipLocal()) {
+            return new ResultPager(request, 0, new ArrayList<>());
+        }
 
-        // Tìm file local
-        List<FileInfo> foundFiles = new ArrayList<>();
-        String query = request.getSearchQuery().toLowerCase();
+        int offset = parseContinuationToken(request.getContinuationToken());
+        if (offset < 0) {
+            System.err.println("⚠ Continuation token không hợp lệ: " + request.getContinuationToken());
+            return new ResultPager(request, 0, new ArrayList<>());
+        }
 
-        for (Map.Entry<String, List<FileInfo>> entry : sharedFiles.entrySet()) {
-            System.out.println("  → Kiểm tra thư mục: " + entry.getKey() + " (" + entry.getValue().size() + " files)");
-            for (FileInfo file : entry.getValue()) {
-                if (file.getFileName().toLowerCase().contains(query)) {
-                    foundFiles.add(file);
-                    System.out.println("    ✓ KHỚP: " + file.getFileName());
-                }
+        // Tìm file local: bộ lọc trên cột của catalog + top-K theo điểm
+        long start = System.nanoTime();
+        SearchQuery query = request.getQuery();
+        ResultPager pager;
+        boolean cached = false;
+
+        CatalogSnapshot pending = snapshot;
+        if (pending == null) {
+            String key = QueryRankingCache.key(query, offset);
+            long version = changeFeed.getVersion();
+            SharedFileCatalog.Ranking ranking = rankingCache.get(key, version);
+            cached = ranking != null;
+            if (ranking == null) {
+                ranking = sharedFiles.rank(query, offset);
+                rankingCache.put(key, version, ranking);
+            }
+            pager = new ResultPager(request, offset, ranking);
+        } else {
+            // Snapshot chưa nạp xong: đánh giá thêm trên vùng đã map rồi xếp hạng lại
+            String text = NameIndex.normalize(query.getText());
+            List<FileInfo> merged = withSnapshot(sharedFiles.search(query).getFiles(),
+                s -> s.findByName(name -> NameIndex.matches(name, text)));
+            merged.removeIf(file -> !query.matchesFilters(file));
+            merged.sort(Comparator.comparingDouble((FileInfo file) -> -relevance(file, text)));
+            int from = Math.min(offset, merged.size());
+            List<FileInfo> files = new ArrayList<>(merged.subList(from, Math.min(from + query.getLimit(), merged.size())));
+            double[] scores = new double[files.size()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = relevance(files.get(i), text);
             }
+            pager = new ResultPager(request, offset, files);
+            pager.totalMatches = merged.size();
+            pager.scores = scores;
         }
 
-        if (!foundFiles.isEmpty()) {
-            System.out.println("📦 Tìm thấy " + foundFiles.size() + " file");
-        } else {
-            System.out.println("⚠ Không tìm thấy file nào khớp với: \"" + query + "\"");
+        // Một dòng log mỗi request (query bị flood tới mọi peer, không log từng file)
+        System.out.println("🔍 Search \"" + query + "\"" + (offset > 0 ? " (từ #" + offset + ")" : "") + ": "
+            + pager.totalMatches + " file khớp, trả về " + pager.count + " (" + (System.nanoTime() - start) / 1000 + "µs"
+            + (cached ? ", cache" : "") + ")");
+        return pager;
+    }
+
+    /**
+     * Kết quả local của một request, cắt thành trang SearchResponse khi gửi
+     */
+    private final class ResultPager {
+        private final SearchRequest request;
+        private final int offset;                          // Vị trí kết quả đầu (token "tải thêm")
+        private final SharedFileCatalog.Ranking ranking;   // Xếp hạng trên catalog (null nếu files có sẵn)
+        private final List<FileInfo> files;
+        private final PeerInfo source = localPeer.withoutContentSummary();
+        private double[] scores;
+        private int totalMatches;
+        private final int count;
+        private int position;
+        private int pageIndex;
+        private boolean duplicate;      // Request đã xử lý: trả rỗng, không forward lại
+
+        ResultPager(SearchRequest request, int offset, SharedFileCatalog.Ranking ranking) {
+            this.request = request;
+            this.offset = offset;
+            this.ranking = ranking;
+            this.files = null;
+            this.totalMatches = ranking.getTotalMatches();
+            this.count = ranking.size();
         }
 
-        return new SearchResponse(request.getRequestId(), localPeer, foundFiles);
+        ResultPager(SearchRequest request, int offset, List<FileInfo> files) {
+            this.request = request;
+            this.offset = offset;
+            this.ranking = null;
+            this.files = files;
+            this.totalMatches = files.size();
+            this.count = files.size();
+        }
+
+        boolean hasNext() {
+            return position < count;
+        }
+
+        /**
+         * Trang tiếp theo; trang cuối mang continuation token nếu còn kết quả sau limit
+         */
+        SearchResponse nextPage() {
+            int to = Math.min(count, position + request.getPageSize());
+            SearchResponse page = slice(position, to);
+            position = to;
+            page.setMorePages(hasNext());
+            return page;
+        }
+
+        /**
+         * Toàn bộ kết quả trong một response (local transport: không cần stream)
+         */
+        SearchResponse all() {
+            SearchResponse page = slice(position, count);
+            position = count;
+            return page;
+        }
+
+        private SearchResponse slice(int from, int to) {
+            List<FileInfo> pageFiles;
+            double[] pageScores;
+            if (ranking != null) {
+                SharedFileCatalog.SearchResult result = sharedFiles.materialize(ranking, from, to);
+                pageFiles = result.getFiles();
+                pageScores = result.getScores();
+            } else {
+                pageFiles = new ArrayList<>(files.subList(from, to));
+                pageScores = scores != null ? Arrays.copyOfRange(scores, from, to) : null;
+            }
+            SearchResponse page = new SearchResponse(request.getRequestId(), source, pageFiles);
+            page.setScores(pageScores);
+            attachInlinePreviews(page);
+            page.setTotalMatches(totalMatches);
+            page.setPageIndex(pageIndex++);
+            int next = offset + count;
+            if (to == count && next < totalMatches && next < MAX_CONTINUATION_OFFSET) {
+                page.setContinuationToken(changeFeed.getFeedId() + ":" + next);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Gắn preview inline cho các file của trang theo thứ tự xếp hạng, trong ngân sách byte của trang
+     */
+    private void attachInlinePreviews(SearchResponse page) {
+        Function<String, InlinePreview> previews = inlinePreviewSource;
+        if (previews == null) return;
+        int budget = MAX_INLINE_PREVIEW_BYTES_PER_PAGE;
+        for (FileInfo file : page.getFoundFiles()) {
+            String hash = file.getFileHash();
+            if (hash == null || page.getInlinePreview(hash) != null) continue;
+            InlinePreview preview = previews.apply(hash);
+            if (preview != null && preview.getEncodedSize() > budget) preview = preview.withoutThumbnail();
+            if (preview == null || preview.getEncodedSize() > budget) continue;
+            page.addInlinePreview(hash, preview);
+            budget -= preview.getEncodedSize();
+        }
+    }
+
+    /**
+     * Vị trí bắt đầu trong token (0 nếu không có token, -1 nếu sai định dạng).
+     * Token gắn feedId để dễ đọc log; catalog đổi giữa hai lần hỏi thì kết quả có thể lệch vài file.
+     */
+    private static int parseContinuationToken(String token) {
+        if (token == null) return 0;
+        try {
+            int offset = Integer.parseInt(token.substring(token.lastIndexOf(':') + 1));
+            return offset >= 0 && offset < MAX_CONTINUATION_OFFSET ? offset : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static double relevance(FileInfo file, String normalizedText) {
+        return NameIndex.relevance(file.getFileName(), normalizedText,
+            NameIndex.indexOf(file.getFileName(), normalizedText));
     }
 
     /**
      * Tìm kiếm file từ các peer (P2P LAN hoặc P2P Hybrid tùy mode)
      */
     public void searchFile(String query, SearchResultCallback callback) {
+        searchFile(query, 0, SEARCH_TIMEOUT, callback);
+    }
+
+    /**
+     * Tìm kiếm với deadline riêng, dừng sớm khi đủ maxResults file
+     *
+     * @param maxResults    Dừng (đóng kết nối tới peer chưa xong) khi đã nhận đủ số file này, 0 = không giới hạn
+     * @param timeoutMillis Deadline của cả lần tìm (cũng là time budget gửi cho các hop)
+     */
+    public void searchFile(String query, int maxResults, long timeoutMillis, SearchResultCallback callback) {
+        searchFile(query, maxResults, timeoutMillis, null, callback);
+    }
+
+    /**
+     * Tìm kiếm trên một tập peer cho trước (vd. provider của hash: tìm qua DHT)
+     *
+     * @param peers Peer sẽ hỏi; null = mọi peer discovery biết (lọc theo mode)
+     */
+    public void searchFile(String query, int maxResults, long timeoutMillis, List<PeerInfo> peers,
+                           SearchResultCallback callback) {
         String requestId = UUID.randomUUID().toString();
         SearchRequest request = new SearchRequest(requestId, localPeer.getPeerId(), query, 5);
+        request.setQuery(SearchQuery.parse(query));
+        request.setTimeBudgetMillis((int) timeoutMillis);
 
-        activeSearches.put(requestId, callback);
+        SearchRun run = new SearchRun(requestId, callback, maxResults, timeoutMillis);
+        activeSearches.put(requestId, run);
 
         System.out.println("🔍 Bắt đầu tìm kiếm: \"" + query + "\" (Mode: " + (p2pOnlyMode ? "P2P LAN" : "P2P Internet") + ")");
 
@@ -277,7 +847,12 @@ public class FileSearchService {
         List<PeerInfo> allPeers = peerDiscovery.getDiscoveredPeers();
         List<PeerInfo> targetPeers = new ArrayList<>();
         
-        if (p2pOnlyMode) {
+        if (peers != null) {
+            // ===== Tập peer chỉ định (provider từ DHT) =====
+            for (PeerInfo peer : peers) {
+                if (!peer.getPeerId().equals(localPeer.getPeerId())) targetPeers.add(peer);
+            }
+        } else if (p2pOnlyMode) {
             // ===== P2P LAN MODE =====
             // Lọc chỉ lấy LAN peers (private IPs)
             for (PeerInfo peer : allPeers) {
@@ -291,54 +866,245 @@ public class FileSearchService {
             targetPeers.addAll(allPeers);
         }
 
-        if (targetPeers.isEmpty()) {
-            System.out.println("⚠ Không có peer nào để tìm kiếm");
-            callback.onSearchComplete();
-            activeSearches.remove(requestId);
+        // Peer có bản sao catalog đúng version: trả lời local thay peer; request còn TTL thì vẫn
+        // gửi bản chỉ-forward (bản sao chỉ có catalog của peer đó, không có kết quả các hop sau)
+        CatalogReplicator replicas = replicator;
+        List<PeerInfo> forwardOnly = new ArrayList<>();
+        int answered = 0;
+        if (replicas != null) {
+            long start = System.nanoTime();
+            for (Iterator<PeerInfo> it = targetPeers.iterator(); it.hasNext(); ) {
+                PeerInfo peer = it.next();
+                SharedFileCatalog.SearchResult result = replicas.search(peer, request.getQuery());
+                if (result == null) continue;
+                it.remove();
+                if (request.canForward()) forwardOnly.add(peer);
+                answered++;
+                if (result.getFiles().isEmpty()) continue;
+                SearchResponse response = new SearchResponse(requestId, peer, result.getFiles());
+                response.setScores(result.getScores());
+                response.setTotalMatches(result.getTotalMatches());
+                run.onSearchResult(response);
+            }
+            if (answered > 0) {
+                System.out.println("🗂 Trả lời từ bản sao catalog cho " + answered + " peer ("
+                    + (System.nanoTime() - start) / 1000 + "µs)");
+            }
+        }
+
+        // Peer đang báo bận (retry-after chưa hết): không hỏi
+        int busy = targetPeers.size();
+        targetPeers.removeIf(this::isBusy);
+        busy -= targetPeers.size();
+        forwardOnly.removeIf(this::isBusy);
+
+        // Peer có content summary chắc chắn không khớp: không hỏi local. Request còn TTL thì
+        // vẫn gửi bản chỉ-forward (peer đó là lối vào các hop sau), hết TTL thì bỏ hẳn
+        int considered = targetPeers.size();
+        Set<PeerInfo> summaryPositive = new HashSet<>();
+        targetPeers.removeIf(peer -> {
+            ContentSummary summary = peer.getCurrentContentSummary();
+            if (summary == null) return false;
+            if (!mightMatch(summary, request.getQuery())) {
+                if (request.canForward()) forwardOnly.add(peer);
+                return true;
+            }
+            summaryPositive.add(peer);
+            return false;
+        });
+        int skipped = considered - targetPeers.size();
+
+        // Peer chưa đổi catalog từ lần hỏi trước: kết quả của chính nó lấy từ cache (cache chỉ giữ
+        // trang của peer đó), request còn TTL thì vẫn gửi bản chỉ-forward để nhận kết quả các hop sau
+        String queryKey = request.getQuery().toString();
+        int cached = 0;
+        for (Iterator<PeerInfo> it = targetPeers.iterator(); it.hasNext(); ) {
+            PeerInfo peer = it.next();
+            List<SearchResponse> pages = resultCache.get(queryKey, peer);
+            if (pages == null) continue;
+            it.remove();
+            if (request.canForward()) forwardOnly.add(peer);
+            cached++;
+            for (SearchResponse page : pages) {
+                run.onSearchResult(page);
+            }
+        }
+        metrics.recordSearch(considered, targetPeers.size(), skipped);
+
+        if (targetPeers.isEmpty() && forwardOnly.isEmpty()) {
+            System.out.println(considered == 0 ? (answered > 0 ? "✓ Tìm kiếm hoàn tất trên bản sao catalog"
+                : "⚠ Không có peer nào để tìm kiếm")
+                : cached > 0 ? "♻ Trả lời từ cache cho " + cached + " peer (catalog không đổi)"
+                : "⚠ Không peer nào có thể có kết quả (content summary loại " + skipped + " peer)");
+            run.finish(null);
             return;
         }
 
         int peerCount = targetPeers.size();
-        System.out.println("📡 Gửi search request đến " + peerCount + " peer(s)");
+        System.out.println("📡 Gửi search request đến " + peerCount + "/" + considered + " peer(s)"
+            + (skipped > 0 ? " (content summary loại " + skipped + ")" : "")
+            + (!forwardOnly.isEmpty() ? " (chỉ forward qua " + forwardOnly.size() + ")" : "")
+            + (cached > 0 ? " (cache " + cached + ")" : "")
+            + (busy > 0 ? " (" + busy + " peer đang bận)" : ""));
+
+        // Deadline của cả lần tìm: hết hạn thì đóng kết nối tới peer chưa xong
+        run.deadlineTask = scheduledExecutor.schedule(() -> run.finish("hết thời gian " + timeoutMillis + "ms"),
+            timeoutMillis, TimeUnit.MILLISECONDS);
+
+        // Gửi search request đến các peers song song
+        List<CompletableFuture<Void>> calls = new ArrayList<>(targetPeers.size() + forwardOnly.size());
+        SearchRequest forwardOnlyReq = request.forwardOnlyCopy();
+        for (PeerInfo peer : forwardOnly) {
+            // Chỉ nhận trang chuyển tiếp từ hop sau: không cache
+            calls.add(CompletableFuture.runAsync(() -> sendSearchRequest(peer, forwardOnlyReq, run, run), executorService));
+        }
+        for (PeerInfo peer : targetPeers) {
+            // Version peer quảng bá trước khi hỏi: catalog đổi trong lúc hỏi thì lần sau hỏi lại
+            String feedId = peer.getCatalogFeedId();
+            long version = peer.getCatalogVersion();
+            calls.add(CompletableFuture.runAsync(() -> {
+                List<SearchResponse> pages = sendSearchRequest(peer, request, run, run);
+                if (pages == null) return;   // Lỗi / bị cắt: không cache kết quả dở dang
+                resultCache.put(queryKey, peer, feedId, version, pages);
+                if (summaryPositive.contains(peer)) metrics.recordSummaryPositive(countFiles(pages) > 0);
+            }, executorService));
+        }
 
-        // Gửi search request đến các peers
-        CountDownLatch latch = new CountDownLatch(targetPeers.size());
+        // Mọi peer xong (trả lời hết / lỗi / bị bỏ vì chậm): kết thúc ngay, không đợi deadline
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0]))
+            .whenComplete((ignored, error) -> run.finish("mọi peer đã trả lời"));
+    }
 
-        for (PeerInfo peer : targetPeers) {
-            executorService.submit(() -> {
-                try {
-                    sendSearchRequest(peer, request, callback);
-                } finally {
-                    latch.countDown();
-                }
-            });
+    /**
+     * Một lần searchFile: chuyển kết quả cho callback, kết thúc đúng một lần
+     * (mọi peer xong / đủ maxResults / hết deadline) và đóng kết nối tới peer chưa xong
+     */
+    private final class SearchRun implements SearchResultCallback {
+        private final String requestId;
+        private final SearchResultCallback callback;
+        private final int maxResults;
+        private final long deadline;
+        private final long startedAt = System.currentTimeMillis();
+        private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+        private volatile ScheduledFuture<?> deadlineTask;
+        private int results;
+        private volatile boolean done;
+
+        SearchRun(String requestId, SearchResultCallback callback, int maxResults, long timeoutMillis) {
+            this.requestId = requestId;
+            this.callback = callback;
+            this.maxResults = maxResults;
+            this.deadline = startedAt + timeoutMillis;
         }
 
-        // Timeout sau SEARCH_TIMEOUT
-        scheduledExecutor.schedule(() -> {
-            try {
-                // Đợi tất cả peer phản hồi hoặc timeout
-                latch.await(SEARCH_TIMEOUT, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                // Ignore
-            }
+        @Override
+        public synchronized void onSearchResult(SearchResponse response) {
+            if (done) return;
+            callback.onSearchResult(response);
+            results += response.getFoundFiles().size();
+            if (maxResults > 0 && results >= maxResults) finish("đủ " + maxResults + " kết quả");
+        }
 
+        @Override
+        public void onSearchComplete() {
+            finish(null);
+        }
+
+        void finish(String reason) {
+            synchronized (this) {
+                if (done) return;
+                done = true;
+            }
+            ScheduledFuture<?> task = deadlineTask;
+            if (task != null) task.cancel(false);
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
             activeSearches.remove(requestId);
+            if (reason != null) {
+                System.out.println("✓ Tìm kiếm xong (" + reason + "): " + results + " file sau "
+                    + (System.currentTimeMillis() - startedAt) + "ms");
+            }
             callback.onSearchComplete();
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        /**
+         * @return false nếu search đã kết thúc (không mở thêm kết nối)
+         */
+        boolean register(Socket socket) {
+            sockets.add(socket);
+            if (!done) return true;
+            sockets.remove(socket);
+            return false;
+        }
 
-        }, SEARCH_TIMEOUT, TimeUnit.MILLISECONDS);
+        void unregister(Socket socket) {
+            sockets.remove(socket);
+        }
+
+        long remainingMillis() {
+            return Math.max(1, deadline - System.currentTimeMillis());
+        }
+    }
+
+    private static int countFiles(List<SearchResponse> pages) {
+        int count = 0;
+        if (pages != null) {
+            for (SearchResponse page : pages) count += page.getFoundFiles().size();
+        }
+        return count;
     }
 
     /**
      * Gửi search request đến một peer (với TLS)
+     *
+     * @param run Lần search chứa request (null với "tải thêm"): deadline, timeout thích nghi, đóng khi kết thúc
+     * @return Các trang của chính peer đó có file / continuation token (không gồm trang chuyển tiếp
+     *         từ hop sau), null nếu lỗi giữa chừng / bị cắt
      */
-    private void sendSearchRequest(PeerInfo peer, SearchRequest request, SearchResultCallback callback) {
+    private List<SearchResponse> sendSearchRequest(PeerInfo peer, SearchRequest request, SearchResultCallback callback,
+                                                   SearchRun run) {
+        if (run != null && run.isDone()) return null;
+
+        // Peer cùng máy: đi qua Unix socket, lỗi thì quay về TLS
+        LocalTransportService local = localTransport;
+        if (local != null && local.isSameHost(peer)) {
+            try {
+                Object obj = local.requestObject(peer, LocalTransportService.CHANNEL_SEARCH, request);
+                if (obj instanceof SearchResponse) {
+                    SearchResponse response = (SearchResponse) obj;
+                    if (!response.getFoundFiles().isEmpty() || response.getContinuationToken() != null) {
+                        System.out.println("📥 Nhận response (local): " + response.getFoundFiles().size() +
+                                " files từ " + peer.getDisplayName());
+                        callback.onSearchResult(response);
+                        return Collections.singletonList(response);
+                    }
+                    return Collections.emptyList();
+                }
+            } catch (IOException e) {
+                System.err.println("⚠ Local transport lỗi, dùng TLS: " + e.getMessage());
+            }
+        }
+
         SSLSocket socket = null;
+        int pages = 0;
+        long firstPageTimeout = Math.min(latencyTracker.timeoutMillis(peer.getPeerId()),
+            run != null ? run.remainingMillis() : SEARCH_TIMEOUT);
         try {
             // Kết nối đến peer với TLS
+            long start = System.nanoTime();
             socket = securityManager.createSSLSocket(peer.getIpAddress(), SEARCH_PORT);
+            if (run != null && !run.register(socket)) return null;
             socket.connect(new InetSocketAddress(peer.getIpAddress(), SEARCH_PORT), CONNECTION_TIMEOUT);
-            socket.setSoTimeout(5000);
+            // Trang đầu phải tới trong timeout thích nghi của peer (tính cả handshake)
+            socket.setSoTimeout((int) firstPageTimeout);
             socket.startHandshake();
 
             // Gửi request
@@ -346,24 +1112,61 @@ public class FileSearchService {
             oos.writeObject(request);
             oos.flush();
 
-            // Nhận response
+            // Nhận từng trang (của peer này và của các hop sau, định tuyến ngược qua peer này),
+            // báo callback ngay khi có, không đợi trang cuối
             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-            SearchResponse response = (SearchResponse) ois.readObject();
+            SearchResponse page;
+            List<SearchResponse> own = new ArrayList<>();
+            int received = 0;
+            int relayed = 0;
+            long firstPageMicros = 0;
+            do {
+                page = (SearchResponse) ois.readObject();
+                if (pages++ == 0) {
+                    firstPageMicros = (System.nanoTime() - start) / 1000;
+                    latencyTracker.record(peer.getPeerId(), firstPageMicros / 1000.0);
+                    // Peer đã trả lời: các trang sau (gồm trang chuyển tiếp) đợi đến deadline
+                    socket.setSoTimeout((int) (run != null ? run.remainingMillis() : SEARCH_TIMEOUT));
+                }
+                boolean fromPeer = peer.getPeerId().equals(page.getSourcePeer().getPeerId());
+                if (fromPeer && page.getRetryAfterMillis() > 0) {
+                    noteBusy(peer, page.getRetryAfterMillis());
+                    return null;
+                }
+                if (fromPeer) {
+                    received += page.getFoundFiles().size();
+                } else {
+                    relayed += page.getFoundFiles().size();
+                }
+                if (!page.getFoundFiles().isEmpty() || page.getContinuationToken() != null) {
+                    if (fromPeer) own.add(page);
+                    callback.onSearchResult(page);
+                }
+            } while (page.hasMorePages());
 
-            // Xử lý response
-            if (!response.getFoundFiles().isEmpty()) {
-                System.out.println("📥 Nhận response: " + response.getFoundFiles().size() +
-                        " files từ " + peer.getDisplayName());
-                callback.onSearchResult(response);
+            if (received + relayed > 0) {
+                System.out.println("📥 Nhận response: " + received + " files" 
+                    + (relayed > 0 ? " + " + relayed + " files chuyển tiếp" : "") + " (" + pages 
+                    + " trang, trang đầu sau " + firstPageMicros / 1000.0 + "ms) từ " + peer.getDisplayName());
             }
+            return own;
 
+        } catch (SocketTimeoutException e) {
+            if (pages == 0) {
+                latencyTracker.recordTimeout(peer.getPeerId(), firstPageTimeout);
+                System.err.println("⌛ " + peer.getDisplayName() + " không trả lời trong " + firstPageTimeout + "ms, bỏ qua");
+            }
         } catch (IOException | ClassNotFoundException e) {
-            System.err.println("⚠ Không thể kết nối đến peer " + peer.getDisplayName() +
-                    ": " + e.getMessage());
+            // Search đã kết thúc (đủ kết quả / hết deadline) thì socket bị đóng chủ động
+            if (run == null || !run.isDone()) {
+                System.err.println("⚠ Không thể kết nối đến peer " + peer.getDisplayName() +
+                        ": " + e.getMessage());
+            }
         } catch (Exception e) {
             System.err.println("❌ Lỗi search: " + e.getMessage());
         } finally {
             if (socket != null) {
+                if (run != null) run.unregister(socket);
                 try {
                     socket.close();
                 } catch (IOException e) {
@@ -371,51 +1174,343 @@ public class FileSearchService {
                 }
             }
         }
+        return null;
+    }
+
+    /**
+     * "Tải thêm": hỏi lại peer của trang cuối từ vị trí trong continuation token
+     *
+     * @param query    Query gốc (như lúc searchFile)
+     * @param lastPage Trang cuối đã nhận từ peer đó (có continuation token)
+     */
+    public void loadMore(String query, SearchResponse lastPage, SearchResultCallback callback) {
+        if (lastPage.getContinuationToken() == null) {
+            callback.onSearchComplete();
+            return;
+        }
+        // TTL 0: chỉ peer đó trả lời, không forward
+        SearchRequest request = new SearchRequest(UUID.randomUUID().toString(), localPeer.getPeerId(), query, 0);
+        request.setQuery(SearchQuery.parse(query));
+        request.setContinuationToken(lastPage.getContinuationToken());
+
+        executorService.submit(() -> {
+            try {
+                sendSearchRequest(lastPage.getSourcePeer(), request, callback, null);
+            } finally {
+                callback.onSearchComplete();
+            }
+        });
+    }
+
+    // ========== Content summary ==========
+
+    /**
+     * Dựng lại summary nếu catalog đã đổi (bỏ qua khi snapshot chưa nạp xong:
+     * catalog còn thiếu file, không gửi summary thì peer khác vẫn hỏi mình)
+     */
+    private void refreshContentSummary() {
+        if (!summaryDirty || snapshot != null) return;
+        try {
+            summaryDirty = false;
+            long start = System.nanoTime();
+            ContentSummary summary = sharedFiles.buildSummary(changeFeed.getFeedId(), changeFeed.getVersion());
+            localPeer.setContentSummary(summary);
+            System.out.printf("🧾 Content summary v%d: %d khóa, %d KB, FPR ước lượng %.2f%%%s (%d ms)%n",
+                summary.getVersion(), summary.getItemCount(), summary.getSizeBytes() / 1024,
+                summary.estimateFalsePositiveRate() * 100, summary.isHashesIncluded() ? "" : ", không gồm hash",
+                (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            summaryDirty = true;
+            System.err.println("⚠ Lỗi dựng content summary: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Query có thể khớp catalog được summary mô tả không (false = chắc chắn không)
+     */
+    public static boolean mightMatch(ContentSummary summary, SearchQuery query) {
+        if (query.getFileHash() != null && summary.isHashesIncluded() && isSha256Hex(query.getFileHash())
+            && !summary.mightContain(ContentSummary.hashKey(query.getFileHash()))) {
+            return false;
+        }
+        // Tên chứa text -> chứa mọi trigram của text (text < 3 ký tự: không lọc được)
+        if (!summary.mightContainAll(NameIndex.trigrams(NameIndex.normalize(query.getText())))) {
+            return false;
+        }
+        if (query.getExtensions().isEmpty()) return true;
+        for (String extension : query.getExtensions()) {
+            if (summary.mightContainAll(NameIndex.trigrams(NameIndex.normalize("." + extension)))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hash trong query từ peer có thể sai định dạng (ContentSummary.hashKey cần hex)
+     */
+    private static boolean isSha256Hex(String hash) {
+        if (hash.length() != 64) return false;
+        for (int i = 0; i < hash.length(); i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Summary local hiện tại (null nếu chưa dựng)
+     */
+    public ContentSummary getContentSummary() {
+        return localPeer.getContentSummary();
+    }
+
+    /**
+     * Bộ đếm fan-out / hiệu quả content summary
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static SearchResponse allResults(ResultPager pager) {
+        return pager != null ? pager.all() : null;
+    }
+
+    /**
+     * Nguồn preview inline gửi kèm kết quả search (fileHash -> preview, null nếu không có)
+     */
+    public void setInlinePreviewSource(Function<String, InlinePreview> inlinePreviewSource) {
+        this.inlinePreviewSource = inlinePreviewSource;
+    }
+
+    /**
+     * Gắn local transport: phục vụ và gửi search đến peer cùng máy qua Unix socket
+     */
+    public void setLocalTransport(LocalTransportService localTransport) {
+        this.localTransport = localTransport;
+        if (localTransport != null) {
+            localTransport.registerHandler(LocalTransportService.CHANNEL_SEARCH, message ->
+                message instanceof SearchRequest ? allResults(handleIncomingRequest((SearchRequest) message)) : null);
+        }
     }
 
     /**
-     * Thêm file chia sẻ
+     * Thêm file chia sẻ, hoặc thay thế bản cũ cùng đường dẫn (một bước, search
+     * đồng thời thấy bản cũ hoặc bản mới, không bao giờ thiếu file)
+     *
+     * @return Bản cũ bị thay thế, null nếu là file mới
      */
-    public void addSharedFile(String directory, FileInfo fileInfo) {
-        sharedFiles.computeIfAbsent(directory, k -> new CopyOnWriteArrayList<>()).add(fileInfo);
-        System.out.println("✓ [FileSearchService] Đã thêm file: " + fileInfo.getFileName() +
-                " vào thư mục: " + directory);
-        System.out.println("  → Tổng số file đang chia sẻ: " + getSharedFileCount());
+    public FileInfo addSharedFile(String directory, FileInfo fileInfo) {
+        FileInfo previous = sharedFiles.put(fileInfo);
+
+        if (previous == null) {
+            changeFeed.publish(CatalogChange.Type.ADDED, fileInfo);
+            System.out.println("✓ [FileSearchService] Đã thêm file: " + fileInfo.getFileName() +
+                    " vào thư mục: " + directory);
+            System.out.println("  → Tổng số file đang chia sẻ: " + getSharedFileCount());
+        } else if (!sameContent(previous, fileInfo)) {
+            changeFeed.publish(CatalogChange.Type.MODIFIED, fileInfo);
+            System.out.println("✓ [FileSearchService] Đã cập nhật file: " + fileInfo.getFileName());
+        }
+        return previous;
     }
 
     public void removeSharedFile(String directory, String fileName) {
-        List<FileInfo> files = sharedFiles.get(directory);
-        if (files != null) {
-            files.removeIf(f -> f.getFileName().equals(fileName));
+        for (FileInfo file : sharedFiles.removeByName(directory, fileName)) {
+            changeFeed.publish(CatalogChange.Type.REMOVED, file);
         }
     }
 
+    /**
+     * Xóa các file chia sẻ nằm trong đường dẫn (file đó, hoặc mọi file bên dưới nếu là thư mục)
+     *
+     * @return Các file đã xóa
+     */
+    public List<FileInfo> removeSharedFilesUnder(String path) {
+        List<FileInfo> removed = sharedFiles.removeUnder(path);
+        for (FileInfo file : removed) {
+            changeFeed.publish(CatalogChange.Type.REMOVED, file);
+        }
+        return removed;
+    }
+
+    private static boolean sameContent(FileInfo a, FileInfo b) {
+        return a.getFileSize() == b.getFileSize() && Objects.equals(a.getFileHash(), b.getFileHash())
+            && Objects.equals(a.getTreeHash(), b.getTreeHash());
+    }
+
+    /**
+     * Change feed của catalog (version tăng mỗi lần thêm/sửa/xóa)
+     */
+    public CatalogChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Version hiện tại của catalog
+     */
+    public long getCatalogVersion() {
+        return changeFeed.getVersion();
+    }
+
+    /**
+     * Tìm file đang chia sẻ theo SHA-256 hash
+     */
+    public FileInfo findSharedFileByHash(String fileHash) {
+        FileInfo found = sharedFiles.findByHash(fileHash);
+        CatalogSnapshot pending = snapshot;
+        return found == null && pending != null ? pending.findByHash(fileHash) : found;
+    }
+
+    /**
+     * Tìm file đang chia sẻ theo đường dẫn
+     */
+    public FileInfo findSharedFileByPath(String filePath) {
+        return sharedFiles.get(sharedFiles.idOf(filePath));
+    }
+
+    // ========== Catalog snapshot ==========
+
+    /**
+     * Dùng snapshot đã map để trả lời search ngay khi khởi động, trước khi catalog được nạp
+     */
+    public void attachSnapshot(CatalogSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Nạp snapshot vào catalog rồi bỏ snapshot (gọi trên thread nền).
+     * Không đi qua change feed: peer khác thấy feedId mới sau khi khởi động và tự resync.
+     *
+     * @return Số file đã nạp
+     */
+    public int loadSnapshot() {
+        CatalogSnapshot pending = snapshot;
+        if (pending == null) return 0;
+        int loaded = pending.loadInto(sharedFiles);
+        rankingCache.invalidate();
+        snapshot = null;
+        summaryDirty = true;
+        return loaded;
+    }
+
+    /**
+     * Catalog còn đang nạp từ snapshot
+     */
+    public boolean isSnapshotPending() {
+        return snapshot != null;
+    }
+
+    /**
+     * Kết quả từ catalog, cộng thêm kết quả từ snapshot chưa nạp xong (bỏ trùng đường dẫn)
+     */
+    private List<FileInfo> withSnapshot(List<FileInfo> fromCatalog,
+                                        Function<CatalogSnapshot, List<FileInfo>> fromSnapshot) {
+        CatalogSnapshot pending = snapshot;
+        if (pending == null) return fromCatalog;
+
+        Map<String, FileInfo> merged = new LinkedHashMap<>();
+        for (FileInfo file : fromSnapshot.apply(pending)) {
+            merged.put(file.getFilePath(), file);
+        }
+        for (FileInfo file : fromCatalog) {
+            merged.put(file.getFilePath(), file);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
     public Map<String, List<FileInfo>> getSharedFiles() {
-        return new HashMap<>(sharedFiles);
+        return sharedFiles.toDirectoryMap();
+    }
+
+    /**
+     * Đường dẫn các file chia sẻ bằng path hoặc nằm dưới thư mục path
+     */
+    public List<String> getSharedFilePathsUnder(String path) {
+        return sharedFiles.pathsUnder(path);
+    }
+
+    /**
+     * Catalog nén chứa các file đang chia sẻ
+     */
+    public SharedFileCatalog getCatalog() {
+        return sharedFiles;
     }
 
     /**
      * Lấy tất cả file đang chia sẻ (flatten)
      */
     public List<FileInfo> getAllSharedFiles() {
-        List<FileInfo> allFiles = new ArrayList<>();
-        for (List<FileInfo> files : sharedFiles.values()) {
-            allFiles.addAll(files);
-        }
-        return allFiles;
+        return withSnapshot(sharedFiles.toList(), CatalogSnapshot::toList);
     }
 
     /**
      * Đếm số lượng file đang chia sẻ
      */
     public int getSharedFileCount() {
-        int count = 0;
-        for (List<FileInfo> files : sharedFiles.values()) {
-            count += files.size();
-        }
-        return count;
+        CatalogSnapshot pending = snapshot;
+        return pending != null ? Math.max(pending.size(), sharedFiles.size()) : sharedFiles.size();
     }
     
+    /**
+     * Bật / tắt sao chép catalog của peer LAN (tắt: bỏ mọi bản sao)
+     */
+    public void setCatalogReplicationEnabled(boolean enabled) {
+        if (enabled == (replicator != null)) return;
+        replicator = enabled ? new CatalogReplicator(localPeer.getPeerId(), this::fetchChangeBatch) : null;
+        System.out.println("🔧 Sao chép catalog: " + (enabled ? "bật" : "tắt"));
+    }
+
+    public boolean isCatalogReplicationEnabled() {
+        return replicator != null;
+    }
+
+    /**
+     * Bản sao catalog hiện tại (null nếu tắt)
+     */
+    public CatalogReplicator getReplicator() {
+        return replicator;
+    }
+
+    private void scheduleReplicationSync() {
+        CatalogReplicator replicas = replicator;
+        if (replicas == null || !running || !replicationBusy.compareAndSet(false, true)) return;
+        try {
+            executorService.submit(() -> {
+                try {
+                    List<PeerInfo> lanPeers = new ArrayList<>();
+                    for (PeerInfo peer : peerDiscovery.getDiscoveredPeers()) {
+                        if (isPrivateIP(peer.getIpAddress())) lanPeers.add(peer);
+                    }
+                    replicas.sync(lanPeers);
+                } catch (Exception e) {
+                    System.err.println("⚠ Lỗi đồng bộ bản sao catalog: " + e.getMessage());
+                } finally {
+                    replicationBusy.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            replicationBusy.set(false);
+        }
+    }
+
+    /**
+     * Gửi CatalogChangeBatch.Request tới peer qua TLS (cổng search)
+     */
+    private CatalogChangeBatch fetchChangeBatch(PeerInfo peer, CatalogChangeBatch.Request request) throws IOException {
+        try (SSLSocket socket = securityManager.createSSLSocket(peer.getIpAddress(), SEARCH_PORT)) {
+            socket.connect(new InetSocketAddress(peer.getIpAddress(), SEARCH_PORT), CONNECTION_TIMEOUT);
+            socket.setSoTimeout(SEARCH_TIMEOUT);
+            socket.startHandshake();
+
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            oos.writeObject(request);
+            oos.flush();
+            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            Object reply = ois.readObject();
+            return reply instanceof CatalogChangeBatch ? (CatalogChangeBatch) reply : null;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Phản hồi không hợp lệ: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Set connection mode
      * @param p2pOnly true = P2P LAN, false = P2P Hybrid (Internet)
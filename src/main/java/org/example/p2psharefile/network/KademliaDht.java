@@ -0,0 +1,571 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.DhtContact;
+import org.example.p2psharefile.model.DhtMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * KademliaDht - DHT kiểu Kademlia: SHA-256 của file -> các peer đang chia sẻ (provider)
+ *
+ * Ở chế độ Internet, tìm ai có một fileHash không cần flood mọi peer signaling server trả về:
+ * - Node ID và khóa cùng không gian 256-bit, khoảng cách = XOR
+ * - Routing table: 256 k-bucket, bucket i giữ tối đa K contact có bit khác đầu tiên ở vị trí i;
+ *   bucket đầy thì giữ contact cũ (node sống lâu thường sống tiếp), contact lỗi RPC bị bỏ
+ *   nhường chỗ cho contact mới
+ * - Lookup lặp: mỗi vòng hỏi song song ALPHA contact gần khóa nhất chưa hỏi; vòng không tìm được
+ *   node gần hơn thì hỏi nốt K contact gần nhất rồi dừng -> O(log N) vòng
+ * - Provider record: node công bố mình là provider lên K node gần khóa nhất (ADD_PROVIDER);
+ *   record hết hạn sau PROVIDER_TTL_MS, provider công bố lại mỗi REPUBLISH_INTERVAL_MS
+ * - Bộ nhớ: tối đa MAX_PROVIDER_KEYS khóa, MAX_PROVIDERS_PER_KEY provider mỗi khóa
+ * - Node ID phải đúng SHA-256(peerId): contact / provider khai ID không khớp peerId bị bỏ qua,
+ *   không vào routing table hay provider store. Chỉ chặn khai ID tùy ý với chi phí bằng không:
+ *   peerId do peer tự chọn, không gắn với khóa chứng chỉ TLS, nên node vẫn thử nhiều peerId
+ *   được để có ID gần một khóa (mỗi bit gần hơn tốn gấp đôi số lần băm)
+ *
+ * Gửi / nhận qua DhtTransport (TLS ngoài thực tế, gọi trực tiếp trong mô phỏng); handle() xử lý
+ * request tới. start() chạy công bố nền (hàng đợi provide + công bố lại + dọn record hết hạn).
+ */
+public class KademliaDht {
+
+    public static final int ID_BYTES = 32;
+    public static final int K = 20;
+    public static final int ALPHA = 3;
+    public static final long PROVIDER_TTL_MS = 60 * 60_000L;
+    public static final long REPUBLISH_INTERVAL_MS = 30 * 60_000L;
+    public static final int MAX_PROVIDER_KEYS = 65_536;
+    public static final int MAX_PROVIDERS_PER_KEY = K;
+    private static final int MAX_ROUNDS = 32;
+    private static final long RPC_TIMEOUT_MS = 5000;
+    private static final int PUBLISH_PER_TICK = 8;
+
+    /**
+     * Kết quả một lookup: provider tìm được, K contact gần nhất, số vòng (hop) và RPC đã gửi
+     */
+    public static final class LookupResult {
+        private final List<DhtContact> providers;
+        private final List<DhtContact> closest;
+        private final int rounds;
+        private final int rpcs;
+        private final int failures;
+        private final long elapsedMicros;
+
+        LookupResult(List<DhtContact> providers, List<DhtContact> closest, int rounds, int rpcs, int failures,
+                     long elapsedMicros) {
+            this.providers = providers;
+            this.closest = closest;
+            this.rounds = rounds;
+            this.rpcs = rpcs;
+            this.failures = failures;
+            this.elapsedMicros = elapsedMicros;
+        }
+
+        public List<DhtContact> getProviders() { return providers; }
+        public List<DhtContact> getClosest() { return closest; }
+        public int getRounds() { return rounds; }
+        public int getRpcs() { return rpcs; }
+        public int getFailures() { return failures; }
+        public long getElapsedMicros() { return elapsedMicros; }
+    }
+
+    private static final class ProviderRecord {
+        final DhtContact provider;
+        final long expiresAt;
+
+        ProviderRecord(DhtContact provider, long expiresAt) {
+            this.provider = provider;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final DhtContact self;
+    private final DhtTransport transport;
+    private volatile ExecutorService rpcPool;     // null khi chưa start (pool tự tạo): RPC gửi tuần tự
+    private final boolean ownsPool;
+
+    // buckets[i]: contact có bit khác đầu tiên (so với self) ở vị trí i, cũ nhất ở đầu
+    private final ArrayDeque<DhtContact>[] buckets;
+
+    // Provider record node này giữ hộ: khóa hex -> peerId -> record
+    private final Map<String, Map<String, ProviderRecord>> providerStore = new ConcurrentHashMap<>();
+
+    // Khóa node này tự công bố (công bố lại định kỳ) và hàng đợi công bố
+    private final Set<String> provided = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<String> publishQueue = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService maintenance;
+
+    private final AtomicLong rpcsSent = new AtomicLong();
+    private final AtomicLong rpcFailures = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong lookupRounds = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * Pool gửi RPC do node tự tạo trong start() và đóng trong stop() (start lại được)
+     */
+    public KademliaDht(DhtContact self, DhtTransport transport) {
+        this(self, transport, null, true);
+    }
+
+    /**
+     * @param rpcPool Pool gửi RPC song song trong lookup (mô phỏng nhiều node dùng chung một pool)
+     */
+    public KademliaDht(DhtContact self, DhtTransport transport, ExecutorService rpcPool) {
+        this(self, transport, rpcPool, false);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private KademliaDht(DhtContact self, DhtTransport transport, ExecutorService rpcPool, boolean ownsPool) {
+        this.self = self;
+        this.transport = transport;
+        this.rpcPool = rpcPool;
+        this.ownsPool = ownsPool;
+        this.buckets = new ArrayDeque[ID_BYTES * 8];
+    }
+
+    // ========== Khóa / khoảng cách ==========
+
+    /**
+     * Node ID của peer = SHA-256(peerId)
+     */
+    public static byte[] nodeIdFor(String peerId) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(peerId.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Contact có node ID đúng bằng SHA-256(peerId) của nó
+     */
+    public static boolean hasValidNodeId(DhtContact contact) {
+        if (contact == null || contact.getPeerId() == null) return false;
+        byte[] nodeId = contact.getNodeId();
+        return nodeId != null && nodeId.length == ID_BYTES && MessageDigest.isEqual(nodeId, nodeIdFor(contact.getPeerId()));
+    }
+
+    /**
+     * Khóa DHT của file (SHA-256 hex), null nếu hash không hợp lệ
+     */
+    public static byte[] keyFor(String fileHash) {
+        return fileHash != null ? SharedFileCatalog.parseHex(fileHash.toLowerCase(Locale.ROOT), ID_BYTES) : null;
+    }
+
+    /**
+     * Vị trí bit khác đầu tiên giữa a và b (0 = bit cao nhất), -1 nếu bằng nhau
+     */
+    static int bucketIndex(byte[] a, byte[] b) {
+        for (int i = 0; i < ID_BYTES; i++) {
+            int diff = (a[i] ^ b[i]) & 0xFF;
+            if (diff != 0) return i * 8 + Integer.numberOfLeadingZeros(diff) - 24;
+        }
+        return -1;
+    }
+
+    /**
+     * So khoảng cách XOR của a và b tới target (âm: a gần hơn)
+     */
+    static int compareDistance(byte[] target, byte[] a, byte[] b) {
+        for (int i = 0; i < ID_BYTES; i++) {
+            int da = (a[i] ^ target[i]) & 0xFF;
+            int db = (b[i] ^ target[i]) & 0xFF;
+            if (da != db) return da - db;
+        }
+        return 0;
+    }
+
+    private static String hex(byte[] key) {
+        return SharedFileCatalog.toHex(key, 0, key.length);
+    }
+
+    // ========== Routing table ==========
+
+    /**
+     * Ghi nhận contact vừa liên lạc được: chuyển về cuối bucket, hoặc thêm nếu bucket chưa đầy
+     */
+    public void addContact(DhtContact contact) {
+        if (!hasValidNodeId(contact)) return;
+        int index = bucketIndex(self.getNodeId(), contact.getNodeId());
+        if (index < 0) return;
+        synchronized (buckets) {
+            ArrayDeque<DhtContact> bucket = buckets[index];
+            if (bucket == null) bucket = buckets[index] = new ArrayDeque<>(4);
+            if (bucket.remove(contact) || bucket.size() < K) bucket.addLast(contact);
+        }
+    }
+
+    public void removeContact(DhtContact contact) {
+        int index = bucketIndex(self.getNodeId(), contact.getNodeId());
+        if (index < 0) return;
+        synchronized (buckets) {
+            if (buckets[index] != null) buckets[index].remove(contact);
+        }
+    }
+
+    /**
+     * count contact gần target nhất trong routing table
+     */
+    public List<DhtContact> closestContacts(byte[] target, int count) {
+        List<DhtContact> all = new ArrayList<>();
+        synchronized (buckets) {
+            for (ArrayDeque<DhtContact> bucket : buckets) {
+                if (bucket != null) all.addAll(bucket);
+            }
+        }
+        all.sort((a, b) -> compareDistance(target, a.getNodeId(), b.getNodeId()));
+        return all.size() > count ? new ArrayList<>(all.subList(0, count)) : all;
+    }
+
+    /**
+     * Số contact trong routing table
+     */
+    public int getContactCount() {
+        int count = 0;
+        synchronized (buckets) {
+            for (ArrayDeque<DhtContact> bucket : buckets) {
+                if (bucket != null) count += bucket.size();
+            }
+        }
+        return count;
+    }
+
+    // ========== Xử lý request tới ==========
+
+    /**
+     * Xử lý một request từ node khác, trả reply
+     */
+    public DhtMessage handle(DhtMessage request) {
+        DhtContact sender = request.getSender();
+        if (!hasValidNodeId(sender)) {
+            // Không tin node ID tự khai: không trả contact, không lưu provider
+            return DhtMessage.reply(self, new ArrayList<>(), new ArrayList<>());
+        }
+        addContact(sender);
+        byte[] key = request.getKey();
+
+        switch (request.getType()) {
+            case FIND_NODE:
+                return DhtMessage.reply(self, closestExcluding(key, sender), new ArrayList<>());
+            case FIND_PROVIDERS:
+                return DhtMessage.reply(self, closestExcluding(key, sender), localProviders(key));
+            case ADD_PROVIDER:
+                storeProvider(key, sender);
+                return DhtMessage.reply(self, new ArrayList<>(), new ArrayList<>());
+            case PING:
+            default:
+                return DhtMessage.reply(self, new ArrayList<>(), new ArrayList<>());
+        }
+    }
+
+    private List<DhtContact> closestExcluding(byte[] key, DhtContact sender) {
+        if (key == null || key.length != ID_BYTES) return new ArrayList<>();
+        List<DhtContact> closest = closestContacts(key, K + 1);
+        closest.remove(sender);
+        return closest.size() > K ? new ArrayList<>(closest.subList(0, K)) : closest;
+    }
+
+    private void storeProvider(byte[] key, DhtContact provider) {
+        if (key == null || key.length != ID_BYTES || provider == null) return;
+        String keyHex = hex(key);
+        if (!providerStore.containsKey(keyHex) && providerStore.size() >= MAX_PROVIDER_KEYS) {
+            expireProviders();
+            if (providerStore.size() >= MAX_PROVIDER_KEYS) return;
+        }
+        Map<String, ProviderRecord> records = providerStore.computeIfAbsent(keyHex, k -> new ConcurrentHashMap<>());
+        if (records.size() >= MAX_PROVIDERS_PER_KEY && !records.containsKey(provider.getPeerId())) return;
+        records.put(provider.getPeerId(), new ProviderRecord(provider, System.currentTimeMillis() + PROVIDER_TTL_MS));
+    }
+
+    private List<DhtContact> localProviders(byte[] key) {
+        List<DhtContact> result = new ArrayList<>();
+        if (key == null) return result;
+        Map<String, ProviderRecord> records = providerStore.get(hex(key));
+        if (records == null) return result;
+        long now = System.currentTimeMillis();
+        for (ProviderRecord record : records.values()) {
+            if (record.expiresAt > now) result.add(record.provider);
+        }
+        return result;
+    }
+
+    /**
+     * Bỏ provider record hết hạn
+     */
+    public void expireProviders() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map<String, ProviderRecord>> it = providerStore.values().iterator(); it.hasNext(); ) {
+            Map<String, ProviderRecord> records = it.next();
+            records.values().removeIf(record -> record.expiresAt <= now);
+            if (records.isEmpty()) it.remove();
+        }
+    }
+
+    // ========== Lookup ==========
+
+    /**
+     * Gia nhập mạng: thêm seed rồi tìm chính mình (các node gần mình biết đến mình, bucket được lấp)
+     */
+    public LookupResult bootstrap(Collection<DhtContact> seeds) {
+        for (DhtContact seed : seeds) {
+            if (!seed.equals(self)) addContact(seed);
+        }
+        return lookup(self.getNodeId(), false, 0);
+    }
+
+    /**
+     * Tìm provider của khóa, dừng khi đủ wanted provider (hoặc lookup hội tụ)
+     */
+    public LookupResult findProviders(byte[] key, int wanted) {
+        return lookup(key, true, Math.max(1, wanted));
+    }
+
+    /**
+     * Công bố node này là provider của khóa lên K node gần khóa nhất (đồng bộ)
+     *
+     * @return Số node đã nhận record
+     */
+    public int publish(byte[] key) {
+        LookupResult result = lookup(key, false, 0);
+        storeProvider(key, self);
+        int stored = 0;
+        DhtMessage message = new DhtMessage(DhtMessage.Type.ADD_PROVIDER, self, key);
+        for (DhtContact contact : result.getClosest()) {
+            if (call(contact, message) != null) stored++;
+        }
+        published.incrementAndGet();
+        return stored;
+    }
+
+    /**
+     * Lookup lặp theo khoảng cách XOR
+     *
+     * @param findProviders true = FIND_PROVIDERS (dừng sớm khi đủ wanted provider), false = FIND_NODE
+     */
+    public LookupResult lookup(byte[] target, boolean findProviders, int wanted) {
+        long start = System.nanoTime();
+        lookups.incrementAndGet();
+        Comparator<DhtContact> byDistance = (a, b) -> compareDistance(target, a.getNodeId(), b.getNodeId());
+
+        Map<String, DhtContact> providers = new LinkedHashMap<>();
+        if (findProviders) {
+            for (DhtContact provider : localProviders(target)) providers.put(provider.getPeerId(), provider);
+        }
+
+        List<DhtContact> shortlist = closestContacts(target, K);
+        Set<DhtContact> seen = new HashSet<>(shortlist);
+        seen.add(self);
+        Set<DhtContact> queried = new HashSet<>();
+        Set<DhtContact> failed = new HashSet<>();
+        DhtMessage request = new DhtMessage(findProviders ? DhtMessage.Type.FIND_PROVIDERS
+            : DhtMessage.Type.FIND_NODE, self, target);
+
+        int rounds = 0;
+        int rpcs = 0;
+        boolean finalRound = false;
+        while (rounds < MAX_ROUNDS && (!findProviders || providers.size() < wanted)) {
+            // ALPHA contact gần nhất chưa hỏi trong K gần nhất; vòng cuối: hỏi hết
+            List<DhtContact> batch = new ArrayList<>();
+            int considered = 0;
+            for (DhtContact contact : shortlist) {
+                if (considered++ >= K) break;
+                if (queried.contains(contact)) continue;
+                batch.add(contact);
+                if (!finalRound && batch.size() >= ALPHA) break;
+            }
+            if (batch.isEmpty()) break;
+
+            rounds++;
+            rpcs += batch.size();
+            queried.addAll(batch);
+            DhtContact closestBefore = shortlist.get(0);
+
+            for (Map.Entry<DhtContact, DhtMessage> entry : callAll(batch, request).entrySet()) {
+                DhtMessage reply = entry.getValue();
+                if (reply == null) {
+                    failed.add(entry.getKey());
+                    continue;
+                }
+                for (DhtContact contact : reply.getContacts()) {
+                    if (hasValidNodeId(contact) && seen.add(contact)) {
+                        shortlist.add(contact);
+                    }
+                }
+                for (DhtContact provider : reply.getProviders()) {
+                    if (hasValidNodeId(provider)) providers.putIfAbsent(provider.getPeerId(), provider);
+                }
+            }
+            shortlist.removeAll(failed);
+            shortlist.sort(byDistance);
+
+            if (finalRound) break;
+            // Không tìm được node gần hơn: vòng sau hỏi nốt K gần nhất rồi dừng
+            if (shortlist.isEmpty() || byDistance.compare(shortlist.get(0), closestBefore) >= 0) finalRound = true;
+        }
+
+        lookupRounds.addAndGet(rounds);
+        List<DhtContact> closest = new ArrayList<>();
+        for (DhtContact contact : shortlist) {
+            if (closest.size() >= K) break;
+            if (queried.contains(contact)) closest.add(contact);
+        }
+        return new LookupResult(new ArrayList<>(providers.values()), closest, rounds, rpcs, failed.size(),
+            (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Gửi request song song tới các contact, reply null nếu lỗi / quá hạn
+     */
+    private Map<DhtContact, DhtMessage> callAll(List<DhtContact> contacts, DhtMessage request) {
+        Map<DhtContact, DhtMessage> replies = new LinkedHashMap<>();
+        ExecutorService pool = rpcPool;
+        if (contacts.size() == 1 || pool == null) {
+            for (DhtContact contact : contacts) {
+                replies.put(contact, call(contact, request));
+            }
+            return replies;
+        }
+        Map<DhtContact, Future<DhtMessage>> futures = new LinkedHashMap<>();
+        try {
+            for (DhtContact contact : contacts) {
+                futures.put(contact, pool.submit(() -> call(contact, request)));
+            }
+        } catch (RejectedExecutionException e) {
+            // Đang dừng: contact chưa gửi coi như lỗi
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RPC_TIMEOUT_MS);
+        for (Map.Entry<DhtContact, Future<DhtMessage>> entry : futures.entrySet()) {
+            DhtMessage reply = null;
+            try {
+                reply = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                entry.getValue().cancel(true);
+            }
+            replies.put(entry.getKey(), reply);
+        }
+        for (DhtContact contact : contacts) {
+            replies.putIfAbsent(contact, null);
+        }
+        return replies;
+    }
+
+    /**
+     * Một RPC; lỗi -> bỏ contact khỏi routing table, trả null
+     */
+    private DhtMessage call(DhtContact contact, DhtMessage request) {
+        rpcsSent.incrementAndGet();
+        try {
+            DhtMessage reply = transport.request(contact, request);
+            if (reply == null) throw new IOException("Không có reply");
+            addContact(reply.getSender() != null && reply.getSender().equals(contact) ? reply.getSender() : contact);
+            return reply;
+        } catch (IOException e) {
+            rpcFailures.incrementAndGet();
+            removeContact(contact);
+            return null;
+        }
+    }
+
+    // ========== Công bố nền ==========
+
+    /**
+     * Đăng ký chia sẻ khóa: công bố trên thread nền và công bố lại định kỳ
+     */
+    public void provide(String fileHash) {
+        byte[] key = keyFor(fileHash);
+        if (key == null) return;
+        String keyHex = hex(key);
+        if (provided.add(keyHex)) publishQueue.offer(keyHex);
+    }
+
+    /**
+     * Ngừng công bố lại khóa (record trên node khác tự hết hạn)
+     */
+    public void unprovide(String fileHash) {
+        byte[] key = keyFor(fileHash);
+        if (key != null) provided.remove(hex(key));
+    }
+
+    public synchronized void start() {
+        if (maintenance != null) return;
+        if (ownsPool) {
+            rpcPool = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "dht-rpc");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dht-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::drainPublishQueue, 1, 1, TimeUnit.SECONDS);
+        maintenance.scheduleWithFixedDelay(() -> publishQueue.addAll(provided),
+            REPUBLISH_INTERVAL_MS, REPUBLISH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::expireProviders, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public synchronized void stop() {
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+            maintenance = null;
+        }
+        if (ownsPool && rpcPool != null) {
+            rpcPool.shutdownNow();
+            rpcPool = null;
+        }
+    }
+
+    private void drainPublishQueue() {
+        if (getContactCount() == 0) return;   // Chưa gia nhập mạng, giữ hàng đợi
+        for (int i = 0; i < PUBLISH_PER_TICK; i++) {
+            String keyHex = publishQueue.poll();
+            if (keyHex == null) return;
+            if (!provided.contains(keyHex)) continue;
+            try {
+                publish(SharedFileCatalog.parseHex(keyHex, ID_BYTES));
+            } catch (Exception e) {
+                System.err.println("⚠ Lỗi công bố provider lên DHT: " + e.getMessage());
+            }
+        }
+    }
+
+    // ========== Thống kê ==========
+
+    public DhtContact getSelf() { return self; }
+    public long getRpcsSent() { return rpcsSent.get(); }
+    public long getRpcFailures() { return rpcFailures.get(); }
+    public long getLookups() { return lookups.get(); }
+    public long getPublished() { return published.get(); }
+
+    /**
+     * Số vòng (hop) trung bình mỗi lookup
+     */
+    public double getAverageRounds() {
+        long count = lookups.get();
+        return count == 0 ? 0 : (double) lookupRounds.get() / count;
+    }
+
+    /**
+     * Số khóa đang giữ provider record hộ node khác
+     */
+    public int getStoredKeyCount() {
+        return providerStore.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DHT %d contact, %d khóa giữ hộ, %d khóa công bố, lookup %d (%.1f vòng TB), RPC %d (lỗi %d)",
+            getContactCount(), getStoredKeyCount(), provided.size(), getLookups(), getAverageRounds(),
+            getRpcsSent(), getRpcFailures());
+    }
+}
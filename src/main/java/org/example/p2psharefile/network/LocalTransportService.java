@@ -0,0 +1,318 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.PeerInfo;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * LocalTransportService - Đường truyền nhanh giữa các peer chạy trên cùng một máy
+ *
+ * Khi nhiều instance chạy trên cùng host (PeerDiscovery phân biệt bằng key IP_port),
+ * truyền qua loopback TLS + AES là mã hóa hai lần vô ích. Service này:
+ * - Mở Unix domain socket trong thư mục riêng của user trong thư mục tạm (quyền 0700, tạo trước
+ *   khi bind): user khác không kết nối được kể cả trong lúc socket vừa được tạo
+ * - Quảng bá đường dẫn socket qua PeerInfo.localSocketPath (đi kèm JOIN/HEARTBEAT)
+ * - Phục vụ chunk (đọc thẳng file, không nén/mã hóa), search và preview
+ *
+ * Peer được coi là cùng host khi cùng IP và file socket của peer tồn tại trên máy này.
+ * Mọi lỗi trên đường local đều để caller quay về đường TLS.
+ */
+public class LocalTransportService {
+
+    // Channels
+    public static final byte CHANNEL_CHUNK = 0x01;
+    public static final byte CHANNEL_SEARCH = 0x02;
+    public static final byte CHANNEL_PREVIEW = 0x03;
+
+    private static final byte STATUS_OK = 0x00;
+    private static final byte STATUS_ERROR = (byte) 0xFF;
+
+    private static final long LOCAL_TIMEOUT = 10000; // 10s
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    private final PeerInfo localPeer;
+    private final Path socketDirectory;
+    private final Path socketPath;
+    private final Map<Byte, Function<Object, Object>> objectHandlers = new ConcurrentHashMap<>();
+
+    private ServerSocketChannel serverChannel;
+    private ExecutorService executorService;
+    private ScheduledExecutorService timeoutExecutor;
+    private volatile boolean running = false;
+
+    public LocalTransportService(PeerInfo localPeer) {
+        this.localPeer = localPeer;
+        String shortId = localPeer.getPeerId().replace("-", "");
+        shortId = shortId.substring(0, Math.min(12, shortId.length()));
+        String user = System.getProperty("user.name", "user").replaceAll("[^A-Za-z0-9._-]", "_");
+        this.socketDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "p2psharefile-" + user);
+        this.socketPath = socketDirectory.resolve(shortId + ".sock");
+    }
+
+    /**
+     * Đăng ký handler cho một channel dạng object (search, preview)
+     */
+    public void registerHandler(byte channel, Function<Object, Object> handler) {
+        objectHandlers.put(channel, handler);
+    }
+
+    /**
+     * Khởi động Unix domain socket server và quảng bá đường dẫn qua PeerInfo
+     */
+    public void start() throws IOException {
+        if (running) return;
+
+        // Chỉ user hiện tại được kết nối (thay cho TLS trên đường local): thư mục chứa socket
+        // đã là 0700 trước khi bind, không dựa vào chmod file socket sau khi bind
+        prepareSocketDirectory();
+        Files.deleteIfExists(socketPath);
+        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+
+        running = true;
+        executorService = Executors.newCachedThreadPool();
+        timeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+        executorService.submit(this::acceptConnections);
+
+        localPeer.setLocalSocketPath(socketPath.toString());
+        System.out.println("✓ Local Transport (Unix socket) đã khởi động: " + socketPath);
+    }
+
+    public void stop() {
+        running = false;
+        localPeer.setLocalSocketPath(null);
+
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {}
+        try {
+            Files.deleteIfExists(socketPath);
+        } catch (IOException ignored) {}
+
+        if (executorService != null) executorService.shutdownNow();
+        if (timeoutExecutor != null) timeoutExecutor.shutdownNow();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Tạo (hoặc kiểm tra) thư mục socket: thư mục thật (không phải symlink), của user hiện tại,
+     * quyền 0700. Thư mục của user khác / symlink -> không mở local transport
+     */
+    private void prepareSocketDirectory() throws IOException {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            // Windows: thư mục tạm đã riêng cho từng user (ACL)
+            Files.createDirectories(socketDirectory);
+            return;
+        }
+
+        try {
+            Files.createDirectory(socketDirectory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } catch (FileAlreadyExistsException e) {
+            // Lần chạy trước / instance khác của cùng user: kiểm tra bên dưới
+        }
+
+        PosixFileAttributes attributes = Files.readAttributes(socketDirectory, PosixFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+        UserPrincipal currentUser = socketDirectory.getFileSystem().getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!attributes.isDirectory() || !attributes.owner().equals(currentUser)) {
+            throw new IOException("Thư mục socket không thuộc user hiện tại: " + socketDirectory);
+        }
+        // umask có thể bỏ bớt quyền lúc tạo, không thêm; thư mục cũ quyền rộng hơn thì thu hẹp lại
+        if (!attributes.permissions().equals(OWNER_ONLY)) {
+            Files.setPosixFilePermissions(socketDirectory, OWNER_ONLY);
+        }
+    }
+
+    /**
+     * Kiểm tra peer có chạy trên cùng máy và có local socket không
+     */
+    public boolean isSameHost(PeerInfo peer) {
+        if (!running || peer == null || peer.getLocalSocketPath() == null) return false;
+        if (peer.getPeerId().equals(localPeer.getPeerId())) return false;
+
+        String ip = peer.getIpAddress();
+        boolean sameIp = ip != null && (ip.equals(localPeer.getIpAddress()) || ip.startsWith("127."));
+        return sameIp && Files.exists(Paths.get(peer.getLocalSocketPath()));
+    }
+
+    // ========== Server side ==========
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                executorService.submit(() -> handleConnection(channel));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("⚠ Lỗi local transport: " + e.getMessage());
+                }
+                break;
+            }
+        }
+    }
+
+    private void handleConnection(SocketChannel channel) {
+        try (channel) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            OutputStream out = Channels.newOutputStream(channel);
+
+            byte command = dis.readByte();
+            if (command == CHANNEL_CHUNK) {
+                handleChunk(dis, new DataOutputStream(new BufferedOutputStream(out)));
+                return;
+            }
+
+            Function<Object, Object> handler = objectHandlers.get(command);
+            ObjectInputStream ois = new ObjectInputStream(dis);
+            Object request = ois.readObject();
+            Object response = handler != null ? handler.apply(request) : null;
+
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(out));
+            oos.writeObject(response);
+            oos.flush();
+
+        } catch (Exception e) {
+            if (running) {
+                System.err.println("⚠ Lỗi xử lý local request: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Đọc chunk trực tiếp từ file, không nén/mã hóa
+     */
+    private void handleChunk(DataInputStream dis, DataOutputStream dos) throws IOException {
+        String filePath = dis.readUTF();
+        int chunkIndex = dis.readInt();
+        int chunkSize = dis.readInt();
+
+        byte[] data;
+        try {
+            data = readChunk(new File(filePath), chunkIndex, chunkSize);
+        } catch (IOException e) {
+            dos.writeByte(STATUS_ERROR);
+            dos.writeUTF(e.getMessage() != null ? e.getMessage() : "Read error");
+            dos.flush();
+            return;
+        }
+
+        dos.writeByte(STATUS_OK);
+        dos.writeInt(data.length);
+        dos.write(data);
+        dos.flush();
+    }
+
+    /**
+     * Đọc một chunk của file bằng positional read
+     */
+    public static byte[] readChunk(File file, int chunkIndex, int chunkSize) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long offset = (long) chunkIndex * chunkSize;
+            long size = fc.size();
+            if (chunkIndex < 0 || offset >= size) {
+                throw new IOException("Invalid chunk index: " + chunkIndex);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, size - offset));
+            while (buffer.hasRemaining()) {
+                if (fc.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of file");
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    // ========== Client side ==========
+
+    /**
+     * Request chunk từ peer cùng máy qua Unix socket
+     */
+    public byte[] requestChunk(PeerInfo peer, String filePath, int chunkIndex, int chunkSize) throws IOException {
+        try (SocketChannel channel = connect(peer)) {
+            ScheduledFuture<?> deadline = scheduleTimeout(channel);
+            try {
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                dos.writeByte(CHANNEL_CHUNK);
+                dos.writeUTF(filePath);
+                dos.writeInt(chunkIndex);
+                dos.writeInt(chunkSize);
+                dos.flush();
+
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                if (dis.readByte() != STATUS_OK) {
+                    throw new IOException(dis.readUTF());
+                }
+                byte[] data = new byte[dis.readInt()];
+                dis.readFully(data);
+                return data;
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Gửi request dạng object (SearchRequest, PreviewRequest...) đến peer cùng máy
+     */
+    public Object requestObject(PeerInfo peer, byte channelType, Object request) throws IOException {
+        try (SocketChannel channel = connect(peer)) {
+            ScheduledFuture<?> deadline = scheduleTimeout(channel);
+            try {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                out.write(channelType);
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(request);
+                oos.flush();
+
+                ObjectInputStream ois = new ObjectInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+                return ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+    }
+
+    private SocketChannel connect(PeerInfo peer) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(peer.getLocalSocketPath()));
+        return channel;
+    }
+
+    /**
+     * SocketChannel blocking không có SO_TIMEOUT -> đóng channel khi quá hạn
+     */
+    private ScheduledFuture<?> scheduleTimeout(SocketChannel channel) {
+        return timeoutExecutor.schedule(() -> {
+            try { channel.close(); } catch (IOException ignored) {}
+        }, LOCAL_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    public Path getSocketPath() {
+        return socketPath;
+    }
+}
@@ -0,0 +1,308 @@
+package org.example.p2psharefile.network;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.LongConsumer;
+
+/**
+ * NameIndex - Inverted index trigram trên tên file đã chuẩn hóa
+ *
+ * Thay cho quét tuyến tính + toLowerCase() từng tên mỗi search request:
+ * - Tên được chuẩn hóa (chữ thường, bỏ dấu tiếng Việt: "Ảnh Đẹp" -> "anh dep")
+ * - Mỗi trigram (3 ký tự liên tiếp) -> posting list các ID catalog, sắp tăng dần (mảng int)
+ * - Query >= 3 ký tự: giao các posting list (list ngắn nhất trước, tìm nhị phân khi lệch
+ *   kích thước) rồi kiểm tra lại substring trên ứng viên -> chi phí theo số ứng viên,
+ *   không theo tổng số file
+ * - Query 1-2 ký tự: trả về null, caller quét tuyến tính (ít gặp, kém chọn lọc)
+ * - Cập nhật tăng dần khi thêm/xóa file (ID mới thường lớn nhất -> append O(1))
+ *
+ * Không thread-safe: SharedFileCatalog gọi trong lock của nó.
+ */
+public class NameIndex {
+
+    private static final int INITIAL_TABLE_SIZE = 1024;
+    private static final int INITIAL_POSTING_SIZE = 4;
+
+    // Bảng chuẩn hóa từng ký tự (Latin + Latin Extended Additional chứa chữ tiếng Việt):
+    // chữ thường + bỏ dấu, luôn 1 ký tự -> 1 ký tự nên không cần NFD + regex mỗi lần
+    private static final char[] FOLD = new char[0x2000];
+
+    static {
+        for (char c = 0; c < FOLD.length; c++) {
+            String lower = String.valueOf(c).toLowerCase(Locale.ROOT);
+            String stripped = Normalizer.normalize(lower, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+            if (lower.length() != 1) {
+                FOLD[c] = c;
+            } else if (stripped.length() == 1) {
+                FOLD[c] = stripped.charAt(0);
+            } else {
+                FOLD[c] = lower.charAt(0);
+            }
+        }
+        FOLD['đ'] = 'd';
+        FOLD['Đ'] = 'd';
+    }
+
+    // Bảng băm mở trigram -> posting list
+    private long[] keys = new long[INITIAL_TABLE_SIZE];
+    private int[][] postings = new int[INITIAL_TABLE_SIZE][];
+    private int[] postingSizes = new int[INITIAL_TABLE_SIZE];
+    private int trigramCount;
+    private long postingTotal;
+
+    /**
+     * Chuẩn hóa tên / query: chữ thường + bỏ dấu
+     */
+    public static String normalize(String value) {
+        char[] chars = new char[value.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(value.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Tên (chưa chuẩn hóa) có chứa query đã chuẩn hóa không - so tại chỗ, không tạo chuỗi mới
+     */
+    public static boolean matches(String fileName, String normalizedQuery) {
+        return indexOf(fileName, normalizedQuery) >= 0;
+    }
+
+    /**
+     * Vị trí đầu tiên của query đã chuẩn hóa trong tên, -1 nếu không có
+     */
+    public static int indexOf(String fileName, String normalizedQuery) {
+        int length = normalizedQuery.length();
+        if (length == 0) return 0;
+        char first = normalizedQuery.charAt(0);
+        int last = fileName.length() - length;
+        outer:
+        for (int i = 0; i <= last; i++) {
+            if (fold(fileName.charAt(i)) != first) continue;
+            for (int j = 1; j < length; j++) {
+                if (fold(fileName.charAt(i + j)) != normalizedQuery.charAt(j)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Điểm liên quan của tên với query (vị trí khớp từ indexOf):
+     * trùng cả tên > khớp đầu tên > khớp đầu một từ > khớp giữa từ,
+     * cộng thêm tỉ lệ query / độ dài tên (tên ngắn, sát query xếp trước)
+     */
+    public static double relevance(String fileName, String normalizedQuery, int position) {
+        int length = normalizedQuery.length();
+        if (length == 0 || fileName.isEmpty()) return 1.0;
+
+        double score = 1.0 + (double) length / fileName.length();
+        int lastDot = fileName.lastIndexOf('.');
+        int stemLength = lastDot > 0 ? lastDot : fileName.length();
+        if (position == 0) {
+            score += 1.0;
+            if (length == stemLength || length == fileName.length()) score += 2.0;
+        } else if (position > 0 && !Character.isLetterOrDigit(fileName.charAt(position - 1))) {
+            score += 0.5;
+        }
+        return score;
+    }
+
+    private static char fold(char c) {
+        if (c < 0x80) return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+        return c < FOLD.length ? FOLD[c] : Character.toLowerCase(c);
+    }
+
+    /**
+     * Thêm tên của ID vào index
+     */
+    public void add(int id, String fileName) {
+        for (long trigram : trigrams(normalize(fileName))) {
+            int slot = slotFor(trigram, true);
+            int size = postingSizes[slot];
+            int[] list = postings[slot];
+            int pos = size == 0 || list[size - 1] < id ? size : Arrays.binarySearch(list, 0, size, id);
+            if (pos >= 0 && pos < size) continue;   // Đã có
+            if (pos < 0) pos = -pos - 1;
+            if (size == list.length) {
+                list = postings[slot] = Arrays.copyOf(list, size + (size >> 1) + 1);
+            }
+            System.arraycopy(list, pos, list, pos + 1, size - pos);
+            list[pos] = id;
+            postingSizes[slot] = size + 1;
+            postingTotal++;
+        }
+    }
+
+    /**
+     * Xóa ID (fileName phải là tên đã dùng khi add)
+     */
+    public void remove(int id, String fileName) {
+        for (long trigram : trigrams(normalize(fileName))) {
+            int slot = slotFor(trigram, false);
+            if (slot < 0) continue;
+            int size = postingSizes[slot];
+            int[] list = postings[slot];
+            int pos = Arrays.binarySearch(list, 0, size, id);
+            if (pos < 0) continue;
+            System.arraycopy(list, pos + 1, list, pos, size - pos - 1);
+            postingSizes[slot] = size - 1;
+            postingTotal--;
+        }
+    }
+
+    /**
+     * ID ứng viên chứa mọi trigram của query (cần kiểm tra lại substring)
+     *
+     * @param normalizedQuery Query đã normalize()
+     * @return Mảng ID tăng dần, null nếu query quá ngắn để dùng index
+     */
+    public int[] candidates(String normalizedQuery) {
+        long[] grams = trigrams(normalizedQuery);
+        if (grams.length == 0) return null;
+
+        int[] slots = new int[grams.length];
+        for (int i = 0; i < grams.length; i++) {
+            slots[i] = slotFor(grams[i], false);
+            if (slots[i] < 0 || postingSizes[slots[i]] == 0) return new int[0];
+        }
+        // List ngắn nhất trước: kết quả trung gian nhỏ nhất có thể
+        Integer[] order = new Integer[slots.length];
+        for (int i = 0; i < order.length; i++) order[i] = slots[i];
+        Arrays.sort(order, (a, b) -> Integer.compare(postingSizes[a], postingSizes[b]));
+
+        int[] result = Arrays.copyOf(postings[order[0]], postingSizes[order[0]]);
+        int resultSize = result.length;
+        for (int i = 1; i < order.length && resultSize > 0; i++) {
+            resultSize = intersect(result, resultSize, postings[order[i]], postingSizes[order[i]]);
+        }
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    /**
+     * Số trigram khác nhau
+     */
+    public int getTrigramCount() {
+        return trigramCount;
+    }
+
+    /**
+     * Duyệt các trigram đang có ít nhất một ID (dựng ContentSummary)
+     */
+    public void forEachTrigram(LongConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (postings[i] != null && postingSizes[i] > 0) consumer.accept(keys[i]);
+        }
+    }
+
+    /**
+     * Tổng số phần tử trong các posting list
+     */
+    public long getPostingCount() {
+        return postingTotal;
+    }
+
+    /**
+     * Ước lượng bộ nhớ (bảng băm + dung lượng các posting list)
+     */
+    public long estimateBytes() {
+        long bytes = (long) keys.length * (8 + 4 + 8);
+        for (int i = 0; i < postings.length; i++) {
+            if (postings[i] != null) bytes += 16 + 4L * postings[i].length;
+        }
+        return bytes;
+    }
+
+    // ========== Nội bộ ==========
+
+    /**
+     * Giao a[0..aSize) với b[0..bSize) tại chỗ vào a
+     */
+    private static int intersect(int[] a, int aSize, int[] b, int bSize) {
+        int out = 0;
+        if ((long) aSize * 16 < bSize) {
+            // Lệch nhiều: tìm nhị phân từng phần tử của a trong b
+            int from = 0;
+            for (int i = 0; i < aSize && from < bSize; i++) {
+                int pos = Arrays.binarySearch(b, from, bSize, a[i]);
+                if (pos >= 0) {
+                    a[out++] = a[i];
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1;
+                }
+            }
+            return out;
+        }
+        int i = 0, j = 0;
+        while (i < aSize && j < bSize) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                a[out++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Các trigram khác nhau của chuỗi (3 ký tự 16 bit ghép thành long)
+     */
+    static long[] trigrams(String value) {
+        int count = value.length() - 2;
+        if (count <= 0) return new long[0];
+        long[] grams = new long[count];
+        for (int i = 0; i < count; i++) {
+            grams[i] = (long) value.charAt(i) << 32 | (long) value.charAt(i + 1) << 16 | value.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (grams[i] != grams[distinct - 1]) grams[distinct++] = grams[i];
+        }
+        return distinct == count ? grams : Arrays.copyOf(grams, distinct);
+    }
+
+    private int slotFor(long trigram, boolean create) {
+        int mask = keys.length - 1;
+        int slot = (int) (trigram * 0x9E3779B97F4A7C15L >>> 40) & mask;
+        while (postings[slot] != null) {
+            if (keys[slot] == trigram) return slot;
+            slot = (slot + 1) & mask;
+        }
+        if (!create) return -1;
+
+        if ((trigramCount + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+            return slotFor(trigram, true);
+        }
+        keys[slot] = trigram;
+        postings[slot] = new int[INITIAL_POSTING_SIZE];
+        trigramCount++;
+        return slot;
+    }
+
+    private void rehash(int newSize) {
+        long[] oldKeys = keys;
+        int[][] oldPostings = postings;
+        int[] oldSizes = postingSizes;
+        keys = new long[newSize];
+        postings = new int[newSize][];
+        postingSizes = new int[newSize];
+
+        int mask = newSize - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldPostings[i] == null) continue;
+            int slot = (int) (oldKeys[i] * 0x9E3779B97F4A7C15L >>> 40) & mask;
+            while (postings[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            postings[slot] = oldPostings[i];
+            postingSizes[slot] = oldSizes[i];
+        }
+    }
+}
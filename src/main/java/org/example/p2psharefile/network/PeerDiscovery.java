@@ -1,5 +1,6 @@
 package org.example.p2psharefile.network;
 
+import org.example.p2psharefile.model.ContentSummary;
 import org.example.p2psharefile.model.PeerInfo;
 import org.example.p2psharefile.model.SignedMessage;
 import org.example.p2psharefile.security.SecurityManager;
@@ -10,6 +11,7 @@ import java.net.*;
 import java.security.PublicKey;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * PeerDiscovery với TLS + Peer Authentication
@@ -21,6 +23,9 @@ import java.util.concurrent.*;
  * 4. JOIN/HEARTBEAT messages được ký bằng ECDSA private key
  * 5. Peer nhận message verify signature bằng public key từ PeerInfo
  * 6. Duy trì kết nối với heartbeat để kiểm tra peer còn online
+ * 7. Heartbeat mang catalog version + content summary (Bloom filter) của peer:
+ *    cả filter khi peer kia chưa có, delta khi chỉ đổi ít, không kèm gì khi không đổi;
+ *    gửi lại cả filter mỗi SUMMARY_REFRESH_HEARTBEATS lần phòng peer kia khởi động lại
  * 
  * Security improvements:
  * - TLS encryption cho tất cả communications
@@ -34,6 +39,7 @@ public class PeerDiscovery {
     private static final int PEER_TIMEOUT = 15000; // 15 giây
     private static final int SCAN_INTERVAL = 10000; // 10 giây quét lại
     private static final int CONNECTION_TIMEOUT = 2000; // 2 giây timeout kết nối
+    private static final int SUMMARY_REFRESH_HEARTBEATS = 12; // Gửi lại cả summary mỗi ~60 giây
 
     private final PeerInfo localPeer;
     private final SecurityManager securityManager;
@@ -41,6 +47,8 @@ public class PeerDiscovery {
     private final Map<String, PeerInfo> discoveredPeers; // Key: PeerID
     private final Map<String, Socket> peerConnections; // Kết nối TCP với peer
     private final List<PeerDiscoveryListener> listeners;
+    private final Map<String, ContentSummary> summariesSent; // Key: PeerID -> summary peer đã ACK
+    private final AtomicLong summaryBytesSent = new AtomicLong();
 
     private SSLServerSocket serverSocket;
     private ExecutorService executorService;
@@ -61,6 +69,7 @@ public class PeerDiscovery {
         this.discoveredPeers = new ConcurrentHashMap<>();
         this.peerConnections = new ConcurrentHashMap<>();
         this.listeners = new CopyOnWriteArrayList<>();
+        this.summariesSent = new ConcurrentHashMap<>();
     }
 
     /**
@@ -221,8 +230,9 @@ public class PeerDiscovery {
             // System.out.println("✅ [Bảo mật] Đã xác minh chữ ký cho peer: " + remotePeer.getDisplayName());
 
             if ("JOIN".equals(messageType) || "HEARTBEAT".equals(messageType)) {
-                // Tạo signed response
-                SignedMessage response = createSignedMessage("ACK", localPeer);
+                // Tạo signed response (ACK cho heartbeat không cần kèm summary: bên gửi bỏ qua payload)
+                PeerInfo payload = "JOIN".equals(messageType) ? localPeer : localPeer.copyForHeartbeat(null, null);
+                SignedMessage response = createSignedMessage("ACK", payload);
                 
                 // Gửi response với thông tin của mình
                 oos.writeObject(response);
@@ -333,6 +343,8 @@ public class PeerDiscovery {
                 // Chỉ loại khi trùng cả IP và port
                 if (!(remotePeer.getIpAddress().equals(localPeer.getIpAddress()) &&
                       remotePeer.getPort() == localPeer.getPort())) {
+                    ContentSummary sent = localPeer.getContentSummary();
+                    if (sent != null) summariesSent.put(remotePeer.getPeerId(), sent);
                     handleDiscoveredPeer(remotePeer);
                 }
             }
@@ -362,6 +374,7 @@ public class PeerDiscovery {
             try {
                 count++;
                 long currentTime = System.currentTimeMillis();
+                boolean refreshSummary = count % SUMMARY_REFRESH_HEARTBEATS == 0;
 
                 // Gửi heartbeat đến các peer đã biết
                 List<Map.Entry<String, PeerInfo>> peerEntries = new ArrayList<>(discoveredPeers.entrySet());
@@ -375,7 +388,7 @@ public class PeerDiscovery {
                     
                     if (!isInternetPeer) {
                         // Chỉ heartbeat cho LAN peers
-                        executorService.submit(() -> sendHeartbeat(peer));
+                        executorService.submit(() -> sendHeartbeat(peer, refreshSummary));
                     } else {
                         // Internet peers: auto-refresh lastSeen để không timeout
                         peer.updateLastSeen();
@@ -384,6 +397,7 @@ public class PeerDiscovery {
                     // Kiểm tra timeout
                     if (currentTime - peer.getLastSeen() > PEER_TIMEOUT) {
                         discoveredPeers.remove(compositeKey);
+                        summariesSent.remove(peer.getPeerId());
                         notifyPeerLost(peer);
                     }
                 }
@@ -407,8 +421,10 @@ public class PeerDiscovery {
 
     /**
      * Gửi heartbeat đến peer (với TLS + signature)
+     *
+     * @param refreshSummary Gửi cả content summary dù peer đã có
      */
-    private void sendHeartbeat(PeerInfo peer) {
+    private void sendHeartbeat(PeerInfo peer, boolean refreshSummary) {
         SSLSocket socket = null;
         try {
             socket = securityManager.createSSLSocket(peer.getIpAddress(), discoveryPort);
@@ -416,8 +432,18 @@ public class PeerDiscovery {
             socket.setSoTimeout(3000);
             socket.startHandshake();
 
-            // Tạo signed HEARTBEAT message
-            SignedMessage heartbeatMsg = createSignedMessage("HEARTBEAT", localPeer);
+            // Tạo signed HEARTBEAT message, kèm summary / delta nếu peer chưa có bản hiện tại
+            ContentSummary current = localPeer.getContentSummary();
+            ContentSummary sent = summariesSent.get(peer.getPeerId());
+            PeerInfo payload;
+            if (current == null || (current == sent && !refreshSummary)) {
+                payload = localPeer.copyForHeartbeat(null, null);
+            } else {
+                ContentSummary.Delta delta = refreshSummary ? null : current.diffFrom(sent);
+                payload = localPeer.copyForHeartbeat(delta == null ? current : null, delta);
+                summaryBytesSent.addAndGet(delta == null ? current.getSizeBytes() : delta.getSizeBytes());
+            }
+            SignedMessage heartbeatMsg = createSignedMessage("HEARTBEAT", payload);
             
             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
             oos.writeObject(heartbeatMsg);
@@ -430,6 +456,7 @@ public class PeerDiscovery {
                 // Verify signature
                 if (verifyPeerSignature(response, peer)) {
                     peer.updateLastSeen();
+                    if (current != null) summariesSent.put(peer.getPeerId(), current);
                 }
             }
 
@@ -455,8 +482,10 @@ public class PeerDiscovery {
     private void handleDiscoveredPeer(PeerInfo peer) {
         // Tạo composite key từ IP và Port để phân biệt peer trên cùng máy
         String compositeKey = peer.getIpAddress() + "_" + peer.getPort();
-        boolean isNewPeer = !discoveredPeers.containsKey(compositeKey);
+        PeerInfo previous = discoveredPeers.get(compositeKey);
+        boolean isNewPeer = previous == null;
 
+        resolveContentSummary(peer, previous);
         peer.updateLastSeen();
         discoveredPeers.put(compositeKey, peer);
 
@@ -473,6 +502,33 @@ public class PeerDiscovery {
         }
     }
 
+    /**
+     * Heartbeat không kèm cả summary: áp delta lên summary đã biết, hoặc giữ summary cũ
+     * (PeerInfo.getCurrentContentSummary chỉ dùng nó khi còn khớp catalog version).
+     * Summary / delta sai cấu trúc bị bỏ -> search hỏi thẳng peer đó
+     */
+    private void resolveContentSummary(PeerInfo peer, PeerInfo previous) {
+        ContentSummary received = peer.getContentSummary();
+        if (received != null) {
+            if (!received.isValid()) {
+                System.err.println("⚠ Bỏ content summary không hợp lệ từ " + peer.getIpAddress());
+                peer.setContentSummary(null);
+            }
+            return;
+        }
+        ContentSummary known = previous != null ? previous.getContentSummary() : null;
+        if (known == null) return;
+        ContentSummary.Delta delta = peer.getSummaryDelta();
+        peer.setContentSummary(delta != null ? known.apply(delta) : known);
+    }
+
+    /**
+     * Tổng số byte content summary (cả filter + delta) đã gửi trên heartbeat
+     */
+    public long getSummaryBytesSent() {
+        return summaryBytesSent.get();
+    }
+
     /**
      * Lấy base IP (3 octet đầu) từ IP address
      */
@@ -759,6 +815,7 @@ public class PeerDiscovery {
         
         if (peerToRemove != null && keyToRemove != null) {
             discoveredPeers.remove(keyToRemove);
+            summariesSent.remove(peerId);
             notifyPeerLost(peerToRemove);
             System.out.println("👋 Đã xóa peer: " + peerToRemove.getDisplayName());
         }
@@ -0,0 +1,92 @@
+package org.example.p2psharefile.network;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PeerLatencyTracker - Timeout thích nghi cho từng peer từ độ trễ đo được (kiểu RTO của TCP)
+ *
+ * Mẫu = thời gian từ lúc kết nối đến trang kết quả đầu tiên (peer còn sống, đã tìm xong local).
+ * - srtt, rttvar cập nhật theo EWMA (hệ số 1/8 và 1/4 như RFC 6298)
+ * - Timeout = srtt + 4 × rttvar, kẹp trong [MIN_TIMEOUT_MS, maxTimeoutMillis]
+ * - Peer chưa có mẫu: maxTimeoutMillis; quá hạn được tính như một mẫu bằng timeout gấp đôi
+ *   (peer chậm dần thì timeout của nó nới ra, không bị cắt mãi)
+ */
+public class PeerLatencyTracker {
+
+    public static final long MIN_TIMEOUT_MS = 750;
+    private static final int MAX_TRACKED_PEERS = 4096;
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+
+    private static final class Estimate {
+        double srtt;
+        double rttvar;
+        long samples;
+    }
+
+    private final long maxTimeoutMillis;
+    private final Map<String, Estimate> estimates = new ConcurrentHashMap<>();
+
+    public PeerLatencyTracker(long maxTimeoutMillis) {
+        this.maxTimeoutMillis = maxTimeoutMillis;
+    }
+
+    /**
+     * Ghi một mẫu độ trễ (ms) của peer
+     */
+    public void record(String peerId, double millis) {
+        if (estimates.size() >= MAX_TRACKED_PEERS && !estimates.containsKey(peerId)) {
+            Iterator<String> it = estimates.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        Estimate estimate = estimates.computeIfAbsent(peerId, id -> new Estimate());
+        synchronized (estimate) {
+            if (estimate.samples++ == 0) {
+                estimate.srtt = millis;
+                estimate.rttvar = millis / 2;
+            } else {
+                estimate.rttvar = (1 - BETA) * estimate.rttvar + BETA * Math.abs(estimate.srtt - millis);
+                estimate.srtt = (1 - ALPHA) * estimate.srtt + ALPHA * millis;
+            }
+        }
+    }
+
+    /**
+     * Peer không trả lời trong timeoutMillis
+     */
+    public void recordTimeout(String peerId, long timeoutMillis) {
+        record(peerId, Math.min(2.0 * timeoutMillis, maxTimeoutMillis));
+    }
+
+    /**
+     * Thời gian chờ trang đầu tiên của peer
+     */
+    public long timeoutMillis(String peerId) {
+        Estimate estimate = estimates.get(peerId);
+        if (estimate == null) return maxTimeoutMillis;
+        synchronized (estimate) {
+            long timeout = (long) Math.ceil(estimate.srtt + 4 * estimate.rttvar);
+            return Math.max(MIN_TIMEOUT_MS, Math.min(maxTimeoutMillis, timeout));
+        }
+    }
+
+    /**
+     * Độ trễ trung bình (ms), -1 nếu chưa có mẫu
+     */
+    public double getSmoothedMillis(String peerId) {
+        Estimate estimate = estimates.get(peerId);
+        if (estimate == null) return -1;
+        synchronized (estimate) {
+            return estimate.srtt;
+        }
+    }
+
+    public int size() {
+        return estimates.size();
+    }
+}
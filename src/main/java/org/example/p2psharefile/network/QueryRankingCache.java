@@ -0,0 +1,109 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.SearchQuery;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryRankingCache - Cache xếp hạng local phía peer trả lời, theo query đã chuẩn hóa
+ *
+ * Một query phổ biến bị flood tới peer từ nhiều origin trong vài giây (mỗi origin một requestId,
+ * chống trùng không chặn được): chỉ lần đầu quét catalog, các lần sau dùng lại Ranking.
+ *
+ * - Khóa: text đã normalize + bộ lọc + offset (token "tải thêm" là khóa riêng)
+ * - Mỗi entry ghi catalog version lúc xếp hạng; catalog đổi (thêm / xóa / sửa file) -> cache bị xóa
+ *   qua change feed, version lệch cũng không dùng (an toàn khi đổi xen giữa lúc xếp hạng)
+ * - Ranking bất biến, FileInfo vẫn được tạo khi cắt trang (materialize bỏ file đã xóa)
+ * - LRU giới hạn MAX_ENTRIES entry
+ */
+public class QueryRankingCache {
+
+    public static final int MAX_ENTRIES = 256;
+
+    private static final class Entry {
+        final long version;
+        final SharedFileCatalog.Ranking ranking;
+
+        Entry(long version, SharedFileCatalog.Ranking ranking) {
+            this.version = version;
+            this.ranking = ranking;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Xếp hạng đã cache cho query ở catalog version hiện tại, null nếu không có
+     */
+    public SharedFileCatalog.Ranking get(String key, long version) {
+        lookups.incrementAndGet();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.version != version) return null;
+            hits.incrementAndGet();
+            return entry.ranking;
+        }
+    }
+
+    /**
+     * @param version Catalog version đọc TRƯỚC khi xếp hạng
+     */
+    public void put(String key, long version, SharedFileCatalog.Ranking ranking) {
+        synchronized (entries) {
+            entries.put(key, new Entry(version, ranking));
+        }
+    }
+
+    /**
+     * Catalog đã đổi: bỏ toàn bộ
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            if (entries.isEmpty()) return;
+            entries.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getLookups() { return lookups.get(); }
+    public long getHits() { return hits.get(); }
+    public long getInvalidations() { return invalidations.get(); }
+
+    public double getHitRate() {
+        long total = lookups.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ranking cache %d entry, hit %d/%d (%.1f%%), xóa %d lần", size(), getHits(),
+            getLookups(), getHitRate() * 100, getInvalidations());
+    }
+
+    /**
+     * Khóa cache: text chuẩn hóa (không phân biệt hoa thường / dấu cách thừa) + bộ lọc + offset
+     */
+    static String key(SearchQuery query, int offset) {
+        String text = query.getText();
+        String full = query.toString();
+        String filters = full.startsWith(text) ? full.substring(text.length()) : full;
+        return NameIndex.normalize(text) + '\u0000' + filters + '\u0000' + offset;
+    }
+}
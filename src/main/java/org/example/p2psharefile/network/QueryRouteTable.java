@@ -0,0 +1,107 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.SearchResponse;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryRouteTable - Bảng định tuyến ngược cho kết quả search (kiểu Gnutella)
+ *
+ * Mỗi hop nhớ requestId -> kết nối của hop trước (upstream) mà request đi vào.
+ * Kết quả từ các hop sau được ghi ngược lên đúng kết nối đó, lần lượt qua từng hop
+ * về origin, thay vì mở kết nối mới thẳng tới origin (không qua được NAT, thêm handshake).
+ *
+ * - Entry hết hạn theo time budget của request, bị dọn khi đăng ký entry mới
+ * - Giới hạn MAX_ROUTES entry: đầy thì không forward request mới (bộ nhớ cố định)
+ */
+public class QueryRouteTable {
+
+    public static final int MAX_ROUTES = 4096;
+
+    /**
+     * Nơi nhận kết quả đi ngược về hop trước
+     */
+    public interface Upstream {
+        /**
+         * @return false nếu kết nối upstream đã đóng (bỏ route)
+         */
+        boolean deliver(SearchResponse page);
+    }
+
+    private static final class Route {
+        final Upstream upstream;
+        final long expiresAt;
+
+        Route(Upstream upstream, long expiresAt) {
+            this.upstream = upstream;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Đăng ký đường về cho request
+     *
+     * @return false nếu bảng đầy (không nên forward request này)
+     */
+    public boolean register(String requestId, Upstream upstream, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        if (routes.size() >= MAX_ROUTES) purgeExpired(now);
+        if (routes.size() >= MAX_ROUTES) return false;
+        routes.put(requestId, new Route(upstream, now + ttlMillis));
+        return true;
+    }
+
+    /**
+     * Chuyển một trang kết quả về hop trước của request
+     *
+     * @return false nếu không còn route (hết hạn / upstream đã đóng) -> ngừng đọc từ downstream
+     */
+    public boolean route(String requestId, SearchResponse page) {
+        Route route = routes.get(requestId);
+        if (route == null || route.expiresAt < System.currentTimeMillis()) {
+            if (route != null) routes.remove(requestId, route);
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (!route.upstream.deliver(page)) {
+            routes.remove(requestId, route);
+            dropped.incrementAndGet();
+            return false;
+        }
+        routed.incrementAndGet();
+        return true;
+    }
+
+    public void remove(String requestId) {
+        routes.remove(requestId);
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * Số trang kết quả đã chuyển ngược / bị bỏ vì không còn route
+     */
+    public long getRoutedPages() {
+        return routed.get();
+    }
+
+    public long getDroppedPages() {
+        return dropped.get();
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Route> it = routes.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiresAt < now) it.remove();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.p2psharefile.network;
+
+import java.util.Arrays;
+
+/**
+ * RecentIdSet - Tập ID "đã thấy gần đây" có bộ nhớ cố định, tự hết hạn theo thời gian
+ *
+ * Thay cho Set<String> lớn mãi (mỗi request flood giữ lại đến hết đời process):
+ * - GENERATIONS thế hệ xoay vòng, mỗi thế hệ là bảng băm mở chứa hash 64-bit của ID
+ *   (không giữ chuỗi) với capacity cố định -> tổng bộ nhớ cố định
+ * - Mỗi windowMillis / (GENERATIONS - 1) thế hệ cũ nhất bị xóa và dùng lại cho ID mới:
+ *   ID được nhớ ít nhất windowMillis, nhiều nhất windowMillis * GENERATIONS / (GENERATIONS - 1)
+ * - Thế hệ hiện tại đầy trước hạn -> xoay sớm (giữ giới hạn bộ nhớ, cửa sổ ngắn lại; đếm
+ *   trong getForcedRotations)
+ * - Thêm / kiểm tra O(1), xoay vòng theo thời gian kiểm tra lúc gọi (không cần thread riêng)
+ *
+ * Hash 64-bit: hai ID khác nhau trùng hash với xác suất ~ n² / 2^64, bỏ qua được.
+ */
+public class RecentIdSet {
+
+    private static final int GENERATIONS = 4;
+
+    private final long windowMillis;
+    private final long rotateMillis;
+    private final int capacityPerGeneration;
+    private final long[][] tables;
+    private final int[] sizes;
+    private int current;
+    private long currentStartedAt;
+    private long forcedRotations;
+
+    /**
+     * @param windowMillis          Thời gian tối thiểu một ID được nhớ
+     * @param capacityPerGeneration Số ID tối đa mỗi thế hệ (tổng bộ nhớ ~ 16 byte × GENERATIONS × capacity)
+     */
+    public RecentIdSet(long windowMillis, int capacityPerGeneration) {
+        this.windowMillis = windowMillis;
+        this.rotateMillis = Math.max(1, windowMillis / (GENERATIONS - 1));
+        this.capacityPerGeneration = capacityPerGeneration;
+        int tableSize = Integer.highestOneBit(Math.max(2, capacityPerGeneration) * 2 - 1) << 1;
+        this.tables = new long[GENERATIONS][tableSize];
+        this.sizes = new int[GENERATIONS];
+        this.currentStartedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Ghi nhận ID
+     *
+     * @return true nếu ID mới, false nếu đã thấy trong cửa sổ thời gian
+     */
+    public synchronized boolean add(String id) {
+        long hash = hash(id);
+        rotateIfDue(System.currentTimeMillis());
+        for (int g = 0; g < GENERATIONS; g++) {
+            if (contains(tables[g], hash)) return false;
+        }
+        if (sizes[current] >= capacityPerGeneration) {
+            forcedRotations++;
+            rotate(System.currentTimeMillis());
+        }
+        insert(tables[current], hash);
+        sizes[current]++;
+        return true;
+    }
+
+    /**
+     * ID đã thấy trong cửa sổ thời gian
+     */
+    public synchronized boolean contains(String id) {
+        long hash = hash(id);
+        rotateIfDue(System.currentTimeMillis());
+        for (int g = 0; g < GENERATIONS; g++) {
+            if (contains(tables[g], hash)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Số ID đang nhớ
+     */
+    public synchronized int size() {
+        rotateIfDue(System.currentTimeMillis());
+        int total = 0;
+        for (int size : sizes) total += size;
+        return total;
+    }
+
+    /**
+     * Số ID tối đa nhớ được cùng lúc
+     */
+    public int getCapacity() {
+        return capacityPerGeneration * GENERATIONS;
+    }
+
+    /**
+     * Tỉ lệ lấp đầy (0..1)
+     */
+    public double getOccupancy() {
+        return (double) size() / getCapacity();
+    }
+
+    /**
+     * Số lần phải xoay sớm vì thế hệ hiện tại đầy (> 0: nên tăng capacity)
+     */
+    public synchronized long getForcedRotations() {
+        return forcedRotations;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Bộ nhớ cố định của các bảng (byte)
+     */
+    public long getMemoryBytes() {
+        return (long) GENERATIONS * tables[0].length * 8;
+    }
+
+    // ========== Nội bộ ==========
+
+    private void rotateIfDue(long now) {
+        // Ngủ lâu hơn cả cửa sổ: xoay tối đa GENERATIONS lần là đã xóa hết
+        for (int i = 0; i < GENERATIONS && now - currentStartedAt >= rotateMillis; i++) {
+            rotate(currentStartedAt + rotateMillis);
+        }
+        if (now - currentStartedAt >= rotateMillis) currentStartedAt = now;
+    }
+
+    private void rotate(long startedAt) {
+        current = (current + 1) % GENERATIONS;
+        Arrays.fill(tables[current], 0L);
+        sizes[current] = 0;
+        currentStartedAt = startedAt;
+    }
+
+    private static boolean contains(long[] table, long hash) {
+        int mask = table.length - 1;
+        for (int slot = (int) hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (table[slot] == hash) return true;
+        }
+        return false;
+    }
+
+    private static void insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = hash;
+    }
+
+    /**
+     * Hash 64-bit của ID (FNV-1a + trộn bit), khác 0 (0 = ô trống)
+     */
+    private static long hash(String id) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
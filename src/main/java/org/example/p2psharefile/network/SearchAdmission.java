@@ -0,0 +1,159 @@
+package org.example.p2psharefile.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SearchAdmission - Giới hạn tốc độ request trên cổng search theo IP (token bucket)
+ *
+ * Kiểm tra ngay sau accept(), trước handshake TLS và trước khi đọc / deserialize request:
+ * peer gửi dồn dập chỉ tốn một lần tra bảng và đóng socket.
+ * - Mỗi IP một bucket: ratePerSecond token/giây, tối đa burst token
+ * - Hết token: từ chối, gợi ý retry-after = thời gian đến khi có lại một token
+ * - Gợi ý retry-after (cần TLS để gửi) tối đa một lần mỗi HINT_INTERVAL_MS mỗi IP,
+ *   các lần từ chối khác chỉ đóng socket
+ * - Bảng bucket LRU tối đa MAX_TRACKED_PEERS IP
+ * - Đếm thêm request chỉ được trả lời local vì đã đủ số request đang forward (FileSearchService)
+ */
+public class SearchAdmission {
+
+    public static final double DEFAULT_RATE_PER_SECOND = 10;
+    public static final int DEFAULT_BURST = 30;
+    public static final int MAX_TRACKED_PEERS = 4096;
+    private static final long HINT_INTERVAL_MS = 1000;
+
+    private static final class Bucket {
+        double tokens;
+        long refilledAt;
+        long lastHintAt;
+
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.refilledAt = now;
+        }
+    }
+
+    private final double ratePerSecond;
+    private final int burst;
+    private final Map<String, Bucket> buckets = new LinkedHashMap<String, Bucket>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > MAX_TRACKED_PEERS;
+        }
+    };
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicLong hintsSent = new AtomicLong();
+    private final AtomicLong forwardsSkipped = new AtomicLong();
+
+    public SearchAdmission() {
+        this(DEFAULT_RATE_PER_SECOND, DEFAULT_BURST);
+    }
+
+    public SearchAdmission(double ratePerSecond, int burst) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * Lấy một token cho IP
+     *
+     * @return 0 nếu được nhận, ngược lại số ms nên đợi trước khi gửi lại
+     */
+    public long acquire(String ip) {
+        long now = System.currentTimeMillis();
+        synchronized (buckets) {
+            Bucket bucket = buckets.get(ip);
+            if (bucket == null) {
+                bucket = new Bucket(burst, now);
+                buckets.put(ip, bucket);
+            } else {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.refilledAt) * ratePerSecond / 1000);
+                bucket.refilledAt = now;
+            }
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                admitted.incrementAndGet();
+                return 0;
+            }
+            rateLimited.incrementAndGet();
+            return Math.max(1, (long) Math.ceil((1 - bucket.tokens) * 1000 / ratePerSecond));
+        }
+    }
+
+    /**
+     * Được gửi gợi ý retry-after cho IP lúc này không (tối đa một lần mỗi HINT_INTERVAL_MS)
+     */
+    public boolean claimHint(String ip) {
+        long now = System.currentTimeMillis();
+        synchronized (buckets) {
+            Bucket bucket = buckets.get(ip);
+            if (bucket == null) {
+                bucket = new Bucket(burst, now);
+                buckets.put(ip, bucket);
+            }
+            if (now - bucket.lastHintAt < HINT_INTERVAL_MS) return false;
+            bucket.lastHintAt = now;
+        }
+        hintsSent.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Request đã qua token bucket nhưng hàng đợi xử lý đầy
+     */
+    void recordOverloaded() {
+        admitted.decrementAndGet();
+        overloaded.incrementAndGet();
+    }
+
+    /**
+     * Request được trả lời local nhưng không forward vì đã đủ số request đang forward
+     */
+    void recordForwardSkipped() {
+        forwardsSkipped.incrementAndGet();
+    }
+
+    public long getAdmitted() { return admitted.get(); }
+
+    /**
+     * Request bị từ chối vì IP vượt giới hạn tốc độ
+     */
+    public long getRateLimited() { return rateLimited.get(); }
+
+    /**
+     * Request bị từ chối vì hàng đợi xử lý đầy
+     */
+    public long getOverloaded() { return overloaded.get(); }
+
+    /**
+     * Tổng số request bị bỏ (giới hạn tốc độ + quá tải)
+     */
+    public long getShed() { return rateLimited.get() + overloaded.get(); }
+
+    /**
+     * Số lần gửi gợi ý retry-after (phần còn lại chỉ bị đóng socket trước TLS)
+     */
+    public long getHintsSent() { return hintsSent.get(); }
+
+    /**
+     * Số request không được forward (chỉ trả kết quả local) vì giới hạn forward đồng thời
+     */
+    public long getForwardsSkipped() { return forwardsSkipped.get(); }
+
+    public int getTrackedPeers() {
+        synchronized (buckets) {
+            return buckets.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("nhận %d, bỏ %d (tốc độ %d, quá tải %d), không forward %d, gợi ý retry-after %d, %d IP",
+            getAdmitted(), getShed(), getRateLimited(), getOverloaded(), getForwardsSkipped(), getHintsSent(),
+            getTrackedPeers());
+    }
+}
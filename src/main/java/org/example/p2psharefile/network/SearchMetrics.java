@@ -0,0 +1,110 @@
+package org.example.p2psharefile.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SearchMetrics - Bộ đếm của FileSearchService (fan-out, hiệu quả content summary)
+ *
+ * - Fan-out: số peer thực sự được gửi request mỗi lần search
+ * - Bỏ qua: peer có content summary nói chắc chắn không khớp
+ * - Dương tính giả: summary nói "có thể khớp" nhưng peer trả về 0 file.
+ *   Bloom filter không có âm tính giả nên peer bị bỏ qua đều là âm tính thật,
+ *   tỉ lệ đo được = dương tính giả / (dương tính giả + bỏ qua)
+ * - Chống trùng: số request flood bị bỏ vì đã xử lý, độ lấp đầy của RecentIdSet
+ */
+public class SearchMetrics {
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong peersConsidered = new AtomicLong();
+    private final AtomicLong peersContacted = new AtomicLong();
+    private final AtomicLong peersSkipped = new AtomicLong();
+    private final AtomicLong summaryPositives = new AtomicLong();
+    private final AtomicLong summaryFalsePositives = new AtomicLong();
+    private final AtomicLong duplicatesSuppressed = new AtomicLong();
+    private final RecentIdSet processedRequests;
+
+    public SearchMetrics(RecentIdSet processedRequests) {
+        this.processedRequests = processedRequests;
+    }
+
+    /**
+     * Một lần search: considered peer ứng viên, contacted được gửi, skipped bị loại nhờ summary
+     */
+    void recordSearch(int considered, int contacted, int skipped) {
+        searches.incrementAndGet();
+        peersConsidered.addAndGet(considered);
+        peersContacted.addAndGet(contacted);
+        peersSkipped.addAndGet(skipped);
+    }
+
+    /**
+     * Kết quả từ một peer được hỏi vì summary nói "có thể khớp"
+     */
+    void recordSummaryPositive(boolean hadResults) {
+        summaryPositives.incrementAndGet();
+        if (!hadResults) summaryFalsePositives.incrementAndGet();
+    }
+
+    /**
+     * Request nhận lại lần nữa (flood qua nhiều đường) và bị bỏ qua
+     */
+    void recordDuplicate() {
+        duplicatesSuppressed.incrementAndGet();
+    }
+
+    public long getSearches() { return searches.get(); }
+    public long getPeersConsidered() { return peersConsidered.get(); }
+    public long getPeersContacted() { return peersContacted.get(); }
+    public long getPeersSkipped() { return peersSkipped.get(); }
+    public long getSummaryPositives() { return summaryPositives.get(); }
+    public long getSummaryFalsePositives() { return summaryFalsePositives.get(); }
+    public long getDuplicatesSuppressed() { return duplicatesSuppressed.get(); }
+
+    /**
+     * Số request ID đang nhớ để chống trùng / sức chứa tối đa
+     */
+    public int getDedupSize() { return processedRequests.size(); }
+    public int getDedupCapacity() { return processedRequests.getCapacity(); }
+
+    /**
+     * Độ lấp đầy tập chống trùng (0..1)
+     */
+    public double getDedupOccupancy() { return processedRequests.getOccupancy(); }
+
+    /**
+     * Số lần tập chống trùng phải xoay thế hệ sớm vì đầy (cửa sổ thời gian bị rút ngắn)
+     */
+    public long getDedupForcedRotations() { return processedRequests.getForcedRotations(); }
+
+    /**
+     * Số peer được hỏi trung bình mỗi search
+     */
+    public double getAverageFanOut() {
+        long count = searches.get();
+        return count == 0 ? 0 : (double) peersContacted.get() / count;
+    }
+
+    /**
+     * Tỉ lệ peer ứng viên được bỏ qua nhờ summary
+     */
+    public double getSkipRate() {
+        long considered = peersConsidered.get();
+        return considered == 0 ? 0 : (double) peersSkipped.get() / considered;
+    }
+
+    /**
+     * Tỉ lệ dương tính giả đo được của content summary
+     */
+    public double getSummaryFalsePositiveRate() {
+        long falsePositives = summaryFalsePositives.get();
+        long negatives = falsePositives + peersSkipped.get();
+        return negatives == 0 ? 0 : (double) falsePositives / negatives;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("search=%d fan-out=%.2f bỏ qua=%.1f%% FPR summary=%.2f%% trùng=%d dedup=%d/%d",
+            getSearches(), getAverageFanOut(), getSkipRate() * 100, getSummaryFalsePositiveRate() * 100,
+            getDuplicatesSuppressed(), getDedupSize(), getDedupCapacity());
+    }
+}
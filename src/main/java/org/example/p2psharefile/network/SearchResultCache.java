@@ -0,0 +1,132 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.PeerInfo;
+import org.example.p2psharefile.model.SearchResponse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SearchResultCache - Cache kết quả search phía người hỏi, theo (query, peer)
+ *
+ * Mỗi entry ghi catalog (feedId, version) mà peer quảng bá trên heartbeat lúc hỏi.
+ * Lần search sau cùng query: peer vẫn quảng bá đúng version đó -> trả kết quả từ cache,
+ * không hỏi local; version đã đổi (hoặc peer khởi động lại) -> entry bị bỏ, hỏi lại peer.
+ *
+ * - Chỉ cache trang của chính peer đó: kết quả các hop sau vẫn đến qua request chỉ-forward
+ * - Chỉ cache peer có catalog version (peer LAN có heartbeat); peer Internet luôn được hỏi
+ * - Version lấy trước khi gửi request: catalog đổi trong lúc hỏi thì lần sau hỏi lại (an toàn)
+ * - Heartbeat 5 giây: kết quả có thể cũ tối đa một chu kỳ heartbeat
+ * - LRU giới hạn MAX_ENTRIES entry, entry quá MAX_AGE_MS cũng bị bỏ
+ * - Query có mốc thời gian tương đối (modified:7d) ra khóa khác nhau mỗi lần nên không trúng cache
+ */
+public class SearchResultCache {
+
+    public static final int MAX_ENTRIES = 512;
+    public static final long MAX_AGE_MS = 10 * 60_000L;
+
+    private static final class Entry {
+        final String feedId;
+        final long version;
+        final List<SearchResponse> pages;
+        final long createdAt = System.currentTimeMillis();
+
+        Entry(String feedId, long version, List<SearchResponse> pages) {
+            this.feedId = feedId;
+            this.version = version;
+            this.pages = pages;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Kết quả đã cache của peer cho query, null nếu không có hoặc catalog peer đã đổi
+     *
+     * @param queryKey Dạng chuẩn của query (SearchQuery.toString())
+     */
+    public List<SearchResponse> get(String queryKey, PeerInfo peer) {
+        lookups.incrementAndGet();
+        if (peer.getCatalogFeedId() == null) return null;
+
+        String key = key(queryKey, peer);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) return null;
+            boolean fresh = entry.version == peer.getCatalogVersion() && entry.feedId.equals(peer.getCatalogFeedId())
+                && System.currentTimeMillis() - entry.createdAt < MAX_AGE_MS;
+            if (!fresh) {
+                entries.remove(key);
+                invalidations.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.pages;
+        }
+    }
+
+    /**
+     * Lưu các trang peer trả về (rỗng = peer không có kết quả, cũng đáng cache)
+     *
+     * @param feedId  Catalog feedId peer quảng bá lúc gửi request
+     * @param version Catalog version peer quảng bá lúc gửi request
+     */
+    public void put(String queryKey, PeerInfo peer, String feedId, long version, List<SearchResponse> pages) {
+        if (feedId == null) return;
+        synchronized (entries) {
+            entries.put(key(queryKey, peer), new Entry(feedId, version, new ArrayList<>(pages)));
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getLookups() { return lookups.get(); }
+    public long getHits() { return hits.get(); }
+
+    /**
+     * Số entry bị bỏ vì peer đã đổi catalog (hoặc quá hạn)
+     */
+    public long getInvalidations() { return invalidations.get(); }
+
+    /**
+     * Số lần hỏi peer qua mạng được tiết kiệm (mỗi hit = một kết nối TLS + round trip)
+     */
+    public long getSavedRoundTrips() { return hits.get(); }
+
+    public double getHitRate() {
+        long total = lookups.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cache %d entry, hit %d/%d (%.1f%%), bỏ %d", size(), getHits(), getLookups(),
+            getHitRate() * 100, getInvalidations());
+    }
+
+    private static String key(String queryKey, PeerInfo peer) {
+        return peer.getPeerId() + '\u0000' + queryKey;
+    }
+}
@@ -0,0 +1,861 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.ContentSummary;
+import org.example.p2psharefile.model.FileInfo;
+import org.example.p2psharefile.model.MimeTypes;
+import org.example.p2psharefile.model.SearchQuery;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * SharedFileCatalog - Danh sách file chia sẻ dạng nén, chịu được hàng triệu entry
+ *
+ * Thay cho Map<String, CopyOnWriteArrayList<FileInfo>> (mỗi lần thêm copy cả list -> O(n²)
+ * khi chia sẻ thư mục lớn, mỗi FileInfo giữ đường dẫn tuyệt đối + 2 chuỗi hex):
+ * - Mỗi entry có ID (int), dữ liệu lưu theo cột trong mảng nguyên thủy
+ *   (kích thước, ID thư mục, SHA-256/MD5/tree hash dạng nhị phân trong mảng byte phẳng)
+ * - Đường dẫn nén theo tiền tố: bảng thư mục dùng chung + tên file
+ * - Tra theo hash và theo đường dẫn bằng bảng băm chaining trên mảng int
+ *   (không boxing, không object entry) -> thêm / xóa / tìm O(1)
+ * - ID của entry bị xóa được dùng lại
+ * - FileInfo chỉ được tạo khi cần (kết quả search, UI)
+ * - Tìm theo tên qua NameIndex (trigram) cập nhật cùng lúc thêm/xóa
+ * - search(SearchQuery): bộ lọc đánh giá trên cột (kích thước, thời gian sửa, bảng phần mở rộng
+ *   -> mime), xếp hạng bằng heap top-K, chỉ tạo FileInfo cho K kết quả
+ *
+ * An toàn đa luồng bằng ReadWriteLock: nhiều search đọc song song, thêm/xóa độc quyền.
+ */
+public class SharedFileCatalog {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    static final int SHA_LEN = 32;
+    static final int MD5_LEN = 16;
+
+    static final byte FLAG_LIVE = 1;
+    static final byte FLAG_SHA = 2;
+    static final byte FLAG_MD5 = 4;
+    static final byte FLAG_TREE = 8;
+
+    /**
+     * Duyệt entry: id + tên file
+     */
+    public interface EntryVisitor {
+        void visit(int id, String fileName);
+    }
+
+    /**
+     * Kết quả search: top-K file theo điểm giảm dần
+     */
+    public static final class SearchResult {
+        private final List<FileInfo> files;
+        private final double[] scores;
+        private final int totalMatches;
+
+        SearchResult(List<FileInfo> files, double[] scores, int totalMatches) {
+            this.files = files;
+            this.scores = scores;
+            this.totalMatches = totalMatches;
+        }
+
+        public List<FileInfo> getFiles() { return files; }
+        public double[] getScores() { return scores; }
+        public int getTotalMatches() { return totalMatches; }
+    }
+
+    /**
+     * Xếp hạng chưa tạo FileInfo (ID + điểm giảm dần), dùng để stream kết quả theo trang
+     */
+    public static final class Ranking {
+        private final int[] ids;
+        private final String[] names;     // Tên lúc xếp hạng: phát hiện ID đã bị xóa rồi dùng lại
+        private final double[] scores;
+        private final int totalMatches;
+
+        Ranking(int[] ids, String[] names, double[] scores, int totalMatches) {
+            this.ids = ids;
+            this.names = names;
+            this.scores = scores;
+            this.totalMatches = totalMatches;
+        }
+
+        public int size() { return ids.length; }
+        public int getTotalMatches() { return totalMatches; }
+    }
+
+    /**
+     * Xuất dữ liệu thô (CatalogSnapshot), gọi trong read lock
+     */
+    interface Exporter {
+        void begin(List<String> directories, int entryCount) throws java.io.IOException;
+        void entry(int id) throws java.io.IOException;
+    }
+
+    private final String ownerId;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Bảng thư mục (tiền tố đường dẫn dùng chung)
+    private final List<String> directories = new ArrayList<>();
+    private final Map<String, Integer> directoryIds = new HashMap<>();
+
+    // Bảng phần mở rộng (bộ lọc ext:/mime: đánh giá một lần trên bảng, không trên từng file)
+    private final List<String> extensions = new ArrayList<>();
+    private final Map<String, Integer> extensionIds = new HashMap<>();
+
+    // Cột dữ liệu theo ID
+    private int capacity;
+    private int highWater;              // ID lớn nhất từng dùng + 1
+    private int size;
+    private byte[] flags;
+    private int[] directoryOf;
+    private String[] names;
+    private long[] sizes;
+    private long[] modifiedTimes;
+    private int[] extensionOf;
+    private byte[] sha256s;
+    private byte[] md5s;
+    private byte[] treeRoots;
+    private final Map<Integer, String> irregularPaths = new HashMap<>();  // filePath không = thư mục + tên
+    private final NameIndex nameIndex = new NameIndex();
+
+    // ID đã xóa để dùng lại
+    private int[] freeIds = new int[16];
+    private int freeCount;
+
+    // Bảng băm chaining: bucket -> ID đầu (-1 = rỗng), next[ID] -> ID tiếp theo cùng bucket
+    private int[] hashBuckets;
+    private int[] hashNext;
+    private int[] pathBuckets;
+    private int[] pathNext;
+
+    public SharedFileCatalog(String ownerId) {
+        this.ownerId = ownerId;
+        allocate(INITIAL_CAPACITY);
+        this.hashBuckets = newBuckets(INITIAL_CAPACITY);
+        this.pathBuckets = newBuckets(INITIAL_CAPACITY);
+    }
+
+    // ========== Thêm / xóa ==========
+
+    /**
+     * Thêm file, hoặc thay thế entry cùng đường dẫn (giữ nguyên ID)
+     *
+     * @return Bản cũ bị thay thế, null nếu là file mới
+     */
+    public FileInfo put(FileInfo fileInfo) {
+        String path = fileInfo.getFilePath();
+        String name = fileInfo.getFileName();
+        return put(directoryOf(path, name), name, path, fileInfo.getFileSize(), fileInfo.getLastModified(),
+            parseHex(fileInfo.getFileHash(), SHA_LEN), parseHex(fileInfo.getChecksum(), MD5_LEN),
+            parseHex(fileInfo.getTreeHash(), SHA_LEN), true);
+    }
+
+    /**
+     * Thêm entry từ dữ liệu nhị phân (hash null = không có)
+     *
+     * @param replace false = giữ entry đã có cùng đường dẫn (nạp snapshot không ghi đè thay đổi mới hơn)
+     * @return Bản cũ bị thay thế, null nếu là file mới hoặc không thay thế
+     */
+    FileInfo put(String directory, String name, String path, long fileSize, long lastModified,
+                 byte[] sha256, byte[] md5, byte[] treeRoot, boolean replace) {
+        lock.writeLock().lock();
+        try {
+            int dirId = directoryId(directory);
+            int existing = findPath(dirId, name, path);
+            FileInfo previous = null;
+            int id;
+            if (existing >= 0) {
+                if (!replace) return null;
+                previous = materialize(existing);
+                unlinkHash(existing);
+                id = existing;
+            } else {
+                id = allocateId();
+                directoryOf[id] = dirId;
+                names[id] = name;
+                extensionOf[id] = extensionId(MimeTypes.extensionOf(name));
+                if (!path.equals(joinPath(directory, name))) irregularPaths.put(id, path);
+                linkPath(id);
+                nameIndex.add(id, name);
+                size++;
+            }
+
+            sizes[id] = fileSize;
+            modifiedTimes[id] = lastModified;
+            byte f = FLAG_LIVE;
+            if (writeBytes(sha256, sha256s, id * SHA_LEN, SHA_LEN)) f |= FLAG_SHA;
+            if (writeBytes(md5, md5s, id * MD5_LEN, MD5_LEN)) f |= FLAG_MD5;
+            if (writeBytes(treeRoot, treeRoots, id * SHA_LEN, SHA_LEN)) f |= FLAG_TREE;
+            flags[id] = f;
+            linkHash(id);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Xóa theo đường dẫn đầy đủ
+     *
+     * @return Bản đã xóa, null nếu không có
+     */
+    public FileInfo removeByPath(String filePath) {
+        lock.writeLock().lock();
+        try {
+            int id = findPath(filePath);
+            if (id < 0) return null;
+            FileInfo removed = materialize(id);
+            removeId(id);
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Xóa các file tên fileName trong thư mục
+     */
+    public List<FileInfo> removeByName(String directory, String fileName) {
+        lock.writeLock().lock();
+        try {
+            List<FileInfo> removed = new ArrayList<>();
+            Integer dirId = directoryIds.get(directory);
+            if (dirId == null) return removed;
+            for (int id = pathBuckets[bucket(pathHash(dirId, fileName), pathBuckets)]; id >= 0; ) {
+                int next = pathNext[id];
+                if (directoryOf[id] == dirId && names[id].equals(fileName)) {
+                    removed.add(materialize(id));
+                    removeId(id);
+                }
+                id = next;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Xóa file có đường dẫn = path hoặc nằm bên dưới thư mục path
+     */
+    public List<FileInfo> removeUnder(String path) {
+        lock.writeLock().lock();
+        try {
+            List<FileInfo> removed = new ArrayList<>();
+            for (int id : idsUnder(path)) {
+                removed.add(materialize(id));
+                removeId(id);
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ========== Tra cứu ==========
+
+    /**
+     * Tìm file theo SHA-256 (hex)
+     */
+    public FileInfo findByHash(String fileHash) {
+        byte[] key = parseHex(fileHash, SHA_LEN);
+        if (key == null) return null;
+        lock.readLock().lock();
+        try {
+            int id = findHash(key);
+            return id >= 0 ? materialize(id) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lấy file theo ID, null nếu ID không còn
+     */
+    public FileInfo get(int id) {
+        lock.readLock().lock();
+        try {
+            return isLive(id) ? materialize(id) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * ID của file theo đường dẫn, -1 nếu không có
+     */
+    public int idOf(String filePath) {
+        lock.readLock().lock();
+        try {
+            return findPath(filePath);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String getFileName(int id) {
+        lock.readLock().lock();
+        try {
+            return isLive(id) ? names[id] : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getFileSize(int id) {
+        lock.readLock().lock();
+        try {
+            return isLive(id) ? sizes[id] : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Duyệt mọi entry còn sống (giữ read lock trong lúc duyệt)
+     */
+    public void forEach(EntryVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for (int id = 0; id < highWater; id++) {
+                if ((flags[id] & FLAG_LIVE) != 0) visitor.visit(id, names[id]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Các file có tên chứa query (không phân biệt hoa thường / dấu), dùng NameIndex
+     */
+    public List<FileInfo> searchByName(String query) {
+        String normalized = NameIndex.normalize(query);
+        lock.readLock().lock();
+        try {
+            int[] candidates = nameIndex.candidates(normalized);
+            if (candidates == null) {
+                // Query quá ngắn cho trigram: quét tuyến tính
+                return findByName(name -> NameIndex.matches(name, normalized));
+            }
+            List<FileInfo> result = new ArrayList<>();
+            for (int id : candidates) {
+                if (NameIndex.matches(names[id], normalized)) result.add(materialize(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tìm theo truy vấn có bộ lọc, trả về top-K theo điểm liên quan
+     *
+     * Ứng viên: hash: -> tra bảng hash; từ tự do >= 3 ký tự -> NameIndex; còn lại quét cột.
+     * Bộ lọc chạy trên cột nguyên thủy trước khi so tên, FileInfo chỉ tạo cho K kết quả cuối.
+     */
+    public SearchResult search(SearchQuery query) {
+        lock.readLock().lock();
+        try {
+            Ranking ranking = rankLocked(query, 0);
+            return materialize(ranking, 0, ranking.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Xếp hạng như search() nhưng chỉ giữ ID, bỏ qua offset kết quả đầu ("tải thêm")
+     */
+    public Ranking rank(SearchQuery query, int offset) {
+        lock.readLock().lock();
+        try {
+            return rankLocked(query, offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * FileInfo cho kết quả [from, to) của ranking; bỏ entry đã bị xóa sau khi xếp hạng
+     */
+    public SearchResult materialize(Ranking ranking, int from, int to) {
+        lock.readLock().lock();
+        try {
+            List<FileInfo> files = new ArrayList<>(Math.max(0, to - from));
+            double[] scores = new double[Math.max(0, to - from)];
+            for (int i = from; i < to; i++) {
+                int id = ranking.ids[i];
+                if (!isLive(id) || names[id] != ranking.names[i]) continue;
+                scores[files.size()] = ranking.scores[i];
+                files.add(materialize(id));
+            }
+            return new SearchResult(files, files.size() == scores.length ? scores
+                : Arrays.copyOf(scores, files.size()), ranking.totalMatches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Ranking rankLocked(SearchQuery query, int offset) {
+        String text = NameIndex.normalize(query.getText());
+        boolean[] allowedExtensions = query.hasTypeFilter() ? allowedExtensions(query) : null;
+        TopK top = new TopK(offset + query.getLimit());
+
+        int[] candidates;
+        if (query.getFileHash() != null) {
+            // Hash không phải hex 64 ký tự (query từ peer) -> không khớp file nào
+            byte[] key = parseHex(query.getFileHash(), SHA_LEN);
+            int id = key != null ? findHash(key) : -1;
+            candidates = id >= 0 ? new int[] {id} : new int[0];
+        } else {
+            candidates = nameIndex.candidates(text);
+        }
+
+        int count = candidates != null ? candidates.length : highWater;
+        for (int i = 0; i < count; i++) {
+            int id = candidates != null ? candidates[i] : i;
+            if ((flags[id] & FLAG_LIVE) == 0) continue;
+            if (allowedExtensions != null && !allowedExtensions[extensionOf[id]]) continue;
+            if (!query.matchesSize(sizes[id]) || !query.matchesModified(modifiedTimes[id])) continue;
+
+            int position = NameIndex.indexOf(names[id], text);
+            if (position < 0) continue;
+            top.offer(id, NameIndex.relevance(names[id], text, position));
+        }
+
+        double[] scores = new double[top.size()];
+        int[] ids = top.drainDescending(scores);
+        int from = Math.min(offset, ids.length);
+        ids = Arrays.copyOfRange(ids, from, ids.length);
+        scores = Arrays.copyOfRange(scores, from, scores.length);
+        String[] rankedNames = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            rankedNames[i] = names[ids[i]];
+        }
+        return new Ranking(ids, rankedNames, scores, top.getOffered());
+    }
+
+    private boolean[] allowedExtensions(SearchQuery query) {
+        boolean[] allowed = new boolean[extensions.size()];
+        for (int i = 0; i < allowed.length; i++) {
+            String extension = extensions.get(i);
+            allowed[i] = query.matchesExtension(extension) && query.matchesMime(MimeTypes.fromExtension(extension));
+        }
+        return allowed;
+    }
+
+    /**
+     * Bộ nhớ của NameIndex (byte)
+     */
+    public long estimateNameIndexBytes() {
+        lock.readLock().lock();
+        try {
+            return nameIndex.estimateBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Dựng content summary (Bloom filter trigram tên + hash nội dung) cho peer khác.
+     * Hash chỉ được đưa vào khi tổng kích thước còn trong ContentSummary.MAX_BYTES;
+     * nếu không, peer khác luôn phải hỏi với query theo hash.
+     */
+    public ContentSummary buildSummary(String feedId, long version) {
+        lock.readLock().lock();
+        try {
+            int trigrams = nameIndex.getTrigramCount();
+            int hashes = 0;
+            for (int id = 0; id < highWater; id++) {
+                if ((flags[id] & (FLAG_LIVE | FLAG_SHA)) == (FLAG_LIVE | FLAG_SHA)) hashes++;
+            }
+            boolean includeHashes = ContentSummary.bytesFor((long) trigrams + hashes) <= ContentSummary.MAX_BYTES;
+
+            ContentSummary summary = new ContentSummary(feedId, version,
+                includeHashes ? trigrams + hashes : trigrams, includeHashes);
+            nameIndex.forEachTrigram(summary::add);
+            if (includeHashes) {
+                for (int id = 0; id < highWater; id++) {
+                    if ((flags[id] & (FLAG_LIVE | FLAG_SHA)) == (FLAG_LIVE | FLAG_SHA)) {
+                        summary.add(ContentSummary.hashKey(sha256s, id * SHA_LEN));
+                    }
+                }
+            }
+            return summary;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Các file có tên thỏa điều kiện (chỉ tạo FileInfo cho entry khớp)
+     */
+    public List<FileInfo> findByName(Predicate<String> matcher) {
+        lock.readLock().lock();
+        try {
+            List<FileInfo> result = new ArrayList<>();
+            for (int id = 0; id < highWater; id++) {
+                if ((flags[id] & FLAG_LIVE) != 0 && matcher.test(names[id])) result.add(materialize(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * FileInfo của các ID (bỏ qua ID đã bị xóa)
+     */
+    public List<FileInfo> getAll(int[] ids, int count) {
+        lock.readLock().lock();
+        try {
+            List<FileInfo> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (isLive(ids[i])) result.add(materialize(ids[i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<FileInfo> toList() {
+        lock.readLock().lock();
+        try {
+            List<FileInfo> result = new ArrayList<>(size);
+            for (int id = 0; id < highWater; id++) {
+                if ((flags[id] & FLAG_LIVE) != 0) result.add(materialize(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Nhóm theo thư mục (tương thích getSharedFiles() cũ)
+     */
+    public Map<String, List<FileInfo>> toDirectoryMap() {
+        lock.readLock().lock();
+        try {
+            Map<String, List<FileInfo>> result = new HashMap<>();
+            for (int id = 0; id < highWater; id++) {
+                if ((flags[id] & FLAG_LIVE) == 0) continue;
+                result.computeIfAbsent(directories.get(directoryOf[id]), k -> new ArrayList<>()).add(materialize(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Đường dẫn các file bằng path hoặc nằm dưới thư mục path
+     */
+    public List<String> pathsUnder(String path) {
+        lock.readLock().lock();
+        try {
+            List<String> result = new ArrayList<>();
+            for (int id : idsUnder(path)) {
+                result.add(pathOf(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDirectoryCount() {
+        lock.readLock().lock();
+        try {
+            return directories.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ước lượng bộ nhớ các mảng cột + bảng băm (không gồm chuỗi tên / thư mục)
+     */
+    public long estimateIndexBytes() {
+        lock.readLock().lock();
+        try {
+            long perSlot = 1 + 4 + 8 + 8 + 4 + SHA_LEN + MD5_LEN + SHA_LEN + 4 + 4 + 8;   // flags..names ref
+            return (long) capacity * perSlot + 4L * (hashBuckets.length + pathBuckets.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ========== Xuất thô (CatalogSnapshot) ==========
+
+    void export(Exporter exporter) throws java.io.IOException {
+        lock.readLock().lock();
+        try {
+            exporter.begin(new ArrayList<>(directories), size);
+            for (int id = 0; id < highWater; id++) {
+                if ((flags[id] & FLAG_LIVE) != 0) exporter.entry(id);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int rawDirectory(int id) { return directoryOf[id]; }
+    String rawName(int id) { return names[id]; }
+    String rawIrregularPath(int id) { return irregularPaths.isEmpty() ? null : irregularPaths.get(id); }
+    long rawSize(int id) { return sizes[id]; }
+    long rawLastModified(int id) { return modifiedTimes[id]; }
+    byte rawFlags(int id) { return flags[id]; }
+    byte[] rawSha256() { return sha256s; }
+    byte[] rawMd5() { return md5s; }
+    byte[] rawTreeRoots() { return treeRoots; }
+
+    // ========== Nội bộ ==========
+
+    private boolean isLive(int id) {
+        return id >= 0 && id < highWater && (flags[id] & FLAG_LIVE) != 0;
+    }
+
+    private FileInfo materialize(int id) {
+        FileInfo info = new FileInfo(names[id], sizes[id], pathOf(id),
+            (flags[id] & FLAG_MD5) != 0 ? toHex(md5s, id * MD5_LEN, MD5_LEN) : null, ownerId);
+        if ((flags[id] & FLAG_SHA) != 0) info.setFileHash(toHex(sha256s, id * SHA_LEN, SHA_LEN));
+        if ((flags[id] & FLAG_TREE) != 0) info.setTreeHash(toHex(treeRoots, id * SHA_LEN, SHA_LEN));
+        info.setLastModified(modifiedTimes[id]);
+        return info;
+    }
+
+    private String pathOf(int id) {
+        String irregular = irregularPaths.isEmpty() ? null : irregularPaths.get(id);
+        return irregular != null ? irregular : joinPath(directories.get(directoryOf[id]), names[id]);
+    }
+
+    private List<Integer> idsUnder(String path) {
+        String prefix = path.endsWith(File.separator) ? path : path + File.separator;
+        // So tiền tố trên bảng thư mục (nhỏ) rồi mới quét cột directoryOf
+        boolean[] matchedDirs = new boolean[directories.size()];
+        for (int d = 0; d < matchedDirs.length; d++) {
+            matchedDirs[d] = (directories.get(d) + File.separator).startsWith(prefix);
+        }
+        int exact = findPath(path);
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < highWater; id++) {
+            if ((flags[id] & FLAG_LIVE) == 0) continue;
+            if (matchedDirs[directoryOf[id]] || id == exact) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private int extensionId(String extension) {
+        Integer id = extensionIds.get(extension);
+        if (id == null) {
+            id = extensions.size();
+            extensions.add(extension);
+            extensionIds.put(extension, id);
+        }
+        return id;
+    }
+
+    private int directoryId(String directory) {
+        Integer id = directoryIds.get(directory);
+        if (id == null) {
+            id = directories.size();
+            directories.add(directory);
+            directoryIds.put(directory, id);
+        }
+        return id;
+    }
+
+    static String directoryOf(String path, String name) {
+        if (path == null) return "";
+        if (name != null && path.endsWith(File.separator + name)) {
+            return path.substring(0, path.length() - name.length() - 1);
+        }
+        String parent = new File(path).getParent();
+        return parent != null ? parent : "";
+    }
+
+    static String joinPath(String directory, String name) {
+        return directory.isEmpty() ? name : directory + File.separator + name;
+    }
+
+    private int allocateId() {
+        if (freeCount > 0) return freeIds[--freeCount];
+        if (highWater == capacity) grow();
+        return highWater++;
+    }
+
+    private void removeId(int id) {
+        unlinkHash(id);
+        unlinkPath(id);
+        nameIndex.remove(id, names[id]);
+        flags[id] = 0;
+        names[id] = null;
+        irregularPaths.remove(id);
+        size--;
+        if (freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+    }
+
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        flags = flags == null ? new byte[newCapacity] : Arrays.copyOf(flags, newCapacity);
+        directoryOf = directoryOf == null ? new int[newCapacity] : Arrays.copyOf(directoryOf, newCapacity);
+        names = names == null ? new String[newCapacity] : Arrays.copyOf(names, newCapacity);
+        sizes = sizes == null ? new long[newCapacity] : Arrays.copyOf(sizes, newCapacity);
+        modifiedTimes = modifiedTimes == null ? new long[newCapacity] : Arrays.copyOf(modifiedTimes, newCapacity);
+        extensionOf = extensionOf == null ? new int[newCapacity] : Arrays.copyOf(extensionOf, newCapacity);
+        sha256s = sha256s == null ? new byte[newCapacity * SHA_LEN] : Arrays.copyOf(sha256s, newCapacity * SHA_LEN);
+        md5s = md5s == null ? new byte[newCapacity * MD5_LEN] : Arrays.copyOf(md5s, newCapacity * MD5_LEN);
+        treeRoots = treeRoots == null ? new byte[newCapacity * SHA_LEN] : Arrays.copyOf(treeRoots, newCapacity * SHA_LEN);
+        hashNext = hashNext == null ? new int[newCapacity] : Arrays.copyOf(hashNext, newCapacity);
+        pathNext = pathNext == null ? new int[newCapacity] : Arrays.copyOf(pathNext, newCapacity);
+    }
+
+    private void grow() {
+        allocate(capacity * 2);
+        // Giữ số bucket >= số slot (chuỗi trung bình <= 1)
+        hashBuckets = newBuckets(capacity);
+        pathBuckets = newBuckets(capacity);
+        for (int id = 0; id < highWater; id++) {
+            if ((flags[id] & FLAG_LIVE) == 0) continue;
+            linkPath(id);
+            linkHash(id);
+        }
+    }
+
+    private static int[] newBuckets(int count) {
+        int[] buckets = new int[Integer.highestOneBit(Math.max(16, count - 1)) << 1];
+        Arrays.fill(buckets, -1);
+        return buckets;
+    }
+
+    private static int bucket(int hash, int[] buckets) {
+        return (hash ^ (hash >>> 16)) & (buckets.length - 1);
+    }
+
+    // Bảng hash SHA-256 -> ID
+
+    private static int shaHash(byte[] data, int offset) {
+        // SHA-256 đã phân bố đều: 4 byte đầu là đủ
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+            | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+
+    private void linkHash(int id) {
+        if ((flags[id] & FLAG_SHA) == 0) return;
+        int b = bucket(shaHash(sha256s, id * SHA_LEN), hashBuckets);
+        hashNext[id] = hashBuckets[b];
+        hashBuckets[b] = id;
+    }
+
+    private void unlinkHash(int id) {
+        if ((flags[id] & FLAG_SHA) == 0) return;
+        int b = bucket(shaHash(sha256s, id * SHA_LEN), hashBuckets);
+        unlink(hashBuckets, hashNext, b, id);
+    }
+
+    private int findHash(byte[] key) {
+        for (int id = hashBuckets[bucket(shaHash(key, 0), hashBuckets)]; id >= 0; id = hashNext[id]) {
+            if (Arrays.equals(sha256s, id * SHA_LEN, id * SHA_LEN + SHA_LEN, key, 0, SHA_LEN)) return id;
+        }
+        return -1;
+    }
+
+    // Bảng hash (thư mục, tên) -> ID
+
+    private static int pathHash(int dirId, String name) {
+        return dirId * 31 + name.hashCode();
+    }
+
+    private void linkPath(int id) {
+        int b = bucket(pathHash(directoryOf[id], names[id]), pathBuckets);
+        pathNext[id] = pathBuckets[b];
+        pathBuckets[b] = id;
+    }
+
+    private void unlinkPath(int id) {
+        unlink(pathBuckets, pathNext, bucket(pathHash(directoryOf[id], names[id]), pathBuckets), id);
+    }
+
+    private int findPath(String filePath) {
+        if (filePath == null) return -1;
+        String name = new File(filePath).getName();
+        Integer dirId = directoryIds.get(directoryOf(filePath, name));
+        return dirId != null ? findPath(dirId, name, filePath) : findIrregular(filePath);
+    }
+
+    private int findPath(int dirId, String name, String filePath) {
+        for (int id = pathBuckets[bucket(pathHash(dirId, name), pathBuckets)]; id >= 0; id = pathNext[id]) {
+            if (directoryOf[id] == dirId && names[id].equals(name) && pathOf(id).equals(filePath)) return id;
+        }
+        return findIrregular(filePath);
+    }
+
+    private int findIrregular(String filePath) {
+        for (Map.Entry<Integer, String> entry : irregularPaths.entrySet()) {
+            if (entry.getValue().equals(filePath)) return entry.getKey();
+        }
+        return -1;
+    }
+
+    private static void unlink(int[] buckets, int[] next, int b, int id) {
+        if (buckets[b] == id) {
+            buckets[b] = next[id];
+            return;
+        }
+        for (int prev = buckets[b]; prev >= 0; prev = next[prev]) {
+            if (next[prev] == id) {
+                next[prev] = next[id];
+                return;
+            }
+        }
+    }
+
+    // Hex <-> nhị phân
+
+    private static boolean writeBytes(byte[] bytes, byte[] target, int offset, int length) {
+        if (bytes == null) {
+            Arrays.fill(target, offset, offset + length, (byte) 0);
+            return false;
+        }
+        System.arraycopy(bytes, 0, target, offset, length);
+        return true;
+    }
+
+    static byte[] parseHex(String hex, int length) {
+        if (hex == null || hex.length() != length * 2) return null;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            bytes[i] = (byte) (hi << 4 | lo);
+        }
+        return bytes;
+    }
+
+    static String toHex(byte[] data, int offset, int length) {
+        char[] hex = "0123456789abcdef".toCharArray();
+        char[] out = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            out[i * 2] = hex[(data[offset + i] >> 4) & 0xF];
+            out[i * 2 + 1] = hex[data[offset + i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,173 @@
+package org.example.p2psharefile.network;
+
+import org.example.p2psharefile.model.DhtContact;
+import org.example.p2psharefile.model.DhtMessage;
+import org.example.p2psharefile.security.SecurityManager;
+
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TlsDhtTransport - RPC của KademliaDht qua TLS, một kết nối mỗi request (như cổng search)
+ *
+ * Bên nhận thay IP sender tự khai báo bằng IP thật của kết nối trước khi xử lý:
+ * node không ghi được provider record / contact trỏ tới địa chỉ của người khác.
+ *
+ * Cổng public nên được giới hạn như cổng search:
+ * - Token bucket theo IP (SearchAdmission) ngay sau accept(), trước handshake TLS
+ * - Pool xử lý MAX_REQUEST_THREADS thread + hàng đợi MAX_QUEUED_REQUESTS, đầy thì đóng kết nối
+ * - ObjectInputStream chỉ nhận DhtMessage / DhtContact, giới hạn độ sâu / số phần tử
+ */
+public class TlsDhtTransport implements DhtTransport {
+
+    public static final int DHT_PORT = 9005; // Cố định
+    private static final int CONNECTION_TIMEOUT = 2000;
+    private static final int READ_TIMEOUT = 5000;
+    private static final int MAX_REQUEST_THREADS = 8;
+    private static final int MAX_QUEUED_REQUESTS = 32;
+    // Một lookup gửi tới vài chục RPC cho các node gần key: bucket rộng hơn cổng search
+    private static final double RATE_PER_SECOND = 20;
+    private static final int BURST = 60;
+
+    // Chỉ các lớp của message DHT; reply gồm tối đa vài chục contact
+    private static final ObjectInputFilter MESSAGE_FILTER = ObjectInputFilter.Config.createFilter(
+        "maxdepth=6;maxrefs=2048;maxarray=1024;maxbytes=262144;"
+        + "org.example.p2psharefile.model.DhtMessage;org.example.p2psharefile.model.DhtMessage$Type;"
+        + "org.example.p2psharefile.model.DhtContact;java.util.ArrayList;java.lang.Object;java.lang.Enum;!*");
+
+    private final SecurityManager securityManager;
+    private final SearchAdmission admission = new SearchAdmission(RATE_PER_SECOND, BURST);
+    private SSLServerSocket serverSocket;
+    private ExecutorService acceptExecutor;
+    private ThreadPoolExecutor requestExecutor;
+    private volatile boolean running = false;
+
+    public TlsDhtTransport(SecurityManager securityManager) {
+        this.securityManager = securityManager;
+    }
+
+    @Override
+    public DhtMessage request(DhtContact to, DhtMessage message) throws IOException {
+        try (SSLSocket socket = securityManager.createSSLSocket(to.getIpAddress(), to.getPort())) {
+            socket.connect(new InetSocketAddress(to.getIpAddress(), to.getPort()), CONNECTION_TIMEOUT);
+            socket.setSoTimeout(READ_TIMEOUT);
+            socket.startHandshake();
+
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            oos.writeObject(message);
+            oos.flush();
+            ObjectInputStream ois = filtered(socket.getInputStream());
+            Object reply = ois.readObject();
+            if (!(reply instanceof DhtMessage)) throw new IOException("Reply DHT không hợp lệ");
+            return (DhtMessage) reply;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Reply DHT không hợp lệ: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Mở cổng DHT và chuyển request tới dht.handle()
+     */
+    public void start(KademliaDht dht) throws IOException {
+        if (running) return;
+        serverSocket = securityManager.createSSLServerSocket(DHT_PORT);
+        serverSocket.setReuseAddress(true);
+        acceptExecutor = Executors.newSingleThreadExecutor();
+        requestExecutor = new ThreadPoolExecutor(MAX_REQUEST_THREADS, MAX_REQUEST_THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS), new ThreadPoolExecutor.AbortPolicy());
+        requestExecutor.allowCoreThreadTimeOut(true);
+        running = true;
+        acceptExecutor.submit(() -> acceptRequests(dht));
+        System.out.println("✓ DHT (TLS) đã khởi động trên port " + DHT_PORT);
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("⚠ Lỗi đóng DHT server: " + e.getMessage());
+        }
+        if (acceptExecutor != null) acceptExecutor.shutdownNow();
+        if (requestExecutor != null) requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Bộ đếm giới hạn tốc độ / bỏ tải trên cổng DHT
+     */
+    public SearchAdmission getAdmission() {
+        return admission;
+    }
+
+    private void acceptRequests(KademliaDht dht) {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+
+                // Giới hạn theo IP trước handshake TLS / deserialize; DHT không có retry-after: đóng luôn
+                if (admission.acquire(socket.getInetAddress().getHostAddress()) > 0) {
+                    closeQuietly(socket);
+                    continue;
+                }
+                socket.setSoTimeout(READ_TIMEOUT);
+                try {
+                    requestExecutor.execute(() -> handleConnection(dht, socket));
+                } catch (RejectedExecutionException e) {
+                    admission.recordOverloaded();
+                    closeQuietly(socket);
+                }
+            } catch (SocketException e) {
+                if (running) System.err.println("⚠ Lỗi Socket DHT: " + e.getMessage());
+                break;
+            } catch (IOException e) {
+                if (running) System.err.println("⚠ Lỗi chấp nhận kết nối DHT: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleConnection(KademliaDht dht, Socket socket) {
+        try (Socket s = socket) {
+            ObjectInputStream ois = filtered(s.getInputStream());
+            ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
+            Object message = ois.readObject();
+            if (!(message instanceof DhtMessage)) return;
+
+            DhtMessage request = (DhtMessage) message;
+            if (request.getSender() == null) return;
+            String remoteIp = s.getInetAddress().getHostAddress();
+            request = request.withSender(request.getSender().withAddress(remoteIp));
+
+            oos.writeObject(dht.handle(request));
+            oos.flush();
+        } catch (Exception e) {
+            if (running) System.err.println("⚠ Lỗi xử lý request DHT: " + e.getMessage());
+        }
+    }
+
+    private static ObjectInputStream filtered(InputStream in) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(in);
+        ois.setObjectInputFilter(MESSAGE_FILTER);
+        return ois;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
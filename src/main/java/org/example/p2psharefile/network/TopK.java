@@ -0,0 +1,93 @@
+package org.example.p2psharefile.network;
+
+/**
+ * TopK - Giữ K phần tử điểm cao nhất bằng min-heap trên mảng nguyên thủy
+ *
+ * offer() O(log K), bộ nhớ O(K) bất kể bao nhiêu ứng viên khớp.
+ */
+class TopK {
+
+    private final int capacity;
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+    private int offered;
+
+    TopK(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.ids = new int[this.capacity];
+        this.scores = new double[this.capacity];
+    }
+
+    void offer(int id, double score) {
+        offered++;
+        if (size < capacity) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (score > scores[0]) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Tổng số phần tử đã offer (số file khớp)
+     */
+    int getOffered() {
+        return offered;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Lấy kết quả theo điểm giảm dần (làm rỗng heap)
+     *
+     * @param outScores Mảng nhận điểm tương ứng (độ dài >= size())
+     */
+    int[] drainDescending(double[] outScores) {
+        int count = size;
+        int[] result = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            result[i] = ids[0];
+            outScores[i] = scores[0];
+            size--;
+            ids[0] = ids[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return result;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+            if (scores[i] <= scores[smallest]) break;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
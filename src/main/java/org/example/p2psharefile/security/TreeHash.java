@@ -0,0 +1,294 @@
+package org.example.p2psharefile.security;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * TreeHash - Hash dạng cây (Merkle) cho file lớn, tính song song theo segment
+ *
+ * SHA-256 thường (FileHashUtil) phải đọc tuần tự cả file trên một core. TreeHash chia
+ * file thành các segment SEGMENT_SIZE byte cố định:
+ * - Mỗi segment hash độc lập: leaf = SHA-256(0x00 || dữ liệu segment)
+ * - Các leaf ghép cặp lên gốc: node = SHA-256(0x01 || trái || phải),
+ *   node lẻ cuối mỗi tầng được đẩy thẳng lên tầng trên
+ * - Root (hex) là content ID thứ hai của file, lưu cạnh SHA-256 trong FileInfo
+ *
+ * Các thread đọc bằng FileChannel positional read (không chia sẻ vị trí đọc), mỗi thread
+ * một dải segment liên tiếp -> thời gian hash giảm theo số core tới khi chạm tốc độ đĩa.
+ *
+ * Danh sách leaf cho phép người tải kiểm tra từng segment ngay khi nhận đủ thay vì chờ
+ * hết file (SEGMENT_SIZE là bội số của chunk size truyền tải).
+ *
+ * Khi đã đọc file tuần tự vì lý do khác (FileIngestionPipeline), dùng Builder để tính leaf
+ * trong cùng lượt đọc thay vì compute() đọc lại file.
+ */
+public class TreeHash {
+
+    public static final int SEGMENT_SIZE = 1024 * 1024;    // 1MB = 16 chunk 64KB
+    public static final int HASH_LENGTH = 32;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    /**
+     * Kết quả: root + hash của từng segment
+     */
+    public static class Result {
+        private final byte[] root;
+        private final byte[][] leaves;
+
+        Result(byte[] root, byte[][] leaves) {
+            this.root = root;
+            this.leaves = leaves;
+        }
+
+        public String getRoot() { return toHex(root); }
+        public byte[] getRootBytes() { return root.clone(); }
+        public int getLeafCount() { return leaves.length; }
+        public byte[] getLeaf(int segment) { return leaves[segment]; }
+        public byte[][] getLeaves() { return leaves; }
+    }
+
+    /**
+     * Tính leaf từ dữ liệu đưa vào tuần tự (block kích thước bất kỳ)
+     */
+    public static class Builder {
+        private final MessageDigest digest = newDigest();
+        private final List<byte[]> leaves = new ArrayList<>();
+        private int segmentFill = 0;    // Số byte của segment hiện tại đã đưa vào digest
+
+        public Builder() {
+            digest.update(LEAF_PREFIX);
+        }
+
+        public void update(byte[] data, int offset, int length) {
+            while (length > 0) {
+                int n = Math.min(length, SEGMENT_SIZE - segmentFill);
+                digest.update(data, offset, n);
+                segmentFill += n;
+                offset += n;
+                length -= n;
+                if (segmentFill == SEGMENT_SIZE) {
+                    leaves.add(digest.digest());
+                    digest.update(LEAF_PREFIX);
+                    segmentFill = 0;
+                }
+            }
+        }
+
+        /**
+         * Kết thúc: segment cuối (chưa đủ SEGMENT_SIZE) thành leaf; file rỗng có 1 leaf
+         */
+        public Result finish() {
+            if (segmentFill > 0 || leaves.isEmpty()) {
+                leaves.add(digest.digest());
+                segmentFill = 0;
+            }
+            byte[][] result = leaves.toArray(new byte[0][]);
+            return new Result(combine(result), result);
+        }
+    }
+
+    /**
+     * Dựng lại kết quả từ danh sách leaf đã lưu
+     */
+    public static Result fromLeaves(byte[][] leaves) {
+        return new Result(combine(leaves), leaves);
+    }
+
+    /**
+     * Tính tree hash dùng tất cả core
+     */
+    public static Result compute(File file) throws IOException {
+        return compute(file, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Tính tree hash song song
+     *
+     * @param threads Số thread hash
+     * @param ioPermits Giới hạn số lượt đọc đĩa đồng thời (null = không giới hạn)
+     */
+    public static Result compute(File file, int threads, Semaphore ioPermits) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int segments = segmentCount(size);
+            byte[][] leaves = new byte[segments][];
+
+            int workers = Math.max(1, Math.min(threads, segments));
+            if (workers == 1) {
+                hashRange(channel, size, 0, segments, leaves, ioPermits);
+                return new Result(combine(leaves), leaves);
+            }
+
+            // Mỗi worker một dải segment liên tiếp (đọc gần tuần tự trên đĩa)
+            ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "tree-hash");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                int perWorker = (segments + workers - 1) / workers;
+                for (int from = 0; from < segments; from += perWorker) {
+                    int start = from;
+                    int end = Math.min(segments, from + perWorker);
+                    futures.add(pool.submit(() -> {
+                        hashRange(channel, size, start, end, leaves, ioPermits);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Bị hủy khi tính tree hash");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                throw new IOException("Lỗi tính tree hash: " + cause.getMessage(), cause);
+            } finally {
+                pool.shutdownNow();
+            }
+
+            return new Result(combine(leaves), leaves);
+        }
+    }
+
+    private static void hashRange(FileChannel channel, long size, int from, int to, byte[][] leaves,
+                                  Semaphore ioPermits) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+
+        for (int segment = from; segment < to; segment++) {
+            long offset = (long) segment * SEGMENT_SIZE;
+            int length = (int) Math.min(SEGMENT_SIZE, size - offset);
+
+            buffer.clear().limit(length);
+            readFully(channel, buffer, offset, ioPermits);
+            buffer.flip();
+
+            digest.update(LEAF_PREFIX);
+            digest.update(buffer);
+            leaves[segment] = digest.digest();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset,
+                                  Semaphore ioPermits) throws IOException {
+        if (ioPermits != null) {
+            try {
+                ioPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Bị hủy khi chờ đọc đĩa");
+            }
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, offset + buffer.position());
+                if (n < 0) throw new IOException("File bị thay đổi khi đang hash");
+            }
+        } finally {
+            if (ioPermits != null) ioPermits.release();
+        }
+    }
+
+    // ========== Merkle ==========
+
+    /**
+     * Số segment của file (file rỗng vẫn có 1 leaf)
+     */
+    public static int segmentCount(long fileSize) {
+        return (int) Math.max(1, (fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    }
+
+    /**
+     * Segment chứa chunk (chunkSize phải chia hết SEGMENT_SIZE)
+     */
+    public static int segmentOfChunk(int chunkIndex, int chunkSize) {
+        return (int) ((long) chunkIndex * chunkSize / SEGMENT_SIZE);
+    }
+
+    /**
+     * Hash leaf của một segment
+     */
+    public static byte[] leafHash(byte[] data, int offset, int length) {
+        MessageDigest digest = newDigest();
+        digest.update(LEAF_PREFIX);
+        digest.update(data, offset, length);
+        return digest.digest();
+    }
+
+    /**
+     * Ghép các leaf thành root
+     */
+    public static byte[] combine(byte[][] leaves) {
+        MessageDigest digest = newDigest();
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                int left = i * 2;
+                if (left + 1 < level.length) {
+                    digest.update(NODE_PREFIX);
+                    digest.update(level[left]);
+                    digest.update(level[left + 1]);
+                    next[i] = digest.digest();
+                } else {
+                    next[i] = level[left];
+                }
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    /**
+     * Kiểm tra danh sách leaf nhận từ peer có khớp root đã biết
+     */
+    public static boolean verifyLeaves(byte[][] leaves, long fileSize, String expectedRoot) {
+        if (leaves == null || expectedRoot == null || leaves.length != segmentCount(fileSize)) {
+            return false;
+        }
+        for (byte[] leaf : leaves) {
+            if (leaf == null || leaf.length != HASH_LENGTH) return false;
+        }
+        return toHex(combine(leaves)).equalsIgnoreCase(expectedRoot);
+    }
+
+    /**
+     * So sánh hash segment vừa tải với leaf tương ứng
+     */
+    public static boolean verifySegment(byte[] data, int offset, int length, byte[] expectedLeaf) {
+        return MessageDigest.isEqual(leafHash(data, offset, length), expectedLeaf);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = hex[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = hex[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,337 @@
+package org.example.p2psharefile.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * DirectoryShareTask - Chia sẻ cả cây thư mục song song, có giới hạn I/O và báo tiến độ
+ *
+ * - Duyệt cây bằng Files.walkFileTree trên một thread riêng (không chặn UI)
+ * - Hash trên pool có giới hạn, tách riêng 2 loại tài nguyên:
+ *   + CPU: số thread hash (mặc định = số core)
+ *   + Disk: số lượt đọc đồng thời (Semaphore fair, HDD nên để 1-2, SSD để cao hơn)
+ * - File lớn (>= LARGE_FILE_THRESHOLD) chạy ở làn riêng ít thread hơn để
+ *   không chiếm hết worker của hàng nghìn file nhỏ
+ * - P2PService truyền pool + Semaphore dùng chung cho mọi task: nhiều thư mục chia sẻ cùng lúc
+ *   vẫn chung một giới hạn CPU / I/O (task không tắt pool dùng chung khi xong / bị hủy)
+ * - Báo tiến độ/throughput định kỳ và khi kết thúc, hủy được giữa chừng
+ */
+public class DirectoryShareTask {
+
+    public static final long LARGE_FILE_THRESHOLD = 64L * 1024 * 1024;   // 64MB
+    private static final long PROGRESS_INTERVAL = 500;                    // ms giữa 2 lần báo tiến độ
+
+    /**
+     * Hàm chia sẻ một file (P2PService.shareFile)
+     *
+     * ioPermits: giữ một permit cho toàn bộ lượt đọc file (hash + preview), không xen kẽ từng block
+     * giữa các file trên cùng đĩa
+     *
+     * @return Số byte thực sự đọc từ đĩa (0 nếu dùng hash từ index)
+     */
+    public interface FileSharer {
+        long share(File file, Semaphore ioPermits) throws IOException;
+    }
+
+    /**
+     * Snapshot tiến độ chia sẻ thư mục
+     */
+    public static class Progress {
+        private final File directory;
+        private final int filesDiscovered;
+        private final int filesDone;
+        private final int filesFailed;
+        private final long bytesTotal;
+        private final long bytesDone;
+        private final long bytesRead;
+        private final long elapsedMillis;
+        private final boolean walkFinished;
+        private final boolean finished;
+        private final boolean cancelled;
+
+        Progress(File directory, int filesDiscovered, int filesDone, int filesFailed, long bytesTotal,
+                 long bytesDone, long bytesRead, long elapsedMillis, boolean walkFinished,
+                 boolean finished, boolean cancelled) {
+            this.directory = directory;
+            this.filesDiscovered = filesDiscovered;
+            this.filesDone = filesDone;
+            this.filesFailed = filesFailed;
+            this.bytesTotal = bytesTotal;
+            this.bytesDone = bytesDone;
+            this.bytesRead = bytesRead;
+            this.elapsedMillis = elapsedMillis;
+            this.walkFinished = walkFinished;
+            this.finished = finished;
+            this.cancelled = cancelled;
+        }
+
+        public File getDirectory() { return directory; }
+        public int getFilesDiscovered() { return filesDiscovered; }
+        public int getFilesDone() { return filesDone; }
+        public int getFilesFailed() { return filesFailed; }
+        public long getBytesTotal() { return bytesTotal; }
+        public long getBytesDone() { return bytesDone; }
+        public long getBytesRead() { return bytesRead; }
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        /**
+         * Đã duyệt xong cây thư mục (filesDiscovered là tổng cuối cùng)
+         */
+        public boolean isWalkFinished() { return walkFinished; }
+        public boolean isFinished() { return finished; }
+        public boolean isCancelled() { return cancelled; }
+
+        /**
+         * Tốc độ đọc đĩa thực tế (bytes/s)
+         */
+        public double getThroughput() {
+            return elapsedMillis > 0 ? bytesRead * 1000.0 / elapsedMillis : 0;
+        }
+
+        /**
+         * Tiến độ theo byte (0.0 - 1.0), chỉ chính xác khi đã duyệt xong cây
+         */
+        public double getProgress() {
+            return bytesTotal > 0 ? (double) bytesDone / bytesTotal : (finished ? 1.0 : 0.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d file (%d lỗi), %.1f MB/s%s", filesDone, filesDiscovered,
+                filesFailed, getThroughput() / (1024 * 1024), cancelled ? " [đã hủy]" : "");
+        }
+    }
+
+    private final File directory;
+    private final boolean recursive;
+    private final FileSharer sharer;
+    private final Consumer<Progress> progressListener;
+    private final Consumer<Progress> completeListener;
+
+    private final ExecutorService smallFilePool;
+    private final ExecutorService largeFilePool;
+    private final Semaphore ioPermits;
+    private final boolean ownsPools;                // false = pool của service, không shutdown
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();  // Thread đang chia sẻ file của task
+
+    private final AtomicInteger filesDiscovered = new AtomicInteger();
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong bytesTotal = new AtomicLong();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong lastProgressTime = new AtomicLong();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile boolean walkFinished = false;
+    private volatile boolean cancelled = false;
+    private volatile long startTime;
+
+    /**
+     * @param cpuThreads Số thread hash song song
+     * @param ioConcurrency Số lượt đọc đĩa đồng thời
+     */
+    public DirectoryShareTask(File directory, boolean recursive, int cpuThreads, int ioConcurrency,
+                              FileSharer sharer, Consumer<Progress> progressListener,
+                              Consumer<Progress> completeListener) {
+        this(directory, recursive, newPool(Math.max(1, cpuThreads), "share-small"),
+            newPool(Math.max(1, cpuThreads / 2), "share-large"), new Semaphore(Math.max(1, ioConcurrency), true),
+            true, sharer, progressListener, completeListener);
+    }
+
+    /**
+     * Task dùng pool và giới hạn I/O của service (chung cho mọi task đang chạy)
+     */
+    public DirectoryShareTask(File directory, boolean recursive, ExecutorService smallFilePool,
+                              ExecutorService largeFilePool, Semaphore ioPermits, FileSharer sharer,
+                              Consumer<Progress> progressListener, Consumer<Progress> completeListener) {
+        this(directory, recursive, smallFilePool, largeFilePool, ioPermits, false, sharer, progressListener,
+            completeListener);
+    }
+
+    private DirectoryShareTask(File directory, boolean recursive, ExecutorService smallFilePool,
+                               ExecutorService largeFilePool, Semaphore ioPermits, boolean ownsPools,
+                               FileSharer sharer, Consumer<Progress> progressListener,
+                               Consumer<Progress> completeListener) {
+        this.directory = directory;
+        this.recursive = recursive;
+        this.sharer = sharer;
+        this.progressListener = progressListener;
+        this.completeListener = completeListener;
+        this.smallFilePool = smallFilePool;
+        this.largeFilePool = largeFilePool;
+        this.ioPermits = ioPermits;
+        this.ownsPools = ownsPools;
+    }
+
+    /**
+     * Pool chia sẻ file: thread daemon, thread rảnh tự kết thúc
+     */
+    public static ThreadPoolExecutor newPool(int threads, String prefix) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), namedThreads(prefix));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Bắt đầu duyệt và chia sẻ (bất đồng bộ)
+     */
+    public DirectoryShareTask start() {
+        startTime = System.currentTimeMillis();
+        pending.incrementAndGet();      // Giữ task mở cho tới khi duyệt xong
+        Thread walker = new Thread(this::walk, "share-walker");
+        walker.setDaemon(true);
+        walker.start();
+        return this;
+    }
+
+    /**
+     * Hủy: dừng duyệt, bỏ các file chưa bắt đầu
+     */
+    public void cancel() {
+        cancelled = true;
+        if (ownsPools) {
+            smallFilePool.shutdownNow();
+            largeFilePool.shutdownNow();
+        } else {
+            // Pool dùng chung: file đang đợi trong hàng bỏ qua ngay (cancelled), file đang đọc bị ngắt
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+        finish();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Chờ tới khi xong (hoặc bị hủy)
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    public Progress getProgress() {
+        return snapshot();
+    }
+
+    private void walk() {
+        try {
+            Files.walkFileTree(directory.toPath(), EnumSet.noneOf(FileVisitOption.class),
+                recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (cancelled) return FileVisitResult.TERMINATE;
+                        if (attrs.isRegularFile()) {
+                            submit(file.toFile(), attrs.size());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        // Không đọc được (quyền, link hỏng...) -> bỏ qua, tiếp tục
+                        filesFailed.incrementAndGet();
+                        return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+                });
+        } catch (IOException e) {
+            System.err.println("❌ Lỗi duyệt thư mục " + directory + ": " + e.getMessage());
+        } finally {
+            walkFinished = true;
+            System.out.println("📂 Đã duyệt xong " + directory.getName() + ": " + filesDiscovered.get() + " file");
+            fileFinished();
+        }
+    }
+
+    private void submit(File file, long size) {
+        filesDiscovered.incrementAndGet();
+        bytesTotal.addAndGet(size);
+        pending.incrementAndGet();
+
+        ExecutorService lane = size >= LARGE_FILE_THRESHOLD ? largeFilePool : smallFilePool;
+        try {
+            lane.execute(() -> shareOne(file, size));
+        } catch (RejectedExecutionException e) {
+            fileFinished();     // Đã hủy
+        }
+    }
+
+    private void shareOne(File file, long size) {
+        Thread current = Thread.currentThread();
+        workers.add(current);
+        try {
+            if (cancelled) return;
+            bytesRead.addAndGet(sharer.share(file, ioPermits));
+            filesDone.incrementAndGet();
+        } catch (Exception e) {
+            filesFailed.incrementAndGet();
+            if (!cancelled) System.err.println("⚠ Không thể chia sẻ " + file.getName() + ": " + e.getMessage());
+        } finally {
+            workers.remove(current);
+            // Ngắt do cancel() không được lan sang file tiếp theo của pool dùng chung
+            if (cancelled) Thread.interrupted();
+            bytesDone.addAndGet(size);
+            fileFinished();
+        }
+    }
+
+    private void fileFinished() {
+        if (pending.decrementAndGet() == 0) {
+            finish();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long last = lastProgressTime.get();
+        if (now - last >= PROGRESS_INTERVAL && lastProgressTime.compareAndSet(last, now)
+                && progressListener != null) {
+            progressListener.accept(snapshot());
+        }
+    }
+
+    private void finish() {
+        if (done.getCount() == 0) return;
+        synchronized (done) {
+            if (done.getCount() == 0) return;
+            done.countDown();
+        }
+        if (ownsPools) {
+            smallFilePool.shutdown();
+            largeFilePool.shutdown();
+        }
+
+        Progress result = snapshot();
+        System.out.println("✅ Chia sẻ thư mục " + directory.getName() + ": " + result);
+        if (completeListener != null) {
+            completeListener.accept(result);
+        }
+    }
+
+    private Progress snapshot() {
+        return new Progress(directory, filesDiscovered.get(), filesDone.get(), filesFailed.get(),
+            bytesTotal.get(), bytesDone.get(), bytesRead.get(), System.currentTimeMillis() - startTime,
+            walkFinished, done.getCount() == 0, cancelled);
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,585 @@
+package org.example.p2psharefile.service;
+
+import org.example.p2psharefile.security.TreeHash;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FileHashIndex - Index hash bền vững: (path, size, lastModified, fileKey) -> SHA-256, MD5, tree hash
+ *
+ * Tránh hash lại toàn bộ thư mục chia sẻ mỗi lần khởi động / chia sẻ lại:
+ * - lookup() chỉ đọc thuộc tính file (không đọc nội dung), khớp size + mtime + fileKey
+ *   (inode trên Unix) thì dùng lại hash đã lưu
+ * - Ghi dạng append-only log nhị phân, load tuần tự với buffer lớn trên thread nền
+ *   khi khởi động (~130 byte/entry, 1 triệu entry ~2s) - lookup đầu tiên chờ load xong
+ * - Log được compact thành snapshot khi số record vượt quá 2 lần số entry còn sống
+ * - Ghi được khóa trong process (synchronized) và giữa các process (FileLock)
+ * - Sweep nền loại bỏ entry của file đã xóa / đã thay đổi
+ * - Danh sách leaf TreeHash lưu riêng theo tree root (tree-leaves/<root>), để phục vụ
+ *   REQUEST_TREE mà không hash lại file; file leaf không còn entry nào dùng bị sweep xóa
+ *
+ * Index chỉ là cache: entry bị mất (crash, ghi đồng thời lúc compact) chỉ khiến file
+ * bị hash lại, không bao giờ trả về hash sai vì lookup luôn kiểm tra lại thuộc tính file.
+ */
+public class FileHashIndex {
+
+    private static final int MAGIC = 0x50324849;    // "P2HI"
+    private static final int VERSION = 2;           // v2: thêm OP_PUT_TREE (đọc được cả log v1)
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_PUT_TREE = 3;      // Như OP_PUT + 32 byte tree hash root
+
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+    private static final int MIN_COMPACT_RECORDS = 10000;
+    private static final long ORPHAN_LEAVES_AGE = TimeUnit.HOURS.toMillis(1);  // Process khác có thể vừa ghi
+
+    /**
+     * Một entry trong index
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;       // inode/fileKey, "" nếu hệ điều hành không hỗ trợ
+        private final byte[] sha256;
+        private final byte[] md5;
+        private final boolean hasManifest;  // Đã từng sinh preview manifest (key = sha256)
+        private final byte[] treeRoot;      // null nếu chưa tính tree hash
+
+        Entry(String path, long size, long lastModified, String fileKey,
+              byte[] sha256, byte[] md5, boolean hasManifest, byte[] treeRoot) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.sha256 = sha256;
+            this.md5 = md5;
+            this.hasManifest = hasManifest;
+            this.treeRoot = treeRoot;
+        }
+
+        public String getPath() { return path; }
+        public long getSize() { return size; }
+        public long getLastModified() { return lastModified; }
+        public String getSha256() { return toHex(sha256); }
+        public String getMd5() { return toHex(md5); }
+        public String getTreeHash() { return treeRoot != null ? toHex(treeRoot) : null; }
+
+        /**
+         * Tham chiếu đến preview manifest (cache manifest dùng SHA-256 làm key), null nếu chưa có
+         */
+        public String getManifestRef() { return hasManifest ? getSha256() : null; }
+
+        boolean matches(long size, long lastModified, String fileKey) {
+            return this.size == size && this.lastModified == lastModified
+                && (this.fileKey.isEmpty() || fileKey.isEmpty() || this.fileKey.equals(fileKey));
+        }
+    }
+
+    private final Path logFile;
+    private final Path lockFile;
+    private final Path leavesDir;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger logRecords = new AtomicInteger();
+
+    private volatile boolean loaded = false;
+    private DataOutputStream appender;
+    private ScheduledExecutorService sweepExecutor;
+
+    public FileHashIndex(Path directory) {
+        this.logFile = directory.resolve("hash-index.log");
+        this.lockFile = directory.resolve("hash-index.lock");
+        this.leavesDir = directory.resolve("tree-leaves");
+    }
+
+    /**
+     * Thư mục mặc định: ~/.p2psharefile
+     */
+    public static FileHashIndex createDefault() {
+        return new FileHashIndex(Paths.get(System.getProperty("user.home"), ".p2psharefile"));
+    }
+
+    // ========== Load ==========
+
+    /**
+     * Nạp index từ đĩa (chỉ lần đầu)
+     */
+    public synchronized void load() throws IOException {
+        if (loaded) return;
+
+        Files.createDirectories(logFile.getParent());
+        long start = System.currentTimeMillis();
+
+        withProcessLock(() -> {
+            replayLog(entries);
+            openAppender();
+        });
+        loaded = true;
+
+        System.out.println("✓ Hash index: " + entries.size() + " entry (" +
+            (System.currentTimeMillis() - start) + "ms)");
+    }
+
+    /**
+     * Nạp index trên thread nền để không chặn khởi động
+     */
+    public void loadInBackground() {
+        if (loaded) return;
+        Thread loader = new Thread(this::ensureLoaded, "hash-index-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        try {
+            load();
+        } catch (IOException e) {
+            System.err.println("⚠ Không thể nạp hash index: " + e.getMessage());
+            loaded = true;  // Tiếp tục hoạt động chỉ trong bộ nhớ
+        }
+    }
+
+    /**
+     * Đọc lại toàn bộ log vào map; phần đuôi hỏng (crash khi đang ghi) bị cắt bỏ
+     */
+    private void replayLog(Map<String, Entry> target) throws IOException {
+        if (!Files.exists(logFile)) {
+            writeSnapshot(target);
+            return;
+        }
+
+        long validLength = 0;
+        int records = 0;
+        try (CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(logFile), IO_BUFFER_SIZE))) {
+            DataInputStream in = new DataInputStream(counter);
+
+            if (in.readInt() != MAGIC || in.readInt() > VERSION) {
+                throw new IOException("Hash index không đúng định dạng");
+            }
+            validLength = counter.count;
+
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                try {
+                    String path = in.readUTF();
+                    if (op == OP_PUT || op == OP_PUT_TREE) {
+                        long size = in.readLong();
+                        long lastModified = in.readLong();
+                        String fileKey = in.readUTF();
+                        byte[] sha = new byte[32];
+                        byte[] md5 = new byte[16];
+                        in.readFully(sha);
+                        in.readFully(md5);
+                        boolean hasManifest = in.readBoolean();
+                        byte[] treeRoot = null;
+                        if (op == OP_PUT_TREE) {
+                            treeRoot = new byte[32];
+                            in.readFully(treeRoot);
+                        }
+                        target.put(path, new Entry(path, size, lastModified, fileKey, sha, md5, 
+                            hasManifest, treeRoot));
+                    } else if (op == OP_REMOVE) {
+                        target.remove(path);
+                    } else {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                records++;
+                validLength = counter.count;
+            }
+        } catch (IOException e) {
+            if (validLength == 0) {
+                // Header hỏng: bắt đầu lại từ đầu
+                System.err.println("⚠ Hash index hỏng, tạo lại: " + e.getMessage());
+                target.clear();
+                writeSnapshot(target);
+                return;
+            }
+        }
+
+        // Cắt phần đuôi chưa ghi xong
+        if (Files.size(logFile) > validLength) {
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        logRecords.set(records);
+    }
+
+    private void openAppender() throws IOException {
+        if (appender != null) appender.close();
+        appender = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(logFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024));
+    }
+
+    // ========== Lookup / update ==========
+
+    /**
+     * Tìm hash đã lưu cho file, chỉ đọc thuộc tính (không đọc nội dung)
+     *
+     * @return Entry nếu file chưa thay đổi kể từ lần hash trước, null nếu cần hash lại
+     */
+    public Entry lookup(File file) {
+        ensureLoaded();
+        Entry entry = entries.get(file.getAbsolutePath());
+        if (entry == null) return null;
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (entry.matches(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs))) {
+                return entry;
+            }
+        } catch (IOException e) {
+            // File không đọc được -> coi như cần hash lại
+        }
+        return null;
+    }
+
+    /**
+     * Lưu hash của file
+     *
+     * @param attrs Thuộc tính đọc TRƯỚC khi hash (file đổi trong lúc hash sẽ không khớp lần sau)
+     */
+    public void put(File file, BasicFileAttributes attrs, String sha256, String md5, boolean hasManifest) {
+        put(file, attrs, sha256, md5, hasManifest, null);
+    }
+
+    /**
+     * Lưu hash của file kèm tree hash root (null nếu không có)
+     */
+    public void put(File file, BasicFileAttributes attrs, String sha256, String md5, boolean hasManifest,
+                    String treeHash) {
+        ensureLoaded();
+        String path = file.getAbsolutePath();
+        Entry entry = new Entry(path, attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs),
+            fromHex(sha256, 32), fromHex(md5, 16), hasManifest, treeHash != null ? fromHex(treeHash, 32) : null);
+        entries.put(path, entry);
+        append(entry, OP_PUT);
+    }
+
+    /**
+     * Xóa entry (file bị xóa / bỏ chia sẻ)
+     */
+    public void remove(String absolutePath) {
+        ensureLoaded();
+        Entry old = entries.remove(absolutePath);
+        if (old != null) {
+            append(old, OP_REMOVE);
+        }
+    }
+
+    public int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    // ========== Tree leaves ==========
+
+    /**
+     * Lưu danh sách leaf của tree hash (file 1 segment không cần lưu: leaf chính là root)
+     */
+    public void saveLeaves(TreeHash.Result tree) {
+        if (tree.getLeafCount() <= 1) return;
+        Path target = leavesDir.resolve(tree.getRoot());
+        if (Files.exists(target)) return;
+        try {
+            Files.createDirectories(leavesDir);
+            Path temp = Files.createTempFile(leavesDir, tree.getRoot(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp), IO_BUFFER_SIZE))) {
+                out.writeInt(tree.getLeafCount());
+                for (byte[] leaf : tree.getLeaves()) {
+                    out.write(leaf);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("⚠ Không thể lưu tree leaves: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Nạp danh sách leaf đã lưu, kiểm tra lại khớp root
+     *
+     * @return null nếu chưa lưu / hỏng (cần hash lại file)
+     */
+    public TreeHash.Result loadLeaves(String treeHash, long fileSize) {
+        if (treeHash == null) return null;
+        int segments = TreeHash.segmentCount(fileSize);
+        byte[][] leaves;
+        if (segments == 1) {
+            leaves = new byte[][] { fromHex(treeHash, TreeHash.HASH_LENGTH) };
+        } else {
+            Path file = leavesDir.resolve(treeHash.toLowerCase());
+            if (!Files.isRegularFile(file)) return null;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file), IO_BUFFER_SIZE))) {
+                if (in.readInt() != segments) return null;
+                leaves = new byte[segments][TreeHash.HASH_LENGTH];
+                for (byte[] leaf : leaves) {
+                    in.readFully(leaf);
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return TreeHash.verifyLeaves(leaves, fileSize, treeHash) ? TreeHash.fromLeaves(leaves) : null;
+    }
+
+    /**
+     * Xóa file leaf không còn entry nào tham chiếu
+     */
+    private void sweepLeaves() {
+        if (!Files.isDirectory(leavesDir)) return;
+        Set<String> referenced = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            String root = entry.getTreeHash();
+            if (root != null) referenced.add(root);
+        }
+        long cutoff = System.currentTimeMillis() - ORPHAN_LEAVES_AGE;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(leavesDir)) {
+            for (Path file : files) {
+                if (referenced.contains(file.getFileName().toString())) continue;
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException ignored) {}
+            }
+        } catch (IOException e) {
+            System.err.println("⚠ Lỗi dọn tree leaves: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Đọc thuộc tính file (dùng trước khi hash rồi truyền vào put)
+     */
+    public static BasicFileAttributes readAttributes(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+
+    private synchronized void append(Entry entry, byte op) {
+        if (appender == null) return;
+        try {
+            withProcessLock(() -> writeRecord(entry, op));
+            logRecords.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("⚠ Không thể ghi hash index: " + e.getMessage());
+        }
+    }
+
+    private void writeRecord(Entry entry, byte op) throws IOException {
+        if (op == OP_PUT) {
+            writePut(appender, entry);
+        } else {
+            appender.writeByte(op);
+            appender.writeUTF(entry.path);
+        }
+        appender.flush();
+    }
+
+    private static void writePut(DataOutputStream out, Entry entry) throws IOException {
+        out.writeByte(entry.treeRoot != null ? OP_PUT_TREE : OP_PUT);
+        out.writeUTF(entry.path);
+        out.writeLong(entry.size);
+        out.writeLong(entry.lastModified);
+        out.writeUTF(entry.fileKey);
+        out.write(entry.sha256);
+        out.write(entry.md5);
+        out.writeBoolean(entry.hasManifest);
+        if (entry.treeRoot != null) {
+            out.write(entry.treeRoot);
+        }
+    }
+
+    // ========== Compaction / sweep ==========
+
+    /**
+     * Ghi lại log thành snapshot khi có quá nhiều record thừa
+     */
+    public synchronized void compactIfNeeded() {
+        int records = logRecords.get();
+        if (appender == null || records < MIN_COMPACT_RECORDS || records < 2 * entries.size()) return;
+
+        try {
+            withProcessLock(() -> {
+                // Đọc lại log để giữ cả entry do process khác ghi
+                appender.close();
+                appender = null;
+                Map<String, Entry> merged = new HashMap<>();
+                replayLog(merged);
+                writeSnapshot(merged);
+                entries.keySet().retainAll(merged.keySet());
+                entries.putAll(merged);
+                openAppender();
+                System.out.println("✓ Đã compact hash index: " + records + " → " + merged.size() + " record");
+            });
+        } catch (IOException e) {
+            System.err.println("⚠ Lỗi compact hash index: " + e.getMessage());
+            try {
+                if (appender == null) openAppender();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void writeSnapshot(Map<String, Entry> snapshot) throws IOException {
+        Path temp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp), IO_BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Entry entry : snapshot.values()) {
+                writePut(out, entry);
+            }
+        }
+        Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logRecords.set(snapshot.size());
+    }
+
+    /**
+     * Kiểm tra toàn bộ entry: file đã xóa hoặc thay đổi thì loại khỏi index
+     *
+     * @return Số entry bị loại
+     */
+    public int sweep() {
+        ensureLoaded();
+        int removed = 0;
+        for (Entry entry : entries.values()) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(Paths.get(entry.path), BasicFileAttributes.class);
+                if (entry.matches(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs))) {
+                    continue;
+                }
+            } catch (IOException e) {
+                // File không còn tồn tại
+            }
+            remove(entry.path);
+            removed++;
+        }
+        compactIfNeeded();
+        sweepLeaves();
+        return removed;
+    }
+
+    /**
+     * Chạy sweep định kỳ trên thread nền (độ ưu tiên thấp)
+     */
+    public synchronized void startBackgroundSweep(long intervalMinutes) {
+        if (sweepExecutor != null) return;
+        sweepExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hash-index-sweep");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        sweepExecutor.scheduleWithFixedDelay(() -> {
+            int removed = sweep();
+            if (removed > 0) {
+                System.out.println("🧹 Hash index sweep: loại " + removed + " entry cũ");
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    public synchronized void close() {
+        if (sweepExecutor != null) {
+            sweepExecutor.shutdownNow();
+            sweepExecutor = null;
+        }
+        try {
+            if (appender != null) appender.close();
+        } catch (IOException ignored) {}
+        appender = null;
+        loaded = false;     // Lần dùng sau sẽ mở lại log
+    }
+
+    // ========== Helpers ==========
+
+    /**
+     * Khóa giữa các process (nhiều instance trên cùng máy dùng chung index)
+     */
+    private void withProcessLock(IOAction action) throws IOException {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                action.run();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+    private static String fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key != null ? key.toString() : "";
+    }
+
+    private static byte[] fromHex(String hex, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length && i * 2 + 1 < hex.length(); i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = hex[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = hex[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Đếm số byte đã đọc để biết vị trí record hợp lệ cuối cùng
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
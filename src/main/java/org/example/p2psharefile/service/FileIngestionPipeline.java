@@ -0,0 +1,155 @@
+package org.example.p2psharefile.service;
+
+import org.example.p2psharefile.security.TreeHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+
+/**
+ * FileIngestionPipeline - Đọc file chia sẻ đúng MỘT lần cho mọi thứ cần tính
+ *
+ * Trước đây addSharedFile đọc toàn bộ file 4 lần (SHA-256, MD5, hash kiểm tra cache
+ * preview, hash trong generateManifest). Pipeline này stream file một lượt và trong
+ * cùng lượt đó:
+ * - Cập nhật SHA-256 (fileHash / preview manifest)
+ * - Cập nhật MD5 (checksum tương thích cũ)
+ * - Tính leaf TreeHash của từng segment 1MB (tree hash root + danh sách leaf phục vụ REQUEST_TREE)
+ * - Giữ lại HEAD_SIZE byte đầu cho preview sniffer (text snippet, generic preview)
+ *
+ * Kết quả được chuyển cho FileSearchService (FileInfo) và PreviewCacheService (manifest).
+ */
+public class FileIngestionPipeline {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;   // 1MB, đọc tuần tự bằng FileChannel
+    public static final int HEAD_SIZE = 64 * 1024;        // Đủ cho snippet 10 dòng / 500 ký tự
+
+    /**
+     * Kết quả ingest một file
+     */
+    public static class IngestionResult {
+        private final File file;
+        private final long fileSize;
+        private final long lastModified;
+        private final String sha256;
+        private final String md5;
+        private final byte[] head;
+        private final TreeHash.Result tree;
+
+        IngestionResult(File file, long fileSize, long lastModified, String sha256, String md5, byte[] head,
+                        TreeHash.Result tree) {
+            this.file = file;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.md5 = md5;
+            this.head = head;
+            this.tree = tree;
+        }
+
+        public File getFile() { return file; }
+        public long getFileSize() { return fileSize; }
+        public long getLastModified() { return lastModified; }
+        public String getSha256() { return sha256; }
+        public String getMd5() { return md5; }
+
+        /**
+         * HEAD_SIZE byte đầu của file (ít hơn nếu file nhỏ)
+         */
+        public byte[] getHead() { return head; }
+
+        /**
+         * Tree hash (root + leaf từng segment) tính trong cùng lượt đọc
+         */
+        public TreeHash.Result getTree() { return tree; }
+    }
+
+    /**
+     * Đọc file một lần, tính SHA-256 + MD5 + tree hash và lấy phần đầu file
+     */
+    public static IngestionResult ingest(File file) throws IOException {
+        return ingest(file, null);
+    }
+
+    /**
+     * Như ingest(file), nhưng giữ một permit của ioPermits trong suốt lượt đọc file
+     * (đọc tuần tự cả file, không xen kẽ block với file khác trên cùng đĩa)
+     */
+    public static IngestionResult ingest(File file, Semaphore ioPermits) throws IOException {
+        if (ioPermits == null) {
+            return ingestFile(file);
+        }
+        try {
+            ioPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Đã hủy");
+        }
+        try {
+            return ingestFile(file);
+        } finally {
+            ioPermits.release();
+        }
+    }
+
+    private static IngestionResult ingestFile(File file) throws IOException {
+        MessageDigest sha256;
+        MessageDigest md5;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Digest algorithm not available", e);
+        }
+
+        TreeHash.Builder tree = new TreeHash.Builder();
+        long lastModified = file.lastModified();
+        byte[] head = new byte[HEAD_SIZE];
+        int headLength = 0;
+        long total = 0;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] array = buffer.array();
+
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                if (read == 0) continue;
+
+                sha256.update(array, 0, read);
+                md5.update(array, 0, read);
+                tree.update(array, 0, read);
+
+                if (headLength < HEAD_SIZE) {
+                    int n = Math.min(read, HEAD_SIZE - headLength);
+                    System.arraycopy(array, 0, head, headLength, n);
+                    headLength += n;
+                }
+
+                total += read;
+                buffer.clear();
+            }
+        }
+
+        return new IngestionResult(file, total, lastModified,
+            toHex(sha256.digest()), toHex(md5.digest()),
+            headLength == HEAD_SIZE ? head : Arrays.copyOf(head, headLength), tree.finish());
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = hex[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = hex[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -3,16 +3,28 @@ package org.example.p2psharefile.service;
 import org.example.p2psharefile.model.*;
 import org.example.p2psharefile.network.*;
 import org.example.p2psharefile.security.SecurityManager;
-import org.example.p2psharefile.security.FileHashUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * P2PService - Service chính quản lý toàn bộ ứng dụng P2P (với TLS + Peer Authentication)
@@ -47,6 +59,27 @@ public class P2PService {
     // Phạm vi port hợp lệ cho peer
     private static final int MIN_PEER_PORT = 10000;
     private static final int MAX_PEER_PORT = 60000;
+    
+    private static final long HASH_INDEX_SWEEP_MINUTES = 30;
+    private static final long CATALOG_SNAPSHOT_INTERVAL_SECONDS = 60;
+    private static final long RESTORE_RESCAN_WAIT_SECONDS = 120;   // Chờ tối đa mỗi thư mục khi khởi động
+    private static final int DHT_THREADS = 2;                       // Bootstrap / lookup DHT nền
+    
+    // Chia sẻ thư mục: CPU (hash) và disk (đọc) giới hạn riêng
+    private volatile int shareCpuThreads = Runtime.getRuntime().availableProcessors();
+    private volatile int shareIoConcurrency = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private final Set<DirectoryShareTask> shareTasks = ConcurrentHashMap.newKeySet();
+    // Dùng chung cho mọi lần chia sẻ (nhiều thư mục cùng lúc, rescan, file lẻ): một giới hạn CPU / I/O
+    private final ThreadPoolExecutor shareSmallFilePool = DirectoryShareTask.newPool(shareCpuThreads, "share-small");
+    private final ThreadPoolExecutor shareLargeFilePool = 
+        DirectoryShareTask.newPool(Math.max(1, shareCpuThreads / 2), "share-large");
+    private volatile Semaphore shareIoPermits = new Semaphore(shareIoConcurrency, true);
+    
+    // Thư mục gốc đang chia sẻ -> đệ quy (lưu trong catalog snapshot để theo dõi lại khi khởi động)
+    private final Map<String, Boolean> sharedDirectories = new ConcurrentHashMap<>();
+    // Thư mục gốc đang quét lại -> task; yêu cầu quét trong lúc đang quét được gộp (rescanRequested)
+    private final Map<String, DirectoryShareTask> rescanTasks = new HashMap<>();
+    private final Set<String> rescanRequested = new HashSet<>();
 
     private final PeerInfo localPeer;
     private final SecurityManager securityManager;
@@ -54,6 +87,25 @@ public class P2PService {
     private final FileSearchService fileSearchService;
     private final ChunkedFileTransferService chunkedTransferService;
     private final PINCodeService pinCodeService;
+    private final LocalTransportService localTransportService;
+
+    // DHT fileHash -> provider (tìm ai có file mà không flood, chủ yếu cho chế độ Internet)
+    private final KademliaDht dht;
+    private final TlsDhtTransport dhtTransport;
+    // Bootstrap + lookup nền (tạo trong start); danh sách signaling mới nhất chờ bootstrap (gộp cập nhật)
+    private volatile ThreadPoolExecutor dhtExecutor;
+    private final AtomicReference<List<DhtContact>> pendingDhtSeeds = new AtomicReference<>();
+    
+    // Index hash bền vững (path, size, mtime) -> SHA-256/MD5, tránh hash lại khi khởi động
+    private final FileHashIndex hashIndex;
+    private final SharedDirectoryWatcher directoryWatcher;
+    
+    // Catalog snapshot (memory-mapped): khởi động lại không cần chia sẻ lại thư mục
+    private final Path catalogSnapshotFile;
+    // File người dùng đã bỏ chia sẻ trong thư mục đang chia sẻ (mỗi dòng một đường dẫn)
+    private final Path excludedFilesFile;
+    private volatile boolean catalogDirty = false;
+    private ScheduledExecutorService catalogSnapshotExecutor;
     
     // UltraView Preview Services
     private final PreviewCacheService previewCacheService;
@@ -80,6 +132,26 @@ public class P2PService {
         void onTransferError(String fileName, Exception e);
         void onServiceStarted();
         void onServiceStopped();
+        
+        /**
+         * Tiến độ chia sẻ thư mục (gọi định kỳ từ thread nền)
+         */
+        default void onShareProgress(DirectoryShareTask.Progress progress) {}
+        
+        /**
+         * Chia sẻ thư mục hoàn tất hoặc bị hủy
+         */
+        default void onShareComplete(DirectoryShareTask.Progress progress) {}
+        
+        /**
+         * Catalog file chia sẻ thay đổi (thêm/sửa/xóa, kể cả do theo dõi thư mục)
+         */
+        default void onCatalogChanged(CatalogChange change) {}
+        
+        /**
+         * Đã nạp xong danh sách file chia sẻ từ lần chạy trước (catalog snapshot)
+         */
+        default void onCatalogRestored(int fileCount) {}
     }
 
     private volatile boolean running = false;
@@ -118,13 +190,71 @@ public class P2PService {
             // Khởi tạo các service (với SecurityManager)
             this.peerDiscovery = new PeerDiscovery(localPeer, securityManager);
             this.fileSearchService = new FileSearchService(localPeer, peerDiscovery, securityManager);
-            this.chunkedTransferService = new ChunkedFileTransferService(localPeer, securityManager);
+            this.chunkedTransferService = new ChunkedFileTransferService(localPeer, securityManager, peerDiscovery);
+            // Partial seeding: cho phép phục vụ chunk theo hash từ file đang chia sẻ
+            this.chunkedTransferService.setSharedFileResolver(hash -> {
+                FileInfo shared = fileSearchService.findSharedFileByHash(hash);
+                return shared != null ? new File(shared.getFilePath()) : null;
+            });
             this.pinCodeService = new PINCodeService(localPeer, peerDiscovery, securityManager);
             
             // UltraView: Khởi tạo preview services
-            this.previewCacheService = new PreviewCacheService(peerId, securityManager);
+            this.previewCacheService = new PreviewCacheService(peerId, securityManager,
+                Paths.get(System.getProperty("user.home"), ".p2psharefile", "manifests"));
             this.previewService = new PreviewService(localPeer, securityManager, previewCacheService);
             
+            this.hashIndex = FileHashIndex.createDefault();
+            // REQUEST_TREE: chỉ file trong catalog, leaf đã lưu lúc chia sẻ (không hash lại khi peer hỏi)
+            this.chunkedTransferService.setSharedTreeResolver(path -> {
+                FileInfo shared = fileSearchService.findSharedFileByPath(path);
+                return shared != null ? hashIndex.loadLeaves(shared.getTreeHash(), shared.getFileSize()) : null;
+            });
+            
+            // Theo dõi thư mục chia sẻ: file sửa/xóa được cập nhật nền, không cần chia sẻ lại
+            this.directoryWatcher = new SharedDirectoryWatcher(new SharedDirectoryWatcher.Handler() {
+                @Override
+                public void onFileChanged(File file) {
+                    reindexFile(file);
+                }
+                
+                @Override
+                public void onPathRemoved(File path) {
+                    unsharePath(path);
+                }
+                
+                @Override
+                public void onRescan(File root, boolean recursive) {
+                    rescanDirectory(root, recursive);
+                }
+            });
+            this.fileSearchService.getChangeFeed().addListener(this::notifyCatalogChanged);
+            this.fileSearchService.getChangeFeed().addListener(change -> catalogDirty = true);
+            this.catalogSnapshotFile = Paths.get(System.getProperty("user.home"), ".p2psharefile", "catalog.snap");
+            this.excludedFilesFile = catalogSnapshotFile.resolveSibling("excluded-files.txt");
+            
+            // Peer cùng máy: chunk/search/preview qua Unix socket thay vì loopback TLS
+            this.localTransportService = new LocalTransportService(localPeer);
+            this.chunkedTransferService.setLocalTransport(localTransportService);
+            this.fileSearchService.setLocalTransport(localTransportService);
+            this.fileSearchService.setInlinePreviewSource(previewCacheService::getInlinePreview);
+            this.previewService.setLocalTransport(localTransportService);
+
+            // DHT: công bố provider cho file có SHA-256, ngừng công bố lại khi không còn file cùng hash
+            this.dhtTransport = new TlsDhtTransport(securityManager);
+            this.dht = new KademliaDht(dhtContactFor(localPeer), dhtTransport);
+            this.fileSearchService.getChangeFeed().addListener(change -> {
+                String hash = change.getFileInfo() != null ? change.getFileInfo().getFileHash() : null;
+                if (hash == null) return;
+                if (change.getType() != CatalogChange.Type.REMOVED) {
+                    dht.provide(hash);
+                } else if (fileSearchService.findSharedFileByHash(hash) == null) {
+                    dht.unprovide(hash);
+                }
+            });
+            // Swarm: hỏi bitmap cả provider công bố trên DHT (chế độ Internet)
+            this.chunkedTransferService.setProviderLookup(
+                hash -> isP2POnlyMode() ? Collections.emptyList() : findProvidersInDht(hash));
+            
             // Signaling Client: Khởi tạo cho P2P Hybrid (Internet)
             this.signalingClient = new SignalingClient(localPeer, securityManager, peerDiscovery);
             setupSignalingListener();
@@ -277,6 +407,7 @@ public class P2PService {
         peerDiscovery.addListener(new PeerDiscovery.PeerDiscoveryListener() {
             @Override
             public void onPeerDiscovered(PeerInfo peer) {
+                dht.addContact(dhtContactFor(peer));
                 notifyPeerDiscovered(peer);
             }
 
@@ -305,6 +436,7 @@ public class P2PService {
             @Override
             public void onPeerListUpdated(List<PeerInfo> peers) {
                 System.out.println("📋 Cập nhật danh sách " + peers.size() + " peer(s) từ Internet");
+                bootstrapDht(peers);
             }
             
             @Override
@@ -343,6 +475,8 @@ public class P2PService {
 
             // ⭐ BƯỚC 2: Start FileSearchService
             System.out.println("\n[2/5] Khởi động FileSearchService (TLS)...");
+            openCatalogSnapshot();
+            loadExcludedFiles();
             fileSearchService.start();
             System.out.println("✓ FileSearchService (TLS) đã khởi động");
             
@@ -356,6 +490,40 @@ public class P2PService {
             previewService.start();
             System.out.println("✓ PreviewService đã khởi động trên port: " + previewService.getPreviewPort());
 
+            // Hash index: nạp nền + sweep định kỳ loại bỏ entry của file đã xóa/thay đổi
+            hashIndex.loadInBackground();
+            hashIndex.startBackgroundSweep(HASH_INDEX_SWEEP_MINUTES);
+            
+            try {
+                directoryWatcher.start();
+            } catch (IOException e) {
+                System.err.println("⚠ Không thể theo dõi thư mục chia sẻ: " + e.getMessage());
+            }
+            restoreCatalogInBackground();
+            startCatalogSnapshots();
+
+            // Local transport cho peer cùng máy (không bắt buộc, lỗi thì chỉ dùng TLS)
+            try {
+                localTransportService.start();
+            } catch (IOException | UnsupportedOperationException e) {
+                System.err.println("⚠ Không thể mở local transport: " + e.getMessage());
+            }
+
+            // DHT (không bắt buộc, lỗi thì tìm provider bằng search như trước)
+            dhtExecutor = new ThreadPoolExecutor(DHT_THREADS, DHT_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "dht-lookup");
+                    t.setDaemon(true);
+                    return t;
+                });
+            dhtExecutor.allowCoreThreadTimeOut(true);
+            try {
+                dhtTransport.start(dht);
+                dht.start();
+            } catch (IOException e) {
+                System.err.println("⚠ Không thể mở cổng DHT: " + e.getMessage());
+            }
+
             // ⭐ BƯỚC 4: Start PeerDiscovery NHƯNG CHƯA GỬI JOIN
             System.out.println("\n[4/5] Khởi động PeerDiscovery (TLS + Signatures, chế độ lắng nghe)...");
             peerDiscovery.start(false);  // ← false = không gửi JOIN ngay
@@ -408,6 +576,25 @@ public class P2PService {
         pinCodeService.stop();
         previewService.stop();  // UltraView
         chunkedTransferService.stop();  // Chunked transfer
+        localTransportService.stop();
+        if (dhtExecutor != null) dhtExecutor.shutdownNow();
+        pendingDhtSeeds.set(null);
+        dht.stop();
+        dhtTransport.stop();
+        for (DirectoryShareTask task : shareTasks) {
+            task.cancel();
+        }
+        List<DirectoryShareTask> rescans;
+        synchronized (rescanTasks) {
+            rescanRequested.clear();
+            rescans = new ArrayList<>(rescanTasks.values());
+        }
+        for (DirectoryShareTask task : rescans) {
+            task.cancel();
+        }
+        stopCatalogSnapshots();
+        directoryWatcher.stop();
+        hashIndex.close();
         fileSearchService.stop();
         peerDiscovery.stop();
 
@@ -416,6 +603,63 @@ public class P2PService {
         notifyServiceStopped();
     }
 
+    /**
+     * Tìm các peer đang chia sẻ file có SHA-256 này qua DHT (chặn đến khi lookup xong)
+     *
+     * @return Provider tìm được (không gồm chính mình), rỗng nếu hash không hợp lệ / không ai có
+     */
+    public List<PeerInfo> findProvidersInDht(String fileHash) {
+        byte[] key = KademliaDht.keyFor(fileHash);
+        List<PeerInfo> providers = new ArrayList<>();
+        if (key == null) return providers;
+
+        KademliaDht.LookupResult result = dht.findProviders(key, KademliaDht.K);
+        for (DhtContact provider : result.getProviders()) {
+            if (!provider.getPeerId().equals(localPeer.getPeerId())) providers.add(provider.toPeerInfo());
+        }
+        System.out.println("🧭 DHT: " + providers.size() + " provider cho " + fileHash.substring(0, 12) + "... ("
+            + result.getRounds() + " vòng, " + result.getRpcs() + " RPC, " + result.getElapsedMicros() / 1000 + "ms)");
+        return providers;
+    }
+
+    /**
+     * DHT (routing table, số lookup / RPC)
+     */
+    public KademliaDht getDht() {
+        return dht;
+    }
+
+    private static DhtContact dhtContactFor(PeerInfo peer) {
+        return new DhtContact(KademliaDht.nodeIdFor(peer.getPeerId()), peer.getPeerId(), peer.getIpAddress(),
+            TlsDhtTransport.DHT_PORT, peer.getPort(), peer.getDisplayName());
+    }
+
+    /**
+     * Gia nhập DHT qua các peer signaling server trả về (trên dhtExecutor, lookup có RPC mạng)
+     *
+     * Cập nhật đến trong lúc đang bootstrap được gộp: chỉ lần mới nhất được dùng, tối đa một
+     * lượt bootstrap chờ trong hàng.
+     */
+    private void bootstrapDht(List<PeerInfo> peers) {
+        List<DhtContact> seeds = new ArrayList<>();
+        for (PeerInfo peer : peers) {
+            if (!peer.getPeerId().equals(localPeer.getPeerId())) seeds.add(dhtContactFor(peer));
+        }
+        if (seeds.isEmpty() || !running) return;
+        if (pendingDhtSeeds.getAndSet(seeds) != null) return;   // Lượt đã xếp hàng sẽ lấy danh sách này
+        try {
+            dhtExecutor.execute(() -> {
+                List<DhtContact> latest = pendingDhtSeeds.getAndSet(null);
+                if (latest == null) return;
+                KademliaDht.LookupResult result = dht.bootstrap(latest);
+                System.out.println("🧭 Đã gia nhập DHT: " + dht.getContactCount() + " contact (" + result.getRounds()
+                    + " vòng)");
+            });
+        } catch (RejectedExecutionException e) {
+            pendingDhtSeeds.set(null);
+        }
+    }
+
     /**
      * Lấy port thực tế đang sử dụng (sau khi được auto-assign)
      */
@@ -434,32 +678,92 @@ public class P2PService {
             return;
         }
 
+        // Người dùng chia sẻ lại file đã bỏ: watcher / rescan theo dõi lại
+        if (directoryWatcher.include(file)) saveExcludedFiles();
+        try {
+            shareFile(file, shareIoPermits);
+        } catch (IOException e) {
+            System.err.println("❌ Lỗi khi tính hash: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Chia sẻ một file: dùng hash từ index nếu file chưa đổi, không thì đọc file một lần
+     *
+     * @param ioPermits Giới hạn số lượt đọc đĩa đồng thời (null = không giới hạn); một permit
+     *                  được giữ cho mọi lần đọc file này (hash + preview)
+     * @return Số byte đã đọc từ đĩa
+     */
+    private long shareFile(File file, Semaphore ioPermits) throws IOException {
+        // Thuộc tính đọc TRƯỚC khi hash: file đổi trong lúc hash sẽ không khớp index lần sau
+        BasicFileAttributes attrs = FileHashIndex.readAttributes(file);
+        FileHashIndex.Entry indexed = hashIndex.lookup(file);
+        
+        String fileHash;
+        String md5Checksum;
+        String treeHash = null;
+        long fileSize;
+        long bytesRead = 0;
+        byte[] head = null;
+        boolean holdingPermit = false;     // Giữ đến khi đọc xong file (hash + preview)
+        boolean hasManifest = false;
+        FileInfo fileInfo;
+        
+        // Index hit nhưng chưa có leaf tree hash (index cũ / leaf bị dọn): đọc lại file một lần
+        boolean leavesStored = indexed != null 
+            && hashIndex.loadLeaves(indexed.getTreeHash(), indexed.getSize()) != null;
+        
         try {
-            // Tính SHA-256 hash cho file
-            System.out.println("🔐 Đang tính hash cho: " + file.getName() + "...");
-            String fileHash = FileHashUtil.calculateSHA256(file);
-            String md5Checksum = FileHashUtil.calculateMD5(file);
+            if (leavesStored) {
+                // File chưa đổi kể từ lần hash trước: không đọc nội dung
+                System.out.println("⚡ Dùng hash từ index cho: " + file.getName());
+                fileHash = indexed.getSha256();
+                md5Checksum = indexed.getMd5();
+                treeHash = indexed.getTreeHash();
+                fileSize = indexed.getSize();
+            } else {
+                // Đọc file một lần: SHA-256 + MD5 + leaf tree hash + phần đầu file cho preview
+                System.out.println("🔐 Đang tính hash cho: " + file.getName() + "...");
+                holdingPermit = acquireIoPermit(ioPermits);
+                FileIngestionPipeline.IngestionResult ingested = FileIngestionPipeline.ingest(file);
+                fileHash = ingested.getSha256();
+                md5Checksum = ingested.getMd5();
+                treeHash = ingested.getTree().getRoot();
+                fileSize = ingested.getFileSize();
+                head = ingested.getHead();
+                bytesRead = ingested.getFileSize();
+                hashIndex.saveLeaves(ingested.getTree());
+            }
             
             System.out.println("  ✓ SHA-256: " + fileHash.substring(0, 16) + "...");
             System.out.println("  ✓ MD5: " + md5Checksum.substring(0, 16) + "...");
+            System.out.println("  ✓ Tree hash: " + treeHash.substring(0, 16) + "...");
             
             // Tạo FileInfo với hash
-            FileInfo fileInfo = new FileInfo(
+            fileInfo = new FileInfo(
                     file.getName(),
-                    file.length(),
+                    fileSize,
                     file.getAbsolutePath(),
                     md5Checksum,
                     localPeer.getPeerId()
             );
             fileInfo.setFileHash(fileHash);
-
-            fileSearchService.addSharedFile(file.getParent(), fileInfo);
+            fileInfo.setTreeHash(treeHash);
+            fileInfo.setLastModified(attrs.lastModifiedTime().toMillis());
             
-            // UltraView: Tạo preview manifest (từ file gốc, TRƯỚC khi mã hóa)
+            // UltraView: preview manifest (từ file gốc, TRƯỚC khi mã hóa). Index hit: nạp manifest
+            // đã lưu theo manifestRef, không đọc file; chỉ sinh lại khi nội dung đổi / chưa từng lưu
             try {
-                System.out.println("  📸 Đang tạo preview từ file gốc...");
-                // Force regenerate để áp dụng code mới (xóa cache cũ)
-                PreviewManifest manifest = previewCacheService.getOrCreateManifest(file, true);
+                PreviewManifest manifest = null;
+                if (indexed != null && indexed.getManifestRef() != null) {
+                    manifest = previewCacheService.loadManifest(indexed.getManifestRef(), file);
+                }
+                if (manifest == null) {
+                    System.out.println("  📸 Đang tạo preview từ file gốc...");
+                    if (!holdingPermit) holdingPermit = acquireIoPermit(ioPermits);
+                    manifest = previewCacheService.getOrCreateManifest(file, indexed == null, fileHash, head);
+                }
+                hasManifest = manifest != null;
                 if (manifest != null) {
                     System.out.println("  ✓ Preview manifest đã tạo (chứa: " + manifest.getAvailableTypes() + ")");
                     System.out.println("  💡 Preview sẽ được gửi đến client mà KHÔNG cần giải mã");
@@ -467,16 +771,46 @@ public class P2PService {
             } catch (Exception e) {
                 System.err.println("  ⚠️ Không thể tạo preview: " + e.getMessage());
             }
-            
-            System.out.println("✅ Đã thêm file chia sẻ: " + file.getName());
-            
-        } catch (IOException e) {
-            System.err.println("❌ Lỗi khi tính hash: " + e.getMessage());
+        } finally {
+            if (holdingPermit) ioPermits.release();
+        }
+        
+        // Manifest đã sẵn sàng TRƯỚC khi file xuất hiện trong catalog; bản cũ (nếu file
+        // vừa bị sửa) được thay trong một bước rồi mới bỏ preview của nội dung cũ
+        FileInfo previous = fileSearchService.addSharedFile(file.getParent(), fileInfo);
+        if (previous != null) {
+            evictPreviewIfUnused(previous.getFileHash());
+        }
+        
+        if (!leavesStored || hasManifest != (indexed.getManifestRef() != null)) {
+            hashIndex.put(file, attrs, fileHash, md5Checksum, hasManifest, treeHash);
+        }
+        
+        System.out.println("✅ Đã thêm file chia sẻ: " + file.getName());
+        return bytesRead;
+    }
+    
+    /**
+     * Chờ một lượt đọc đĩa
+     *
+     * @return true nếu đã lấy permit (phải release), false nếu không giới hạn
+     */
+    private static boolean acquireIoPermit(Semaphore ioPermits) throws InterruptedIOException {
+        if (ioPermits == null) return false;
+        try {
+            ioPermits.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Đã hủy chia sẻ");
         }
     }
     
     /**
      * Xóa file khỏi danh sách chia sẻ
+     * 
+     * File nằm trong thư mục đang chia sẻ không bị watcher / rescan thêm lại
+     * cho tới khi người dùng chia sẻ lại.
      *
      * @param fileInfo File cần xóa
      */
@@ -484,33 +818,389 @@ public class P2PService {
         if (fileInfo == null) return;
         
         File file = new File(fileInfo.getFilePath());
+        if (isUnderSharedDirectory(file) && directoryWatcher.exclude(file)) saveExcludedFiles();
         fileSearchService.removeSharedFile(file.getParent(), fileInfo.getFileName());
         System.out.println("🗑️ Đã xóa file khỏi chia sẻ: " + fileInfo.getFileName());
     }
 
+    // ========== Theo dõi thay đổi (SharedDirectoryWatcher) ==========
+    
+    /**
+     * File trong thư mục chia sẻ vừa được tạo/sửa: hash lại nếu nội dung đổi
+     * (hash index bỏ qua file chỉ bị touch mà không đổi size/mtime)
+     */
+    private void reindexFile(File file) {
+        try {
+            shareFile(file, shareIoPermits);
+        } catch (IOException e) {
+            // File đang bị ghi dở / bị khóa: lần sự kiện sau sẽ thử lại
+            System.err.println("⚠ Không thể hash lại " + file.getName() + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * File hoặc thư mục bị xóa / đổi tên: bỏ khỏi catalog, index và preview cache
+     */
+    private void unsharePath(File path) {
+        List<FileInfo> removed = fileSearchService.removeSharedFilesUnder(path.getAbsolutePath());
+        for (FileInfo fileInfo : removed) {
+            hashIndex.remove(fileInfo.getFilePath());
+            evictPreviewIfUnused(fileInfo.getFileHash());
+        }
+        if (!removed.isEmpty()) {
+            System.out.println("🗑️ Đã bỏ chia sẻ " + removed.size() + " file đã bị xóa: " + path.getName());
+        }
+    }
+    
+    /**
+     * Quét lại thư mục (mất sự kiện / thư mục con mới): file chưa đổi dùng hash từ index
+     * 
+     * Chạy nền trên pool chia sẻ chung, không chặn thread của watcher. Yêu cầu quét cùng thư mục
+     * trong lúc đang quét được gộp thành một lượt quét lại khi lượt hiện tại xong.
+     *
+     * @return Task đang quét, null nếu đã có lượt quét (yêu cầu được gộp)
+     */
+    private DirectoryShareTask rescanDirectory(File root, boolean recursive) {
+        String key = root.getAbsolutePath();
+        DirectoryShareTask task;
+        synchronized (rescanTasks) {
+            if (rescanTasks.containsKey(key)) {
+                rescanRequested.add(key);
+                return null;
+            }
+            task = new DirectoryShareTask(root, recursive, shareSmallFilePool, shareLargeFilePool, 
+                shareIoPermits, this::shareFileIfChanged, null, progress -> finishRescan(key, root, recursive));
+            rescanTasks.put(key, task);
+        }
+        
+        // File đã biến mất trong lúc không nhận được sự kiện
+        for (String path : fileSearchService.getSharedFilePathsUnder(key)) {
+            if (!new File(path).isFile()) {
+                unsharePath(new File(path));
+            }
+        }
+        return task.start();
+    }
+    
+    private void finishRescan(String key, File root, boolean recursive) {
+        synchronized (rescanTasks) {
+            rescanTasks.remove(key);
+            if (!rescanRequested.remove(key) || !running) return;
+        }
+        rescanDirectory(root, recursive);
+    }
+    
+    /**
+     * Như shareFile nhưng bỏ qua file đã có trong catalog với đúng hash của index (không đổi từ lần trước)
+     * và file người dùng đã bỏ chia sẻ
+     */
+    private long shareFileIfChanged(File file, Semaphore ioPermits) throws IOException {
+        if (directoryWatcher.isExcluded(file)) return 0;
+        FileHashIndex.Entry indexed = hashIndex.lookup(file);
+        FileInfo shared = fileSearchService.findSharedFileByPath(file.getAbsolutePath());
+        if (indexed != null && shared != null && indexed.getSha256().equals(shared.getFileHash())) {
+            return 0;
+        }
+        return shareFile(file, ioPermits);
+    }
+    
+    // ========== Catalog snapshot ==========
+    
+    /**
+     * Map snapshot của lần chạy trước: search được trả lời ngay, trước khi catalog nạp xong
+     */
+    private void openCatalogSnapshot() {
+        long start = System.nanoTime();
+        CatalogSnapshot snapshot = CatalogSnapshot.open(catalogSnapshotFile, localPeer.getPeerId());
+        if (snapshot == null) return;
+        
+        fileSearchService.attachSnapshot(snapshot);
+        for (CatalogSnapshot.Root root : snapshot.getRoots()) {
+            sharedDirectories.put(root.getPath(), root.isRecursive());
+        }
+        System.out.println("✓ Catalog snapshot: " + snapshot.size() + " file, " + snapshot.getRoots().size() 
+            + " thư mục (" + (System.nanoTime() - start) / 1_000_000 + "ms)");
+    }
+    
+    /**
+     * Nạp snapshot vào catalog, theo dõi lại các thư mục và quét thay đổi lúc ứng dụng tắt
+     * (file chưa đổi chỉ tốn một lần stat + tra hash index)
+     */
+    private void restoreCatalogInBackground() {
+        Thread restorer = new Thread(() -> {
+            if (fileSearchService.isSnapshotPending()) {
+                long start = System.currentTimeMillis();
+                int loaded = fileSearchService.loadSnapshot();
+                System.out.println("✓ Đã nạp " + loaded + " file chia sẻ từ snapshot (" 
+                    + (System.currentTimeMillis() - start) + "ms)");
+                notifyCatalogRestored(loaded);
+                
+                verifyRestoredFiles();
+                for (Map.Entry<String, Boolean> root : sharedDirectories.entrySet()) {
+                    File directory = new File(root.getKey());
+                    if (!directory.isDirectory()) {
+                        sharedDirectories.remove(root.getKey());
+                        unsharePath(directory);
+                        continue;
+                    }
+                    directoryWatcher.watch(directory, root.getValue());
+                    // Quét từng thư mục một (ưu tiên thấp lúc khởi động), nhưng không chờ vô hạn
+                    DirectoryShareTask task = rescanDirectory(directory, root.getValue());
+                    try {
+                        if (task != null && !task.await(RESTORE_RESCAN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                            System.out.println("⏳ Quét lại " + directory.getName() + " vẫn chạy nền, tiếp tục");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }, "catalog-restore");
+        restorer.setDaemon(true);
+        restorer.setPriority(Thread.MIN_PRIORITY);
+        restorer.start();
+    }
+    
+    /**
+     * File chia sẻ lẻ (không thuộc thư mục gốc nào, nên không được rescan): bỏ file đã xóa,
+     * hash lại file có size / mtime khác snapshot
+     */
+    private void verifyRestoredFiles() {
+        int removed = 0;
+        int changed = 0;
+        for (FileInfo fileInfo : fileSearchService.getAllSharedFiles()) {
+            File file = new File(fileInfo.getFilePath());
+            if (isUnderSharedDirectory(file)) continue;
+            
+            if (!file.isFile()) {
+                unsharePath(file);
+                removed++;
+                continue;
+            }
+            boolean modified = fileInfo.getLastModified() > 0 && file.lastModified() != fileInfo.getLastModified();
+            if (modified || file.length() != fileInfo.getFileSize()) {
+                changed++;
+                try {
+                    shareSmallFilePool.execute(() -> reindexFile(file));
+                } catch (RejectedExecutionException e) {
+                    return;
+                }
+            }
+        }
+        if (removed > 0 || changed > 0) {
+            System.out.println("🔎 File chia sẻ lẻ: bỏ " + removed + " file đã xóa, hash lại " + changed + " file đã sửa");
+        }
+    }
+    
+    /**
+     * File nằm trong một thư mục gốc đang chia sẻ (được watcher / rescan quản lý)
+     */
+    private boolean isUnderSharedDirectory(File file) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        for (Map.Entry<String, Boolean> root : sharedDirectories.entrySet()) {
+            File directory = new File(root.getKey());
+            if (directory.equals(parent)) return true;
+            if (root.getValue() && file.getAbsolutePath().startsWith(directory.getPath() + File.separator)) return true;
+        }
+        return false;
+    }
+    
+    private void loadExcludedFiles() {
+        if (!Files.isRegularFile(excludedFilesFile)) return;
+        try {
+            List<String> paths = Files.readAllLines(excludedFilesFile, StandardCharsets.UTF_8);
+            for (String path : paths) {
+                if (!path.isBlank()) directoryWatcher.exclude(new File(path));
+            }
+        } catch (IOException e) {
+            System.err.println("⚠ Không thể đọc danh sách file bỏ chia sẻ: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Lưu danh sách file bỏ chia sẻ (ghi file tạm rồi đổi tên)
+     */
+    private synchronized void saveExcludedFiles() {
+        try {
+            Files.createDirectories(excludedFilesFile.getParent());
+            Path temp = excludedFilesFile.resolveSibling(excludedFilesFile.getFileName() + ".tmp");
+            Files.write(temp, directoryWatcher.getExcludedPaths(), StandardCharsets.UTF_8);
+            Files.move(temp, excludedFilesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("⚠ Không thể lưu danh sách file bỏ chia sẻ: " + e.getMessage());
+        }
+    }
+    
+    private synchronized void startCatalogSnapshots() {
+        if (catalogSnapshotExecutor != null) return;
+        catalogSnapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        catalogSnapshotExecutor.scheduleWithFixedDelay(this::saveCatalogSnapshot, 
+            CATALOG_SNAPSHOT_INTERVAL_SECONDS, CATALOG_SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    private synchronized void stopCatalogSnapshots() {
+        if (catalogSnapshotExecutor != null) {
+            catalogSnapshotExecutor.shutdownNow();
+            catalogSnapshotExecutor = null;
+        }
+        saveCatalogSnapshot();
+    }
+    
+    /**
+     * Ghi snapshot nếu catalog đã đổi (bỏ qua khi catalog còn đang nạp từ snapshot cũ)
+     */
+    private void saveCatalogSnapshot() {
+        if (!catalogDirty || fileSearchService.isSnapshotPending()) return;
+        catalogDirty = false;
+        try {
+            long start = System.currentTimeMillis();
+            int written = CatalogSnapshot.write(catalogSnapshotFile, fileSearchService.getCatalog(), 
+                sharedDirectories);
+            System.out.println("💾 Đã lưu catalog snapshot: " + written + " file (" 
+                + (System.currentTimeMillis() - start) + "ms)");
+        } catch (IOException e) {
+            catalogDirty = true;
+            System.err.println("⚠ Không thể lưu catalog snapshot: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Bỏ preview của nội dung cũ nếu không còn file chia sẻ nào cùng hash
+     */
+    private void evictPreviewIfUnused(String fileHash) {
+        if (fileHash != null && fileSearchService.findSharedFileByHash(fileHash) == null) {
+            previewCacheService.removeCache(fileHash);
+        }
+    }
+    
+    /**
+     * Change feed của catalog (cho peer khác / cache hỏi thay đổi theo version)
+     */
+    public CatalogChangeFeed getCatalogChangeFeed() {
+        return fileSearchService.getChangeFeed();
+    }
+
     /**
-     * Thêm thư mục để chia sẻ (tất cả file trong thư mục)
+     * Thêm thư mục để chia sẻ (đệ quy, chạy nền)
      *
      * @param directory Thư mục cần chia sẻ
+     * @return Task để theo dõi tiến độ / hủy, null nếu thư mục không hợp lệ
      */
-    public void addSharedDirectory(File directory) {
+    public DirectoryShareTask addSharedDirectory(File directory) {
+        return addSharedDirectory(directory, true);
+    }
+
+    /**
+     * Thêm thư mục để chia sẻ
+     *
+     * Duyệt cây bằng Files.walkFileTree, hash song song trên pool có giới hạn
+     * (shareCpuThreads thread hash, shareIoConcurrency lượt đọc đĩa đồng thời).
+     * Tiến độ được báo qua P2PServiceListener.onShareProgress / onShareComplete.
+     *
+     * @param directory Thư mục cần chia sẻ
+     * @param recursive true = cả thư mục con
+     * @return Task để theo dõi tiến độ / hủy, null nếu thư mục không hợp lệ
+     */
+    public DirectoryShareTask addSharedDirectory(File directory, boolean recursive) {
         if (!directory.exists() || !directory.isDirectory()) {
             System.err.println("❌ Thư mục không tồn tại: " + directory.getAbsolutePath());
-            return;
+            return null;
         }
 
-        File[] files = directory.listFiles();
-        if (files == null) return;
+        System.out.println("📂 Bắt đầu chia sẻ thư mục: " + directory.getAbsolutePath() + 
+            " (CPU: " + shareCpuThreads + ", I/O: " + shareIoConcurrency + ")");
 
-        int count = 0;
-        for (File file : files) {
-            if (file.isFile()) {
-                addSharedFile(file);
-                count++;
+        // Theo dõi TRƯỚC khi duyệt để không bỏ lỡ thay đổi trong lúc hash
+        if (directoryWatcher.includeUnder(directory)) saveExcludedFiles();
+        directoryWatcher.watch(directory, recursive);
+        sharedDirectories.put(directory.getAbsolutePath(), recursive);
+        catalogDirty = true;
+        
+        DirectoryShareTask[] holder = new DirectoryShareTask[1];
+        DirectoryShareTask task = new DirectoryShareTask(directory, recursive, shareSmallFilePool, 
+            shareLargeFilePool, shareIoPermits, this::shareFile, this::notifyShareProgress, progress -> {
+                shareTasks.remove(holder[0]);
+                notifyShareComplete(progress);
+            });
+        holder[0] = task;
+        shareTasks.add(task);
+        return task.start();
+    }
+
+    /**
+     * Bỏ chia sẻ một thư mục gốc: ngừng theo dõi, hủy lượt chia sẻ / quét lại đang chạy và
+     * bỏ các file bên trong khỏi catalog (trừ file vẫn thuộc thư mục gốc khác đang chia sẻ)
+     *
+     * @param directory Thư mục đã chia sẻ bằng addSharedDirectory
+     * @return Số file đã bỏ chia sẻ
+     */
+    public int removeSharedDirectory(File directory) {
+        String key = directory.getAbsolutePath();
+        if (sharedDirectories.remove(key) == null) return 0;
+        catalogDirty = true;
+        directoryWatcher.unwatch(directory);
+        
+        for (DirectoryShareTask task : shareTasks) {
+            if (task.getProgress().getDirectory().getAbsolutePath().equals(key)) task.cancel();
+        }
+        DirectoryShareTask rescan;
+        synchronized (rescanTasks) {
+            rescanRequested.remove(key);
+            rescan = rescanTasks.get(key);
+        }
+        if (rescan != null) rescan.cancel();
+        
+        int removed = 0;
+        for (String path : fileSearchService.getSharedFilePathsUnder(key)) {
+            File file = new File(path);
+            if (isUnderSharedDirectory(file)) continue;
+            for (FileInfo fileInfo : fileSearchService.removeSharedFilesUnder(path)) {
+                evictPreviewIfUnused(fileInfo.getFileHash());
+                removed++;
             }
         }
+        // Exclude bên trong thư mục không còn ý nghĩa khi thư mục không còn chia sẻ
+        if (directoryWatcher.includeUnder(directory)) saveExcludedFiles();
+        
+        System.out.println("📁 Đã bỏ chia sẻ thư mục " + directory.getName() + ": " + removed + " file");
+        return removed;
+    }
+
+    /**
+     * Các thư mục gốc đang chia sẻ (đường dẫn -> đệ quy)
+     */
+    public Map<String, Boolean> getSharedDirectories() {
+        return Collections.unmodifiableMap(sharedDirectories);
+    }
 
-        System.out.println("✓ Đã thêm " + count + " file từ thư mục: " + directory.getName());
+    /**
+     * Cấu hình song song khi chia sẻ thư mục (chung cho mọi thư mục đang chia sẻ)
+     *
+     * @param cpuThreads Số thread hash (mặc định = số core)
+     * @param ioConcurrency Số lượt đọc đĩa đồng thời (HDD nên để 1-2, SSD có thể = số core);
+     *                      file đang đọc giữ permit cũ đến khi xong
+     */
+    public synchronized void setShareConcurrency(int cpuThreads, int ioConcurrency) {
+        this.shareCpuThreads = Math.max(1, cpuThreads);
+        this.shareIoConcurrency = Math.max(1, ioConcurrency);
+        resizePool(shareSmallFilePool, shareCpuThreads);
+        resizePool(shareLargeFilePool, Math.max(1, shareCpuThreads / 2));
+        this.shareIoPermits = new Semaphore(shareIoConcurrency, true);
+    }
+    
+    private static void resizePool(ThreadPoolExecutor pool, int threads) {
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
     }
 
     /**
@@ -519,6 +1209,17 @@ public class P2PService {
      * @param query Từ khóa tìm kiếm
      */
     public void searchFile(String query) {
+        searchFile(query, 0, FileSearchService.SEARCH_TIMEOUT);
+    }
+
+    /**
+     * Tìm kiếm file với deadline riêng; kết thúc sớm khi mọi peer đã trả lời hoặc đủ maxResults file
+     *
+     * @param query         Từ khóa tìm kiếm
+     * @param maxResults    Số file đủ dùng (0 = không giới hạn)
+     * @param timeoutMillis Deadline của lần tìm kiếm
+     */
+    public void searchFile(String query, int maxResults, long timeoutMillis) {
         if (!running) {
             System.err.println("❌ P2P Service chưa khởi động");
             return;
@@ -529,7 +1230,48 @@ public class P2PService {
             return;
         }
 
-        fileSearchService.searchFile(query.trim(), new FileSearchService.SearchResultCallback() {
+        FileSearchService.SearchResultCallback callback = new FileSearchService.SearchResultCallback() {
+            @Override
+            public void onSearchResult(SearchResponse response) {
+                notifySearchResult(response);
+            }
+
+            @Override
+            public void onSearchComplete() {
+                notifySearchComplete();
+            }
+        };
+        
+        // hash:<sha256> ở chế độ Internet: hỏi provider tìm qua DHT thay vì mọi peer signaling trả về
+        // (lookup chạy nền; không có provider / DHT trống thì tìm như thường)
+        String fileHash = SearchQuery.parse(query.trim()).getFileHash();
+        if (fileHash != null && !isP2POnlyMode() && dht.getContactCount() > 0) {
+            long startedAt = System.currentTimeMillis();
+            try {
+                dhtExecutor.execute(() -> {
+                    List<PeerInfo> providers = findProvidersInDht(fileHash);
+                    long remaining = Math.max(1, timeoutMillis - (System.currentTimeMillis() - startedAt));
+                    fileSearchService.searchFile(query.trim(), maxResults, remaining,
+                        providers.isEmpty() ? null : providers, callback);
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // Đang dừng: tìm như thường
+            }
+        }
+        fileSearchService.searchFile(query.trim(), maxResults, timeoutMillis, callback);
+    }
+
+    /**
+     * Tải thêm kết quả (sau limit) từ peer đã trả trang cuối có continuation token
+     *
+     * @param query    Query của lần tìm kiếm đó
+     * @param lastPage Trang cuối nhận từ peer
+     */
+    public void loadMoreResults(String query, SearchResponse lastPage) {
+        if (!running || query == null || lastPage == null) return;
+
+        fileSearchService.loadMore(query.trim(), lastPage, new FileSearchService.SearchResultCallback() {
             @Override
             public void onSearchResult(SearchResponse response) {
                 notifySearchResult(response);
@@ -565,6 +1307,16 @@ public class P2PService {
     public TransferState downloadFileChunked(PeerInfo peer, FileInfo fileInfo, 
                                              String saveDirectory, 
                                              ChunkedFileTransferService.ChunkedTransferListener listener) {
+        return downloadFileChunked(peer, fileInfo, saveDirectory, 
+            TransferState.ChunkSelectionPolicy.SEQUENTIAL, listener);
+    }
+    
+    /**
+     * Download file với chiến lược chọn chunk (sequential / rarest-first / random)
+     */
+    public TransferState downloadFileChunked(PeerInfo peer, FileInfo fileInfo, String saveDirectory,
+                                             TransferState.ChunkSelectionPolicy policy,
+                                             ChunkedFileTransferService.ChunkedTransferListener listener) {
         if (!running) {
             System.err.println("❌ P2P Service chưa khởi động");
             return null;
@@ -609,7 +1361,7 @@ public class P2PService {
                 }
             };
         
-        return chunkedTransferService.downloadFile(peer, fileInfo, saveDirectory, wrapperListener);
+        return chunkedTransferService.downloadFile(peer, fileInfo, saveDirectory, policy, wrapperListener);
     }
     
     /**
@@ -779,6 +1531,49 @@ public class P2PService {
         return fileSearchService.getSharedFileCount();
     }
 
+    /**
+     * Bộ đếm search (fan-out, tỉ lệ bỏ qua / dương tính giả của content summary)
+     */
+    public SearchMetrics getSearchMetrics() {
+        return fileSearchService.getMetrics();
+    }
+
+    /**
+     * Cache kết quả search theo (query, peer) - hit rate, số round trip tiết kiệm
+     */
+    public SearchResultCache getSearchResultCache() {
+        return fileSearchService.getResultCache();
+    }
+
+    /**
+     * Giới hạn tốc độ / bỏ tải trên cổng search (số request bị bỏ, gợi ý retry-after đã gửi)
+     */
+    public SearchAdmission getSearchAdmission() {
+        return fileSearchService.getAdmission();
+    }
+
+    /**
+     * Cache xếp hạng local cho query bị flood trùng từ nhiều origin
+     */
+    public QueryRankingCache getQueryRankingCache() {
+        return fileSearchService.getRankingCache();
+    }
+
+    /**
+     * Bật / tắt sao chép catalog của peer LAN: search trả lời từ bản sao cập nhật bằng change feed
+     * thay vì gửi request tới từng peer (mặc định tắt)
+     */
+    public void setCatalogReplicationEnabled(boolean enabled) {
+        fileSearchService.setCatalogReplicationEnabled(enabled);
+    }
+
+    /**
+     * Bản sao catalog (số peer / file, thay đổi đã áp dụng), null nếu tắt
+     */
+    public CatalogReplicator getCatalogReplicator() {
+        return fileSearchService.getReplicator();
+    }
+
     /**
      * Lấy thông tin local peer
      */
@@ -905,6 +1700,46 @@ public class P2PService {
         }
     }
 
+    private void notifyCatalogRestored(int fileCount) {
+        for (P2PServiceListener listener : listeners) {
+            try {
+                listener.onCatalogRestored(fileCount);
+            } catch (Exception e) {
+                System.err.println("Lỗi trong listener: " + e.getMessage());
+            }
+        }
+    }
+
+    private void notifyCatalogChanged(CatalogChange change) {
+        for (P2PServiceListener listener : listeners) {
+            try {
+                listener.onCatalogChanged(change);
+            } catch (Exception e) {
+                System.err.println("Lỗi trong listener: " + e.getMessage());
+            }
+        }
+    }
+
+    private void notifyShareProgress(DirectoryShareTask.Progress progress) {
+        for (P2PServiceListener listener : listeners) {
+            try {
+                listener.onShareProgress(progress);
+            } catch (Exception e) {
+                System.err.println("Lỗi trong listener: " + e.getMessage());
+            }
+        }
+    }
+
+    private void notifyShareComplete(DirectoryShareTask.Progress progress) {
+        for (P2PServiceListener listener : listeners) {
+            try {
+                listener.onShareComplete(progress);
+            } catch (Exception e) {
+                System.err.println("Lỗi trong listener: " + e.getMessage());
+            }
+        }
+    }
+
     private void notifySearchComplete() {
         for (P2PServiceListener listener : listeners) {
             try {
@@ -1,17 +1,23 @@
 package org.example.p2psharefile.service;
 
+import org.example.p2psharefile.model.InlinePreview;
 import org.example.p2psharefile.model.PreviewContent;
 import org.example.p2psharefile.model.PreviewManifest;
 import org.example.p2psharefile.security.SecurityManager;
 
-import java.io.File;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * PreviewCacheService - Quản lý cache preview content
  * 
- * Cache preview để tránh phải sinh lại mỗi lần request
+ * Cache preview để tránh phải sinh lại mỗi lần request.
+ * Manifest còn được lưu xuống đĩa theo SHA-256 (manifestRef trong FileHashIndex): file chưa đổi
+ * khi khởi động lại nạp manifest từ đĩa, không đọc lại nội dung file.
  */
 public class PreviewCacheService {
     
@@ -26,10 +32,61 @@ public class PreviewCacheService {
     
     private final String ownerPeerId;
     private final SecurityManager securityManager;  // Để ký manifest
+    private final Path manifestDir;                 // <sha256>.manifest (null = chỉ trong bộ nhớ)
     
     public PreviewCacheService(String ownerPeerId, SecurityManager securityManager) {
+        this(ownerPeerId, securityManager, null);
+    }
+    
+    public PreviewCacheService(String ownerPeerId, SecurityManager securityManager, Path manifestDir) {
         this.ownerPeerId = ownerPeerId;
         this.securityManager = securityManager;
+        this.manifestDir = manifestDir;
+    }
+    
+    /**
+     * Nạp manifest đã sinh trước đó theo manifestRef (SHA-256) - không đọc nội dung file
+     * 
+     * @param file File hiện tại có nội dung đó (để sinh preview content khi được hỏi)
+     * @return null nếu chưa từng lưu manifest này (phải sinh lại)
+     */
+    public PreviewManifest loadManifest(String manifestRef, File file) {
+        PreviewManifest manifest = manifestCache.get(manifestRef);
+        if (manifest == null && manifestDir != null) {
+            Path path = manifestDir.resolve(manifestRef + ".manifest");
+            if (Files.isRegularFile(path)) {
+                try (ObjectInputStream in = new ObjectInputStream(
+                        new BufferedInputStream(Files.newInputStream(path)))) {
+                    Object stored = in.readObject();
+                    if (stored instanceof PreviewManifest 
+                            && manifestRef.equals(((PreviewManifest) stored).getFileHash())) {
+                        manifest = (PreviewManifest) stored;
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    System.err.println("⚠ Manifest trên đĩa bị hỏng, sẽ sinh lại: " + e.getMessage());
+                }
+            }
+        }
+        if (manifest == null) return null;
+        manifestCache.put(manifestRef, manifest);
+        fileCache.put(manifestRef, file);
+        return manifest;
+    }
+    
+    private void saveManifest(PreviewManifest manifest) {
+        if (manifestDir == null) return;
+        try {
+            Files.createDirectories(manifestDir);
+            Path path = manifestDir.resolve(manifest.getFileHash() + ".manifest");
+            Path temp = manifestDir.resolve(manifest.getFileHash() + ".manifest.tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeObject(manifest);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("⚠ Không thể lưu manifest: " + e.getMessage());
+        }
     }
     
     /**
@@ -43,9 +100,18 @@ public class PreviewCacheService {
      * Lấy hoặc tạo manifest cho file với tùy chọn force regenerate
      */
     public PreviewManifest getOrCreateManifest(File file, boolean forceRegenerate) {
+        return getOrCreateManifest(file, forceRegenerate, null, null);
+    }
+    
+    /**
+     * Lấy hoặc tạo manifest với hash và phần đầu file đã có sẵn (từ FileIngestionPipeline),
+     * tránh đọc lại toàn bộ file
+     */
+    public PreviewManifest getOrCreateManifest(File file, boolean forceRegenerate, 
+                                               String knownHash, byte[] head) {
         try {
-            // Tính hash trước để kiểm tra cache
-            String fileHash = PreviewGenerator.calculateFileHash(file);
+            // Tính hash trước để kiểm tra cache (nếu chưa có)
+            String fileHash = knownHash != null ? knownHash : PreviewGenerator.calculateFileHash(file);
             
             // Kiểm tra cache (nếu không force regenerate)
             if (!forceRegenerate) {
@@ -61,7 +127,7 @@ public class PreviewCacheService {
             }
             
             // Sinh manifest mới
-            PreviewManifest manifest = PreviewGenerator.generateManifest(file, ownerPeerId);
+            PreviewManifest manifest = PreviewGenerator.generateManifest(file, ownerPeerId, fileHash, head);
             
             // Ký manifest để đảm bảo tính xác thực
             try {
@@ -75,6 +141,7 @@ public class PreviewCacheService {
             // Cache manifest và file
             manifestCache.put(fileHash, manifest);
             fileCache.put(fileHash, file);
+            saveManifest(manifest);
             
             System.out.println("✓ Đã tạo manifest cho: " + file.getName() + 
                              " (hash: " + fileHash.substring(0, 16) + "...)");
@@ -94,6 +161,13 @@ public class PreviewCacheService {
         return manifestCache.get(fileHash);
     }
     
+    /**
+     * Preview inline gửi kèm kết quả search, chỉ từ manifest đã có (không sinh mới)
+     */
+    public InlinePreview getInlinePreview(String fileHash) {
+        return InlinePreview.from(manifestCache.get(fileHash));
+    }
+    
     /**
      * Lấy hoặc tạo preview content
      */
@@ -142,6 +216,14 @@ public class PreviewCacheService {
         
         // Xóa tất cả content cache cho file này
         contentCache.keySet().removeIf(key -> key.startsWith(fileHash + "_"));
+        
+        if (manifestDir != null) {
+            try {
+                Files.deleteIfExists(manifestDir.resolve(fileHash + ".manifest"));
+            } catch (IOException e) {
+                System.err.println("⚠ Không thể xóa manifest: " + e.getMessage());
+            }
+        }
     }
     
     /**
@@ -1,9 +1,15 @@
 package org.example.p2psharefile.service;
 
+import org.example.p2psharefile.model.InlinePreview;
+import org.example.p2psharefile.model.MimeTypes;
 import org.example.p2psharefile.model.PreviewContent;
 import org.example.p2psharefile.model.PreviewManifest;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
@@ -40,6 +46,8 @@ import org.jaudiotagger.tag.FieldKey;
 public class PreviewGenerator {
     
     private static final int THUMBNAIL_SIZE = 200;              // Kích thước thumbnail (px)
+    private static final int[] MICRO_THUMBNAIL_SIZES = {32, 24, 16}; // Thử lần lượt đến khi vừa InlinePreview.MAX_THUMBNAIL_BYTES
+    private static final float MICRO_THUMBNAIL_QUALITY = 0.4f;
     private static final int MAX_SNIPPET_LINES = 10;            // Số dòng text snippet
     private static final int MAX_SNIPPET_LENGTH = 500;          // Max length của snippet (chars)
     private static final long MAX_PREVIEW_FILE_SIZE = 100 * 1024 * 1024; // 100MB - không sinh preview cho file quá lớn
@@ -78,17 +86,30 @@ public class PreviewGenerator {
      * @return PreviewManifest chứa thông tin preview
      */
     public static PreviewManifest generateManifest(File file, String ownerPeerId) throws Exception {
+        return generateManifest(file, ownerPeerId, null, null);
+    }
+    
+    /**
+     * Sinh manifest với hash và phần đầu file đã có sẵn (từ FileIngestionPipeline)
+     * 
+     * @param fileHash SHA-256 đã tính (null = tự tính)
+     * @param head Các byte đầu file cho text/generic preview (null = tự đọc file)
+     */
+    public static PreviewManifest generateManifest(File file, String ownerPeerId, 
+                                                   String fileHash, byte[] head) throws Exception {
         if (!file.exists() || !file.isFile()) {
             throw new FileNotFoundException("File không tồn tại: " + file.getAbsolutePath());
         }
         
         if (file.length() > MAX_PREVIEW_FILE_SIZE) {
             System.out.println("⚠️ File quá lớn để sinh preview: " + file.getName());
-            return generateMetadataOnlyManifest(file, ownerPeerId);
+            return generateMetadataOnlyManifest(file, ownerPeerId, fileHash);
         }
         
-        // Tính hash và MIME type
-        String fileHash = calculateFileHash(file);
+        // Tính hash (nếu chưa có) và MIME type
+        if (fileHash == null) {
+            fileHash = calculateFileHash(file);
+        }
         String mimeType = detectMimeType(file);
         
         PreviewManifest manifest = new PreviewManifest(
@@ -110,7 +131,7 @@ public class PreviewGenerator {
         if (IMAGE_TYPES.contains(extension)) {
             generateImagePreview(file, manifest);
         } else if (TEXT_TYPES.contains(extension)) {
-            generateTextPreview(file, manifest);
+            generateTextPreview(file, manifest, head);
         } else if (DOCUMENT_TYPES.contains(extension)) {
             generateDocumentPreview(file, manifest, extension);
         } else if (ARCHIVE_TYPES.contains(extension)) {
@@ -121,7 +142,7 @@ public class PreviewGenerator {
             generateVideoPreview(file, manifest);
         } else {
             // Fallback: thử extract như text, nếu fail thì metadata only
-            generateGenericPreview(file, manifest);
+            generateGenericPreview(file, manifest, head);
         }
         
         return manifest;
@@ -180,8 +201,13 @@ public class PreviewGenerator {
             manifest.addMetadata("thumbnailWidth", String.valueOf(thumbnailWidth));
             manifest.addMetadata("thumbnailHeight", String.valueOf(thumbnailHeight));
             
+            // Preview inline trong kết quả search: từ thumbnail vừa vẽ, không đọc lại ảnh gốc
+            generateMicroPreview(thumbnail, manifest);
+            
             System.out.println("✓ Đã tạo thumbnail cho: " + file.getName() + 
-                             " (" + thumbnailData.length + " bytes)");
+                             " (" + thumbnailData.length + " bytes" +
+                             (manifest.getMicroThumbnail() != null 
+                                 ? ", micro " + manifest.getMicroThumbnail().length + " bytes" : "") + ")");
             
         } catch (Exception e) {
             System.err.println("Lỗi khi tạo thumbnail: " + e.getMessage());
@@ -191,13 +217,12 @@ public class PreviewGenerator {
     /**
      * Sinh text snippet cho file text
      */
-    private static void generateTextPreview(File file, PreviewManifest manifest) throws Exception {
+    private static void generateTextPreview(File file, PreviewManifest manifest, byte[] head) throws Exception {
         try {
             StringBuilder snippet = new StringBuilder();
             int lineCount = 0;
             
-            try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            try (BufferedReader reader = openSnippetReader(file, head)) {
                 
                 String line;
                 while ((line = reader.readLine()) != null && lineCount < MAX_SNIPPET_LINES) {
@@ -644,15 +669,14 @@ public class PreviewGenerator {
     /**
      * Sinh preview generic cho file không xác định được loại
      */
-    private static void generateGenericPreview(File file, PreviewManifest manifest) {
+    private static void generateGenericPreview(File file, PreviewManifest manifest, byte[] head) {
         try {
             // Thử đọc vài dòng đầu như text
             StringBuilder snippet = new StringBuilder();
             boolean isText = true;
             int lineCount = 0;
             
-            try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            try (BufferedReader reader = openSnippetReader(file, head)) {
                 
                 String line;
                 while ((line = reader.readLine()) != null && lineCount < 5) {
@@ -727,8 +751,11 @@ public class PreviewGenerator {
     /**
      * Sinh manifest chỉ có metadata (cho file không hỗ trợ preview)
      */
-    private static PreviewManifest generateMetadataOnlyManifest(File file, String ownerPeerId) throws Exception {
-        String fileHash = calculateFileHash(file);
+    private static PreviewManifest generateMetadataOnlyManifest(File file, String ownerPeerId, 
+                                                                String fileHash) throws Exception {
+        if (fileHash == null) {
+            fileHash = calculateFileHash(file);
+        }
         String mimeType = detectMimeType(file);
         
         PreviewManifest manifest = new PreviewManifest(
@@ -777,6 +804,74 @@ public class PreviewGenerator {
         }
     }
     
+    /**
+     * Sinh micro-thumbnail (JPEG chất lượng thấp, cạnh dài 16-32px) và màu trung bình cho InlinePreview
+     */
+    static void generateMicroPreview(BufferedImage image, PreviewManifest manifest) {
+        try {
+            manifest.setPlaceholderColor(averageColor(image));
+            
+            for (int size : MICRO_THUMBNAIL_SIZES) {
+                double scale = Math.min(1.0, Math.min(
+                    (double) size / image.getWidth(), (double) size / image.getHeight()));
+                int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+                int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+                byte[] data = writeJpeg(scale(image, width, height), MICRO_THUMBNAIL_QUALITY);
+                if (data.length <= InlinePreview.MAX_THUMBNAIL_BYTES) {
+                    manifest.setMicroThumbnail(data);
+                    manifest.addMetadata("microThumbnailWidth", String.valueOf(width));
+                    manifest.addMetadata("microThumbnailHeight", String.valueOf(height));
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Lỗi khi tạo micro-thumbnail: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Màu trung bình "#rrggbb" (ảnh đầu vào là thumbnail nên duyệt hết pixel vẫn rẻ)
+     */
+    private static String averageColor(BufferedImage image) {
+        long red = 0, green = 0, blue = 0;
+        int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            for (int rgb : row) {
+                red += (rgb >> 16) & 0xFF;
+                green += (rgb >> 8) & 0xFF;
+                blue += rgb & 0xFF;
+            }
+        }
+        long pixels = Math.max(1L, (long) row.length * image.getHeight());
+        return String.format("#%02x%02x%02x", red / pixels, green / pixels, blue / pixels);
+    }
+    
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
+    }
+    
+    private static byte[] writeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(baos)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return baos.toByteArray();
+    }
+    
     /**
      * Tạo thumbnail content
      */
@@ -953,6 +1048,14 @@ public class PreviewGenerator {
         return bytesToHex(hashBytes);
     }
     
+    /**
+     * Reader cho snippet: dùng phần đầu file đã đọc sẵn nếu có, không thì mở file
+     */
+    private static BufferedReader openSnippetReader(File file, byte[] head) throws IOException {
+        InputStream in = head != null ? new ByteArrayInputStream(head) : new FileInputStream(file);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+    
     /**
      * Tính hash của byte array
      */
@@ -981,38 +1084,7 @@ public class PreviewGenerator {
      * Detect MIME type từ file extension
      */
     private static String detectMimeType(File file) {
-        String extension = getFileExtension(file.getName()).toLowerCase();
-        
-        // Image
-        if (extension.equals("jpg") || extension.equals("jpeg")) return "image/jpeg";
-        if (extension.equals("png")) return "image/png";
-        if (extension.equals("gif")) return "image/gif";
-        if (extension.equals("bmp")) return "image/bmp";
-        if (extension.equals("webp")) return "image/webp";
-        
-        // Text
-        if (extension.equals("txt")) return "text/plain";
-        if (extension.equals("html")) return "text/html";
-        if (extension.equals("css")) return "text/css";
-        if (extension.equals("js")) return "text/javascript";
-        if (extension.equals("json")) return "application/json";
-        if (extension.equals("xml")) return "application/xml";
-        
-        // Archive
-        if (extension.equals("zip")) return "application/zip";
-        if (extension.equals("jar")) return "application/java-archive";
-        
-        // Audio
-        if (extension.equals("mp3")) return "audio/mpeg";
-        if (extension.equals("wav")) return "audio/wav";
-        if (extension.equals("ogg")) return "audio/ogg";
-        
-        // Video
-        if (extension.equals("mp4")) return "video/mp4";
-        if (extension.equals("avi")) return "video/x-msvideo";
-        if (extension.equals("mkv")) return "video/x-matroska";
-        
-        return "application/octet-stream";
+        return MimeTypes.fromExtension(getFileExtension(file.getName()));
     }
     
     /**
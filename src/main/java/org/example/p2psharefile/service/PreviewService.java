@@ -1,6 +1,7 @@
 package org.example.p2psharefile.service;
 
 import org.example.p2psharefile.model.*;
+import org.example.p2psharefile.network.LocalTransportService;
 import org.example.p2psharefile.security.SecurityManager;
 
 import javax.net.ssl.*;
@@ -28,6 +29,9 @@ public class PreviewService {
     private ExecutorService executorService;
     private volatile boolean running = false;
     
+    // Đường truyền nhanh cho peer cùng máy (có thể null)
+    private volatile LocalTransportService localTransport;
+    
     /**
      * Request type cho preview
      */
@@ -182,21 +186,7 @@ public class PreviewService {
             System.out.println("📥 Preview request: " + request.getType() + 
                              " for hash: " + request.getFileHash().substring(0, 16) + "...");
             
-            PreviewResponse response;
-            
-            switch (request.getType()) {
-                case GET_MANIFEST:
-                    response = handleGetManifest(request);
-                    break;
-                    
-                case GET_CONTENT:
-                    response = handleGetContent(request);
-                    break;
-                    
-                default:
-                    response = new PreviewResponse(false);
-                    response.setErrorMessage("Loại yêu cầu không xác định");
-            }
+            PreviewResponse response = dispatchRequest(request);
             
             // Gửi response
             oos.writeObject(response);
@@ -214,6 +204,24 @@ public class PreviewService {
         }
     }
     
+    /**
+     * Chọn handler theo loại request (dùng chung cho TLS và local transport)
+     */
+    private PreviewResponse dispatchRequest(PreviewRequest request) {
+        switch (request.getType()) {
+            case GET_MANIFEST:
+                return handleGetManifest(request);
+                
+            case GET_CONTENT:
+                return handleGetContent(request);
+                
+            default:
+                PreviewResponse response = new PreviewResponse(false);
+                response.setErrorMessage("Loại yêu cầu không xác định");
+                return response;
+        }
+    }
+    
     /**
      * Xử lý GET_MANIFEST request
      */
@@ -306,70 +314,53 @@ public class PreviewService {
      */
     public PreviewManifest requestManifest(PeerInfo peer, String fileHash) {
         try {
-            SSLSocket socket = securityManager.createSSLSocket(peer.getIpAddress(), PREVIEW_PORT);
-            socket.connect(new InetSocketAddress(peer.getIpAddress(), PREVIEW_PORT), 5000);
-            socket.setSoTimeout(10000);
-            socket.startHandshake();
+            PreviewRequest request = new PreviewRequest(
+                RequestType.GET_MANIFEST,
+                fileHash,
+                localPeer.getPeerId()
+            );
+            PreviewResponse response = exchange(peer, request);
             
-            try (ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-                 ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            if (response.isSuccess()) {
+                PreviewManifest manifest = response.getManifest();
                 
-                // Gửi request
-                PreviewRequest request = new PreviewRequest(
-                    RequestType.GET_MANIFEST,
-                    fileHash,
-                    localPeer.getPeerId()
-                );
-                oos.writeObject(request);
-                oos.flush();
-                
-                // Nhận response
-                PreviewResponse response = (PreviewResponse) ois.readObject();
-                
-                if (response.isSuccess()) {
-                    PreviewManifest manifest = response.getManifest();
-                    
-                    // Verify signature nếu có
-                    if (manifest.getSignature() != null) {
-                        try {
-                            // Lấy public key của peer
-                            java.security.PublicKey peerPublicKey = 
-                                securityManager.getTrustedPeerKey(peer.getPeerId());
-                            
-                            if (peerPublicKey == null) {
-                                // Nếu chưa có trong trust list, decode từ PeerInfo
-                                peerPublicKey = securityManager.decodePublicKey(peer.getPublicKey());
-                            }
-                            
-                            // Verify signature
-                            boolean valid = securityManager.verifySignature(
-                                manifest.getDataToSign(),
-                                manifest.getSignature(),
-                                peerPublicKey
-                            );
-                            
-                            if (!valid) {
-                                System.err.println("❌ Signature không hợp lệ cho manifest!");
-                                return null;
-                            }
-                            
-                            System.out.println("✓ Đã verify signature manifest từ " + peer.getDisplayName());
-                            
-                        } catch (Exception e) {
-                            System.err.println("❌ Lỗi khi verify signature: " + e.getMessage());
+                // Verify signature nếu có
+                if (manifest.getSignature() != null) {
+                    try {
+                        // Lấy public key của peer
+                        java.security.PublicKey peerPublicKey = 
+                            securityManager.getTrustedPeerKey(peer.getPeerId());
+                        
+                        if (peerPublicKey == null) {
+                            // Nếu chưa có trong trust list, decode từ PeerInfo
+                            peerPublicKey = securityManager.decodePublicKey(peer.getPublicKey());
+                        }
+                        
+                        // Verify signature
+                        boolean valid = securityManager.verifySignature(
+                            manifest.getDataToSign(),
+                            manifest.getSignature(),
+                            peerPublicKey
+                        );
+                        
+                        if (!valid) {
+                            System.err.println("❌ Signature không hợp lệ cho manifest!");
                             return null;
                         }
+                        
+                        System.out.println("✓ Đã verify signature manifest từ " + peer.getDisplayName());
+                        
+                    } catch (Exception e) {
+                        System.err.println("❌ Lỗi khi verify signature: " + e.getMessage());
+                        return null;
                     }
-                    
-                    System.out.println("✓ Đã nhận manifest từ " + peer.getDisplayName());
-                    return manifest;
-                } else {
-                    System.err.println("❌ Yêu cầu preview thất bại: " + response.getErrorMessage());
-                    return null;
                 }
                 
-            } finally {
-                socket.close();
+                System.out.println("✓ Đã nhận manifest từ " + peer.getDisplayName());
+                return manifest;
+            } else {
+                System.err.println("❌ Yêu cầu preview thất bại: " + response.getErrorMessage());
+                return null;
             }
             
         } catch (Exception e) {
@@ -384,38 +375,21 @@ public class PreviewService {
     public PreviewContent requestContent(PeerInfo peer, String fileHash, 
                                         PreviewManifest.PreviewType type) {
         try {
-            SSLSocket socket = securityManager.createSSLSocket(peer.getIpAddress(), PREVIEW_PORT);
-            socket.connect(new InetSocketAddress(peer.getIpAddress(), PREVIEW_PORT), 5000);
-            socket.setSoTimeout(10000);
-            socket.startHandshake();
+            PreviewRequest request = new PreviewRequest(
+                RequestType.GET_CONTENT,
+                fileHash,
+                localPeer.getPeerId()
+            );
+            request.setPreviewType(type);
+            PreviewResponse response = exchange(peer, request);
             
-            try (ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-                 ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
-                
-                // Gửi request
-                PreviewRequest request = new PreviewRequest(
-                    RequestType.GET_CONTENT,
-                    fileHash,
-                    localPeer.getPeerId()
-                );
-                request.setPreviewType(type);
-                oos.writeObject(request);
-                oos.flush();
-                
-                // Nhận response
-                PreviewResponse response = (PreviewResponse) ois.readObject();
-                
-                if (response.isSuccess()) {
-                    System.out.println("✓ Đã nhận preview content: " + type + 
-                                     " (" + response.getContent().getFormattedSize() + ")");
-                    return response.getContent();
-                } else {
-                    System.err.println("❌ Yêu cầu preview thất bại: " + response.getErrorMessage());
-                    return null;
-                }
-                
-            } finally {
-                socket.close();
+            if (response.isSuccess()) {
+                System.out.println("✓ Đã nhận preview content: " + type + 
+                                 " (" + response.getContent().getFormattedSize() + ")");
+                return response.getContent();
+            } else {
+                System.err.println("❌ Yêu cầu preview thất bại: " + response.getErrorMessage());
+                return null;
             }
             
         } catch (Exception e) {
@@ -424,6 +398,53 @@ public class PreviewService {
         }
     }
     
+    /**
+     * Gửi request và nhận response: peer cùng máy đi Unix socket, còn lại (hoặc lỗi) qua TLS
+     */
+    private PreviewResponse exchange(PeerInfo peer, PreviewRequest request) throws Exception {
+        LocalTransportService local = localTransport;
+        if (local != null && local.isSameHost(peer)) {
+            try {
+                Object obj = local.requestObject(peer, LocalTransportService.CHANNEL_PREVIEW, request);
+                if (obj instanceof PreviewResponse) {
+                    return (PreviewResponse) obj;
+                }
+            } catch (IOException e) {
+                System.err.println("⚠ Local transport lỗi, dùng TLS: " + e.getMessage());
+            }
+        }
+        
+        SSLSocket socket = securityManager.createSSLSocket(peer.getIpAddress(), PREVIEW_PORT);
+        socket.connect(new InetSocketAddress(peer.getIpAddress(), PREVIEW_PORT), 5000);
+        socket.setSoTimeout(10000);
+        socket.startHandshake();
+        
+        try (ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            
+            // Gửi request
+            oos.writeObject(request);
+            oos.flush();
+            
+            // Nhận response
+            return (PreviewResponse) ois.readObject();
+            
+        } finally {
+            socket.close();
+        }
+    }
+    
+    /**
+     * Gắn local transport: phục vụ và gửi preview request đến peer cùng máy qua Unix socket
+     */
+    public void setLocalTransport(LocalTransportService localTransport) {
+        this.localTransport = localTransport;
+        if (localTransport != null) {
+            localTransport.registerHandler(LocalTransportService.CHANNEL_PREVIEW, message ->
+                message instanceof PreviewRequest ? dispatchRequest((PreviewRequest) message) : null);
+        }
+    }
+    
     public int getPreviewPort() {
         return previewServer != null ? previewServer.getLocalPort() : -1;
     }
@@ -0,0 +1,340 @@
+package org.example.p2psharefile.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * SharedDirectoryWatcher - Theo dõi thư mục chia sẻ bằng WatchService, báo file thay đổi
+ *
+ * - Đăng ký mọi thư mục con (chế độ đệ quy), thư mục con mới tạo được đăng ký tự động
+ * - Gộp sự kiện (debounce): một đường dẫn chỉ được báo khi đã yên DEBOUNCE_MS
+ *   (ghi file lớn sinh hàng trăm ENTRY_MODIFY), nhưng không chờ quá MAX_DELAY_MS
+ * - Handler chạy trên một thread nền riêng, tuần tự -> không chặn thread đọc sự kiện
+ * - OVERFLOW (mất sự kiện) -> yêu cầu quét lại cả thư mục gốc
+ * - Bỏ qua file .part (download đang ghi vào thư mục chia sẻ)
+ * - Bỏ qua file người dùng đã tự bỏ chia sẻ (exclude), tới khi chia sẻ lại
+ */
+public class SharedDirectoryWatcher {
+
+    private static final long DEBOUNCE_MS = 1000;
+    private static final long MAX_DELAY_MS = 10000;
+    private static final long FLUSH_INTERVAL_MS = 250;
+
+    /**
+     * Nhận các thay đổi đã gộp (gọi trên thread nền của watcher)
+     */
+    public interface Handler {
+        /** File được tạo mới hoặc sửa */
+        void onFileChanged(File file);
+
+        /** File hoặc thư mục bị xóa / đổi tên đi */
+        void onPathRemoved(File path);
+
+        /** Mất sự kiện: quét lại toàn bộ thư mục gốc */
+        void onRescan(File root, boolean recursive);
+    }
+
+    private static final class Root {
+        final Path path;
+        final boolean recursive;
+
+        Root(Path path, boolean recursive) {
+            this.path = path;
+            this.recursive = recursive;
+        }
+    }
+
+    private static final class Pending {
+        final long firstSeen;
+        volatile long lastSeen;
+
+        Pending(long now) {
+            this.firstSeen = now;
+            this.lastSeen = now;
+        }
+    }
+
+    private final Handler handler;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<Path, Root> roots = new ConcurrentHashMap<>();
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+    // File người dùng đã bỏ chia sẻ: sửa / tạo lại không được chia sẻ lại (giữ qua stop/start)
+    private final Set<Path> excluded = ConcurrentHashMap.newKeySet();
+
+    private WatchService watchService;
+    private ScheduledExecutorService flushExecutor;
+    private ExecutorService handlerExecutor;
+    private volatile boolean running = false;
+
+    public SharedDirectoryWatcher(Handler handler) {
+        this.handler = handler;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) return;
+        watchService = FileSystems.getDefault().newWatchService();
+        running = true;
+
+        Thread poller = new Thread(this::pollEvents, "share-watch");
+        poller.setDaemon(true);
+        poller.start();
+
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(daemon("share-watch-flush"));
+        flushExecutor.scheduleWithFixedDelay(this::flushPending, FLUSH_INTERVAL_MS,
+            FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        // Rehash tuần tự ở độ ưu tiên thấp
+        handlerExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "share-reindex");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        System.out.println("✓ Đang theo dõi thay đổi thư mục chia sẻ");
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (flushExecutor != null) flushExecutor.shutdownNow();
+        if (handlerExecutor != null) handlerExecutor.shutdownNow();
+        try {
+            if (watchService != null) watchService.close();
+        } catch (IOException ignored) {}
+        keys.clear();
+        roots.clear();
+        pending.clear();
+    }
+
+    /**
+     * Bắt đầu theo dõi thư mục
+     */
+    public void watch(File directory, boolean recursive) {
+        if (!running) return;
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        roots.put(root, new Root(root, recursive));
+        try {
+            register(root, recursive);
+        } catch (IOException e) {
+            System.err.println("⚠ Không thể theo dõi " + root + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ngừng theo dõi thư mục (và các thư mục con)
+     */
+    public void unwatch(File directory) {
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        roots.remove(root);
+        keys.entrySet().removeIf(entry -> {
+            if (entry.getValue().startsWith(root) && !isCoveredByOtherRoot(entry.getValue())) {
+                entry.getKey().cancel();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public int getWatchedDirectoryCount() {
+        return keys.size();
+    }
+
+    /**
+     * Không báo thay đổi của file này nữa (người dùng bỏ chia sẻ)
+     *
+     * @return true nếu danh sách exclude thay đổi
+     */
+    public boolean exclude(File file) {
+        Path path = normalize(file);
+        pending.remove(path);
+        return excluded.add(path);
+    }
+
+    /**
+     * Bỏ exclude của file (người dùng chia sẻ lại)
+     *
+     * @return true nếu danh sách exclude thay đổi
+     */
+    public boolean include(File file) {
+        return excluded.remove(normalize(file));
+    }
+
+    /**
+     * Bỏ exclude của mọi file trong thư mục (chia sẻ lại / bỏ chia sẻ cả thư mục)
+     *
+     * @return true nếu danh sách exclude thay đổi
+     */
+    public boolean includeUnder(File directory) {
+        Path root = normalize(directory);
+        return excluded.removeIf(path -> path.startsWith(root));
+    }
+
+    /**
+     * Các file đang bị exclude (để lưu lại giữa các lần chạy)
+     */
+    public List<String> getExcludedPaths() {
+        List<String> paths = new ArrayList<>();
+        for (Path path : excluded) {
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    public boolean isExcluded(File file) {
+        return !excluded.isEmpty() && excluded.contains(normalize(file));
+    }
+
+    private static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private boolean isCoveredByOtherRoot(Path dir) {
+        for (Root root : roots.values()) {
+            if (dir.equals(root.path) || (root.recursive && dir.startsWith(root.path))) return true;
+        }
+        return false;
+    }
+
+    private void register(Path dir, boolean recursive) throws IOException {
+        if (!recursive) {
+            registerOne(dir);
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                registerOne(d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerOne(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        keys.put(key, dir);
+    }
+
+    private void pollEvents() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+
+            Path dir = keys.get(key);
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    handleEvent(dir, event);
+                }
+            }
+
+            if (!key.reset()) {
+                // Thư mục bị xóa
+                keys.remove(key);
+            }
+        }
+    }
+
+    private void handleEvent(Path dir, WatchEvent<?> event) {
+        if (event.kind() == OVERFLOW) {
+            Root root = findRoot(dir);
+            if (root != null) {
+                submit(() -> handler.onRescan(root.path.toFile(), root.recursive));
+            }
+            return;
+        }
+
+        Path child = dir.resolve((Path) event.context());
+        if (child.getFileName().toString().endsWith(".part")) return;
+        if (event.kind() != ENTRY_DELETE && excluded.contains(child)) return;
+
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            Root root = findRoot(dir);
+            if (root != null && root.recursive) {
+                // Thư mục con mới: theo dõi và quét file đã có bên trong (tạo trước khi kịp đăng ký)
+                try {
+                    register(child, true);
+                } catch (IOException e) {
+                    System.err.println("⚠ Không thể theo dõi " + child + ": " + e.getMessage());
+                }
+                submit(() -> handler.onRescan(child.toFile(), true));
+            }
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        pending.compute(child, (path, existing) -> {
+            if (existing == null) return new Pending(now);
+            existing.lastSeen = now;
+            return existing;
+        });
+    }
+
+    private Root findRoot(Path dir) {
+        Root best = null;
+        for (Root root : roots.values()) {
+            if (dir.equals(root.path) || (root.recursive && dir.startsWith(root.path))) {
+                if (best == null || root.path.getNameCount() > best.path.getNameCount()) best = root;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gửi các đường dẫn đã yên DEBOUNCE_MS (hoặc chờ quá MAX_DELAY_MS) cho handler
+     */
+    private void flushPending() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Path, Pending> entry : pending.entrySet()) {
+            Pending p = entry.getValue();
+            if (now - p.lastSeen < DEBOUNCE_MS && now - p.firstSeen < MAX_DELAY_MS) continue;
+            if (!pending.remove(entry.getKey(), p)) continue;
+
+            Path path = entry.getKey();
+            submit(() -> dispatch(path));
+        }
+    }
+
+    private void dispatch(Path path) {
+        if (Files.isRegularFile(path)) {
+            if (excluded.contains(path)) return;    // Bị exclude trong lúc chờ debounce
+            handler.onFileChanged(path.toFile());
+        } else if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            handler.onPathRemoved(path.toFile());
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            handlerExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    System.err.println("⚠ Lỗi xử lý thay đổi thư mục: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Đã dừng
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.p2psharefile.test;
+
+import org.example.p2psharefile.model.FileInfo;
+import org.example.p2psharefile.network.SharedFileCatalog;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * CatalogBenchmark - Đo SharedFileCatalog với hàng triệu file giả lập
+ *
+ * Chạy: java -Xmx8g ... CatalogBenchmark [số file] [file mỗi thư mục]
+ * (ví dụ 1000000 và 10000000). In tốc độ thêm, bộ nhớ heap / entry và tốc độ tra hash,
+ * rồi so với cấu trúc cũ (Map thư mục -> CopyOnWriteArrayList) ở quy mô nhỏ
+ * (cấu trúc cũ thêm O(n²) nên không chạy nổi hàng triệu file).
+ */
+public class CatalogBenchmark {
+
+    private static final int LEGACY_COUNT = 50_000;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int perDirectory = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        System.out.printf("📊 Benchmark catalog: %,d file, %d file/thư mục%n", count, perDirectory);
+
+        String[] hashes = new String[Math.min(count, 100_000)];
+
+        long heapBefore = usedHeap();
+        SharedFileCatalog catalog = new SharedFileCatalog("bench-peer");
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            FileInfo info = syntheticFile(i, perDirectory);
+            if (i < hashes.length) hashes[i] = info.getFileHash();
+            catalog.put(info);
+        }
+        long insertNanos = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        System.out.printf("  Thêm:        %8.0f ms  %,12.0f file/s%n", insertNanos / 1e6, count / (insertNanos / 1e9));
+        System.out.printf("  Heap:        %8.1f MB  %8.1f byte/file (mảng cột ~%.0f MB)%n",
+            (heapAfter - heapBefore) / 1e6, (heapAfter - heapBefore) / (double) count,
+            catalog.estimateIndexBytes() / 1e6);
+        System.out.printf("  Thư mục:     %,d%n", catalog.getDirectoryCount());
+
+        measureLookups("Tra hash", hashes, catalog::findByHash);
+
+        // Xóa + thêm lại (ID được dùng lại, không tăng bộ nhớ)
+        start = System.nanoTime();
+        int churn = Math.min(count, 100_000);
+        for (int i = 0; i < churn; i++) {
+            FileInfo info = syntheticFile(i, perDirectory);
+            catalog.removeByPath(info.getFilePath());
+            catalog.put(info);
+        }
+        System.out.printf("  Xóa + thêm:  %8.0f ms cho %,d file%n", (System.nanoTime() - start) / 1e6, churn);
+
+        if (catalog.size() != count) {
+            throw new IllegalStateException("Số file sai: " + catalog.size());
+        }
+
+        catalog = null;
+        benchmarkLegacy(Math.min(count, LEGACY_COUNT), perDirectory);
+    }
+
+    /**
+     * Cấu trúc cũ của FileSearchService, để so sánh
+     */
+    private static void benchmarkLegacy(int count, int perDirectory) {
+        System.out.printf("📊 Cấu trúc cũ (Map + CopyOnWriteArrayList): %,d file%n", count);
+        String[] hashes = new String[count];
+
+        long heapBefore = usedHeap();
+        Map<String, List<FileInfo>> legacy = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            FileInfo info = syntheticFile(i, perDirectory);
+            hashes[i] = info.getFileHash();
+            legacy.computeIfAbsent(new File(info.getFilePath()).getParent(),
+                k -> new CopyOnWriteArrayList<>()).add(info);
+        }
+        long insertNanos = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        System.out.printf("  Thêm:        %8.0f ms  %,12.0f file/s%n", insertNanos / 1e6, count / (insertNanos / 1e9));
+        System.out.printf("  Heap:        %8.1f MB  %8.1f byte/file%n",
+            (heapAfter - heapBefore) / 1e6, (heapAfter - heapBefore) / (double) count);
+
+        String[] sample = Arrays.copyOf(hashes, Math.min(count, 1000));
+        measureLookups("Tra hash", sample, hash -> {
+            for (List<FileInfo> files : legacy.values()) {
+                for (FileInfo file : files) {
+                    if (hash.equalsIgnoreCase(file.getFileHash())) return file;
+                }
+            }
+            return null;
+        });
+    }
+
+    private static FileInfo syntheticFile(int i, int perDirectory) {
+        String directory = File.separator + "share" + File.separator + "d" + (i / perDirectory / 100)
+            + File.separator + "sub" + (i / perDirectory);
+        String name = "file-" + i + ".dat";
+        FileInfo info = new FileInfo(name, 1024L + i, directory + File.separator + name,
+            hex(i, 16, 0x5A), "bench-peer");
+        info.setFileHash(hex(i, 32, 0x3C));
+        info.setTreeHash(hex(i, 32, 0x71));
+        return info;
+    }
+
+    private static String hex(int i, int bytes, int salt) {
+        // Giả lập hash phân bố đều, xác định theo i
+        StringBuilder sb = new StringBuilder(bytes * 2);
+        long x = (i + 1L) * 0x9E3779B97F4A7C15L ^ salt;
+        for (int b = 0; b < bytes; b++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            sb.append(Character.forDigit((int) (x >>> 4) & 0xF, 16));
+            sb.append(Character.forDigit((int) x & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private interface Lookup {
+        FileInfo find(String hash);
+    }
+
+    private static void measureLookups(String label, String[] hashes, Lookup lookup) {
+        int rounds = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            String hash = hashes[ThreadLocalRandom.current().nextInt(hashes.length)];
+            if (lookup.find(hash) == null) throw new IllegalStateException("Không tìm thấy " + hash);
+            rounds++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < 1_000_000_000L);
+        System.out.printf("  %-12s %,12.0f lần/s%n", label + ":", rounds / (elapsed / 1e9));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
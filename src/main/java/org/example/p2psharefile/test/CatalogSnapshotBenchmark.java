@@ -0,0 +1,75 @@
+package org.example.p2psharefile.test;
+
+import org.example.p2psharefile.model.FileInfo;
+import org.example.p2psharefile.network.CatalogSnapshot;
+import org.example.p2psharefile.network.SharedFileCatalog;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * CatalogSnapshotBenchmark - Đo thời gian khởi động từ catalog snapshot
+ *
+ * Chạy: java -Xmx4g ... CatalogSnapshotBenchmark [số file]
+ * In thời gian ghi, mở (map), search / tra hash đầu tiên trên dữ liệu đã map
+ * và thời gian nạp toàn bộ vào SharedFileCatalog. Mục tiêu với 1 triệu file:
+ * mở + query đầu tiên dưới 1 giây.
+ */
+public class CatalogSnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.printf("📊 Benchmark catalog snapshot: %,d file%n", count);
+
+        SharedFileCatalog catalog = new SharedFileCatalog("bench-peer");
+        String probeHash = null;
+        for (int i = 0; i < count; i++) {
+            String directory = File.separator + "share" + File.separator + "sub" + (i / 500);
+            String name = "file-" + i + ".dat";
+            FileInfo info = new FileInfo(name, 1024L + i, directory + File.separator + name,
+                String.format("%032x", i), "bench-peer");
+            info.setFileHash(String.format("%08x", Integer.reverse(i)) + String.format("%056x", i));
+            catalog.put(info);
+            if (i == count / 2) probeHash = info.getFileHash();
+        }
+
+        Path file = Files.createTempFile("catalog-", ".snap");
+        file.toFile().deleteOnExit();
+
+        long start = System.nanoTime();
+        CatalogSnapshot.write(file, catalog, Map.of(File.separator + "share", true));
+        report("Ghi", start);
+        System.out.printf("  Kích thước: %.1f MB%n", Files.size(file) / 1e6);
+        catalog = null;
+
+        // Khởi động: map + query đầu tiên trên dữ liệu đã map
+        long startup = System.nanoTime();
+        CatalogSnapshot snapshot = CatalogSnapshot.open(file, "bench-peer");
+        report("Mở (map)", startup);
+
+        start = System.nanoTime();
+        FileInfo byHash = snapshot.findByHash(probeHash);
+        report("Tra hash đầu", start);
+        if (byHash == null) throw new IllegalStateException("Không tìm thấy hash");
+
+        start = System.nanoTime();
+        int matches = snapshot.findByName(name -> name.contains("-77777")).size();
+        report("Search tên đầu (" + matches + " kết quả)", start);
+        report("Khởi động → query đầu", startup);
+
+        // Nạp nền vào heap
+        start = System.nanoTime();
+        SharedFileCatalog warmed = new SharedFileCatalog("bench-peer");
+        snapshot.loadInto(warmed);
+        report("Nạp vào catalog", start);
+        if (warmed.size() != count || warmed.findByHash(probeHash) == null) {
+            throw new IllegalStateException("Catalog sau khi nạp không khớp");
+        }
+    }
+
+    private static void report(String label, long startNanos) {
+        System.out.printf("  %-32s %8.1f ms%n", label + ":", (System.nanoTime() - startNanos) / 1e6);
+    }
+}
@@ -0,0 +1,110 @@
+package org.example.p2psharefile.test;
+
+import org.example.p2psharefile.model.ContentSummary;
+import org.example.p2psharefile.model.FileInfo;
+import org.example.p2psharefile.model.SearchQuery;
+import org.example.p2psharefile.network.FileSearchService;
+import org.example.p2psharefile.network.SharedFileCatalog;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * ContentSummaryBenchmark - Đo fan-out search khi lọc peer bằng content summary
+ *
+ * Chạy: java ... ContentSummaryBenchmark [số peer] [số file mỗi peer]
+ * Mỗi peer chia sẻ file đặt tên theo một "chủ đề" riêng + vài từ chung. Với mỗi query,
+ * so số peer phải hỏi (summary nói "có thể khớp") với số peer thực sự có kết quả.
+ * In kích thước summary, tỉ lệ dương tính giả đo được và kích thước delta khi thêm file.
+ */
+public class ContentSummaryBenchmark {
+
+    private static final String[] COMMON = {"report", "photo", "backup", "notes", "final", "draft", "2024"};
+    private static final String[] TOPICS = {
+        "invoice", "holiday", "lecture", "thesis", "episode", "budget", "camera", "contract",
+        "ảnh cưới", "bài giảng", "hợp đồng", "tài liệu", "podcast", "dataset", "firmware", "render"
+    };
+    private static final String[] EXTENSIONS = {".pdf", ".docx", ".jpg", ".mp4", ".mp3", ".zip"};
+    private static final String[] QUERIES = {
+        "invoice", "bai giang", "thesis final", "podcast ext:mp3", "render ext:pdf", "xyzzy", "report", "ep"
+    };
+
+    public static void main(String[] args) {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int filesPerPeer = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        Random random = new Random(7);
+        System.out.printf("📊 Benchmark content summary: %d peer × %,d file%n", peers, filesPerPeer);
+
+        SharedFileCatalog[] catalogs = new SharedFileCatalog[peers];
+        ContentSummary[] summaries = new ContentSummary[peers];
+        long totalBytes = 0;
+        for (int p = 0; p < peers; p++) {
+            catalogs[p] = new SharedFileCatalog("peer-" + p);
+            String topic = TOPICS[p % TOPICS.length];
+            for (int i = 0; i < filesPerPeer; i++) {
+                String name = (random.nextInt(4) == 0 ? topic : COMMON[random.nextInt(COMMON.length)])
+                    + " " + COMMON[random.nextInt(COMMON.length)] + "_" + random.nextInt(1000)
+                    + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+                String path = File.separator + "share" + p + File.separator + "d" + (i / 1000) + File.separator + i + "_" + name;
+                FileInfo info = new FileInfo(i + "_" + name, i, path, null, "peer-" + p);
+                info.setFileHash(String.format("%016x%048x", random.nextLong(), i));
+                catalogs[p].put(info);
+            }
+            long start = System.nanoTime();
+            summaries[p] = catalogs[p].buildSummary("feed-" + p, 1);
+            if (p == 0) {
+                System.out.printf("  Dựng summary: %.1f ms, %,d khóa, %,d byte, hash %s, FPR ước lượng %.3f%%%n",
+                    (System.nanoTime() - start) / 1e6, summaries[p].getItemCount(), summaries[p].getSizeBytes(),
+                    summaries[p].isHashesIncluded() ? "có" : "không", summaries[p].estimateFalsePositiveRate() * 100);
+            }
+            totalBytes += summaries[p].getSizeBytes();
+        }
+        System.out.printf("  Tổng summary: %,d KB (%,.0f byte/peer)%n", totalBytes / 1024, totalBytes / (double) peers);
+
+        long contacted = 0;
+        long falsePositives = 0;
+        long negatives = 0;
+        for (String raw : QUERIES) {
+            SearchQuery query = SearchQuery.parse(raw);
+            int ask = 0;
+            int haveResults = 0;
+            for (int p = 0; p < peers; p++) {
+                boolean maybe = FileSearchService.mightMatch(summaries[p], query);
+                boolean actual = catalogs[p].search(query).getTotalMatches() > 0;
+                if (actual && !maybe) throw new IllegalStateException("Âm tính giả: " + raw + " @ peer " + p);
+                if (maybe) ask++;
+                if (actual) haveResults++;
+                if (!actual) {
+                    negatives++;
+                    if (maybe) falsePositives++;
+                }
+            }
+            contacted += ask;
+            System.out.printf("  %-18s hỏi %3d/%d peer, %3d peer có kết quả%n", "\"" + raw + "\"", ask, peers, haveResults);
+        }
+        System.out.printf("  Fan-out trung bình: %.1f/%d peer, FPR đo được: %.3f%%%n",
+            contacted / (double) QUERIES.length, peers, negatives == 0 ? 0 : 100.0 * falsePositives / negatives);
+
+        // Hash query: tìm đúng nội dung trên peer 0
+        SearchQuery byHash = SearchQuery.parse("hash:" + catalogs[0].get(0).getFileHash());
+        int hashAsk = 0;
+        for (ContentSummary summary : summaries) {
+            if (FileSearchService.mightMatch(summary, byHash)) hashAsk++;
+        }
+        System.out.printf("  Query theo hash: hỏi %d/%d peer%n", hashAsk, peers);
+
+        // Delta sau khi thêm vài file
+        for (int i = 0; i < 20; i++) {
+            String name = "new upload " + i + ".pdf";
+            catalogs[0].put(new FileInfo(name, i, File.separator + "share0" + File.separator + "new" + File.separator + name,
+                null, "peer-0"));
+        }
+        ContentSummary updated = catalogs[0].buildSummary("feed-0", 2);
+        ContentSummary.Delta delta = updated.diffFrom(summaries[0]);
+        System.out.printf("  Thêm 20 file: delta %s (cả filter %,d byte)%n",
+            delta == null ? "không dùng được" : String.format("%,d byte", delta.getSizeBytes()), updated.getSizeBytes());
+        if (delta != null && !FileSearchService.mightMatch(summaries[0].apply(delta), SearchQuery.parse("new upload"))) {
+            throw new IllegalStateException("Áp delta lỗi");
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.example.p2psharefile.test;
+
+import org.example.p2psharefile.model.DhtContact;
+import org.example.p2psharefile.model.DhtMessage;
+import org.example.p2psharefile.network.DhtTransport;
+import org.example.p2psharefile.network.KademliaDht;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * DhtSimulation - Mô phỏng KademliaDht nhiều node trong một process
+ *
+ * Chạy: java ... DhtSimulation [số node] [số file] [tỉ lệ node chết %] [số lookup]
+ * - Các node gia nhập lần lượt qua một node ngẫu nhiên đã có (bootstrap = lookup chính mình)
+ * - Mỗi file được 1-3 node ngẫu nhiên công bố provider
+ * - Một phần node tắt (không trả lời, người gọi mất một RTT) rồi đo lookup provider
+ *   từ node ngẫu nhiên còn sống: số vòng (hop), số RPC, độ trễ (RTT mỗi cặp 10-80ms, sleep thật)
+ * So với flood: mỗi lần tìm phải gửi tới N - 1 peer.
+ */
+public class DhtSimulation {
+
+    private static final int MIN_ONE_WAY_MS = 5;
+    private static final int MAX_ONE_WAY_MS = 40;
+
+    private static final Map<DhtContact, KademliaDht> nodes = new ConcurrentHashMap<>();
+    private static final Set<DhtContact> dead = ConcurrentHashMap.newKeySet();
+    private static volatile boolean simulateLatency = false;
+
+    /**
+     * Gọi thẳng node đích; có latency thì sleep một RTT của cặp node
+     */
+    private static final DhtTransport TRANSPORT = (to, message) -> {
+        if (simulateLatency) {
+            try {
+                Thread.sleep(2L * oneWayMillis(message.getSender(), to));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Bị ngắt");
+            }
+        }
+        KademliaDht target = nodes.get(to);
+        if (target == null || dead.contains(to)) throw new IOException("Node không trả lời");
+        return target.handle(message);
+    };
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int deadPercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int lookupCount = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        Random random = new Random(5);
+        ExecutorService rpcPool = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        System.out.printf("📊 Mô phỏng DHT: %,d node, K=%d, ALPHA=%d, %d file, %d%% node chết%n",
+            nodeCount, KademliaDht.K, KademliaDht.ALPHA, fileCount, deadPercent);
+
+        // Gia nhập lần lượt
+        long start = System.nanoTime();
+        List<KademliaDht> all = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            String peerId = "peer-" + i;
+            DhtContact contact = new DhtContact(KademliaDht.nodeIdFor(peerId), peerId, "10.0." + (i / 250) + "." + (i % 250),
+                9005, 10000 + i, peerId);
+            KademliaDht dht = new KademliaDht(contact, TRANSPORT, rpcPool);
+            nodes.put(contact, dht);
+            if (!all.isEmpty()) dht.bootstrap(List.of(all.get(random.nextInt(all.size())).getSelf()));
+            all.add(dht);
+        }
+        int minContacts = Integer.MAX_VALUE;
+        long totalContacts = 0;
+        for (KademliaDht dht : all) {
+            minContacts = Math.min(minContacts, dht.getContactCount());
+            totalContacts += dht.getContactCount();
+        }
+        System.out.printf("  Gia nhập: %.1f s, routing table TB %.0f contact (ít nhất %d)%n",
+            (System.nanoTime() - start) / 1e9, (double) totalContacts / nodeCount, minContacts);
+
+        // Công bố provider
+        List<String> hashes = new ArrayList<>();
+        Map<String, Set<String>> providersOf = new HashMap<>();
+        long stored = 0;
+        for (int f = 0; f < fileCount; f++) {
+            String hash = String.format("%016x%016x%016x%016x", random.nextLong(), random.nextLong(),
+                random.nextLong(), (long) f);
+            hashes.add(hash);
+            int copies = 1 + random.nextInt(3);
+            for (int c = 0; c < copies; c++) {
+                KademliaDht provider = all.get(random.nextInt(nodeCount));
+                stored += provider.publish(KademliaDht.keyFor(hash));
+                providersOf.computeIfAbsent(hash, h -> new HashSet<>()).add(provider.getSelf().getPeerId());
+            }
+        }
+        long holders = 0;
+        for (KademliaDht dht : all) holders += dht.getStoredKeyCount();
+        System.out.printf("  Công bố: %d record gửi đi, TB %.1f khóa giữ hộ mỗi node%n", stored,
+            (double) holders / nodeCount);
+
+        // Tắt một phần node
+        List<KademliaDht> alive = new ArrayList<>(all);
+        Collections.shuffle(alive, random);
+        for (int i = 0; i < nodeCount * deadPercent / 100; i++) {
+            dead.add(alive.remove(alive.size() - 1).getSelf());
+        }
+
+        // Đo lookup (chạy song song vài lookup, độ trễ là sleep nên không tranh CPU)
+        simulateLatency = true;
+        ExecutorService lookupPool = Executors.newFixedThreadPool(16);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < lookupCount; i++) {
+            KademliaDht from = alive.get(random.nextInt(alive.size()));
+            String hash = hashes.get(random.nextInt(hashes.size()));
+            futures.add(lookupPool.submit(() -> {
+                long begin = System.nanoTime();
+                KademliaDht.LookupResult result = from.findProviders(KademliaDht.keyFor(hash), 1);
+                long millis = (System.nanoTime() - begin) / 1_000_000;
+                boolean found = false;
+                for (DhtContact provider : result.getProviders()) {
+                    found |= providersOf.get(hash).contains(provider.getPeerId());
+                }
+                return new long[] {result.getRounds(), result.getRpcs(), millis, found ? 1 : 0, result.getFailures()};
+            }));
+        }
+        long[][] samples = new long[lookupCount][];
+        for (int i = 0; i < lookupCount; i++) samples[i] = futures.get(i).get();
+        lookupPool.shutdown();
+        rpcPool.shutdownNow();
+
+        int found = 0;
+        long rpcs = 0;
+        long failures = 0;
+        for (long[] sample : samples) {
+            found += (int) sample[3];
+            rpcs += sample[1];
+            failures += sample[4];
+        }
+        System.out.printf("  Lookup provider: %d lần, tìm thấy %.1f%%, log2(N) = %.1f%n", lookupCount,
+            100.0 * found / lookupCount, Math.log(nodeCount) / Math.log(2));
+        System.out.printf("    Hop (vòng)  trung vị %d, p95 %d, tối đa %d%n",
+            percentile(samples, 0, 50), percentile(samples, 0, 95), percentile(samples, 0, 100));
+        System.out.printf("    Độ trễ      trung vị %d ms, p95 %d ms, tối đa %d ms%n",
+            percentile(samples, 2, 50), percentile(samples, 2, 95), percentile(samples, 2, 100));
+        System.out.printf("    RPC TB %.1f (node chết %.1f) / lookup, flood cần %,d%n",
+            (double) rpcs / lookupCount, (double) failures / lookupCount, nodeCount - 1);
+    }
+
+    private static long percentile(long[][] samples, int column, int percent) {
+        long[] values = new long[samples.length];
+        for (int i = 0; i < samples.length; i++) values[i] = samples[i][column];
+        Arrays.sort(values);
+        int index = Math.min(values.length - 1, (int) Math.ceil(percent / 100.0 * values.length) - 1);
+        return values[Math.max(0, index)];
+    }
+
+    /**
+     * Độ trễ một chiều cố định cho mỗi cặp node
+     */
+    private static int oneWayMillis(DhtContact a, DhtContact b) {
+        int h = a.hashCode() ^ b.hashCode();
+        h ^= h >>> 16;
+        h *= 0x45D9F3B;
+        h ^= h >>> 16;
+        return MIN_ONE_WAY_MS + Math.floorMod(h, MAX_ONE_WAY_MS - MIN_ONE_WAY_MS + 1);
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.p2psharefile.test;
+
+import org.example.p2psharefile.security.FileHashUtil;
+import org.example.p2psharefile.service.FileIngestionPipeline;
+import org.example.p2psharefile.service.PreviewGenerator;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * IngestionBenchmark - So sánh chi phí thêm file chia sẻ:
+ * - Cách cũ: 4 lượt đọc (SHA-256, MD5, hash kiểm tra cache preview, hash trong generateManifest)
+ * - FileIngestionPipeline: 1 lượt đọc cho SHA-256 + MD5 + phần đầu file
+ *
+ * Chạy: java ... IngestionBenchmark [sizeMB] [file]
+ * Với file lớn hơn RAM (page cache không giữ được) chênh lệch gần đúng 4 lần số byte đọc từ đĩa.
+ */
+public class IngestionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+
+        File file;
+        if (args.length > 1) {
+            file = new File(args[1]);
+        } else {
+            file = File.createTempFile("ingest-", ".bin");
+            file.deleteOnExit();
+            writeRandomFile(file, sizeMb * 1024L * 1024L);
+        }
+        double mb = file.length() / (1024.0 * 1024.0);
+        System.out.printf("📊 Benchmark ingestion: %s (%.0f MB)%n", file.getName(), mb);
+
+        // Warm-up
+        FileIngestionPipeline.ingest(file);
+
+        long start = System.nanoTime();
+        String sha = FileHashUtil.calculateSHA256(file);
+        String md5 = FileHashUtil.calculateMD5(file);
+        PreviewGenerator.calculateFileHash(file);
+        PreviewGenerator.calculateFileHash(file);
+        long legacy = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        FileIngestionPipeline.IngestionResult result = FileIngestionPipeline.ingest(file);
+        long pipeline = System.nanoTime() - start;
+
+        if (!sha.equals(result.getSha256()) || !md5.equals(result.getMd5())) {
+            throw new IllegalStateException("Hash không khớp giữa 2 cách tính");
+        }
+
+        report("4-pass (cũ)", mb, legacy);
+        report("1-pass pipeline", mb, pipeline);
+        System.out.printf("  Speedup: %.2fx%n", (double) legacy / pipeline);
+    }
+
+    private static void writeRandomFile(File file, long size) throws Exception {
+        byte[] buffer = new byte[1024 * 1024];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            for (long written = 0; written < size; written += buffer.length) {
+                ThreadLocalRandom.current().nextBytes(buffer);
+                raf.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+
+    private static void report(String label, double mb, long nanos) {
+        System.out.printf("  %-16s %8.1f ms  %8.1f MB/s%n", label, nanos / 1e6, mb / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.p2psharefile.test;
+
+import org.example.p2psharefile.model.FileInfo;
+import org.example.p2psharefile.model.SearchQuery;
+import org.example.p2psharefile.network.SharedFileCatalog;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * NameIndexBenchmark - So sánh search theo tên qua trigram index với quét tuyến tính
+ *
+ * Chạy: java -Xmx4g ... NameIndexBenchmark [số file]
+ * In bộ nhớ của index và số query/giây cho vài query điển hình:
+ * trả mọi kết quả, top-K (SearchQuery.DEFAULT_LIMIT) và quét tuyến tính.
+ */
+public class NameIndexBenchmark {
+
+    private static final String[] WORDS = {
+        "report", "invoice", "holiday", "photo", "ảnh", "bài giảng", "video", "music", "backup",
+        "project", "slides", "draft", "final", "scan", "tài liệu", "hợp đồng", "season", "episode",
+        "lecture", "notes", "budget", "2023", "2024", "summary", "camera", "family", "thesis"
+    };
+    private static final String[] EXTENSIONS = {".pdf", ".docx", ".jpg", ".mp4", ".mp3", ".zip", ".pptx", ".txt"};
+    private static final String[] QUERIES = {"invoice", "tai lieu", "final_12", "ep", "holiday 2024", "xyzzy"};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(42);
+        System.out.printf("📊 Benchmark NameIndex: %,d file%n", count);
+
+        SharedFileCatalog catalog = new SharedFileCatalog("bench-peer");
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                + "_" + i + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            String path = File.separator + "share" + File.separator + "d" + (i / 1000) + File.separator + name;
+            catalog.put(new FileInfo(name, i, path, null, "bench-peer"));
+        }
+        System.out.printf("  Thêm + index: %8.0f ms%n", (System.nanoTime() - start) / 1e6);
+        System.out.printf("  Bộ nhớ index: %8.1f MB (%.1f byte/file)%n",
+            catalog.estimateNameIndexBytes() / 1e6, catalog.estimateNameIndexBytes() / (double) count);
+
+        for (String query : QUERIES) {
+            int matches = catalog.searchByName(query).size();
+            double indexed = queriesPerSecond(() -> catalog.searchByName(query));
+            SearchQuery parsed = SearchQuery.parse(query);
+            double topK = queriesPerSecond(() -> catalog.search(parsed));
+            double linear = queriesPerSecond(() -> catalog.findByName(name -> name.toLowerCase().contains(query)));
+            System.out.printf("  %-14s %,9d kết quả  index %,10.1f q/s  top-K %,10.1f q/s  quét %,8.1f q/s%n",
+                "\"" + query + "\"", matches, indexed, topK, linear);
+        }
+    }
+
+    private static double queriesPerSecond(Runnable query) {
+        query.run();    // Warm-up
+        int rounds = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            query.run();
+            rounds++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < 500_000_000L);
+        return rounds / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.p2psharefile.test;
+
+import java.util.*;
+
+/**
+ * QueryRoutingSimulation - Mô phỏng độ trễ search flood qua nhiều hop
+ *
+ * Chạy: java ... QueryRoutingSimulation [số peer] [bậc] [TTL] [fan-out]
+ * So hai cách forward trên cùng một đồ thị ngẫu nhiên (mô phỏng sự kiện rời rạc, không mở socket):
+ * - Cũ: mỗi hop forward tuần tự (mở TLS, đợi response rồi mới tới peer kế), mỗi kết quả
+ *   được gửi về origin bằng một kết nối TLS mới
+ * - Mới: forward song song tới tối đa fan-out peer, kết quả đi ngược trên các kết nối sẵn có
+ * In thời gian tới kết quả cuối cùng, trung vị độ trễ kết quả và số handshake TLS.
+ */
+public class QueryRoutingSimulation {
+
+    private static final double LINK_MS = 20;                 // Độ trễ một chiều mỗi link
+    private static final double HANDSHAKE_MS = 4 * LINK_MS;   // TCP + TLS ~ 2 RTT
+    private static final double PROCESS_MS = 1;               // Tìm local
+    private static final double HIT_RATE = 0.05;              // Tỉ lệ peer có kết quả
+
+    public static void main(String[] args) {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int degree = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int ttl = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int fanOut = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        Random random = new Random(11);
+        List<List<Integer>> graph = new ArrayList<>();
+        for (int i = 0; i < peers; i++) graph.add(new ArrayList<>());
+        for (int i = 1; i < peers; i++) link(graph, i, random.nextInt(i));   // Liên thông
+        for (int extra = peers * (degree - 2) / 2; extra > 0; extra--) {
+            link(graph, random.nextInt(peers), random.nextInt(peers));
+        }
+        boolean[] hasHit = new boolean[peers];
+        for (int i = 1; i < peers; i++) hasHit[i] = random.nextDouble() < HIT_RATE;
+
+        System.out.printf("📊 Mô phỏng routing: %d peer, bậc ~%d, TTL %d, link %.0fms, handshake %.0fms%n",
+            peers, degree, ttl, LINK_MS, HANDSHAKE_MS);
+        report("Cũ (tuần tự + về thẳng origin)", simulate(graph, hasHit, ttl, Integer.MAX_VALUE, false));
+        report("Mới (song song ≤" + fanOut + " + đường ngược)", simulate(graph, hasHit, ttl, fanOut, true));
+    }
+
+    private static void link(List<List<Integer>> graph, int a, int b) {
+        if (a == b || graph.get(a).contains(b)) return;
+        graph.get(a).add(b);
+        graph.get(b).add(a);
+    }
+
+    /**
+     * @return [thời gian kết quả cuối, trung vị, số kết quả, số handshake]
+     */
+    private static double[] simulate(List<List<Integer>> graph, boolean[] hasHit, int ttl, int fanOut,
+                                     boolean reversePath) {
+        int peers = graph.size();
+        boolean[] processed = new boolean[peers];
+        List<Double> hitTimes = new ArrayList<>();
+        long handshakes = 0;
+
+        // Sự kiện: (thời điểm nhận request, peer, hop còn lại, độ sâu)
+        PriorityQueue<double[]> events = new PriorityQueue<>(Comparator.comparingDouble(e -> e[0]));
+        Random random = new Random(3);
+        processed[0] = true;
+        for (int v : graph.get(0)) {
+            // Origin luôn gửi song song tới peer trực tiếp (searchFile)
+            events.add(new double[] {HANDSHAKE_MS + LINK_MS, v, ttl, 1});
+            handshakes++;
+        }
+
+        while (!events.isEmpty()) {
+            double[] event = events.poll();
+            double time = event[0];
+            int node = (int) event[1];
+            int hopsLeft = (int) event[2];
+            int nodeDepth = (int) event[3];
+            if (processed[node]) continue;  // Trùng: bị chống trùng, trả rỗng
+            processed[node] = true;
+
+            double ready = time + PROCESS_MS;
+            if (hasHit[node]) {
+                if (nodeDepth == 1 || reversePath) {
+                    hitTimes.add(ready + nodeDepth * LINK_MS);
+                } else {
+                    // Cũ: về hop trước rồi hop trước mở kết nối mới tới origin
+                    hitTimes.add(ready + LINK_MS + HANDSHAKE_MS + LINK_MS);
+                    handshakes++;
+                }
+            }
+            if (hopsLeft <= 1) continue;
+
+            List<Integer> next = new ArrayList<>(graph.get(node));
+            next.remove(Integer.valueOf(0));
+            Collections.shuffle(next, random);
+            if (next.size() > fanOut) next = next.subList(0, fanOut);
+            double cursor = ready;
+            for (int v : next) {
+                handshakes++;
+                double received = cursor + HANDSHAKE_MS + LINK_MS;
+                events.add(new double[] {received, v, hopsLeft - 1, nodeDepth + 1});
+                // Cũ: đợi response của v rồi mới sang peer kế
+                if (!reversePath) cursor = received + PROCESS_MS + LINK_MS;
+            }
+        }
+
+        Collections.sort(hitTimes);
+        double last = hitTimes.isEmpty() ? 0 : hitTimes.get(hitTimes.size() - 1);
+        double median = hitTimes.isEmpty() ? 0 : hitTimes.get(hitTimes.size() / 2);
+        return new double[] {last, median, hitTimes.size(), handshakes};
+    }
+
+    private static void report(String label, double[] result) {
+        System.out.printf("  %-36s kết quả cuối %7.0f ms  trung vị %6.0f ms  %3.0f kết quả  %5.0f handshake%n",
+            label, result[0], result[1], result[2], result[3]);
+    }
+}
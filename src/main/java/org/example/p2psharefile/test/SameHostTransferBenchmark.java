@@ -0,0 +1,150 @@
+package org.example.p2psharefile.test;
+
+import org.example.p2psharefile.model.FileInfo;
+import org.example.p2psharefile.model.PeerInfo;
+import org.example.p2psharefile.model.TransferState;
+import org.example.p2psharefile.network.ChunkedFileTransferService;
+import org.example.p2psharefile.network.LocalTransportService;
+import org.example.p2psharefile.security.SecurityManager;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SameHostTransferBenchmark - So sánh tốc độ truyền giữa 2 peer trên cùng máy:
+ * - Loopback TLS + AES (đường cũ)
+ * - Unix domain socket (LocalTransportService)
+ * - Đọc file trực tiếp (cùng filesystem)
+ *
+ * Chạy: java ... SameHostTransferBenchmark [sizeMB]
+ * Cần port 9999 trống (chunk server chạy trong cùng process).
+ */
+public class SameHostTransferBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+
+        File source = File.createTempFile("bench-src-", ".bin");
+        source.deleteOnExit();
+        writeRandomFile(source, sizeMb * 1024L * 1024L);
+
+        String peerId = UUID.randomUUID().toString();
+        SecurityManager securityManager = new SecurityManager(peerId, "bench");
+        PeerInfo localPeer = new PeerInfo(peerId, "127.0.0.1", 9999, "bench", securityManager.getPublicKeyEncoded());
+
+        LocalTransportService localTransport = new LocalTransportService(localPeer);
+        ChunkedFileTransferService transferService = new ChunkedFileTransferService(localPeer, securityManager);
+        transferService.setLocalTransport(localTransport);
+
+        try {
+            localTransport.start();
+            transferService.start();
+
+            // "Peer khác" trên cùng máy: trỏ về chính chunk server/local socket của process này
+            PeerInfo remotePeer = new PeerInfo("bench-remote", "127.0.0.1", 9999, "bench-remote");
+            remotePeer.setLocalSocketPath(localPeer.getLocalSocketPath());
+
+            FileInfo fileInfo = new FileInfo(source.getName(), source.length(), source.getAbsolutePath());
+
+            System.out.println("📊 Benchmark same-host transfer: " + sizeMb + " MB");
+
+            // Warm-up (JIT + TLS session)
+            transferService.setSameHostFastPath(false);
+            download(transferService, remotePeer, fileInfo);
+
+            transferService.setSameHostFastPath(false);
+            report("Loopback TLS", sizeMb, download(transferService, remotePeer, fileInfo));
+
+            report("Unix socket", sizeMb, readAllOverLocalSocket(localTransport, remotePeer, source));
+
+            transferService.setSameHostFastPath(true);
+            report("Direct read", sizeMb, download(transferService, remotePeer, fileInfo));
+
+        } finally {
+            transferService.stop();
+            localTransport.stop();
+        }
+    }
+
+    /**
+     * Download toàn bộ file qua ChunkedFileTransferService, trả về thời gian (ns)
+     */
+    private static long download(ChunkedFileTransferService service, PeerInfo peer, FileInfo fileInfo) throws Exception {
+        File saveDir = Files.createTempDirectory("bench-dst-").toFile();
+        CountDownLatch done = new CountDownLatch(1);
+        Exception[] error = new Exception[1];
+
+        long start = System.nanoTime();
+        TransferState transfer = service.downloadFile(peer, fileInfo, saveDir.getAbsolutePath(), new ChunkedFileTransferService.ChunkedTransferListener() {
+            @Override public void onProgress(TransferState state) {}
+            @Override public void onChunkReceived(TransferState state, int chunkIndex) {}
+            @Override public void onComplete(TransferState state, File file) {
+                file.delete();
+                done.countDown();
+            }
+            @Override public void onError(TransferState state, Exception e) {
+                error[0] = e;
+                done.countDown();
+            }
+            @Override public void onPaused(TransferState state) {}
+            @Override public void onResumed(TransferState state) {}
+        });
+
+        if (!done.await(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Download timeout");
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // onComplete chạy trước khi transfer bị bỏ khỏi activeTransfers: đợi bỏ xong, không thì lần
+        // đo sau dùng lại TransferState đã hoàn tất (cùng peer + path) và báo thời gian sai
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.getActiveTransfers().containsValue(transfer)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Transfer chưa được dọn sau khi hoàn tất");
+            }
+            Thread.sleep(5);
+        }
+        saveDir.delete();
+        if (error[0] != null) throw error[0];
+        return elapsed;
+    }
+
+    /**
+     * Đọc tất cả chunk qua Unix socket (tuần tự), trả về thời gian (ns)
+     */
+    private static long readAllOverLocalSocket(LocalTransportService localTransport, PeerInfo peer, File source)
+            throws Exception {
+        int chunkSize = TransferState.DEFAULT_CHUNK_SIZE;
+        int chunks = (int) ((source.length() + chunkSize - 1) / chunkSize);
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int i = 0; i < chunks; i++) {
+            bytes += localTransport.requestChunk(peer, source.getAbsolutePath(), i, chunkSize).length;
+        }
+        if (bytes != source.length()) {
+            throw new IllegalStateException("Sai kích thước: " + bytes + " != " + source.length());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void writeRandomFile(File file, long size) throws Exception {
+        byte[] buffer = new byte[1024 * 1024];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            for (long written = 0; written < size; written += buffer.length) {
+                ThreadLocalRandom.current().nextBytes(buffer);
+                raf.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+
+    private static void report(String label, int sizeMb, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("  %-14s %8.1f ms  %8.1f MB/s%n", label, nanos / 1e6, sizeMb / seconds);
+    }
+}
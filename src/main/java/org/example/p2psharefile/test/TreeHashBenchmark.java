@@ -0,0 +1,67 @@
+package org.example.p2psharefile.test;
+
+import org.example.p2psharefile.security.FileHashUtil;
+import org.example.p2psharefile.security.TreeHash;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * TreeHashBenchmark - So sánh SHA-256 tuần tự (FileHashUtil) với TreeHash theo số thread
+ *
+ * Chạy: java ... TreeHashBenchmark [sizeMB] [file]
+ * File nằm trong page cache thì TreeHash tăng gần tuyến tính theo số core;
+ * file lạnh trên HDD sẽ bị giới hạn bởi tốc độ đĩa.
+ */
+public class TreeHashBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+
+        File file;
+        if (args.length > 1) {
+            file = new File(args[1]);
+        } else {
+            file = File.createTempFile("treehash-", ".bin");
+            file.deleteOnExit();
+            writeRandomFile(file, sizeMb * 1024L * 1024L);
+        }
+        double mb = file.length() / (1024.0 * 1024.0);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("📊 Benchmark tree hash: %s (%.0f MB, %d core)%n", file.getName(), mb, cores);
+
+        // Warm-up (JIT + page cache)
+        FileHashUtil.calculateSHA256(file);
+        String root = TreeHash.compute(file, 1, null).getRoot();
+
+        long start = System.nanoTime();
+        FileHashUtil.calculateSHA256(file);
+        report("SHA-256", mb, System.nanoTime() - start);
+
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            start = System.nanoTime();
+            TreeHash.Result result = TreeHash.compute(file, threads, null);
+            report("Tree x" + threads, mb, System.nanoTime() - start);
+
+            if (!root.equals(result.getRoot())) {
+                throw new IllegalStateException("Root khác nhau giữa các số thread");
+            }
+        }
+        System.out.println("  Root: " + root);
+    }
+
+    private static void writeRandomFile(File file, long size) throws Exception {
+        byte[] buffer = new byte[1024 * 1024];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            for (long written = 0; written < size; written += buffer.length) {
+                ThreadLocalRandom.current().nextBytes(buffer);
+                raf.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+
+    private static void report(String label, double mb, long nanos) {
+        System.out.printf("  %-10s %8.1f ms  %8.1f MB/s%n", label, nanos / 1e6, mb / (nanos / 1e9));
+    }
+}